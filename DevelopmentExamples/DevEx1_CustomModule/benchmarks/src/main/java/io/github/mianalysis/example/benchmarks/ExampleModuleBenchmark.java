@@ -0,0 +1,92 @@
+package io.github.mianalysis.example.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.mianalysis.example.ExampleModule;
+import io.github.mianalysis.mia.module.Modules;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+import io.github.mianalysis.mia.object.system.Status;
+
+/**
+ * Times {@link ExampleModule#process} on synthetic workspaces of increasing
+ * object count, for each overlay mode and input object storage type. Run with
+ * the GC profiler (as {@link BenchmarkRunner} does) to also report allocation
+ * rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx8g", "-Djava.awt.headless=true" })
+public class ExampleModuleBenchmark {
+    static final String INPUT_IMAGE = "Image";
+    static final String INPUT_OBJECTS = "Nuclei";
+    static final String OUTPUT_IMAGE = "Overlay";
+    static final String OUTPUT_OBJECTS = "Centroids";
+
+    @Param({ "1000", "10000", "100000" })
+    public int nObjects;
+
+    @Param({ ExampleModule.OverlayModes.FILL, ExampleModule.OverlayModes.OUTLINES, ExampleModule.OverlayModes.NONE })
+    public String overlayMode;
+
+    @Param({ "POINTLIST", "QUADTREE" })
+    public VolumeType volumeType;
+
+    @Param({ "false", "true" })
+    public boolean multithread;
+
+    private Workspace workspace;
+    private ExampleModule module;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        workspace = SyntheticWorkspaces.createWorkspace(INPUT_IMAGE, INPUT_OBJECTS, nObjects, volumeType);
+
+        module = new ExampleModule(new Modules());
+        module.updateParameterValue(ExampleModule.INPUT_IMAGE, INPUT_IMAGE);
+        module.updateParameterValue(ExampleModule.INPUT_OBJECTS, INPUT_OBJECTS);
+        module.updateParameterValue(ExampleModule.OUTPUT_IMAGE, OUTPUT_IMAGE);
+        module.updateParameterValue(ExampleModule.OUTPUT_OBJECTS, OUTPUT_OBJECTS);
+        module.updateParameterValue(ExampleModule.OVERLAY_MODE, overlayMode);
+        module.updateParameterValue(ExampleModule.ENABLE_MULTITHREADING, multithread);
+
+    }
+
+    /**
+     * Each run links new centroid objects to the input objects, so these links are
+     * removed again to stop them accumulating between invocations.
+     */
+    @TearDown(Level.Invocation)
+    public void removeChildren() {
+        for (Obj inputObject : workspace.getObjects(INPUT_OBJECTS).values())
+            inputObject.getChildren().remove(OUTPUT_OBJECTS);
+    }
+
+    @Benchmark
+    public Objs process() {
+        if (module.process(workspace) != Status.PASS)
+            throw new IllegalStateException("Example module failed");
+
+        return workspace.getObjects(OUTPUT_OBJECTS);
+
+    }
+}
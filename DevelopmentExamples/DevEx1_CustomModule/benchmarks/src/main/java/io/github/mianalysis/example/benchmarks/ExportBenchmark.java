@@ -0,0 +1,195 @@
+package io.github.mianalysis.example.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+import io.github.mianalysis.example.ColumnarExporter;
+import io.github.mianalysis.example.HeadlessRunner;
+import io.github.mianalysis.example.StreamingExcelExporter;
+import io.github.mianalysis.mia.module.Module;
+import io.github.mianalysis.mia.module.Modules;
+import io.github.mianalysis.mia.module.core.InputControl;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.Workspaces;
+import io.github.mianalysis.mia.object.coordinates.volume.SpatCal;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+import io.github.mianalysis.mia.object.units.TemporalUnit;
+import io.github.mianalysis.mia.process.analysishandling.AnalysisReader;
+
+/**
+ * Compares the streaming Excel export with the columnar export on the results
+ * of the Ex2_ObjectTracking workflow. By default, the workflow is run on its
+ * own input image during setup (with the ShowImage and ImageSaver modules
+ * disabled). Paths are relative to the benchmarks folder. With "-p
+ * input=SYNTHETIC", a workspace shaped like those results (3,875 "Nuclei" spots
+ * in 219 "Tracks", each spot with 4 measurements and a parent track) is used
+ * instead, so the benchmark can run without loading the workflow.
+ *
+ * The workspace is exported "scale" times, as it would be for a batch of that
+ * many input files. File sizes are printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx8g", "-Djava.awt.headless=true" })
+public class ExportBenchmark {
+    static final String EXAMPLE = "EXAMPLE";
+    static final String SYNTHETIC = "SYNTHETIC";
+    static final String EX2_WORKFLOW = "../../../Ex2_ObjectTracking/Ex2_ObjectTracking.mia";
+    static final String EX2_FILE = "../../../Ex2_ObjectTracking/Ex2_Cell-Image-Library-11813.tif";
+
+    static final int EX2_TRACKS = 219;
+    static final int EX2_SPOTS = 3875;
+    static final String[] MEASUREMENTS = new String[] { "SPOT_DETECT // RADIUS_PX", "TIMEPOINT",
+            "TRACK_MOTION // INSTANTANEOUS_SPEED_(PX/FRAME)", "PARENT_ID" };
+
+    @Param({ EXAMPLE })
+    public String input;
+
+    @Param({ "1", "100", "300" })
+    public int scale;
+
+    private Workspace workspace;
+    private File outputFolder;
+    private long excelBytes;
+    private long columnarBytes;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        workspace = input.equals(SYNTHETIC) ? createWorkspace(EX2_TRACKS, EX2_SPOTS / EX2_TRACKS)
+                : runWorkflow(new File(EX2_WORKFLOW), new File(EX2_FILE));
+        outputFolder = Files.createTempDirectory("mia-export-benchmark").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        System.out.println(String.format("%nExcel: %.1f MB, columnar: %.1f MB", excelBytes / 1048576d,
+                columnarBytes / 1048576d));
+
+        File[] files = outputFolder.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        outputFolder.delete();
+
+    }
+
+    @Benchmark
+    public long excel() throws IOException {
+        File file = new File(outputFolder, "results.xlsx");
+        try (StreamingExcelExporter exporter = new StreamingExcelExporter(file)) {
+            for (int i = 0; i < scale; i++)
+                exporter.export(workspace, new File(EX2_FILE).getName());
+        }
+
+        excelBytes = file.length();
+        return excelBytes;
+
+    }
+
+    @Benchmark
+    public long columnar() throws IOException {
+        File folder = new File(outputFolder, "columnar");
+        List<File> files;
+        try (ColumnarExporter exporter = new ColumnarExporter(folder)) {
+            for (int i = 0; i < scale; i++)
+                exporter.export(workspace);
+            files = exporter.getFiles();
+        }
+
+        long bytes = 0;
+        for (File file : files)
+            bytes += file.length();
+
+        columnarBytes = bytes;
+        return columnarBytes;
+
+    }
+
+    /**
+     * Runs a workflow on a file, without the modules which show or save images.
+     *
+     * @return The workspace holding the workflow's results
+     */
+    static Workspace runWorkflow(File workflowFile, File inputFile) throws IOException {
+        if (!workflowFile.exists() || !inputFile.exists())
+            throw new IOException("Unable to find " + workflowFile.getAbsolutePath() + " and "
+                    + inputFile.getAbsolutePath() + " (paths are relative to the benchmarks folder)");
+
+        HeadlessRunner.initialiseHeadless();
+        Modules modules;
+        try {
+            modules = AnalysisReader.loadModules(workflowFile);
+        } catch (Exception e) {
+            throw new IOException("Unable to load workflow from " + workflowFile.getAbsolutePath(), e);
+        }
+        if (modules == null)
+            throw new IOException("Unable to load workflow from " + workflowFile.getAbsolutePath());
+
+        for (Module module : modules) {
+            String className = module.getClass().getSimpleName();
+            if (className.equals("ShowImage") || className.equals("ImageSaver"))
+                module.setEnabled(false);
+        }
+
+        modules.getInputControl().updateParameterValue(InputControl.INPUT_PATH, inputFile.getAbsolutePath());
+        Workspace workspace = new Workspaces().getNewWorkspace(inputFile, 1);
+        if (!modules.execute(workspace))
+            throw new IllegalStateException("Unable to run " + workflowFile.getName());
+
+        return workspace;
+
+    }
+
+    static Workspace createWorkspace(int nTracks, int spotsPerTrack) {
+        Workspace workspace = new Workspaces().getNewWorkspace(null, 1);
+        ImagePlus ipl = SyntheticWorkspaces.createImage(1);
+
+        SpatCal calibration = SpatCal.getFromImage(ipl);
+        Objs tracks = new Objs("Tracks", calibration, spotsPerTrack, 1, TemporalUnit.getOMEUnit());
+        Objs spots = new Objs("Nuclei", calibration, spotsPerTrack, 1, TemporalUnit.getOMEUnit());
+
+        for (int i = 0; i < nTracks; i++) {
+            Obj track = tracks.createAndAddNewObject(VolumeType.POINTLIST);
+            for (int t = 0; t < spotsPerTrack; t++) {
+                Obj spot = spots.createAndAddNewObject(VolumeType.POINTLIST);
+                spot.setT(t);
+                spot.addMeasurement(new io.github.mianalysis.mia.object.Measurement(MEASUREMENTS[0], 2 + (i % 3)));
+                spot.addMeasurement(new io.github.mianalysis.mia.object.Measurement(MEASUREMENTS[1], t));
+                spot.addMeasurement(new io.github.mianalysis.mia.object.Measurement(MEASUREMENTS[2], (i * t) % 7));
+                spot.addMeasurement(new io.github.mianalysis.mia.object.Measurement(MEASUREMENTS[3], track.getID()));
+
+                spot.addParent(track);
+                track.addChild(spot);
+            }
+        }
+
+        workspace.addObjects(tracks);
+        workspace.addObjects(spots);
+
+        return workspace;
+
+    }
+}
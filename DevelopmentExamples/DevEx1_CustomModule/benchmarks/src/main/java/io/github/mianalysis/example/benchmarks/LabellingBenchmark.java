@@ -0,0 +1,71 @@
+package io.github.mianalysis.example.benchmarks;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import io.github.mianalysis.example.ParallelLabeller;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+
+/**
+ * Times {@link ParallelLabeller} on binary stacks of nuclei-like spheres (see
+ * {@link SyntheticShapes}), using one thread and all available threads.
+ * "label" only labels the runs, while "labelAndBuild" also creates quadtree
+ * objects from them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx8g", "-Djava.awt.headless=true" })
+public class LabellingBenchmark {
+    @Param({ "1000", "10000" })
+    public int nObjects;
+
+    @Param({ "1", "0" })
+    public int nThreads;
+
+    private ImagePlus binary;
+
+    @Setup
+    public void setup() {
+        if (nThreads <= 0)
+            nThreads = Runtime.getRuntime().availableProcessors();
+
+        int side = SyntheticShapes.getGridSide(nObjects) * SyntheticShapes.NUCLEUS_CELL_SIZE;
+        binary = IJ.createImage("Binary", "8-bit black", side, side, SyntheticShapes.NUCLEUS_SLICES);
+        ImageStack stack = binary.getStack();
+        for (int[] coords : SyntheticShapes.createNuclei(nObjects))
+            for (int i = 0; i < coords.length; i += 3)
+                ((byte[]) stack.getPixels(coords[i + 2] + 1))[coords[i + 1] * side + coords[i]] = (byte) 255;
+
+    }
+
+    @Benchmark
+    public ParallelLabeller label() throws InterruptedException, ExecutionException {
+        return ParallelLabeller.label(binary, 0, true, nThreads);
+    }
+
+    @Benchmark
+    public Objs labelAndBuild() throws InterruptedException, ExecutionException {
+        Objs objects = SyntheticShapes.createLimits("Nuclei", SyntheticShapes.NUCLEI, nObjects);
+        ParallelLabeller.label(binary, 0, true, nThreads).addObjects(objects, VolumeType.QUADTREE, 0, nThreads);
+        return objects;
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.mianalysis.example.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+import io.github.mianalysis.example.IncrementalTracker;
+import io.github.mianalysis.example.SubpixelPoints;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.volume.SpatCal;
+import io.github.mianalysis.mia.object.units.TemporalUnit;
+
+/**
+ * Times linking one frame of spots to the tracks from the previous frame with
+ * {@link IncrementalTracker}, comparing the brute force and grid backends.
+ * Spots are laid out with the same density as {@link SyntheticWorkspaces} (one
+ * per 10 px grid cell), randomly offset within their cell, and move by up to 3
+ * px between frames. The linking distance is 10 px, as in
+ * Ex2_ObjectTracking.mia.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx8g", "-Djava.awt.headless=true" })
+public class LinkingBenchmark {
+    static final double MAX_LINKING_DISTANCE = 10;
+    static final double MAX_STEP = 3;
+
+    @Param({ "1000", "10000", "100000" })
+    public int nSpots;
+
+    @Param({ "BRUTE_FORCE", "GRID" })
+    public IncrementalTracker.LinkingBackends linkingBackend;
+
+    private SubpixelPoints frame0;
+    private SubpixelPoints frame1;
+    private int[] spotIDs;
+    private IncrementalTracker tracker;
+
+    @Setup(Level.Trial)
+    public void createSpots() {
+        ImagePlus ipl = SyntheticWorkspaces.createImage(nSpots);
+        Objs limits = new Objs("Limits", SpatCal.getFromImage(ipl), 2, 1, TemporalUnit.getOMEUnit());
+
+        int gridSide = (int) Math.ceil(Math.sqrt(nSpots));
+        int cellSize = SyntheticWorkspaces.CELL_SIZE;
+        Random random = new Random(0);
+
+        frame0 = new SubpixelPoints(nSpots, limits);
+        frame1 = new SubpixelPoints(nSpots, limits);
+        spotIDs = new int[nSpots];
+        for (int i = 0; i < nSpots; i++) {
+            // Positions are kept at least MAX_STEP from the cell edges, so moved spots
+            // stay inside the image
+            double x = (i % gridSide) * cellSize + MAX_STEP + random.nextDouble() * (cellSize - 2 * MAX_STEP);
+            double y = (i / gridSide) * cellSize + MAX_STEP + random.nextDouble() * (cellSize - 2 * MAX_STEP);
+            frame0.set(i, x, y, 0, 0);
+
+            double dx = (random.nextDouble() * 2 - 1) * MAX_STEP;
+            double dy = (random.nextDouble() * 2 - 1) * MAX_STEP;
+            frame1.set(i, x + dx, y + dy, 0, 1);
+
+            spotIDs[i] = i + 1;
+
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createTracks() {
+        tracker = new IncrementalTracker(MAX_LINKING_DISTANCE, 0, false, linkingBackend, track -> {
+        });
+        tracker.addFrame(0, frame0, spotIDs);
+    }
+
+    @Benchmark
+    public int[] linkFrame() {
+        return tracker.addFrame(1, frame1, spotIDs);
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.mianalysis.example.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.mianalysis.example.MeasurementColumns;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+
+/**
+ * Compares selecting objects by a measurement threshold (as FilterByMeasurement
+ * does) by reading each object's Measurement with selecting from a
+ * {@link MeasurementColumns} column. Only selection is timed, so the
+ * collection is unchanged between invocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx8g", "-Djava.awt.headless=true" })
+public class MeasurementFilterBenchmark {
+    static final String MEASUREMENT = "Intensity";
+    static final double REFERENCE = 0.5;
+
+    @Param({ "100000", "1000000" })
+    public int nObjects;
+
+    private Objs objects;
+    private MeasurementColumns columns;
+
+    @Setup
+    public void setup() {
+        objects = SyntheticShapes.createLimits("Objects", SyntheticShapes.SKELETON, nObjects);
+        Random random = new Random(0);
+        for (int i = 0; i < nObjects; i++)
+            objects.createAndAddNewObject(VolumeType.POINTLIST)
+                    .addMeasurement(new io.github.mianalysis.mia.object.Measurement(MEASUREMENT, random.nextDouble()));
+
+        columns = MeasurementColumns.fromMeasurements(objects);
+
+    }
+
+    @Benchmark
+    public int objectMeasurements() {
+        int count = 0;
+        for (Obj obj : objects.values())
+            if (obj.getMeasurement(MEASUREMENT).getValue() < REFERENCE)
+                count++;
+
+        return count;
+
+    }
+
+    @Benchmark
+    public int columnSelect() {
+        return MeasurementColumns.count(
+                columns.select(MEASUREMENT, MeasurementColumns.FilterMethods.LESS_THAN, REFERENCE));
+    }
+}
@@ -0,0 +1,141 @@
+package io.github.mianalysis.example.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.mianalysis.example.ObjsSerialiser;
+import io.github.mianalysis.mia.MIA;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.Point;
+import io.github.mianalysis.mia.object.coordinates.volume.PointOutOfRangeException;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+
+/**
+ * Times writing and reading object collections with {@link ObjsSerialiser}.
+ * Two synthetic data sets are used:
+ * <ul>
+ * <li>NUCLEI: solid 3D spheres (radius 6 px) stored as quadtrees, each with a
+ * single-point centroid child, similar to the Ex1_NucleiSegmentation
+ * output.</li>
+ * <li>SKELETON: one pixel wide, 200 px long random-walk paths stored as
+ * pointlists, similar to the Ex3_Skeletonisation skeletons.</li>
+ * </ul>
+ * Reading is timed from an in-memory buffer and from a memory-mapped file. The
+ * serialised size is printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx8g", "-Djava.awt.headless=true" })
+public class ObjsSerialiserBenchmark {
+    @Param({ SyntheticShapes.NUCLEI, SyntheticShapes.SKELETON })
+    public String shape;
+
+    @Param({ "100", "1000" })
+    public int nObjects;
+
+    private List<Objs> collections;
+    private byte[] bytes;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        collections = shape.equals(SyntheticShapes.NUCLEI) ? createNuclei(nObjects) : createSkeletons(nObjects);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ObjsSerialiser.write(collections, outputStream);
+        bytes = outputStream.toByteArray();
+
+        file = File.createTempFile("objs", ".dat");
+        ObjsSerialiser.write(collections, file);
+
+        System.out.println(String.format("%n%s, %d objects: %d bytes (%.1f bytes per object)", shape, nObjects,
+                bytes.length, bytes.length / (double) nObjects));
+
+    }
+
+    @TearDown
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length);
+        ObjsSerialiser.write(collections, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public List<Objs> readBuffer() throws IOException {
+        return ObjsSerialiser.read(ByteBuffer.wrap(bytes));
+    }
+
+    @Benchmark
+    public List<Objs> readMapped() throws IOException {
+        return ObjsSerialiser.read(file);
+    }
+
+    static List<Objs> createNuclei(int nObjects) {
+        Objs nuclei = SyntheticShapes.createLimits("Nuclei", SyntheticShapes.NUCLEI, nObjects);
+        Objs centroids = SyntheticShapes.createLimits("Centroids", SyntheticShapes.NUCLEI, nObjects);
+        SyntheticShapes.addObjects(nuclei, SyntheticShapes.createNuclei(nObjects), VolumeType.QUADTREE);
+
+        // Each nucleus gets a single-point centroid child, as created by ExampleModule
+        for (Obj nucleus : nuclei.values()) {
+            Obj centroid = centroids.createAndAddNewObject(VolumeType.POINTLIST);
+            Point<Integer> first = nucleus.getCoordinateSet().iterator().next();
+            try {
+                centroid.add(first.x, first.y, first.z);
+            } catch (PointOutOfRangeException e) {
+                MIA.log.writeError(e);
+            }
+
+            nucleus.addMeasurement(new io.github.mianalysis.mia.object.Measurement("Volume", nucleus.size()));
+            centroid.addParent(nucleus);
+            nucleus.addChild(centroid);
+
+        }
+
+        List<Objs> collections = new ArrayList<>();
+        collections.add(nuclei);
+        collections.add(centroids);
+
+        return collections;
+
+    }
+
+    static List<Objs> createSkeletons(int nObjects) {
+        Objs skeletons = SyntheticShapes.createLimits("Skeletons", SyntheticShapes.SKELETON, nObjects);
+        SyntheticShapes.addObjects(skeletons, SyntheticShapes.createSkeletons(nObjects), VolumeType.POINTLIST);
+        for (Obj skeleton : skeletons.values())
+            skeleton.addMeasurement(new io.github.mianalysis.mia.object.Measurement("Length (px)", skeleton.size()));
+
+        List<Objs> collections = new ArrayList<>();
+        collections.add(skeletons);
+
+        return collections;
+
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.mianalysis.example.benchmarks;
+
+import java.awt.Color;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+import io.github.mianalysis.example.IDColourMap;
+import io.github.mianalysis.example.IDHueMap;
+import io.github.mianalysis.example.RasterOverlay;
+import io.github.mianalysis.mia.module.visualise.overlays.AddObjectFill;
+import io.github.mianalysis.mia.module.visualise.overlays.AddObjectOutline;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+
+/**
+ * Compares adding fill and outline overlays as one ROI per object (through
+ * AddObjectFill and AddObjectOutline) with drawing them into raster layers (through
+ * {@link RasterOverlay}), using the synthetic disc objects from
+ * {@link SyntheticWorkspaces}. Each invocation starts from an image with no
+ * overlay.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx8g", "-Djava.awt.headless=true" })
+public class OverlayBenchmark {
+    @Param({ "1000", "10000", "100000" })
+    public int nObjects;
+
+    private ImagePlus ipl;
+    private Objs objects;
+    private IDColourMap colours;
+    private HashMap<Integer, Color> colourMap;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ipl = SyntheticWorkspaces.createImage(nObjects);
+        objects = SyntheticWorkspaces.createObjects("Objects", ipl, nObjects, VolumeType.QUADTREE);
+        colours = IDColourMap.getColours(IDHueMap.getIDHues(objects), 50);
+        colourMap = colours.toHashMap();
+    }
+
+    @Setup(Level.Invocation)
+    public void clearOverlay() {
+        ipl.setOverlay(null);
+    }
+
+    @Benchmark
+    public ImagePlus vectorFill() {
+        AddObjectFill.addOverlay(ipl, objects, colourMap, false, true);
+        return ipl;
+    }
+
+    @Benchmark
+    public ImagePlus rasterFill() throws InterruptedException, ExecutionException {
+        RasterOverlay overlay = new RasterOverlay(ipl);
+        overlay.addFill(objects, colours, Runtime.getRuntime().availableProcessors());
+        overlay.addToImage(ipl, 50);
+        return ipl;
+    }
+
+    @Benchmark
+    public ImagePlus vectorOutline() {
+        AddObjectOutline.addOverlay(ipl, objects, 1, 1, colourMap, false, true);
+        return ipl;
+    }
+
+    @Benchmark
+    public ImagePlus rasterOutline() throws InterruptedException, ExecutionException {
+        RasterOverlay overlay = new RasterOverlay(ipl);
+        overlay.addOutline(objects, colours, 1, Runtime.getRuntime().availableProcessors());
+        overlay.addToImage(ipl, 100);
+        return ipl;
+    }
+}
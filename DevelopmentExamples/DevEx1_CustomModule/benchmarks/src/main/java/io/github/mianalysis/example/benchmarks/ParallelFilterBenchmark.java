@@ -0,0 +1,285 @@
+package io.github.mianalysis.example.benchmarks;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.AutoThresholder;
+import ij.process.ImageProcessor;
+import io.github.mianalysis.example.ParallelStackOps;
+import io.github.mianalysis.mia.module.Module;
+import io.github.mianalysis.mia.module.Modules;
+import io.github.mianalysis.mia.module.images.process.FilterImage;
+import io.github.mianalysis.mia.module.images.process.threshold.GlobalAutoThreshold;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.Workspaces;
+import io.github.mianalysis.mia.object.image.ImageFactory;
+import io.github.mianalysis.mia.object.system.Status;
+
+/**
+ * Times the filter and threshold stages of the Ex1_NucleiSegmentation (2D
+ * median, Huang) and Ex3_Skeletonisation (2D Gaussian, Otsu) workflows, run
+ * through MIA's FilterImage and GlobalAutoThreshold modules (the current path)
+ * and through {@link ParallelStackOps} with one thread and with all available
+ * threads.
+ *
+ * By default, each stage runs on its workflow's own input: the first TIFF in
+ * the Ex1_NucleiSegmentation folder (which isn't included in this repository,
+ * so must be copied there) and Ex3_Skeletonisation.tif. Paths are relative to
+ * the benchmarks folder. Another image can be used with "-p
+ * input=/path/to/image.tif", or a synthetic 16-bit stack of blurred spheres
+ * with "-p input=SYNTHETIC".
+ *
+ * During setup, the filtered and binary outputs of ParallelStackOps (with both
+ * one thread and all threads) are compared with those of the MIA modules and
+ * the benchmark fails if they differ by a single pixel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx8g", "-Djava.awt.headless=true" })
+public class ParallelFilterBenchmark {
+    static final String EXAMPLE = "EXAMPLE";
+    static final String SYNTHETIC = "SYNTHETIC";
+    static final String EX1_FOLDER = "../../../Ex1_NucleiSegmentation";
+    static final String EX3_FILE = "../../../Ex3_Skeletonisation/Ex3_Skeletonisation.tif";
+
+    static final String MEDIAN_HUANG = "MEDIAN_HUANG";
+    static final String GAUSSIAN_OTSU = "GAUSSIAN_OTSU";
+
+    static final String MIA_MODULES = "MIA_MODULES";
+    static final String SERIAL = "SERIAL";
+    static final String PARALLEL = "PARALLEL";
+
+    // Parameter names and values, as stored in the Ex1 and Ex3 workflow files
+    static final String INPUT_IMAGE = "Input image";
+    static final String APPLY_TO_INPUT = "Apply to input image";
+    static final String OUTPUT_IMAGE = "Output image";
+    static final String FILTER_MODE = "Filter mode";
+    static final String FILTER_RADIUS = "Filter radius";
+    static final String CALIBRATED_UNITS = "Calibrated units";
+    static final String OUTPUT_MODE = "Output mode";
+    static final String ALGORITHM = "Algorithm";
+    static final String THRESHOLD_MULTIPLIER = "Threshold multiplier";
+    static final String USE_LOWER_LIMIT = "Use lower threshold limit";
+    static final String BINARY_LOGIC = "Binary logic";
+
+    static final String RAW = "Raw";
+    static final String FILTERED = "Filtered";
+
+    @Param({ EXAMPLE })
+    public String input;
+
+    @Param({ MEDIAN_HUANG, GAUSSIAN_OTSU })
+    public String stages;
+
+    @Param({ MIA_MODULES, SERIAL, PARALLEL })
+    public String implementation;
+
+    private ImagePlus inputIpl;
+    private FilterImage filterImage;
+    private GlobalAutoThreshold globalAutoThreshold;
+    private int nThreads;
+
+    private ImagePlus ipl;
+    private Workspace workspace;
+
+    @Setup(Level.Trial)
+    public void setup() throws InterruptedException, ExecutionException {
+        inputIpl = openInput();
+        nThreads = implementation.equals(PARALLEL) ? Runtime.getRuntime().availableProcessors() : 1;
+
+        Modules modules = new Modules();
+        filterImage = new FilterImage(modules);
+        filterImage.updateParameterValue(INPUT_IMAGE, RAW);
+        filterImage.updateParameterValue(APPLY_TO_INPUT, false);
+        filterImage.updateParameterValue(OUTPUT_IMAGE, FILTERED);
+        filterImage.updateParameterValue(FILTER_MODE, stages.equals(MEDIAN_HUANG) ? "Median 2D" : "Gaussian 2D");
+        filterImage.updateParameterValue(FILTER_RADIUS, 1d);
+        filterImage.updateParameterValue(CALIBRATED_UNITS, false);
+
+        globalAutoThreshold = new GlobalAutoThreshold(modules);
+        globalAutoThreshold.updateParameterValue(INPUT_IMAGE, FILTERED);
+        globalAutoThreshold.updateParameterValue(OUTPUT_MODE, "Calculate and apply");
+        globalAutoThreshold.updateParameterValue(APPLY_TO_INPUT, true);
+        globalAutoThreshold.updateParameterValue(ALGORITHM, stages.equals(MEDIAN_HUANG) ? "Huang" : "Otsu");
+        globalAutoThreshold.updateParameterValue(THRESHOLD_MULTIPLIER, 1d);
+        globalAutoThreshold.updateParameterValue(USE_LOWER_LIMIT, false);
+        globalAutoThreshold.updateParameterValue(BINARY_LOGIC, "Black (0) background");
+
+        // The filtered image is thresholded in place by the modules, so the filter
+        // output is compared before running the threshold
+        Workspace referenceWorkspace = createWorkspace();
+        runModule(filterImage, referenceWorkspace);
+        ImagePlus referenceFiltered = referenceWorkspace.getImage(FILTERED).getImagePlus().duplicate();
+        runModule(globalAutoThreshold, referenceWorkspace);
+        ImagePlus referenceBinary = referenceWorkspace.getImage(FILTERED).getImagePlus();
+
+        for (int threads : new int[] { 1, Runtime.getRuntime().availableProcessors() }) {
+            ImagePlus filtered = inputIpl.duplicate();
+            filter(filtered, threads);
+            ImagePlus binary = threshold(filtered, threads);
+
+            ImageStack referenceFilteredStack = referenceFiltered.getStack();
+            ImageStack filteredStack = filtered.getStack();
+            for (int i = 1; i <= filteredStack.getSize(); i++)
+                if (!Objects.deepEquals(referenceFilteredStack.getPixels(i), filteredStack.getPixels(i)))
+                    throw new IllegalStateException("Filtered output with " + threads
+                            + " thread(s) differs from FilterImage output in plane " + i);
+
+            // The module's binary output may not be 8-bit, so foreground is compared
+            ImageStack referenceBinaryStack = referenceBinary.getStack();
+            ImageStack binaryStack = binary.getStack();
+            int nPixels = binaryStack.getWidth() * binaryStack.getHeight();
+            for (int i = 1; i <= binaryStack.getSize(); i++) {
+                Object referencePixels = referenceBinaryStack.getPixels(i);
+                Object pixels = binaryStack.getPixels(i);
+                for (int j = 0; j < nPixels; j++)
+                    if (isForeground(referencePixels, j) != isForeground(pixels, j))
+                        throw new IllegalStateException("Binary output with " + threads
+                                + " thread(s) differs from GlobalAutoThreshold output in plane " + i);
+            }
+        }
+    }
+
+    /**
+     * The filters work in place, so each invocation gets a fresh copy of the
+     * input. Copying isn't included in the timings.
+     */
+    @Setup(Level.Invocation)
+    public void copyInput() {
+        if (implementation.equals(MIA_MODULES))
+            workspace = createWorkspace();
+        else
+            ipl = inputIpl.duplicate();
+    }
+
+    @Benchmark
+    public ImagePlus filterAndThreshold() throws InterruptedException, ExecutionException {
+        if (implementation.equals(MIA_MODULES)) {
+            runModule(filterImage, workspace);
+            runModule(globalAutoThreshold, workspace);
+            return workspace.getImage(FILTERED).getImagePlus();
+        }
+
+        filter(ipl, nThreads);
+        return threshold(ipl, nThreads);
+
+    }
+
+    private void filter(ImagePlus ipl, int nThreads) throws InterruptedException, ExecutionException {
+        if (stages.equals(MEDIAN_HUANG))
+            ParallelStackOps.medianFilter2D(ipl, 1, nThreads);
+        else
+            ParallelStackOps.gaussianFilter2D(ipl, 1, nThreads);
+    }
+
+    private ImagePlus threshold(ImagePlus ipl, int nThreads) throws InterruptedException, ExecutionException {
+        AutoThresholder.Method method = stages.equals(MEDIAN_HUANG) ? AutoThresholder.Method.Huang
+                : AutoThresholder.Method.Otsu;
+        double threshold = ParallelStackOps.getThreshold(ipl, method, nThreads);
+
+        return ParallelStackOps.createBinary(ipl, "Binary", threshold, nThreads);
+
+    }
+
+    private Workspace createWorkspace() {
+        Workspace workspace = new Workspaces().getNewWorkspace(null, 1);
+        workspace.addImage(ImageFactory.createImage(RAW, inputIpl.duplicate()));
+        return workspace;
+    }
+
+    private static void runModule(Module module, Workspace workspace) {
+        if (module.execute(workspace) != Status.PASS)
+            throw new IllegalStateException(module.getNickname() + " failed");
+    }
+
+    private static boolean isForeground(Object pixels, int i) {
+        if (pixels instanceof byte[])
+            return ((byte[]) pixels)[i] != 0;
+        else if (pixels instanceof short[])
+            return ((short[]) pixels)[i] != 0;
+        else
+            return ((float[]) pixels)[i] != 0;
+    }
+
+    private ImagePlus openInput() {
+        if (input.equals(SYNTHETIC))
+            return createSynthetic(512, 512, 64);
+
+        File file;
+        if (!input.equals(EXAMPLE))
+            file = new File(input);
+        else if (stages.equals(GAUSSIAN_OTSU))
+            file = new File(EX3_FILE);
+        else
+            file = getFirstTiff(new File(EX1_FOLDER));
+
+        if (file == null)
+            throw new IllegalStateException("No TIFF found in " + new File(EX1_FOLDER).getAbsolutePath()
+                    + "; copy the Ex1 input there or set \"-p input=/path/to/image.tif\"");
+
+        ImagePlus ipl = IJ.openImage(file.getAbsolutePath());
+        if (ipl == null)
+            throw new IllegalStateException("Unable to open " + file.getAbsolutePath());
+
+        return ipl;
+
+    }
+
+    private static File getFirstTiff(File folder) {
+        File[] files = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(".tif")
+                || name.toLowerCase().endsWith(".tiff"));
+        if (files == null || files.length == 0)
+            return null;
+
+        Arrays.sort(files);
+        return files[0];
+
+    }
+
+    static ImagePlus createSynthetic(int width, int height, int nSlices) {
+        ImagePlus ipl = IJ.createImage("Synthetic", "16-bit black", width, height, nSlices);
+        ImageStack stack = ipl.getStack();
+        Random random = new Random(0);
+
+        // Bright spheres on a regular grid, similar in size to the Ex1 nuclei
+        int r = 8;
+        for (int z = 0; z < nSlices; z++) {
+            ImageProcessor ip = stack.getProcessor(z + 1);
+            int dz = (z % (4 * r)) - 2 * r;
+            for (int y = 0; y < height; y++) {
+                int dy = (y % (4 * r)) - 2 * r;
+                for (int x = 0; x < width; x++) {
+                    int dx = (x % (4 * r)) - 2 * r;
+                    int value = dx * dx + dy * dy + dz * dz <= r * r ? 1000 : 200;
+                    ip.set(x, y, Math.max(0, value + (int) (random.nextGaussian() * 100)));
+                }
+            }
+        }
+
+        return ipl;
+
+    }
+}
@@ -0,0 +1,124 @@
+package io.github.mianalysis.example.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.mianalysis.example.RelationshipIndex;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.Workspaces;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+
+/**
+ * Compares relationship queries made through each object with the same queries
+ * made through a {@link RelationshipIndex}. Collections are shaped like the
+ * Ex3_Skeletonisation outputs: each DNA object has one skeleton, which in turn
+ * has three edges. Child counts are taken for every skeleton and the DNA
+ * object (grandparent) is found for every edge. The index is built during
+ * setup, so only lookups are timed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx8g", "-Djava.awt.headless=true" })
+public class RelationshipBenchmark {
+    static final int EDGES_PER_SKELETON = 3;
+
+    @Param({ "10000", "100000" })
+    public int nObjects;
+
+    private Objs dna;
+    private Objs skeletons;
+    private Objs edges;
+    private RelationshipIndex index;
+
+    @Setup
+    public void setup() {
+        Workspace workspace = new Workspaces().getNewWorkspace(null, 1);
+        index = RelationshipIndex.get(workspace);
+
+        dna = SyntheticShapes.createLimits("DNA", SyntheticShapes.SKELETON, nObjects);
+        skeletons = SyntheticShapes.createLimits("Skeletons", SyntheticShapes.SKELETON, nObjects);
+        edges = SyntheticShapes.createLimits("Edges", SyntheticShapes.SKELETON, nObjects);
+
+        int[] dnaIDs = new int[nObjects];
+        int[] skeletonIDs = new int[nObjects];
+        int[] edgeParentIDs = new int[nObjects * EDGES_PER_SKELETON];
+        int[] edgeIDs = new int[nObjects * EDGES_PER_SKELETON];
+        for (int i = 0; i < nObjects; i++) {
+            dnaIDs[i] = dna.createAndAddNewObject(VolumeType.POINTLIST).getID();
+            skeletonIDs[i] = skeletons.createAndAddNewObject(VolumeType.POINTLIST).getID();
+            for (int j = 0; j < EDGES_PER_SKELETON; j++) {
+                edgeParentIDs[i * EDGES_PER_SKELETON + j] = skeletonIDs[i];
+                edgeIDs[i * EDGES_PER_SKELETON + j] = edges.createAndAddNewObject(VolumeType.POINTLIST).getID();
+            }
+        }
+
+        index.linkChildren(dna, skeletons, dnaIDs, skeletonIDs);
+        index.linkChildren(skeletons, edges, edgeParentIDs, edgeIDs);
+
+        // Runs each query once, so the tables are built before timing starts
+        indexChildCounts();
+        indexGrandparents();
+
+    }
+
+    @Benchmark
+    public long objChildCounts() {
+        long sum = 0;
+        for (Obj skeleton : skeletons.values()) {
+            Objs children = skeleton.getChildren().get(edges.getName());
+            sum += children == null ? 0 : children.size();
+        }
+
+        return sum;
+
+    }
+
+    @Benchmark
+    public long indexChildCounts() {
+        long sum = 0;
+        for (Obj skeleton : skeletons.values())
+            sum += index.getNChildren(skeletons, edges, skeleton.getID());
+
+        return sum;
+
+    }
+
+    @Benchmark
+    public long objGrandparents() {
+        long sum = 0;
+        for (Obj edge : edges.values()) {
+            Obj skeleton = edge.getParent(skeletons.getName());
+            Obj parent = skeleton == null ? null : skeleton.getParent(dna.getName());
+            sum += parent == null ? -1 : parent.getID();
+        }
+
+        return sum;
+
+    }
+
+    @Benchmark
+    public long indexGrandparents() {
+        long sum = 0;
+        for (Obj edge : edges.values())
+            sum += index.getAncestorID(edges, edge.getID(), skeletons, dna);
+
+        return sum;
+
+    }
+}
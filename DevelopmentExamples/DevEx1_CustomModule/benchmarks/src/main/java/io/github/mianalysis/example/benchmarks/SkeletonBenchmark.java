@@ -0,0 +1,78 @@
+package io.github.mianalysis.example.benchmarks;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.IJ;
+import ij.ImagePlus;
+import io.github.mianalysis.example.ParallelLabeller;
+import io.github.mianalysis.example.ParallelSkeletoniser;
+import io.github.mianalysis.example.SkeletonGraph;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+
+/**
+ * Times {@link ParallelSkeletoniser} on strand-like objects, using one thread
+ * and all available threads. Strands are the skeleton-like random walks from
+ * {@link SyntheticShapes}, thickened to 3 px wide (similar to the DNA objects
+ * in Ex3_Skeletonisation) and labelled with {@link ParallelLabeller}, so
+ * crossing strands form a single object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx8g", "-Djava.awt.headless=true" })
+public class SkeletonBenchmark {
+    @Param({ "100", "1000" })
+    public int nObjects;
+
+    @Param({ "1", "0" })
+    public int nThreads;
+
+    private Objs strands;
+
+    @Setup
+    public void setup() throws InterruptedException, ExecutionException {
+        if (nThreads <= 0)
+            nThreads = Runtime.getRuntime().availableProcessors();
+
+        int side = SyntheticShapes.getSkeletonSide(nObjects);
+        ImagePlus binary = IJ.createImage("Binary", "8-bit black", side, side, 1);
+        byte[] pixels = (byte[]) binary.getProcessor().getPixels();
+        for (int[] coords : SyntheticShapes.createSkeletons(nObjects))
+            for (int i = 0; i < coords.length; i += 3)
+                for (int y = Math.max(0, coords[i + 1] - 1); y <= Math.min(side - 1, coords[i + 1] + 1); y++)
+                    for (int x = Math.max(0, coords[i] - 1); x <= Math.min(side - 1, coords[i] + 1); x++)
+                        pixels[y * side + x] = (byte) 255;
+
+        strands = SyntheticShapes.createLimits("Strands", SyntheticShapes.SKELETON, nObjects);
+        ParallelLabeller.label(binary, 0, true, nThreads).addObjects(strands, VolumeType.POINTLIST, 0, nThreads);
+
+    }
+
+    @Benchmark
+    public SkeletonGraph[] skeletonise() throws InterruptedException, ExecutionException {
+        return ParallelSkeletoniser.skeletonise(strands, nThreads);
+    }
+
+    @Benchmark
+    public SkeletonGraph[] skeletoniseAndMeasure() throws InterruptedException, ExecutionException {
+        SkeletonGraph[] graphs = ParallelSkeletoniser.skeletonise(strands, nThreads);
+        ParallelSkeletoniser.addMeasurements(strands, graphs, 5);
+        return graphs;
+    }
+}
@@ -0,0 +1,152 @@
+package io.github.mianalysis.example.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import ij.IJ;
+import ij.ImagePlus;
+import io.github.mianalysis.example.AdaptiveObjectBuilder;
+import io.github.mianalysis.mia.MIA;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.volume.PointOutOfRangeException;
+import io.github.mianalysis.mia.object.coordinates.volume.SpatCal;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+import io.github.mianalysis.mia.object.units.TemporalUnit;
+
+/**
+ * Creates coordinates for synthetic objects resembling the example workflow
+ * outputs. Each object's coordinates are returned as a single array of
+ * interleaved (x, y, z) values.
+ * <ul>
+ * <li>Nuclei: solid 3D spheres (radius 6 px) on a regular grid, similar to the
+ * Ex1_NucleiSegmentation nuclei.</li>
+ * <li>Skeletons: one pixel wide, 200 px long random-walk paths in a single
+ * slice, similar to the Ex3_Skeletonisation skeletons.</li>
+ * </ul>
+ */
+public class SyntheticShapes {
+    public static final String NUCLEI = "NUCLEI";
+    public static final String SKELETON = "SKELETON";
+
+    static final int NUCLEUS_RADIUS = 6;
+    static final int NUCLEUS_CELL_SIZE = 16;
+    static final int NUCLEUS_SLICES = 16;
+    static final int SKELETON_LENGTH = 200;
+
+    /**
+     * Creates an empty object collection large enough to hold the requested
+     * number of objects of the given shape.
+     */
+    public static Objs createLimits(String name, String shape, int nObjects) {
+        ImagePlus ipl;
+        if (shape.equals(NUCLEI))
+            ipl = IJ.createImage("Limits", "8-bit black", getGridSide(nObjects) * NUCLEUS_CELL_SIZE,
+                    getGridSide(nObjects) * NUCLEUS_CELL_SIZE, NUCLEUS_SLICES);
+        else
+            ipl = IJ.createImage("Limits", "8-bit black", getSkeletonSide(nObjects), getSkeletonSide(nObjects), 1);
+
+        return new Objs(name, SpatCal.getFromImage(ipl), 1, 1, TemporalUnit.getOMEUnit());
+
+    }
+
+    public static List<int[]> createShapes(String shape, int nObjects) {
+        return shape.equals(NUCLEI) ? createNuclei(nObjects) : createSkeletons(nObjects);
+    }
+
+    public static List<int[]> createNuclei(int nObjects) {
+        int gridSide = getGridSide(nObjects);
+        int r = NUCLEUS_RADIUS;
+        int cz = NUCLEUS_SLICES / 2;
+
+        List<int[]> shapes = new ArrayList<>(nObjects);
+        for (int i = 0; i < nObjects; i++) {
+            int cx = (i % gridSide) * NUCLEUS_CELL_SIZE + NUCLEUS_CELL_SIZE / 2;
+            int cy = (i / gridSide) * NUCLEUS_CELL_SIZE + NUCLEUS_CELL_SIZE / 2;
+
+            int[] coords = new int[3 * (2 * r + 1) * (2 * r + 1) * (2 * r + 1)];
+            int n = 0;
+            for (int z = -r; z <= r; z++) {
+                for (int y = -r; y <= r; y++) {
+                    for (int x = -r; x <= r; x++) {
+                        if (x * x + y * y + z * z > r * r)
+                            continue;
+                        coords[n++] = cx + x;
+                        coords[n++] = cy + y;
+                        coords[n++] = cz + z;
+                    }
+                }
+            }
+
+            shapes.add(Arrays.copyOf(coords, n));
+
+        }
+
+        return shapes;
+
+    }
+
+    public static List<int[]> createSkeletons(int nObjects) {
+        int side = getSkeletonSide(nObjects);
+        Random random = new Random(0);
+
+        List<int[]> shapes = new ArrayList<>(nObjects);
+        for (int i = 0; i < nObjects; i++) {
+            int[] coords = new int[3 * SKELETON_LENGTH];
+            int x = random.nextInt(side);
+            int y = random.nextInt(side);
+            for (int j = 0; j < SKELETON_LENGTH; j++) {
+                coords[3 * j] = x;
+                coords[3 * j + 1] = y;
+                coords[3 * j + 2] = 0;
+
+                // Steps to one of the 8 neighbours, staying inside the image
+                x = Math.min(side - 1, Math.max(0, x + random.nextInt(3) - 1));
+                y = Math.min(side - 1, Math.max(0, y + random.nextInt(3) - 1));
+            }
+
+            shapes.add(coords);
+
+        }
+
+        return shapes;
+
+    }
+
+    /**
+     * Adds one object per shape to a collection.
+     *
+     * @param objects    Collection to add objects to
+     * @param shapes     Interleaved coordinates of each object
+     * @param volumeType Storage type of every object, or null to select each
+     *                   object's type with an {@link AdaptiveObjectBuilder}
+     */
+    public static void addObjects(Objs objects, List<int[]> shapes, VolumeType volumeType) {
+        AdaptiveObjectBuilder builder = new AdaptiveObjectBuilder(objects);
+        for (int[] coords : shapes) {
+            try {
+                if (volumeType == null) {
+                    for (int i = 0; i < coords.length; i += 3)
+                        builder.add(coords[i], coords[i + 1], coords[i + 2]);
+                    builder.build();
+                } else {
+                    Obj obj = objects.createAndAddNewObject(volumeType);
+                    for (int i = 0; i < coords.length; i += 3)
+                        obj.add(coords[i], coords[i + 1], coords[i + 2]);
+                }
+            } catch (PointOutOfRangeException e) {
+                MIA.log.writeError(e);
+            }
+        }
+    }
+
+    static int getGridSide(int nObjects) {
+        return (int) Math.ceil(Math.sqrt(nObjects));
+    }
+
+    static int getSkeletonSide(int nObjects) {
+        return Math.max(512, getGridSide(nObjects) * 64);
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.mianalysis.example.benchmarks;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import io.github.mianalysis.mia.MIA;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.Workspaces;
+import io.github.mianalysis.mia.object.coordinates.volume.PointOutOfRangeException;
+import io.github.mianalysis.mia.object.coordinates.volume.SpatCal;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+import io.github.mianalysis.mia.object.image.ImageFactory;
+import io.github.mianalysis.mia.object.units.TemporalUnit;
+
+/**
+ * Creates workspaces containing a synthetic image and object collection for
+ * benchmarking. Objects are solid discs laid out on a regular grid, so the
+ * image grows with the number of requested objects.
+ */
+public class SyntheticWorkspaces {
+    /**
+     * Side length (in pixels) of the square grid cell containing each object.
+     */
+    public static final int CELL_SIZE = 10;
+
+    /**
+     * Radius (in pixels) of each disc object.
+     */
+    public static final int RADIUS = 3;
+
+    /**
+     * Creates a single-slice, single-frame 8-bit image large enough to hold the
+     * requested number of grid cells. Pixel intensities follow a simple gradient,
+     * so measured intensities differ between objects.
+     * 
+     * @param nObjects The number of objects the image must be able to hold
+     * @return The synthetic image
+     */
+    public static ImagePlus createImage(int nObjects) {
+        int side = getGridSide(nObjects) * CELL_SIZE;
+        ImagePlus ipl = IJ.createImage("Synthetic", "8-bit black", side, side, 1);
+
+        ImageProcessor ip = ipl.getProcessor();
+        for (int y = 0; y < side; y++)
+            for (int x = 0; x < side; x++)
+                ip.set(x, y, (x + y) % 256);
+
+        return ipl;
+
+    }
+
+    /**
+     * Creates an object collection with the same spatial limits as the provided
+     * image, containing one disc object per grid cell.
+     * 
+     * @param name       Name of the output object collection
+     * @param ipl        Image defining the spatial limits of the collection
+     * @param nObjects   Number of objects to create
+     * @param volumeType Coordinate storage used for each object
+     * @return The synthetic object collection
+     */
+    public static Objs createObjects(String name, ImagePlus ipl, int nObjects, VolumeType volumeType) {
+        Objs objects = new Objs(name, SpatCal.getFromImage(ipl), ipl.getNFrames(),
+                ipl.getCalibration().frameInterval, TemporalUnit.getOMEUnit());
+
+        int gridSide = getGridSide(nObjects);
+        for (int i = 0; i < nObjects; i++) {
+            int cx = (i % gridSide) * CELL_SIZE + CELL_SIZE / 2;
+            int cy = (i / gridSide) * CELL_SIZE + CELL_SIZE / 2;
+
+            Obj obj = objects.createAndAddNewObject(volumeType);
+            obj.setT(0);
+
+            for (int y = -RADIUS; y <= RADIUS; y++) {
+                for (int x = -RADIUS; x <= RADIUS; x++) {
+                    if (x * x + y * y > RADIUS * RADIUS)
+                        continue;
+
+                    try {
+                        obj.add(cx + x, cy + y, 0);
+                    } catch (PointOutOfRangeException e) {
+                        MIA.log.writeError(e);
+                    }
+                }
+            }
+        }
+
+        return objects;
+
+    }
+
+    /**
+     * Creates a new workspace containing a synthetic image and object collection.
+     * 
+     * @param imageName   Name of the image in the workspace
+     * @param objectsName Name of the object collection in the workspace
+     * @param nObjects    Number of objects to create
+     * @param volumeType  Coordinate storage used for each object
+     * @return The workspace
+     */
+    public static Workspace createWorkspace(String imageName, String objectsName, int nObjects,
+            VolumeType volumeType) {
+        Workspace workspace = new Workspaces().getNewWorkspace(null, 1);
+
+        ImagePlus ipl = createImage(nObjects);
+        workspace.addImage(ImageFactory.createImage(imageName, ipl));
+        workspace.addObjects(createObjects(objectsName, ipl, nObjects, volumeType));
+
+        return workspace;
+
+    }
+
+    static int getGridSide(int nObjects) {
+        return (int) Math.ceil(Math.sqrt(nObjects));
+    }
+}
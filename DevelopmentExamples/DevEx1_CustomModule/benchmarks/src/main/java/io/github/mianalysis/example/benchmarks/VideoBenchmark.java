@@ -0,0 +1,97 @@
+package io.github.mianalysis.example.benchmarks;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.process.ColorProcessor;
+import io.github.mianalysis.example.StreamingAviWriter;
+
+/**
+ * Compares writing a movie by rendering every frame before encoding any of
+ * them (as when saving a flattened stack) with rendering and encoding frames
+ * at the same time through {@link StreamingAviWriter}. Each frame is a
+ * gradient with a set of moving lines drawn on it, similar to a frame with
+ * track overlays.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx8g", "-Djava.awt.headless=true" })
+public class VideoBenchmark {
+    private static final int N_FRAMES = 100;
+    private static final int N_LINES = 200;
+
+    @Param({ "512", "2048" })
+    public int frameSize;
+
+    private File outputFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        outputFile = File.createTempFile("VideoBenchmark", ".avi");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        outputFile.delete();
+    }
+
+    @Benchmark
+    public int buffered() throws IOException, InterruptedException {
+        ArrayList<int[]> frames = new ArrayList<>();
+        for (int t = 0; t < N_FRAMES; t++)
+            frames.add(renderFrame(t));
+
+        try (StreamingAviWriter writer = new StreamingAviWriter(outputFile, frameSize, frameSize, 10)) {
+            for (int[] frame : frames)
+                writer.addFrame(frame);
+            return frames.size();
+        }
+    }
+
+    @Benchmark
+    public int streaming() throws IOException, InterruptedException {
+        try (StreamingAviWriter writer = new StreamingAviWriter(outputFile, frameSize, frameSize, 10)) {
+            for (int t = 0; t < N_FRAMES; t++)
+                writer.addFrame(renderFrame(t));
+            return N_FRAMES;
+        }
+    }
+
+    private int[] renderFrame(int t) {
+        ColorProcessor frame = new ColorProcessor(frameSize, frameSize);
+        int[] pixels = (int[]) frame.getPixels();
+        for (int y = 0; y < frameSize; y++)
+            for (int x = 0; x < frameSize; x++)
+                pixels[y * frameSize + x] = (((x + y + t) * 255 / (2 * frameSize)) & 0xFF) * 0x010101;
+
+        for (int i = 0; i < N_LINES; i++) {
+            int x = (i * 7919 + t * 3) % frameSize;
+            int y = (i * 104729) % frameSize;
+            frame.setColor(Color.getHSBColor(i / (float) N_LINES, 1f, 1f));
+            frame.drawLine(x, y, Math.min(frameSize - 1, x + 20), Math.min(frameSize - 1, y + 10));
+        }
+
+        return pixels;
+
+    }
+}
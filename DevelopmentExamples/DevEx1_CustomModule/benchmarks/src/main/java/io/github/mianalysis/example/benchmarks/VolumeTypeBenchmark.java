@@ -0,0 +1,93 @@
+package io.github.mianalysis.example.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.mianalysis.example.AdaptiveObjectBuilder;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.Point;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+
+/**
+ * Compares object storage types on nuclei-like and skeleton-like objects (see
+ * {@link SyntheticShapes}). "ADAPTIVE" selects each object's type with an
+ * {@link AdaptiveObjectBuilder}. Building the objects and iterating over all
+ * their coordinates are timed. The retained heap of each collection is
+ * printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx8g", "-Djava.awt.headless=true" })
+public class VolumeTypeBenchmark {
+    static final String ADAPTIVE = "ADAPTIVE";
+
+    @Param({ SyntheticShapes.NUCLEI, SyntheticShapes.SKELETON })
+    public String shape;
+
+    @Param({ "POINTLIST", "QUADTREE", "OCTREE", ADAPTIVE })
+    public String volumeType;
+
+    @Param({ "1000" })
+    public int nObjects;
+
+    private List<int[]> shapes;
+    private Objs objects;
+
+    @Setup
+    public void setup() {
+        shapes = SyntheticShapes.createShapes(shape, nObjects);
+
+        long before = getUsedBytes();
+        objects = build();
+        long after = getUsedBytes();
+
+        System.out.println(String.format("%n%s, %s: %.1f bytes per object", shape, volumeType,
+                (after - before) / (double) nObjects));
+
+    }
+
+    @Benchmark
+    public Objs build() {
+        Objs objects = SyntheticShapes.createLimits("Objects", shape, nObjects);
+        SyntheticShapes.addObjects(objects, shapes, getVolumeType());
+        return objects;
+    }
+
+    @Benchmark
+    public long iterate() {
+        long sum = 0;
+        for (Obj obj : objects.values())
+            for (Point<Integer> point : obj.getCoordinateSet())
+                sum += point.x + point.y + point.z;
+
+        return sum;
+
+    }
+
+    private VolumeType getVolumeType() {
+        return volumeType.equals(ADAPTIVE) ? null : VolumeType.valueOf(volumeType);
+    }
+
+    private static long getUsedBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,110 @@
+"""Reads the ".miacol" files written by ColumnarExporter.
+
+The format is described in ColumnarExporter.java.  Each file holds one object
+collection as a series of chunks (one per exported workspace), each storing its
+values column by column.  Only the Python standard library is needed; if pandas
+is installed, read_dataframe() combines the chunks into a single DataFrame.
+
+Usage as a script prints a summary of each file:
+
+    python read_miacol.py Nuclei.miacol [Tracks.miacol ...]
+"""
+
+import struct
+import sys
+from array import array
+
+MAGIC = 0x4D494143
+VERSION = 2
+INT = 0
+DOUBLE = 1
+
+
+def _read_exactly(stream, n):
+    data = stream.read(n)
+    if len(data) != n:
+        raise EOFError("Unexpected end of file")
+    return data
+
+
+def _read_int(stream):
+    return struct.unpack(">i", _read_exactly(stream, 4))[0]
+
+
+def _read_utf(stream):
+    # Java's modified UTF-8: NUL is written as two bytes and characters outside
+    # the Basic Multilingual Plane as a surrogate pair of 3-byte sequences
+    length = struct.unpack(">H", _read_exactly(stream, 2))[0]
+    data = _read_exactly(stream, length).replace(b"\xc0\x80", b"\x00")
+    text = data.decode("utf-8", "surrogatepass")
+    return text.encode("utf-16-le", "surrogatepass").decode("utf-16-le")
+
+
+def _read_values(stream, typecode, n_rows):
+    values = array(typecode)
+    values.frombytes(_read_exactly(stream, values.itemsize * n_rows))
+    if sys.byteorder == "little":
+        values.byteswap()
+    return values
+
+
+def read_miacol(path):
+    """Returns the collection name and a list of chunks.  Each chunk is a dict
+    from column name to an array of values ("i" for int columns and "d" for
+    double columns), in the order the columns were written."""
+    with open(path, "rb") as stream:
+        if _read_int(stream) != MAGIC:
+            raise ValueError(f"{path} isn't a columnar MIA export file")
+        version = _read_int(stream)
+        if version != VERSION:
+            raise ValueError(f"Unsupported columnar file version {version}")
+        name = _read_utf(stream)
+
+        chunks = []
+        while True:
+            header = stream.read(4)
+            if not header:
+                break
+            if len(header) != 4:
+                raise EOFError("Unexpected end of file")
+            n_rows = struct.unpack(">i", header)[0]
+            n_columns = _read_int(stream)
+
+            chunk = {}
+            for _ in range(n_columns):
+                column_name = _read_utf(stream)
+                column_type = _read_exactly(stream, 1)[0]
+                if column_type == INT:
+                    chunk[column_name] = _read_values(stream, "i", n_rows)
+                elif column_type == DOUBLE:
+                    chunk[column_name] = _read_values(stream, "d", n_rows)
+                else:
+                    raise ValueError(f'Unknown column type {column_type} for column "{column_name}"')
+            chunks.append(chunk)
+
+    return name, chunks
+
+
+def read_dataframe(path):
+    """Returns the collection name and all chunks combined into one pandas
+    DataFrame.  Measurement columns missing from a chunk are filled with NaN."""
+    import pandas as pd
+
+    name, chunks = read_miacol(path)
+    frames = [pd.DataFrame({column: list(values) for column, values in chunk.items()}) for chunk in chunks]
+    return name, pd.concat(frames, ignore_index=True) if frames else pd.DataFrame()
+
+
+if __name__ == "__main__":
+    if len(sys.argv) < 2:
+        print(__doc__)
+        sys.exit(1)
+
+    for path in sys.argv[1:]:
+        name, chunks = read_miacol(path)
+        n_rows = sum(len(next(iter(chunk.values()), ())) for chunk in chunks)
+        columns = []
+        for chunk in chunks:
+            columns.extend(column for column in chunk if column not in columns)
+        print(f"{path}: \"{name}\", {len(chunks)} chunk(s), {n_rows} row(s)")
+        print("  Columns: " + ", ".join(columns))
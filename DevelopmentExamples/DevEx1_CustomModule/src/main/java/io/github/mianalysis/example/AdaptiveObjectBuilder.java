@@ -0,0 +1,231 @@
+package io.github.mianalysis.example;
+
+import java.util.Arrays;
+
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.Point;
+import io.github.mianalysis.mia.object.coordinates.volume.PointOutOfRangeException;
+import io.github.mianalysis.mia.object.coordinates.volume.SpatCal;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+
+/**
+ * Builds objects whose coordinate storage (pointlist, quadtree or octree) is
+ * chosen from the object's shape, rather than fixed in advance.
+ *
+ * Coordinates are first collected in a primitive array, while the bounding box
+ * is tracked. When the object is built, the storage type is selected from:
+ * <ul>
+ * <li>Fill ratio: the fraction of the bounding box covered by the object.</li>
+ * <li>Mean run length: the average number of consecutive pixels along X in each
+ * row. Thin objects such as skeletons have very short runs, even if they fill
+ * a reasonable fraction of their bounding box.</li>
+ * <li>Z anisotropy: the Z pixel size relative to the XY pixel size.</li>
+ * </ul>
+ * Small, sparse or thin objects use pointlists, since trees need at least one
+ * node per isolated pixel. Solid objects use quadtrees, unless they span
+ * several slices with near-isotropic pixels, in which case octrees are used.
+ */
+public class AdaptiveObjectBuilder {
+    public static final int MAX_POINTLIST_SIZE = 8;
+    public static final double MIN_TREE_FILL_RATIO = 0.2;
+    public static final double MIN_TREE_RUN_LENGTH = 3;
+    public static final double MAX_OCTREE_ANISOTROPY = 1.5;
+
+    private final Objs objects;
+    private final double anisotropy;
+    private final int width;
+    private final int height;
+    private final int nSlices;
+
+    private long[] points = new long[64];
+    private int size = 0;
+    private int minX, minY, minZ, maxX, maxY, maxZ;
+
+    /**
+     * @param objects Collection new objects will be added to
+     */
+    public AdaptiveObjectBuilder(Objs objects) {
+        this.objects = objects;
+
+        SpatCal cal = objects.getSpatialCalibration();
+        this.anisotropy = cal.dppZ / cal.dppXY;
+        this.width = cal.width;
+        this.height = cal.height;
+        this.nSlices = cal.nSlices;
+
+        reset();
+
+    }
+
+    /**
+     * Adds a coordinate to the object being built.
+     *
+     * @throws PointOutOfRangeException If the coordinate is outside the
+     *                                  collection's limits
+     */
+    public void add(int x, int y, int z) throws PointOutOfRangeException {
+        if (x < 0 || x >= width || y < 0 || y >= height || z < 0 || z >= nSlices)
+            throw new PointOutOfRangeException("Coordinate (" + x + ", " + y + ", " + z + ") outside object limits");
+
+        if (size == points.length)
+            points = Arrays.copyOf(points, size * 2);
+        points[size++] = ObjsSerialiser.pack(x, y, z);
+
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
+
+    }
+
+    /**
+     * Adds a run of consecutive coordinates along X, from xStart (inclusive) to
+     * xEnd (exclusive). The limits and bounding box are checked once for the whole
+     * run, rather than once per coordinate.
+     *
+     * @throws PointOutOfRangeException If any of the run is outside the
+     *                                  collection's limits
+     */
+    public void addRun(int xStart, int xEnd, int y, int z) throws PointOutOfRangeException {
+        if (xEnd <= xStart)
+            return;
+        if (xStart < 0 || xEnd > width || y < 0 || y >= height || z < 0 || z >= nSlices)
+            throw new PointOutOfRangeException("Run (" + xStart + "-" + (xEnd - 1) + ", " + y + ", " + z
+                    + ") outside object limits");
+
+        int length = xEnd - xStart;
+        if (size + length > points.length)
+            points = Arrays.copyOf(points, Math.max(points.length * 2, size + length));
+
+        // Packed coordinates of consecutive X positions differ by one
+        long first = ObjsSerialiser.pack(xStart, y, z);
+        for (int i = 0; i < length; i++)
+            points[size++] = first + i;
+
+        minX = Math.min(minX, xStart);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, xEnd - 1);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
+
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the fraction of the bounding box covered by the coordinates added so
+     * far.
+     */
+    public double getFillRatio() {
+        if (size == 0)
+            return 0;
+
+        double boxVolume = (double) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+        return size / boxVolume;
+
+    }
+
+    /**
+     * Returns the storage type which would be used if the object was built now.
+     * This sorts the coordinates added so far.
+     */
+    public VolumeType getVolumeType() {
+        Arrays.sort(points, 0, size);
+        return selectVolumeType(size, getFillRatio(), getMeanRunLength(), maxZ - minZ + 1, anisotropy);
+    }
+
+    /**
+     * Creates an object in the collection using the selected storage type and
+     * adds all coordinates to it. The builder is then reset, ready for the next
+     * object.
+     *
+     * @return The new object
+     * @throws PointOutOfRangeException If the collection rejects a coordinate
+     */
+    public Obj build() throws PointOutOfRangeException {
+        VolumeType volumeType = getVolumeType();
+
+        // Coordinates are sorted by getVolumeType(), which gives trees a
+        // row-by-row insertion order and means duplicates are adjacent
+        Obj obj = objects.createAndAddNewObject(volumeType);
+        for (int i = 0; i < size; i++)
+            if (i == 0 || points[i] != points[i - 1])
+                obj.add(ObjsSerialiser.unpackX(points[i]), ObjsSerialiser.unpackY(points[i]),
+                        ObjsSerialiser.unpackZ(points[i]));
+
+        reset();
+
+        return obj;
+
+    }
+
+    /**
+     * Selects the cheapest storage type for an object with the given shape
+     * statistics.
+     *
+     * @param nPoints       Number of coordinates
+     * @param fillRatio     Fraction of the bounding box covered
+     * @param meanRunLength Mean number of consecutive pixels along X per run
+     * @param zSpan         Number of slices spanned
+     * @param anisotropy    Z pixel size divided by XY pixel size
+     * @return The storage type
+     */
+    public static VolumeType selectVolumeType(int nPoints, double fillRatio, double meanRunLength, int zSpan,
+            double anisotropy) {
+        if (nPoints <= MAX_POINTLIST_SIZE || fillRatio < MIN_TREE_FILL_RATIO || meanRunLength < MIN_TREE_RUN_LENGTH)
+            return VolumeType.POINTLIST;
+
+        if (zSpan > 1 && anisotropy <= MAX_OCTREE_ANISOTROPY)
+            return VolumeType.OCTREE;
+
+        return VolumeType.QUADTREE;
+
+    }
+
+    /**
+     * Selects the storage type for an existing object, e.g. to convert objects
+     * created with a fixed type.
+     *
+     * @param objects Collection the object belongs to
+     * @param obj     Object to select a storage type for
+     */
+    public static VolumeType selectVolumeType(Objs objects, Obj obj) throws PointOutOfRangeException {
+        AdaptiveObjectBuilder builder = new AdaptiveObjectBuilder(objects);
+        for (Point<Integer> point : obj.getCoordinateSet())
+            builder.add(point.x, point.y, point.z);
+
+        return builder.getVolumeType();
+
+    }
+
+    // Requires points to be sorted
+    private double getMeanRunLength() {
+        if (size == 0)
+            return 0;
+
+        int nRuns = 0;
+        int nUnique = 0;
+        for (int i = 0; i < size; i++) {
+            if (i > 0 && points[i] == points[i - 1])
+                continue;
+            nUnique++;
+            if (i == 0 || points[i] != points[i - 1] + 1)
+                nRuns++;
+        }
+
+        return nUnique / (double) nRuns;
+
+    }
+
+    private void reset() {
+        size = 0;
+        minX = minY = minZ = Integer.MAX_VALUE;
+        maxX = maxY = maxZ = Integer.MIN_VALUE;
+    }
+}
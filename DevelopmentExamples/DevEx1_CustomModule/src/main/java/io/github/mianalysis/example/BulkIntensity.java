@@ -0,0 +1,217 @@
+package io.github.mianalysis.example;
+
+import java.util.Arrays;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import io.github.mianalysis.mia.object.Measurement;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.Point;
+import io.github.mianalysis.mia.object.image.Image;
+
+/**
+ * Measures the intensity of every object in a collection in a single pass over
+ * the image, as an alternative to calling
+ * MeasureObjectIntensity.measureIntensity once per object.
+ *
+ * Object coordinates are first grouped by the image plane (Z-slice and
+ * timepoint) they fall in. Each plane's pixel data is then fetched once and
+ * all coordinates in that plane are read from it. Statistics are accumulated
+ * into flat primitive arrays, rather than a CumStat per object. For in-memory
+ * images, objects containing a single coordinate (e.g. the centroids created
+ * by {@link ExampleModule}) are read directly from their pixel. Intensities
+ * are measured from the first channel.
+ */
+public class BulkIntensity {
+    private static final int N = 0;
+    private static final int SUM = 1;
+    private static final int SUM_SQ = 2;
+    private static final int MIN = 3;
+    private static final int MAX = 4;
+    private static final int N_STATS = 5;
+
+    private final IntIntMap indices;
+    private final double[] stats;
+
+    private BulkIntensity(int nObjects) {
+        indices = new IntIntMap(nObjects);
+        stats = new double[nObjects * N_STATS];
+    }
+
+    /**
+     * Measures the intensity of all objects in the collection.
+     *
+     * @param objects Objects to measure
+     * @param image   Image to measure intensity from
+     * @return Intensity statistics for each object, accessed by object ID
+     */
+    public static BulkIntensity measure(Objs objects, Image image) {
+        ImagePlus ipl = image.getImagePlus();
+        ImageStack stack = ipl.getStack();
+        int width = ipl.getWidth();
+        int nPlanes = stack.size();
+
+        BulkIntensity result = new BulkIntensity(objects.size());
+
+        // Coordinates for each plane are stored as interleaved (object index, pixel
+        // offset) pairs.  Planes are only allocated once a coordinate is found in them.
+        int[][] planeEntries = new int[nPlanes][];
+        int[] planeCounts = new int[nPlanes];
+
+        int index = 0;
+        for (Obj obj : objects.values()) {
+            result.indices.put(obj.getID(), index);
+
+            int offset = index * N_STATS;
+            result.stats[offset + MIN] = Double.POSITIVE_INFINITY;
+            result.stats[offset + MAX] = Double.NEGATIVE_INFINITY;
+
+            int t = obj.getT();
+            if (obj.size() == 1 && !stack.isVirtual()) {
+                // Single voxel objects don't need to be grouped, as their pixel can be read
+                // straight away.  This isn't done for virtual stacks, where each
+                // getPixels() call would load the plane again.
+                Point<Integer> point = obj.getCoordinateSet().iterator().next();
+                Object pixels = stack.getPixels(ipl.getStackIndex(1, point.z + 1, t + 1));
+                result.add(index, getValue(pixels, point.y * width + point.x));
+
+            } else {
+                for (Point<Integer> point : obj.getCoordinateSet()) {
+                    int plane = ipl.getStackIndex(1, point.z + 1, t + 1) - 1;
+                    int[] entries = planeEntries[plane];
+                    int count = planeCounts[plane];
+
+                    if (entries == null)
+                        entries = planeEntries[plane] = new int[64];
+                    else if (count + 2 > entries.length)
+                        entries = planeEntries[plane] = Arrays.copyOf(entries, entries.length * 2);
+
+                    entries[count] = index;
+                    entries[count + 1] = point.y * width + point.x;
+                    planeCounts[plane] = count + 2;
+
+                }
+            }
+
+            index++;
+
+        }
+
+        // One pass per plane
+        for (int plane = 0; plane < nPlanes; plane++) {
+            int[] entries = planeEntries[plane];
+            if (entries == null)
+                continue;
+
+            Object pixels = stack.getPixels(plane + 1);
+            int count = planeCounts[plane];
+            for (int i = 0; i < count; i += 2)
+                result.add(entries[i], getValue(pixels, entries[i + 1]));
+
+            // Releasing the plane's coordinates once they've been used
+            planeEntries[plane] = null;
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Adds the mean intensity of each object as a measurement with the specified
+     * name. Objects with no coordinates are given a measurement of NaN.
+     *
+     * @param objects         Objects to add measurements to (typically those
+     *                        passed to {@link #measure(Objs, Image)})
+     * @param measurementName Name of the measurement to add
+     */
+    public void addMeanMeasurements(Objs objects, String measurementName) {
+        for (Obj obj : objects.values())
+            obj.addMeasurement(new Measurement(measurementName, getMean(obj.getID())));
+    }
+
+    /**
+     * Writes the mean intensity of each object to a measurement column, rather
+     * than adding a Measurement to each object. Objects with no coordinates are
+     * given a value of NaN.
+     *
+     * @param columns         Columns for the measured objects
+     * @param measurementName Name of the column to write to
+     */
+    public void addMeanColumn(MeasurementColumns columns, String measurementName) {
+        double[] column = columns.getOrAddColumn(measurementName);
+        int[] IDs = columns.getIDs();
+        for (int row = 0; row < IDs.length; row++)
+            column[row] = getMean(IDs[row]);
+    }
+
+    public int getN(int ID) {
+        return (int) getStat(ID, N);
+    }
+
+    public double getSum(int ID) {
+        return getStat(ID, SUM);
+    }
+
+    public double getMean(int ID) {
+        double n = getStat(ID, N);
+        return n == 0 ? Double.NaN : getStat(ID, SUM) / n;
+    }
+
+    public double getMin(int ID) {
+        return getN(ID) == 0 ? Double.NaN : getStat(ID, MIN);
+    }
+
+    public double getMax(int ID) {
+        return getN(ID) == 0 ? Double.NaN : getStat(ID, MAX);
+    }
+
+    /**
+     * Returns the sample standard deviation, or NaN for objects with fewer than
+     * two coordinates.
+     */
+    public double getStd(int ID) {
+        double n = getStat(ID, N);
+        if (n < 2)
+            return Double.NaN;
+
+        double mean = getStat(ID, SUM) / n;
+        return Math.sqrt(Math.max(0, (getStat(ID, SUM_SQ) - n * mean * mean) / (n - 1)));
+
+    }
+
+    private double getStat(int ID, int stat) {
+        int index = indices.get(ID, -1);
+        if (index == -1)
+            throw new IllegalArgumentException("No intensity measured for object " + ID);
+
+        return stats[index * N_STATS + stat];
+
+    }
+
+    private void add(int index, double value) {
+        int offset = index * N_STATS;
+        stats[offset + N]++;
+        stats[offset + SUM] += value;
+        stats[offset + SUM_SQ] += value * value;
+        if (value < stats[offset + MIN])
+            stats[offset + MIN] = value;
+        if (value > stats[offset + MAX])
+            stats[offset + MAX] = value;
+    }
+
+    static double getValue(Object pixels, int offset) {
+        if (pixels instanceof byte[])
+            return ((byte[]) pixels)[offset] & 0xff;
+        else if (pixels instanceof short[])
+            return ((short[]) pixels)[offset] & 0xffff;
+        else if (pixels instanceof float[])
+            return ((float[]) pixels)[offset];
+
+        // RGB pixels are measured as the unweighted mean of the three channels
+        int c = ((int[]) pixels)[offset];
+        return (((c >> 16) & 0xff) + ((c >> 8) & 0xff) + (c & 0xff)) / 3d;
+
+    }
+}
@@ -0,0 +1,288 @@
+package io.github.mianalysis.example;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import io.github.mianalysis.mia.object.Measurement;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.Workspace;
+
+/**
+ * Writes object measurements to a folder of typed, columnar files, with one
+ * file per object collection (e.g. "Nuclei.miacol" and "Tracks.miacol").
+ * Each call to {@link #export(Workspace)} appends one chunk per collection,
+ * so results are written incrementally as each workspace finishes.
+ *
+ * All values are big-endian and strings are written as by
+ * {@link DataOutputStream#writeUTF(String)} (a 2-byte length followed by
+ * modified UTF-8). Files are laid out as:
+ *
+ * <pre>
+ * int    {@link #MAGIC}
+ * int    format version ({@link #VERSION})
+ * UTF    collection name
+ * then, for each chunk until the end of the file:
+ *   int    number of rows
+ *   int    number of columns
+ *   for each column:
+ *     UTF  column name
+ *     byte column type ({@link #INT} or {@link #DOUBLE})
+ *     values (4 bytes per row for INT, 8 bytes per row for DOUBLE)
+ * </pre>
+ *
+ * Every chunk has "WORKSPACE_ID", "OBJECT_ID" and "TIMEPOINT" int columns, a
+ * double column for each measurement and a "PARENT_[name]_ID" int column for
+ * each parent collection (-1 where an object has no parent). Columns can
+ * differ between chunks. {@link ColumnarReader} reads these files back in Java
+ * and "scripts/read_miacol.py" reads them into Python.
+ *
+ * Files are written with a "{@value #PART_EXTENSION}" suffix and only renamed
+ * to their final name by {@link #close()}, so a file with the final name is
+ * always complete. If writing a chunk fails, that collection's partial file is
+ * deleted and the collection is skipped for the rest of the export.
+ *
+ * File names are the collection names with any characters other than letters,
+ * digits, spaces, "_", "-" and "." replaced by "_". Where two collections would
+ * get the same file name (ignoring case, for case-insensitive file systems),
+ * the later one has "_2", "_3", etc. appended. The original name is always
+ * available from {@link ColumnarReader#readObjectsName(File)}.
+ */
+public class ColumnarExporter implements AutoCloseable {
+    public static final String EXTENSION = ".miacol";
+    public static final int MAGIC = 0x4D494143; // "MIAC"
+    public static final int VERSION = 2;
+    public static final String PART_EXTENSION = ".part";
+
+    public static final byte INT = 0;
+    public static final byte DOUBLE = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File outputFolder;
+    private final LinkedHashMap<String, DataOutputStream> streams = new LinkedHashMap<>();
+    private final LinkedHashMap<String, File> files = new LinkedHashMap<>();
+    private final HashSet<String> usedFileNames = new HashSet<>();
+    private final HashSet<String> failedNames = new HashSet<>();
+
+    private long nRows = 0;
+    private long exportNs = 0;
+
+    /**
+     * @param outputFolder Folder to write files to. This will be created if it
+     *                     doesn't already exist.
+     */
+    public ColumnarExporter(File outputFolder) {
+        this.outputFolder = outputFolder;
+        outputFolder.mkdirs();
+    }
+
+    /**
+     * Appends a chunk containing all objects in each collection of the workspace.
+     * Collections which have previously failed to write are skipped.
+     *
+     * @param workspace Workspace to export
+     * @throws IOException If any file can't be written. The other collections
+     *                     are still written.
+     */
+    public void export(Workspace workspace) throws IOException {
+        long start = System.nanoTime();
+
+        IOException exception = null;
+        for (Objs objects : workspace.getObjects().values()) {
+            String objectsName = objects.getName();
+            if (objects.isEmpty() || failedNames.contains(objectsName))
+                continue;
+
+            try {
+                writeChunk(getStream(objectsName), workspace.getID(), objects);
+            } catch (IOException e) {
+                discard(objectsName);
+                exception = e;
+            }
+        }
+
+        exportNs += System.nanoTime() - start;
+
+        if (exception != null)
+            throw exception;
+
+    }
+
+    public long getNRows() {
+        return nRows;
+    }
+
+    /**
+     * Returns the number of rows exported per second, counting only time spent in
+     * {@link #export(Workspace)}.
+     */
+    public double getRowsPerSecond() {
+        return exportNs == 0 ? 0 : nRows / (exportNs / 1e9);
+    }
+
+    /**
+     * Returns the file written for a collection, or null if none of its objects
+     * have been exported. The file only has this name once the exporter is
+     * closed.
+     */
+    public File getFile(String objectsName) {
+        return files.get(objectsName);
+    }
+
+    /**
+     * Closes each file and renames it from its temporary name to its final name.
+     * Files which can't be completed are deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (String objectsName : streams.keySet()) {
+            File file = files.get(objectsName);
+            File partFile = getPartFile(file);
+            try {
+                streams.get(objectsName).close();
+                try {
+                    Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                partFile.delete();
+                files.remove(objectsName);
+                exception = e;
+            }
+        }
+        streams.clear();
+
+        if (exception != null)
+            throw exception;
+
+    }
+
+    private DataOutputStream getStream(String objectsName) throws IOException {
+        DataOutputStream stream = streams.get(objectsName);
+        if (stream == null) {
+            File file = createFile(objectsName);
+            stream = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(getPartFile(file)), BUFFER_SIZE));
+            streams.put(objectsName, stream);
+            files.put(objectsName, file);
+            stream.writeInt(MAGIC);
+            stream.writeInt(VERSION);
+            stream.writeUTF(objectsName);
+        }
+
+        return stream;
+
+    }
+
+    /**
+     * Closes and deletes the partial file for a collection which couldn't be
+     * written, so no incomplete file is left behind.
+     */
+    private void discard(String objectsName) {
+        failedNames.add(objectsName);
+        DataOutputStream stream = streams.remove(objectsName);
+        File file = files.remove(objectsName);
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // The file is deleted regardless
+            }
+        }
+        if (file != null)
+            getPartFile(file).delete();
+    }
+
+    private static File getPartFile(File file) {
+        return new File(file.getPath() + PART_EXTENSION);
+    }
+
+    /**
+     * Picks a file name for a collection which no other collection in this export
+     * uses.
+     */
+    private File createFile(String objectsName) {
+        String baseName = objectsName.replaceAll("[^A-Za-z0-9_\\-. ]", "_");
+        String fileName = baseName;
+        for (int i = 2; usedFileNames.contains(fileName.toLowerCase()); i++)
+            fileName = baseName + "_" + i;
+        usedFileNames.add(fileName.toLowerCase());
+
+        return new File(outputFolder, fileName + EXTENSION);
+
+    }
+
+    private void writeChunk(DataOutputStream stream, int workspaceID, Objs objects) throws IOException {
+        Obj[] objs = objects.values().toArray(new Obj[0]);
+
+        // Columns are the union of measurements and parents across all objects in
+        // this chunk
+        LinkedHashSet<String> measurementNames = new LinkedHashSet<>();
+        LinkedHashSet<String> parentNames = new LinkedHashSet<>();
+        for (Obj obj : objs) {
+            measurementNames.addAll(obj.getMeasurements().keySet());
+            parentNames.addAll(obj.getParents(false).keySet());
+        }
+
+        stream.writeInt(objs.length);
+        stream.writeInt(3 + measurementNames.size() + parentNames.size());
+
+        writeHeader(stream, "WORKSPACE_ID", INT);
+        for (int i = 0; i < objs.length; i++)
+            stream.writeInt(workspaceID);
+
+        writeHeader(stream, "OBJECT_ID", INT);
+        for (Obj obj : objs)
+            stream.writeInt(obj.getID());
+
+        writeHeader(stream, "TIMEPOINT", INT);
+        for (Obj obj : objs)
+            stream.writeInt(obj.getT());
+
+        for (String measurementName : measurementNames) {
+            writeHeader(stream, measurementName, DOUBLE);
+            for (Obj obj : objs) {
+                Measurement measurement = obj.getMeasurement(measurementName);
+                stream.writeDouble(measurement == null ? Double.NaN : measurement.getValue());
+            }
+        }
+
+        for (String parentName : parentNames) {
+            writeHeader(stream, "PARENT_" + parentName + "_ID", INT);
+            for (Obj obj : objs) {
+                Obj parent = obj.getParent(parentName);
+                stream.writeInt(parent == null ? -1 : parent.getID());
+            }
+        }
+
+        nRows += objs.length;
+
+    }
+
+    private static void writeHeader(DataOutputStream stream, String name, byte type) throws IOException {
+        stream.writeUTF(name);
+        stream.writeByte(type);
+    }
+
+    /**
+     * Returns the names of all files written so far.
+     */
+    public List<File> getFiles() {
+        return new ArrayList<>(files.values());
+    }
+}
@@ -0,0 +1,119 @@
+package io.github.mianalysis.example;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Reads files written by {@link ColumnarExporter}. Each chunk (one per exported
+ * workspace) is returned separately, with int columns as int[] and double
+ * columns as double[].
+ */
+public class ColumnarReader {
+    public static class Chunk {
+        private final int nRows;
+        private final LinkedHashMap<String, Object> columns = new LinkedHashMap<>();
+
+        Chunk(int nRows) {
+            this.nRows = nRows;
+        }
+
+        public int getNRows() {
+            return nRows;
+        }
+
+        public List<String> getColumnNames() {
+            return new ArrayList<>(columns.keySet());
+        }
+
+        /**
+         * Returns an int column, or null if the column isn't present or isn't an int
+         * column.
+         */
+        public int[] getIntColumn(String name) {
+            Object column = columns.get(name);
+            return column instanceof int[] ? (int[]) column : null;
+        }
+
+        /**
+         * Returns a double column, or null if the column isn't present or isn't a
+         * double column.
+         */
+        public double[] getDoubleColumn(String name) {
+            Object column = columns.get(name);
+            return column instanceof double[] ? (double[]) column : null;
+        }
+    }
+
+    /**
+     * Returns the name of the object collection a file was written for. This can
+     * differ from the file name, which only contains file-safe characters.
+     */
+    public static String readObjectsName(File file) throws IOException {
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return readHeader(stream, file);
+        }
+    }
+
+    public static List<Chunk> read(File file) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            readHeader(stream, file);
+
+            while (true) {
+                int nRows;
+                try {
+                    nRows = stream.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                Chunk chunk = new Chunk(nRows);
+                int nColumns = stream.readInt();
+                for (int c = 0; c < nColumns; c++) {
+                    String name = stream.readUTF();
+                    byte type = stream.readByte();
+                    switch (type) {
+                        case ColumnarExporter.INT:
+                            int[] ints = new int[nRows];
+                            for (int i = 0; i < nRows; i++)
+                                ints[i] = stream.readInt();
+                            chunk.columns.put(name, ints);
+                            break;
+                        case ColumnarExporter.DOUBLE:
+                            double[] doubles = new double[nRows];
+                            for (int i = 0; i < nRows; i++)
+                                doubles[i] = stream.readDouble();
+                            chunk.columns.put(name, doubles);
+                            break;
+                        default:
+                            throw new IOException("Unknown column type " + type + " for column \"" + name + "\"");
+                    }
+                }
+                chunks.add(chunk);
+            }
+        }
+
+        return chunks;
+
+    }
+
+    private static String readHeader(DataInputStream stream, File file) throws IOException {
+        if (stream.readInt() != ColumnarExporter.MAGIC)
+            throw new IOException(file.getName() + " isn't a columnar MIA export file");
+
+        int version = stream.readInt();
+        if (version != ColumnarExporter.VERSION)
+            throw new IOException("Unsupported columnar file version " + version);
+
+        return stream.readUTF();
+
+    }
+}
@@ -0,0 +1,226 @@
+package io.github.mianalysis.example;
+
+import java.util.Arrays;
+
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import io.github.mianalysis.mia.object.image.Image;
+import io.github.mianalysis.mia.object.image.ImageFactory;
+
+/**
+ * An ImageStack which shares pixel arrays with another stack until they could
+ * be written to. A plane is copied the first time it's requested in any form
+ * which allows modification: as an ImageProcessor, as a pixel array (through
+ * {@link #getPixels(int)} or {@link #getImageArray()}, which ImagePlus uses
+ * when changing slice and ImgLib2 uses when wrapping the stack), or through
+ * {@link #setVoxel(int, int, int, double)}. Only reading single values with
+ * {@link #getVoxel(int, int, int)} uses the shared data, so planes which are
+ * never accessed are never copied.
+ *
+ * Each plane remembers which plane of the source stack it was created from, so
+ * planes can be added and removed in the usual way. Added planes are owned by
+ * this stack from the start.
+ *
+ * This is intended for images which only differ from their source by their
+ * overlay (e.g. the output of {@link ExampleModule}), as overlays are stored as
+ * ROIs and never change pixel data.
+ */
+public class CopyOnWriteStack extends ImageStack {
+    private static final byte NOT_LOADED = 0;
+    private static final byte SHARED = 1;
+    private static final byte OWNED = 2;
+
+    private final ImageStack source;
+
+    // State of each plane and the source plane it was created from (0 for planes
+    // added to this stack), in stack order
+    private byte[] states;
+    private int[] sourcePlanes;
+
+    public CopyOnWriteStack(ImageStack source) {
+        super(source.getWidth(), source.getHeight(), source.size());
+        this.source = source;
+        this.states = new byte[source.size()];
+        this.sourcePlanes = new int[source.size()];
+        for (int n = 1; n <= sourcePlanes.length; n++)
+            sourcePlanes[n - 1] = n;
+
+        setColorModel(source.getColorModel());
+        for (int n = 1; n <= source.size(); n++)
+            setSliceLabel(source.getSliceLabel(n), n);
+
+    }
+
+    /**
+     * Creates a MIA Image with the same pixel data, calibration and display
+     * settings as the input ImagePlus, but backed by a {@link CopyOnWriteStack}.
+     * As with {@link ImageFactory#createImage(String, ImagePlus)}, this will be an
+     * ImagePlusImage.
+     *
+     * @param name   Name of the new image
+     * @param source Image to share pixel data with
+     * @return The new image
+     */
+    public static Image createImage(String name, ImagePlus source) {
+        ImagePlus ipl = new ImagePlus(source.getTitle(), new CopyOnWriteStack(source.getStack()));
+        ipl.setDimensions(source.getNChannels(), source.getNSlices(), source.getNFrames());
+        ipl.setCalibration(source.getCalibration().copy());
+
+        if (source.isComposite()) {
+            ipl = new CompositeImage(ipl, ((CompositeImage) source).getMode());
+            ((CompositeImage) ipl).copyLuts(source);
+        } else {
+            ipl.setDisplayRange(source.getDisplayRangeMin(), source.getDisplayRangeMax());
+        }
+        ipl.setOpenAsHyperStack(source.isHyperStack());
+
+        return ImageFactory.createImage(name, ipl);
+
+    }
+
+    /**
+     * Returns the number of planes which have been copied from the source stack.
+     */
+    public int getNCopied() {
+        int count = 0;
+        for (int n = 1; n <= size(); n++)
+            if (states[n - 1] == OWNED && sourcePlanes[n - 1] != 0)
+                count++;
+
+        return count;
+
+    }
+
+    public ImageStack getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the plane of the source stack a plane still holds the same pixels
+     * as, or 0 if it has been copied (and so could have been changed) or was
+     * added to this stack.
+     */
+    public int getSourcePlane(int n) {
+        if (n < 1 || n > size())
+            throw new IllegalArgumentException("Argument out of range: " + n);
+        return states[n - 1] == OWNED ? 0 : sourcePlanes[n - 1];
+    }
+
+    @Override
+    public Object getPixels(int n) {
+        ensureOwned(n);
+        return super.getPixels(n);
+    }
+
+    @Override
+    public void setPixels(Object pixels, int n) {
+        super.setPixels(pixels, n);
+        states[n - 1] = OWNED;
+    }
+
+    @Override
+    public ImageProcessor getProcessor(int n) {
+        ensureOwned(n);
+        return super.getProcessor(n);
+    }
+
+    @Override
+    public double getVoxel(int x, int y, int z) {
+        ensureLoaded(z + 1);
+        return super.getVoxel(x, y, z);
+    }
+
+    @Override
+    public void setVoxel(int x, int y, int z, double value) {
+        ensureOwned(z + 1);
+        super.setVoxel(x, y, z, value);
+    }
+
+    @Override
+    public Object[] getImageArray() {
+        // The returned arrays can be modified, so every plane is copied
+        for (int n = 1; n <= size(); n++)
+            ensureOwned(n);
+
+        return super.getImageArray();
+
+    }
+
+    @Override
+    public void addSlice(String sliceLabel, Object pixels) {
+        super.addSlice(sliceLabel, pixels);
+        setPlane(size(), OWNED, 0);
+    }
+
+    @Override
+    public void addSlice(String sliceLabel, ImageProcessor ip, int n) {
+        // ImageStack adds the plane to the end, then moves it to position n + 1
+        super.addSlice(sliceLabel, ip, n);
+        int last = size() - 1;
+        byte state = states[last];
+        int sourcePlane = sourcePlanes[last];
+        System.arraycopy(states, n, states, n + 1, last - n);
+        System.arraycopy(sourcePlanes, n, sourcePlanes, n + 1, last - n);
+        states[n] = state;
+        sourcePlanes[n] = sourcePlane;
+    }
+
+    @Override
+    public void deleteSlice(int n) {
+        int size = size();
+        super.deleteSlice(n);
+        System.arraycopy(states, n, states, n - 1, size - n);
+        System.arraycopy(sourcePlanes, n, sourcePlanes, n - 1, size - n);
+    }
+
+    @Override
+    public boolean isVirtual() {
+        return false;
+    }
+
+    private void setPlane(int n, byte state, int sourcePlane) {
+        if (n > states.length) {
+            states = Arrays.copyOf(states, Math.max(n, states.length * 2));
+            sourcePlanes = Arrays.copyOf(sourcePlanes, states.length);
+        }
+        states[n - 1] = state;
+        sourcePlanes[n - 1] = sourcePlane;
+    }
+
+    private void ensureLoaded(int n) {
+        if (n < 1 || n > size() || states[n - 1] != NOT_LOADED)
+            return;
+
+        // Virtual stacks create new pixel arrays on each request, so these are already
+        // private to this stack
+        super.setPixels(source.getPixels(sourcePlanes[n - 1]), n);
+        states[n - 1] = source.isVirtual() ? OWNED : SHARED;
+
+    }
+
+    private void ensureOwned(int n) {
+        ensureLoaded(n);
+        if (n < 1 || n > size() || states[n - 1] == OWNED)
+            return;
+
+        super.setPixels(copyPixels(super.getPixels(n)), n);
+        states[n - 1] = OWNED;
+
+    }
+
+    static Object copyPixels(Object pixels) {
+        if (pixels instanceof byte[])
+            return ((byte[]) pixels).clone();
+        else if (pixels instanceof short[])
+            return ((short[]) pixels).clone();
+        else if (pixels instanceof float[])
+            return ((float[]) pixels).clone();
+        else if (pixels instanceof int[])
+            return ((int[]) pixels).clone();
+
+        throw new IllegalArgumentException("Unsupported pixel type: " + pixels.getClass().getSimpleName());
+
+    }
+}
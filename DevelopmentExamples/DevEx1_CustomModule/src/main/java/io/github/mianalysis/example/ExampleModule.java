@@ -2,18 +2,22 @@ package io.github.mianalysis.example;
 
 import java.awt.Color;
 import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import org.scijava.Priority;
 import org.scijava.plugin.Plugin;
 
 import ij.ImagePlus;
+import ij.Prefs;
 import io.github.mianalysis.mia.MIA;
 import io.github.mianalysis.mia.module.AvailableModules;
 import io.github.mianalysis.mia.module.Categories;
 import io.github.mianalysis.mia.module.Category;
 import io.github.mianalysis.mia.module.Module;
 import io.github.mianalysis.mia.module.Modules;
-import io.github.mianalysis.mia.module.objects.measure.intensity.MeasureObjectIntensity;
 import io.github.mianalysis.mia.module.visualise.overlays.AddObjectCentroid;
 import io.github.mianalysis.mia.module.visualise.overlays.AddObjectFill;
 import io.github.mianalysis.mia.module.visualise.overlays.AddObjectOutline;
@@ -21,11 +25,10 @@ import io.github.mianalysis.mia.object.Measurement;
 import io.github.mianalysis.mia.object.Obj;
 import io.github.mianalysis.mia.object.Objs;
 import io.github.mianalysis.mia.object.Workspace;
-import io.github.mianalysis.mia.object.coordinates.Point;
 import io.github.mianalysis.mia.object.coordinates.volume.PointOutOfRangeException;
 import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
 import io.github.mianalysis.mia.object.image.Image;
-import io.github.mianalysis.mia.object.image.ImageFactory;
+import io.github.mianalysis.mia.object.parameters.BooleanP;
 import io.github.mianalysis.mia.object.parameters.ChoiceP;
 import io.github.mianalysis.mia.object.parameters.InputImageP;
 import io.github.mianalysis.mia.object.parameters.InputObjectsP;
@@ -41,8 +44,6 @@ import io.github.mianalysis.mia.object.refs.collections.ObjMeasurementRefs;
 import io.github.mianalysis.mia.object.refs.collections.ParentChildRefs;
 import io.github.mianalysis.mia.object.refs.collections.PartnerRefs;
 import io.github.mianalysis.mia.object.system.Status;
-import io.github.mianalysis.mia.process.ColourFactory;
-import io.github.mianalysis.mia.process.math.CumStat;
 import net.imagej.ImageJ;
 import net.imagej.patcher.LegacyInjector;
 
@@ -90,6 +91,8 @@ public class ExampleModule extends Module {
     public static final String OVERLAY_MODE = "Overlay mode";
     public static final String LINE_WIDTH = "Line width";
     public static final String OPACITY = "Opacity";
+    public static final String EXECUTION_SEPARATOR = "Execution controls";
+    public static final String ENABLE_MULTITHREADING = "Enable multithreading";
 
     /**
      * Parameter choices are defined as interfaces containing each choice as a String as well as a String array containing all values.
@@ -97,8 +100,9 @@ public class ExampleModule extends Module {
     public interface OverlayModes {
         String FILL = "Fill";
         String OUTLINES = "Outlines";
+        String NONE = "None";
 
-        String[] ALL = new String[] { FILL, OUTLINES };
+        String[] ALL = new String[] { FILL, OUTLINES, NONE };
 
     }
 
@@ -107,6 +111,9 @@ public class ExampleModule extends Module {
      */
     public interface Measurements {
         String INTENSITY = "Intensity";
+        String CENTROID_X_PX = "Centroid X (px)";
+        String CENTROID_Y_PX = "Centroid Y (px)";
+        String CENTROID_Z_SLICE = "Centroid Z (slice)";
 
     }
 
@@ -154,7 +161,7 @@ public class ExampleModule extends Module {
      */
     @Override
     public String getVersionNumber() {
-        return "1.0.0";
+        return "1.4.0";
     }
 
     /**
@@ -180,6 +187,10 @@ public class ExampleModule extends Module {
         String overlayMode = parameters.getValue(OVERLAY_MODE, workspace);
         int lineWidth = parameters.getValue(LINE_WIDTH, workspace);
         int opacity = parameters.getValue(OPACITY, workspace);
+        boolean multithread = parameters.getValue(ENABLE_MULTITHREADING, workspace);
+
+        // When multithreading is enabled, the per-object work is shared across as many threads as ImageJ has been configured to use (Edit > Options > Memory & Threads).
+        int nThreads = multithread ? Prefs.getThreads() : 1;
 
         // Getting the input image from the MIA workspace.  Images in MIA are stored as the "Image" class, which itself acts as a wrapper for other image storage classes.  The main image types in MIA are "ImagePlusImage", which stores image data as an ImageJ ImagePlus format and "ImgPlusImage", which uses the ImgLib2 image format.  Future development of MIA will see a shift from ImagePlusImage to ImgPlusImage.  Both types are capable of returning ImagePlus and ImgPlus images.  The Image class also holds information such as measurements that can be accessed by downstream modules.
         Image inputImage = workspace.getImage(inputImageName);
@@ -191,101 +202,229 @@ public class ExampleModule extends Module {
         // Creating the output object set. Every Objs object set contains spatial and temporal information about the available space. Since this information is likely the same as that stored in the input object set, we can provide that as a reference.
         Objs outputObjects = new Objs(outputObjectsName, inputObjects);
 
-        // Iterating over each Obj object in the input Objs object collection.
-        for (Obj inputObject : inputObjects.values()) {
+        // Taking a fixed-order copy of the input objects.  Objs is a LinkedHashMap, so this order is the same as when iterating over inputObjects.values() and is used for everything below.  Keeping to this order is what ensures the output object IDs are the same whether or not multithreading is enabled.
+        Obj[] inputs = inputObjects.values().toArray(new Obj[0]);
+
+        // The centroid calculation is the expensive part of the first stage and only reads from each input object, so it can safely be run in parallel.  Each result is stored at the same index as its input object.  Rather than storing each centroid as a double-precision "Point" object (as returned by inputObject.getMeanCentroid()), the centroids are stored in a SubpixelPoints collection.  This holds all coordinates in primitive arrays and checks each point against the spatial limits of the output objects as it's added.
+        SubpixelPoints centroids = new SubpixelPoints(inputs.length, outputObjects);
+
+        // (Optional) Sections of a module can be timed using the ModuleProfiler.  Results are recorded under the module's nickname followed by the section name (here "centroids").  Timers are closed at the end of the "try" block, so they also record sections which exit early.  Profiling is opt-in (HeadlessRunner's "--profile" argument, or the "mia.example.profile" system property), so normally these timers do nothing and no profiler is created.
+        try (ModuleProfiler.Timer timer = ModuleProfiler.startSectionTimer(this, "centroids")) {
+            runParallel(inputs.length, nThreads, i -> centroids.setMeanCentroid(i, inputs[i]));
+        } catch (InterruptedException | ExecutionException e) {
+            MIA.log.writeError(e);
+            return Status.FAIL;
+        }
+
+        // Creating objects, adding coordinates and assigning relationships all modify shared collections (for example, the Objs map and each object's child list), none of which are thread-safe.  These are therefore done in a single, serial merge step.
+        int nOutOfRange = 0;
+        int[] parentIDs = new int[inputs.length];
+        int[] childIDs = new int[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
             // Each individual Obj stores the coordinates for that region at a single timepoint.  It can also store measurements for that object.
+            Obj inputObject = inputs[i];
 
             // For each input object, an output centroid Obj is created.  New objects can be created from the output Objs object collection.  The coordinates in each Obj can be stored as a pointlist, quadtree or octree depending on the shape of that object.  Pointlist works well for very thin (e.g. pixel wide) objects and isolated points (such as the centroids here), while quadtree is better for larger, solid objects.  Octree is best for large solid 3D objects specifically with isotropic spatial resolution in XY and Z.  For fluorescence images where resolution in XY is typically much higher than Z, quadtree storage is usually better.
             Obj outputObject = outputObjects.createAndAddNewObject(VolumeType.POINTLIST);
 
-            // Getting the centroid location of the input object as a double-precision "Point" object.
-            Point<Double> centroid = inputObject.getMeanCentroid();
-
-            // Coordinates in MIA are stored as integers, so the centroid is added to the output centroid object after rounding of XY and Z coordinates to integer coordinates.  The full (double) precision coordinates could be stored as Measurements for the output (or input) object, but these would only be accessible by modules specifically designed to accept measurements for single coordinates (for example, the AddFromPositionMeasurement image overlay module) and in the output Excel file.
-            try {
-                outputObject.add((int) Math.round(centroid.x), (int) Math.round(centroid.y),
-                        (int) Math.round(centroid.z));
-            } catch (PointOutOfRangeException e) {
-                // Only coordinates within the predefined spatial limits of an Objs object collection can be added.  These limits typically correspond to the dimensions of the image from which objects were initially detected.
-                MIA.log.writeError(e);
+            // Coordinates in MIA are stored as integers, so the centroid is added to the output centroid object after rounding of XY and Z coordinates to integer coordinates.  Only coordinates within the predefined spatial limits of an Objs object collection can be added.  These limits typically correspond to the dimensions of the image from which objects were initially detected.  Adding a coordinate outside these limits throws a PointOutOfRangeException, but since the SubpixelPoints collection has already checked each centroid, out-of-range centroids can simply be counted and skipped.
+            if (centroids.getStatus(i) == SubpixelPoints.Status.IN_RANGE) {
+                try {
+                    outputObject.add(centroids.getRoundedX(i), centroids.getRoundedY(i), centroids.getRoundedZ(i));
+                } catch (PointOutOfRangeException e) {
+                    MIA.log.writeError(e);
+                }
+            } else {
+                nOutOfRange++;
             }
 
+            // The full (double) precision coordinates are stored as Measurements for the output object.  These are accessible to modules designed to accept measurements for single coordinates (for example, the AddFromPositionMeasurement image overlay module) and are included in the output Excel file, so downstream modules don't need to recalculate them.
+            outputObject.addMeasurement(new Measurement(Measurements.CENTROID_X_PX, centroids.getX(i)));
+            outputObject.addMeasurement(new Measurement(Measurements.CENTROID_Y_PX, centroids.getY(i)));
+            outputObject.addMeasurement(new Measurement(Measurements.CENTROID_Z_SLICE, centroids.getZ(i)));
+
             // Each Obj exists in a single timepoint.  This sets the timepoint of the output centroid object to the same as the input object.  Although not required here, hor physical objects that persist over multiple timepoints, we can create parent "track" objects, which link all indiviudal timepoint instances of a single physical object together.
             outputObject.setT(inputObject.getT());
 
-            // The centroid object is assigned as a child of the input parent object.  This allows them to be assigned the same colour in the overlays later on.
-            inputObject.addChild(outputObject);
-            outputObject.addParent(inputObject);
+            // The IDs of the input object and its centroid object are recorded, so the two can be linked below.
+            parentIDs[i] = inputObject.getID();
+            childIDs[i] = outputObject.getID();
 
         }
 
-        // Measuring intensity for each centroid object.  Iterating over each output centroid object.
-        for (Obj outputObject : outputObjects.values()) {
-            // The MeasureObjectIntensity module has a public method that allows the intensity of a single object to be measured for a specified image.  This returns a cumulative statistic (CumStat) object, from which we can extract statistics about the intensities of all coordinates in the specified object.  Here, the object only has a single point, so mean, min, max and sum will all have the same value.
-            CumStat cs = MeasureObjectIntensity.measureIntensity(outputObject, inputImage, false, false);
+        // Each centroid object is assigned as a child of its input parent object.  This allows them to be assigned the same colour in the overlays later on.  Rather than calling addChild and addParent on each object, all links are added in one go through the workspace's RelationshipIndex.  This still adds the links to each object, but also records them in the index, so downstream counts of children per parent don't need to revisit every object.
+        RelationshipIndex.get(workspace).linkChildren(inputObjects, outputObjects, parentIDs, childIDs);
 
-            // Creating a new "Measurement" object to store the intensity of the centroid object.  As noted above, all statistics (bar the standard deviation) will have the same value, so the "mean" is used.
-            Measurement intensity = new Measurement(Measurements.INTENSITY, cs.getMean());
+        // Rather than logging every out-of-range centroid individually, a single message is written.
+        if (nOutOfRange > 0)
+            MIA.log.writeWarning(nOutOfRange + " centroid(s) were outside the image and have no coordinates");
 
-            // Adding the measurement to the output object.
-            outputObject.addMeasurement(intensity);
+        // Measuring intensity for each centroid object.  The MeasureObjectIntensity module has a public method (measureIntensity) that allows the intensity of a single object to be measured for a specified image.  This returns a cumulative statistic (CumStat) object, from which we can extract statistics about the intensities of all coordinates in the specified object.  When measuring many objects, it's more efficient to measure them all together, so here the BulkIntensity class is used.  This reads each image plane once for all objects and stores the statistics in primitive arrays.  Here, each object only has a single point, so mean, min, max and sum will all have the same value.  As such, all statistics (bar the standard deviation) will have the same value, so the "mean" is used.
+        try (ModuleProfiler.Timer timer = ModuleProfiler.startSectionTimer(this, "intensity")) {
+            BulkIntensity intensities = BulkIntensity.measure(outputObjects, inputImage);
 
+            // Creating a new "Measurement" object to store the intensity of each centroid object and adding it to that object.
+            intensities.addMeanMeasurements(outputObjects, Measurements.INTENSITY);
         }
 
-        // Before creating the overlays, we must calculate the colours for each overlay object. Here, we will use random colours assigned by the input object ID. The output (centroid) objects will also be colour-coded by their parent (input) object ID. This way both overlay components should have the same colour.  First, we determine the hues for each object as these are the same, irrespective of opacity.  Hues are stored in a HashMap for which the Integer key is the ID of each object.
-        HashMap<Integer, Float> inputHues = ColourFactory.getIDHues(inputObjects, true);
+        // In "None" overlay mode, no output image is created.  This skips the copy of the input image, the colour calculations and all overlay rendering, which is useful when only the centroid objects and their measurements are used downstream.
+        Image outputImage = null;
+        if (overlayMode.equals(OverlayModes.NONE)) {
+            // The status message is shown in the MIA GUI (or console when running headless).  Here, it reports the memory that would otherwise have been taken by the copied image.
+            writeStatus(String.format("Measurement-only mode (skipped %.1f MB image copy)",
+                    inputIpl.getSizeInBytes() / 1048576d));
+        } else {
+            try (ModuleProfiler.Timer timer = ModuleProfiler.startSectionTimer(this, "overlay")) {
+                outputImage = createOverlayImage(outputImageName, inputIpl, inputObjects, outputObjects, overlayMode,
+                        lineWidth, opacity, nThreads);
+            } catch (InterruptedException | ExecutionException e) {
+                MIA.log.writeError(e);
+                return Status.FAIL;
+            }
+
+            // Adding the output image to the current workspace, so it will be available to all downstream modules.
+            workspace.addImage(outputImage);
+        }
+
+        // Adding the output Objs object collection to the current workspace.
+        workspace.addObjects(outputObjects);
+
+        // If "Show output" (eyeball button to the left of a module in "Editing view") is enabled, the output image (if created) and an ImageJ results table showing the measurements will be displayed when the module is run.
+        if (showOutput) {
+            if (outputImage != null)
+                outputImage.show();
+            outputObjects.showMeasurements(this, modules);
+        }
+
+        // The module returns a "PASS" value to confirm it completed successfully
+        return Status.PASS;
+
+    }
+
+    /**
+     * Creates the output image, a copy-on-write view of the input image with the input objects and their centroids displayed as an overlay.
+     * 
+     * @param outputImageName Name of the output image
+     * @param inputIpl        Input image, with which the output image shares pixel data
+     * @param inputObjects    Input objects, shown as fills or outlines
+     * @param outputObjects   Centroid objects, shown as points
+     * @param overlayMode     Either {@value OverlayModes#FILL} or {@value OverlayModes#OUTLINES}
+     * @param lineWidth       Line width for outlines
+     * @param opacity         Opacity for fills
+     * @param nThreads        The maximum number of threads to use when drawing raster overlays
+     * @return The output image
+     * @throws InterruptedException If the calling thread is interrupted while drawing raster overlays
+     * @throws ExecutionException   If drawing a raster overlay fails
+     */
+    Image createOverlayImage(String outputImageName, ImagePlus inputIpl, Objs inputObjects, Objs outputObjects,
+            String overlayMode, int lineWidth, int opacity, int nThreads) throws InterruptedException, ExecutionException {
+        String inputObjectsName = inputObjects.getName();
+
+        // Before creating the overlays, we must calculate the colours for each overlay object. Here, we will use random colours assigned by the input object ID. The output (centroid) objects will also be colour-coded by their parent (input) object ID. This way both overlay components should have the same colour.  First, we determine the hues for each object as these are the same, irrespective of opacity.  MIA's ColourFactory class stores hues in a HashMap for which the Integer key is the ID of each object.  Here, hues are stored in an IDHueMap, which uses primitive int keys and float values.  These can be read directly when drawing raster overlays (see below).
+        IDHueMap inputHues = IDHueMap.getIDHues(inputObjects);
 
-        // Next, generating colours for each of the input hues.  As with hues, these are stored in a HashMap, where each Integer key is the ID of each object.  The colour will depend on the opacity, so may be different depending on whether the overlay mode is "Fill" or "Outline".
-        HashMap<Integer, Color> inputColours;
+        // Next, generating colours for each of the input hues.  As with hues, these are stored by object ID, as packed ARGB int values.  The colour will depend on the opacity, so may be different depending on whether the overlay mode is "Fill" or "Outline".
+        IDColourMap inputColours;
         switch (overlayMode) {
             case OverlayModes.FILL:
             default:
-                inputColours = ColourFactory.getColours(inputHues, opacity);
+                inputColours = IDColourMap.getColours(inputHues, opacity);
                 break;
             case OverlayModes.OUTLINES:
-                inputColours = ColourFactory.getColours(inputHues);
+                inputColours = IDColourMap.getColours(inputHues);
                 break;
         }
 
         // The output centroid objects are always displayed a single points, so the colour generation will always be the same.
-        HashMap<Integer, Color> outputColours = ColourFactory
-                .getColours(ColourFactory.getParentIDHues(outputObjects, inputObjectsName, true));
+        IDColourMap outputColours = IDColourMap.getColours(IDHueMap.getParentIDHues(outputObjects, inputObjectsName));
 
-        // Creating the output image using the ImageFactory class.  The ImageFactory will create a MIA "Image" class object.  The ImageFactory will determine if the "Image" should be an "ImagePlusImage" or "ImgPlusImage" depending on what type of image type it is given.  Here, an ImagePlus is passed as a argument, so it will be an ImagePlusImage.  By using the abstract Image class, which can output both ImagePlus or ImgPlus, modules should work irrespective of how the image data is stored.
-        Image outputImage = ImageFactory.createImage(outputImageName, inputIpl.duplicate());
+        // Creating the output image.  Images are normally created using the ImageFactory class, which will create a MIA "Image" class object.  The ImageFactory will determine if the "Image" should be an "ImagePlusImage" or "ImgPlusImage" depending on what type of image type it is given.  By using the abstract Image class, which can output both ImagePlus or ImgPlus, modules should work irrespective of how the image data is stored.  Since overlays are stored as ROIs and don't change the pixel data, rather than passing a full copy of the input (inputIpl.duplicate()), here the image is backed by a CopyOnWriteStack.  This shares pixel data with the input image and only copies a plane when a downstream module first accesses its pixels, so edits can never reach the input image.  The CopyOnWriteStack passes its ImagePlus to the ImageFactory, so this will still be an ImagePlusImage.
+        Image outputImage = CopyOnWriteStack.createImage(outputImageName, inputIpl);
 
         // Getting the ImagePlus for the output image.  The ImagePlus is currently used by many overlay modules.
         ImagePlus outputIpl = outputImage.getImagePlus();
 
-        // Running the relevant method from the separate AddObjectFill or AddObjectOutline modules depending on what parameter was selected in the GUI.
+        // Each call below adds one ROI per object per slice.  With many objects, the resulting overlay becomes slow to display and save, so above RasterOverlay.MAX_VECTOR_OBJECTS objects the fills (or outlines) and centroids are instead drawn into image layers, with one layer per slice added to the overlay as a single ROI.  Outlines and centroids are both fully opaque, so share one set of layers.  Fills are shown at the fill opacity, so the centroids are drawn into a second, fully-opaque set of layers.  These are added after the fills, so the centroids are shown on top.
+        if (inputObjects.size() > RasterOverlay.MAX_VECTOR_OBJECTS) {
+            RasterOverlay objectLayers = new RasterOverlay(outputIpl);
+            switch (overlayMode) {
+                case OverlayModes.FILL:
+                    objectLayers.addFill(inputObjects, inputColours, nThreads);
+                    objectLayers.addToImage(outputIpl, opacity);
+
+                    RasterOverlay centroidLayers = new RasterOverlay(outputIpl);
+                    centroidLayers.addPoints(outputObjects, outputColours, 1, nThreads);
+                    centroidLayers.addToImage(outputIpl, 100);
+                    break;
+                case OverlayModes.OUTLINES:
+                    objectLayers.addOutline(inputObjects, inputColours, lineWidth, nThreads);
+                    objectLayers.addPoints(outputObjects, outputColours, 1, nThreads);
+                    objectLayers.addToImage(outputIpl, 100);
+                    break;
+            }
+
+            return outputImage;
+
+        }
+
+        // Running the relevant method from the separate AddObjectFill or AddObjectOutline modules depending on what parameter was selected in the GUI.  These only accept colours as a HashMap of Color objects, so this path boxes each ID and creates one Color per object.  This is limited to RasterOverlay.MAX_VECTOR_OBJECTS objects, so the IDColourMap is simply converted once here and, where the colours match, reused for the centroids below.
+        HashMap<Integer, Color> inputColourMap = inputColours.toHashMap();
         switch (overlayMode) {
             case OverlayModes.FILL:
-                AddObjectFill.addOverlay(outputIpl, inputObjects, inputColours, false, true);
+                AddObjectFill.addOverlay(outputIpl, inputObjects, inputColourMap, false, true);
                 break;
             case OverlayModes.OUTLINES:
-                AddObjectOutline.addOverlay(outputIpl, inputObjects, 1, lineWidth, inputColours,
-                        false, true);
+                AddObjectOutline.addOverlay(outputIpl, inputObjects, 1, lineWidth, inputColourMap, false, true);
                 break;
         }
 
+        // The centroids are coloured by their parent.  For outlines, the parent colours are already fully-opaque, so each centroid takes its parent's Color from the map above.  Fills are drawn with the fill opacity, so the fully-opaque centroid colours are converted separately.
+        HashMap<Integer, Color> outputColourMap;
+        if (overlayMode.equals(OverlayModes.OUTLINES)) {
+            outputColourMap = new HashMap<>();
+            for (Obj outputObject : outputObjects.values()) {
+                Obj parent = outputObject.getParent(inputObjectsName);
+                outputColourMap.put(outputObject.getID(),
+                        parent == null ? new Color(outputColours.get(outputObject.getID()), true)
+                                : inputColourMap.get(parent.getID()));
+            }
+        } else {
+            outputColourMap = outputColours.toHashMap();
+        }
+
         // Adding the output centroid object's single coordinate as a spot to the overlay
         String size = AddObjectCentroid.PointSizes.MEDIUM;
         String type = AddObjectCentroid.PointTypes.DOT;
-        AddObjectCentroid.addOverlay(outputIpl, outputObjects, outputColours, size, type, false, true);
+        AddObjectCentroid.addOverlay(outputIpl, outputObjects, outputColourMap, size, type, false, true);
 
-        // Adding the output image and Objs object collection to the current workspace, so they will be available to all downstream modules.
-        workspace.addImage(outputImage);
-        workspace.addObjects(outputObjects);
+        return outputImage;
 
-        // If "Show output" (eyeball button to the left of a module in "Editing view") is enabled, the output image and an ImageJ results table showing the measurements will be displayed when the module is run.
-        if (showOutput) {
-            outputImage.show();
-            outputObjects.showMeasurements(this, modules);
-        }
+    }
 
-        // The module returns a "PASS" value to confirm it completed successfully
-        return Status.PASS;
+    /**
+     * Runs a task once for each index from 0 (inclusive) to nTasks (exclusive).  When more than one thread is requested, the indices are shared between the threads of a dedicated fork-join pool, which is shut down once all tasks have completed.  Tasks must only write to their own index of any shared output arrays.
+     * 
+     * @param nTasks   The number of indices to process
+     * @param nThreads The maximum number of threads to use
+     * @param task     The task to run for each index
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the tasks to complete
+     * @throws ExecutionException   If any of the tasks throws an exception
+     */
+    static void runParallel(int nTasks, int nThreads, IntConsumer task)
+            throws InterruptedException, ExecutionException {
+        if (nThreads <= 1) {
+            for (int i = 0; i < nTasks; i++)
+                task.accept(i);
+            return;
+        }
 
+        // Parallel streams submitted from within a ForkJoinPool run on that pool, rather than the JVM-wide common pool.  This lets the number of threads be controlled per module.
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try {
+            pool.submit(() -> IntStream.range(0, nTasks).parallel().forEach(task)).get();
+        } finally {
+            pool.shutdown();
+        }
     }
 
     /**
@@ -325,6 +464,12 @@ public class ExampleModule extends Module {
         // Similarly, if the overlay mode is set to "Fill", the user can specify the opacity of the fill layer.  The default value here is "50".
         parameters.add(new IntegerP(OPACITY, this, 50));
 
+        // The execution separator holds parameters that control how the module runs, rather than what it outputs.
+        parameters.add(new SeparatorP(EXECUTION_SEPARATOR, this));
+
+        // Boolean parameters are rendered as a checkbox.  Here, multithreading is disabled by default, so the module behaves as before unless the user opts in.
+        parameters.add(new BooleanP(ENABLE_MULTITHREADING, this, false));
+
     }
 
     /**
@@ -341,13 +486,16 @@ public class ExampleModule extends Module {
         returnedParameters.add(parameters.getParameter(INPUT_OBJECTS));
 
         returnedParameters.add(parameters.getParameter(OUTPUT_SEPARATOR));
-        returnedParameters.add(parameters.getParameter(OUTPUT_IMAGE));
+
+        // The output image is only created if an overlay is being drawn
+        if (!parameters.getValue(OVERLAY_MODE, null).equals(OverlayModes.NONE))
+            returnedParameters.add(parameters.getParameter(OUTPUT_IMAGE));
         returnedParameters.add(parameters.getParameter(OUTPUT_OBJECTS));
 
         returnedParameters.add(parameters.getParameter(OVERLAY_SEPARATOR));
         returnedParameters.add(parameters.getParameter(OVERLAY_MODE));
 
-        // Depending on how "Overlay mode" is set, either the "Opacity" or "Line width" parameters will be added to "returnedParameters"
+        // Depending on how "Overlay mode" is set, either the "Opacity" or "Line width" parameters (or neither, for "None") will be added to "returnedParameters"
         switch ((String) parameters.getValue(OVERLAY_MODE, null)) {
             case OverlayModes.FILL:
                 returnedParameters.add(parameters.getParameter(OPACITY));
@@ -357,6 +505,9 @@ public class ExampleModule extends Module {
                 break;
         }
 
+        returnedParameters.add(parameters.getParameter(EXECUTION_SEPARATOR));
+        returnedParameters.add(parameters.getParameter(ENABLE_MULTITHREADING));
+
         return returnedParameters;
 
     }
@@ -377,10 +528,15 @@ public class ExampleModule extends Module {
         ObjMeasurementRefs returnedRefs = new ObjMeasurementRefs();
 
         // For each measurement added to an image, an ObjMeasurementRef object is created and added to the returned reference collection.  As with parameters, the ObjMeasurementRef is stored in a collection within the module called "objectMeasurementRefs".  The original copy of the ObjMeasurementRef should be taken from "objectMeasurementRefs" to ensure 
-        ObjMeasurementRef measurementRef = objectMeasurementRefs.getOrPut(Measurements.INTENSITY);
         String outputObjectsName = parameters.getValue(OUTPUT_OBJECTS, null);
-        measurementRef.setObjectsName(outputObjectsName);
-        returnedRefs.add(measurementRef);
+        String[] measurementNames = new String[] { Measurements.INTENSITY, Measurements.CENTROID_X_PX,
+                Measurements.CENTROID_Y_PX, Measurements.CENTROID_Z_SLICE };
+
+        for (String measurementName : measurementNames) {
+            ObjMeasurementRef measurementRef = objectMeasurementRefs.getOrPut(measurementName);
+            measurementRef.setObjectsName(outputObjectsName);
+            returnedRefs.add(measurementRef);
+        }
 
         return returnedRefs;
 
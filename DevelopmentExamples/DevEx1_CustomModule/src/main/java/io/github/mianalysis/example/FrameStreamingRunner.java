@@ -0,0 +1,470 @@
+package io.github.mianalysis.example;
+
+import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import ij.ImagePlus;
+import ij.measure.Calibration;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import io.github.mianalysis.mia.MIA;
+import io.github.mianalysis.mia.module.Modules;
+import io.github.mianalysis.mia.module.core.InputControl;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.Workspaces;
+import io.github.mianalysis.mia.object.parameters.Parameters;
+import io.github.mianalysis.mia.process.analysishandling.AnalysisReader;
+
+/**
+ * Runs a time-lapse tracking workflow (such as Ex2_ObjectTracking.mia) one
+ * frame at a time, so memory use doesn't grow with the length of the movie.
+ *
+ * Usage: FrameStreamingRunner workflow.mia timelapse.tif tracks.csv [--module
+ * className]... [--linking GRID|BRUTE_FORCE] [--video tracks.avi]
+ *
+ * Arguments are parsed by {@link RunnerArguments}, so unknown options, options
+ * without a value and unrecognised linking backends are rejected with the usage
+ * message.
+ *
+ * The workflow is split into three parts:
+ * <ul>
+ * <li>The first image loading module (ImageLoader or MappedImageLoader). Its
+ * output image name is used for each frame, but the image is instead opened by
+ * this runner (memory-mapped where possible).</li>
+ * <li>The per-frame modules: all enabled modules between the image loader and
+ * TrackObjects. These are run on a new workspace for each frame, holding just
+ * that frame.</li>
+ * <li>TrackObjects. Rather than running the module, its "Input objects",
+ * "Maximum linking distance (px)", "Maximum number of missing frames" and
+ * "Favour established tracks" parameters are used to configure an
+ * {@link IncrementalTracker}. Candidate links are found using a spatial grid
+ * unless "--linking BRUTE_FORCE" is specified.</li>
+ * </ul>
+ * IncrementalTracker only links by centroid distance. Workflows using another
+ * "Linking method", or minimising volume, direction or measurement changes,
+ * aren't run. "Frame gap weighting" and "Track length weighting" aren't applied,
+ * so a warning is shown when they would affect the tracks.
+ * Modules after TrackObjects (e.g. MeasureTrackMotion) need complete tracks
+ * held in a workspace, so aren't run; a warning names any skipped modules.
+ * Each track is written to the CSV file as soon as it's finished, with one row
+ * per spot.
+ *
+ * If "--video" is specified, each frame is also rendered with the paths of its
+ * tracks over the last {@link TrackRenderer#DEFAULT_HISTORY} frames and passed
+ * to a {@link StreamingAviWriter}, which compresses it on a separate thread
+ * while the next frame is processed. Videos can only be written for
+ * single-slice images.
+ */
+public class FrameStreamingRunner {
+    public static final String MODULE_ARGUMENT = "--module";
+    public static final String LINKING_ARGUMENT = "--linking";
+    public static final String VIDEO_ARGUMENT = "--video";
+
+    static final String TRACK_CLASS_NAME = "TrackObjects";
+    static final String TRACK_INPUT_OBJECTS = "Input objects";
+    static final String TRACK_MAX_DISTANCE = "Maximum linking distance (px)";
+    static final String TRACK_MAX_MISSING_FRAMES = "Maximum number of missing frames";
+    static final String TRACK_FAVOUR_ESTABLISHED = "Favour established tracks";
+    static final String TRACK_LINKING_METHOD = "Linking method";
+    static final String TRACK_FRAME_GAP_WEIGHTING = "Frame gap weighting";
+    static final String TRACK_USE_VOLUME = "Use volume (minimise volume change)";
+    static final String TRACK_DIRECTION_WEIGHTING_MODE = "Direction weighting mode";
+    static final String TRACK_USE_MEASUREMENT = "Use measurement (minimise change)";
+
+    static final String CENTROID_LINKING = "Centroid";
+    static final String NO_DIRECTION_WEIGHTING = "None";
+
+    private final IncrementalTracker.LinkingBackends linkingBackend;
+    private File videoFile = null;
+
+    public FrameStreamingRunner(IncrementalTracker.LinkingBackends linkingBackend) {
+        this.linkingBackend = linkingBackend;
+    }
+
+    /**
+     * Sets a file to write a video of the tracks to, or null for no video.
+     */
+    public void setVideoFile(File videoFile) {
+        this.videoFile = videoFile;
+    }
+
+    public static void main(String[] args) throws Exception {
+        RunnerArguments arguments = new RunnerArguments(args, 3,
+                "Usage: FrameStreamingRunner workflow.mia timelapse.tif tracks.csv [" + MODULE_ARGUMENT
+                        + " className]... [" + LINKING_ARGUMENT + " GRID|BRUTE_FORCE] [" + VIDEO_ARGUMENT
+                        + " tracks.avi]",
+                MODULE_ARGUMENT, LINKING_ARGUMENT, VIDEO_ARGUMENT);
+
+        File workflowFile = new File(arguments.getPositional(0));
+        File inputFile = new File(arguments.getPositional(1));
+        File tracksFile = new File(arguments.getPositional(2));
+        IncrementalTracker.LinkingBackends linkingBackend = arguments.getEnum(LINKING_ARGUMENT,
+                IncrementalTracker.LinkingBackends.class, IncrementalTracker.LinkingBackends.GRID);
+        File videoFile = arguments.getFile(VIDEO_ARGUMENT);
+
+        HeadlessRunner.initialiseHeadless();
+        arguments.addModules(MODULE_ARGUMENT);
+
+        Modules modules = AnalysisReader.loadModules(workflowFile);
+        if (modules == null) {
+            System.err.println("Unable to load workflow from " + workflowFile.getAbsolutePath());
+            System.exit(1);
+        }
+        modules.getInputControl().updateParameterValue(InputControl.INPUT_PATH, inputFile.getAbsolutePath());
+
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(tracksFile)))) {
+            FrameStreamingRunner runner = new FrameStreamingRunner(linkingBackend);
+            runner.setVideoFile(videoFile);
+            boolean success = runner.run(modules, inputFile, writer);
+            System.exit(success ? 0 : 1);
+        }
+    }
+
+    /**
+     * Runs the per-frame modules on each frame of the input file and links the
+     * detected objects into tracks, writing each track to the writer once it's
+     * finished.
+     *
+     * @param modules   Workflow containing an image loader, per-frame modules and
+     *                  TrackObjects
+     * @param inputFile Time-lapse image to process
+     * @param writer    Destination for finished tracks (CSV)
+     * @return true if every frame was processed
+     */
+    public boolean run(Modules modules, File inputFile, PrintWriter writer) {
+        Workspaces workspaces = new Workspaces();
+
+        // Module parameters are read with a workspace in case they refer to global
+        // variables
+        Workspace parameterWorkspace = workspaces.getNewWorkspace(inputFile, 1);
+
+        FrameWorkflow frameWorkflow = FrameWorkflow.split(modules, parameterWorkspace, TRACK_CLASS_NAME);
+        if (frameWorkflow == null || frameWorkflow.getEndModule() == null) {
+            MIA.log.writeError("Workflow must contain an image loader followed by TrackObjects");
+            return false;
+        }
+        // TrackObjects is replaced by the incremental tracker, but nothing after it is run
+        frameWorkflow.warnSkippedModules(false);
+
+        Parameters trackParameters = frameWorkflow.getEndModule().getAllParameters();
+        if (!checkTrackParameters(trackParameters, parameterWorkspace))
+            return false;
+
+        String objectsName = trackParameters.getValue(TRACK_INPUT_OBJECTS, parameterWorkspace);
+        // Stored as a number parameter, which may be integer or decimal
+        Number maxDistance = trackParameters.getValue(TRACK_MAX_DISTANCE, parameterWorkspace);
+        int maxMissingFrames = trackParameters.getValue(TRACK_MAX_MISSING_FRAMES, parameterWorkspace);
+        boolean favourEstablished = trackParameters.getValue(TRACK_FAVOUR_ESTABLISHED, parameterWorkspace);
+        workspaces.remove(parameterWorkspace);
+
+        ImagePlus ipl = FrameWorkflow.openImage(inputFile);
+        if (ipl == null)
+            return false;
+
+        TrackWriter trackWriter = new TrackWriter(writer);
+        // As in TrackObjects, distances are in XY pixels, with Z scaled to match
+        Calibration calibration = ipl.getCalibration();
+        double zScale = calibration.pixelDepth / calibration.pixelWidth;
+        IncrementalTracker incrementalTracker = new IncrementalTracker(maxDistance.doubleValue(), zScale,
+                maxMissingFrames, favourEstablished, linkingBackend, trackWriter::write);
+
+        TrackRenderer trackRenderer = null;
+        if (videoFile != null) {
+            try {
+                trackRenderer = new TrackRenderer(ipl, videoFile, TrackRenderer.DEFAULT_HISTORY);
+            } catch (IOException | IllegalArgumentException e) {
+                MIA.log.writeError(e);
+                FrameWorkflow.closeImage(ipl);
+                return false;
+            }
+        }
+
+        // The video is closed even if a frame fails, so the encoder thread stops
+        boolean success = processFrames(workspaces, frameWorkflow, inputFile, ipl, objectsName, incrementalTracker,
+                writer, trackRenderer);
+        if (trackRenderer != null && !trackRenderer.close())
+            success = false;
+        FrameWorkflow.closeImage(ipl);
+        if (!success)
+            return false;
+
+        incrementalTracker.finishAll();
+        writer.flush();
+
+        System.out.println(String.format("Wrote %d track(s)", trackWriter.getNTracks()));
+        if (trackRenderer != null)
+            System.out.println(String.format("Wrote %d video frame(s) at %.1f frames/s to %s",
+                    trackRenderer.getNFrames(), trackRenderer.getFramesPerSecond(), videoFile.getAbsolutePath()));
+
+        return true;
+
+    }
+
+    /**
+     * Checks TrackObjects' settings can be reproduced by IncrementalTracker.
+     * Settings which change which links are possible cause a failure, while
+     * weightings which only change link costs give a warning.
+     *
+     * @return true if the tracks can be created
+     */
+    static boolean checkTrackParameters(Parameters trackParameters, Workspace workspace) {
+        String linkingMethod = trackParameters.getValue(TRACK_LINKING_METHOD, workspace);
+        if (!CENTROID_LINKING.equals(linkingMethod)) {
+            MIA.log.writeError("Frame-by-frame tracking only supports \"" + CENTROID_LINKING
+                    + "\" linking (workflow uses \"" + linkingMethod + "\")");
+            return false;
+        }
+
+        boolean useVolume = trackParameters.getValue(TRACK_USE_VOLUME, workspace);
+        boolean useMeasurement = trackParameters.getValue(TRACK_USE_MEASUREMENT, workspace);
+        String directionWeightingMode = trackParameters.getValue(TRACK_DIRECTION_WEIGHTING_MODE, workspace);
+        if (useVolume || useMeasurement || !NO_DIRECTION_WEIGHTING.equals(directionWeightingMode)) {
+            MIA.log.writeError("Frame-by-frame tracking doesn't support volume, direction or measurement weighting");
+            return false;
+        }
+
+        Number frameGapWeighting = trackParameters.getValue(TRACK_FRAME_GAP_WEIGHTING, workspace);
+        int maxMissingFrames = trackParameters.getValue(TRACK_MAX_MISSING_FRAMES, workspace);
+        if (frameGapWeighting.doubleValue() != 0 && maxMissingFrames > 0)
+            MIA.log.writeWarning("\"" + TRACK_FRAME_GAP_WEIGHTING
+                    + "\" isn't applied during frame-by-frame tracking, so tracks may differ from TrackObjects");
+
+        boolean favourEstablished = trackParameters.getValue(TRACK_FAVOUR_ESTABLISHED, workspace);
+        if (favourEstablished)
+            MIA.log.writeWarning("Established tracks are favoured using IncrementalTracker's own weighting, so "
+                    + "tracks may differ from TrackObjects");
+
+        return true;
+
+    }
+
+    private boolean processFrames(Workspaces workspaces, FrameWorkflow frameWorkflow, File inputFile,
+            ImagePlus ipl, String objectsName, IncrementalTracker incrementalTracker, PrintWriter writer,
+            TrackRenderer trackRenderer) {
+        int nFrames = ipl.getNFrames();
+        long runStart = System.nanoTime();
+        for (int t = 1; t <= nFrames; t++) {
+            long frameStart = System.nanoTime();
+
+            Workspace workspace = workspaces.getNewWorkspace(inputFile, 1);
+            frameWorkflow.addFrame(workspace, ipl, t);
+            if (!frameWorkflow.execute(workspace, t))
+                return false;
+
+            Objs objects = workspace.getObjects(objectsName);
+            if (objects == null) {
+                MIA.log.writeError("Objects \"" + objectsName + "\" weren't created for frame " + t);
+                return false;
+            }
+
+            SubpixelPoints centroids = new SubpixelPoints(objects.size(), objects);
+            int[] spotIDs = new int[objects.size()];
+            int i = 0;
+            for (Obj obj : objects.values()) {
+                centroids.setMeanCentroid(i, obj);
+                spotIDs[i++] = obj.getID();
+            }
+            int[] trackIDs = incrementalTracker.addFrame(t - 1, centroids, spotIDs);
+
+            workspaces.remove(workspace);
+            writer.flush();
+
+            if (trackRenderer != null) {
+                try {
+                    trackRenderer.addFrame(t, centroids, trackIDs);
+                } catch (IOException | InterruptedException e) {
+                    MIA.log.writeError(e);
+                    return false;
+                }
+            }
+
+            long frameMs = (System.nanoTime() - frameStart) / 1000000;
+            System.out.println(String.format("Frame %d/%d: %d spot(s), %d active track(s) in %d ms", t, nFrames,
+                    objects.size(), incrementalTracker.getNActiveTracks(), frameMs));
+
+        }
+
+        long runMs = (System.nanoTime() - runStart) / 1000000;
+        System.out.println(String.format("Processed %d frame(s) in %d ms", nFrames, runMs));
+
+        return true;
+
+    }
+
+    /**
+     * Writes finished tracks as CSV rows, one per spot. The header is written
+     * before the first track.
+     */
+    static class TrackWriter {
+        private final PrintWriter writer;
+        private int nTracks = 0;
+
+        TrackWriter(PrintWriter writer) {
+            this.writer = writer;
+            writer.println("TRACK_ID,TIMEPOINT,SPOT_ID,X_PX,Y_PX,Z_SLICE");
+        }
+
+        void write(IncrementalTracker.Track track) {
+            for (int i = 0; i < track.size(); i++)
+                writer.println(track.getID() + "," + track.getT(i) + "," + track.getSpotID(i) + "," + track.getX(i)
+                        + "," + track.getY(i) + "," + track.getZ(i));
+            nTracks++;
+        }
+
+        int getNTracks() {
+            return nTracks;
+        }
+    }
+
+    /**
+     * Draws the recent path of each track on its frame and passes the frame to a
+     * {@link StreamingAviWriter}. Only the spots of the last few frames are kept,
+     * so memory use doesn't grow with the length of the movie.
+     *
+     * Paths are drawn with {@link RasterOverlay#drawPaths}, as for the track
+     * overlays of a full workflow, onto the first channel of each frame scaled to
+     * the image's display range. Each track is coloured by the hue of its ID (as
+     * assigned by {@link IDHueMap#getHue(int)}). Videos are 2D, so only
+     * single-slice images are supported.
+     */
+    static class TrackRenderer {
+        static final int DEFAULT_HISTORY = 10;
+
+        private final ImagePlus ipl;
+        private final StreamingAviWriter aviWriter;
+        private final int history;
+
+        // Ring buffers holding the track IDs and rounded positions of each recent
+        // frame's spots
+        private final int[] frameTs;
+        private final int[][] frameTrackIDs;
+        private final int[][] frameXs;
+        private final int[][] frameYs;
+
+        /**
+         * @param history Number of frames each path segment is shown for
+         * @throws IllegalArgumentException If the image has more than one slice
+         */
+        TrackRenderer(ImagePlus ipl, File videoFile, int history) throws IOException {
+            if (ipl.getNSlices() > 1)
+                throw new IllegalArgumentException("Track videos can only be rendered for single-slice images");
+
+            Calibration calibration = ipl.getCalibration();
+            double frameRate = calibration.fps > 0 ? calibration.fps : StreamingAviWriter.DEFAULT_FRAME_RATE;
+
+            this.ipl = ipl;
+            this.history = history;
+            this.aviWriter = new StreamingAviWriter(videoFile, ipl.getWidth(), ipl.getHeight(), frameRate);
+
+            frameTs = new int[history + 1];
+            Arrays.fill(frameTs, -1);
+            frameTrackIDs = new int[history + 1][];
+            frameXs = new int[history + 1][];
+            frameYs = new int[history + 1][];
+
+        }
+
+        /**
+         * Renders a frame and queues it for encoding, waiting if the encoder is
+         * more than a few frames behind.
+         *
+         * @param t        Frame number (starting at 1)
+         * @param spots    Spot centroids for the frame
+         * @param trackIDs Track ID of each spot (0 for spots without a track)
+         */
+        void addFrame(int t, SubpixelPoints spots, int[] trackIDs) throws IOException, InterruptedException {
+            int nTracked = 0;
+            for (int trackID : trackIDs)
+                if (trackID != 0)
+                    nTracked++;
+
+            int slot = t % frameTs.length;
+            frameTs[slot] = t;
+            frameTrackIDs[slot] = new int[nTracked];
+            frameXs[slot] = new int[nTracked];
+            frameYs[slot] = new int[nTracked];
+            int j = 0;
+            for (int i = 0; i < trackIDs.length; i++) {
+                if (trackIDs[i] == 0)
+                    continue;
+                frameTrackIDs[slot][j] = trackIDs[i];
+                frameXs[slot][j] = spots.getRoundedX(i);
+                frameYs[slot][j++] = spots.getRoundedY(i);
+            }
+
+            // Frames are walked from oldest to newest, joining each spot to the
+            // previous spot of its track
+            RasterOverlay.PathSegments segments = new RasterOverlay.PathSegments();
+            IntIntMap lastSpots = new IntIntMap(nTracked);
+            for (int f = Math.max(1, t - history); f <= t; f++) {
+                int fSlot = f % frameTs.length;
+                if (frameTs[fSlot] != f)
+                    continue;
+
+                for (int i = 0; i < frameTrackIDs[fSlot].length; i++) {
+                    int trackID = frameTrackIDs[fSlot][i];
+                    int lastSpot = lastSpots.get(trackID, -1);
+                    if (lastSpot != -1) {
+                        int lastSlot = lastSpot >>> 24;
+                        int lastIndex = lastSpot & 0xFFFFFF;
+                        segments.add(trackID, frameTs[lastSlot], frameXs[lastSlot][lastIndex],
+                                frameYs[lastSlot][lastIndex], f, frameXs[fSlot][i], frameYs[fSlot][i], 0);
+                    }
+                    lastSpots.put(trackID, (fSlot << 24) | i);
+                }
+            }
+
+            RasterOverlay paths = new RasterOverlay(ipl.getWidth(), ipl.getHeight(), 1, 1);
+            paths.drawPaths(0, t, segments, trackID -> Color.HSBtoRGB(IDHueMap.getHue(trackID), 1f, 1f), history);
+
+            ImageProcessor ip = ipl.getStack().getProcessor(ipl.getStackIndex(1, 1, t));
+            ColorProcessor frame;
+            if (ip instanceof ColorProcessor) {
+                frame = (ColorProcessor) ip.duplicate();
+            } else {
+                ip.setMinAndMax(ipl.getDisplayRangeMin(), ipl.getDisplayRangeMax());
+                frame = (ColorProcessor) ip.convertToRGB();
+            }
+
+            int[] framePixels = (int[]) frame.getPixels();
+            int[] layer = paths.getPlane(0);
+            if (layer != null)
+                for (int i = 0; i < layer.length; i++)
+                    if (layer[i] != 0)
+                        framePixels[i] = 0xFF000000 | layer[i];
+
+            aviWriter.addFrame(framePixels);
+
+        }
+
+        /**
+         * Waits for the remaining frames to be encoded and completes the file.
+         *
+         * @return true if the video was written
+         */
+        boolean close() {
+            try {
+                aviWriter.close();
+                return true;
+            } catch (IOException | InterruptedException e) {
+                MIA.log.writeError(e);
+                return false;
+            }
+        }
+
+        int getNFrames() {
+            return aviWriter.getNFrames();
+        }
+
+        double getFramesPerSecond() {
+            return aviWriter.getFramesPerSecond();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package io.github.mianalysis.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.plugin.Duplicator;
+import io.github.mianalysis.mia.MIA;
+import io.github.mianalysis.mia.module.Module;
+import io.github.mianalysis.mia.module.Modules;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.image.ImageFactory;
+import io.github.mianalysis.mia.object.system.Status;
+
+/**
+ * The part of a workflow which can be run on each frame of a time-lapse
+ * independently. This is every enabled module after the first image loader
+ * (ImageLoader or MappedImageLoader), up to (but not including) an optional
+ * end module, such as TrackObjects, which needs all frames at once.
+ *
+ * Rather than running the image loader, the time-lapse is opened once and each
+ * frame is copied into its own workspace under the loader's output image name.
+ */
+public class FrameWorkflow {
+    static final String LOADER_OUTPUT_IMAGE = "Output image";
+
+    private final String imageName;
+    private final List<Module> frameModules;
+    private final Module endModule;
+    private final List<Module> skippedModules;
+
+    private FrameWorkflow(String imageName, List<Module> frameModules, Module endModule,
+            List<Module> skippedModules) {
+        this.imageName = imageName;
+        this.frameModules = frameModules;
+        this.endModule = endModule;
+        this.skippedModules = skippedModules;
+    }
+
+    /**
+     * Splits a workflow into its per-frame modules.
+     *
+     * @param modules            Workflow to split
+     * @param parameterWorkspace Workspace used to read parameter values (in case
+     *                           they refer to global variables)
+     * @param endClassName       Simple class name of the module at which the
+     *                           per-frame modules end, or null to use all modules
+     *                           after the loader
+     * @return The per-frame workflow, or null if the workflow has no image loader
+     */
+    public static FrameWorkflow split(Modules modules, Workspace parameterWorkspace, String endClassName) {
+        Module loader = null;
+        Module endModule = null;
+        List<Module> frameModules = new ArrayList<>();
+        List<Module> skippedModules = new ArrayList<>();
+        for (Module module : modules) {
+            if (!module.isEnabled() || !module.isRunnable())
+                continue;
+
+            String className = module.getClass().getSimpleName();
+            if (endModule != null) {
+                skippedModules.add(module);
+            } else if (loader == null) {
+                if (className.equals("ImageLoader") || module instanceof MappedImageLoader)
+                    loader = module;
+                else
+                    skippedModules.add(module);
+            } else if (className.equals(endClassName)) {
+                endModule = module;
+            } else {
+                frameModules.add(module);
+            }
+        }
+
+        if (loader == null)
+            return null;
+
+        String imageName = loader.getAllParameters().getValue(LOADER_OUTPUT_IMAGE, parameterWorkspace);
+
+        return new FrameWorkflow(imageName, frameModules, endModule, skippedModules);
+
+    }
+
+    /**
+     * Opens an image, memory-mapped where possible and as an ImageJ virtual stack
+     * otherwise.
+     *
+     * @return The image, or null if it couldn't be opened
+     */
+    public static ImagePlus openImage(File file) {
+        try {
+            return MappedTiffStack.open(file);
+        } catch (IOException e) {
+            MIA.log.writeWarning("Unable to memory-map " + file.getName() + " (" + e.getMessage()
+                    + "); opening as a virtual stack instead");
+        }
+
+        ImagePlus ipl = IJ.openVirtual(file.getAbsolutePath());
+        if (ipl == null)
+            MIA.log.writeError("Unable to open " + file.getAbsolutePath());
+
+        return ipl;
+
+    }
+
+    /**
+     * Releases the cached plane mappings of an image opened with
+     * {@link #openImage(File)}. This only has an effect for memory-mapped images.
+     */
+    public static void closeImage(ImagePlus ipl) {
+        if (!(ipl.getStack() instanceof MappedTiffStack))
+            return;
+
+        try {
+            ((MappedTiffStack) ipl.getStack()).close();
+        } catch (IOException e) {
+            MIA.log.writeWarning("Unable to close " + ipl.getTitle() + " (" + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Adds a copy of a single frame to a workspace. Only this frame's planes are
+     * copied; for memory-mapped images, these are also the only planes read from
+     * disk.
+     *
+     * @param workspace Workspace to add the frame to
+     * @param ipl       Time-lapse image
+     * @param t         Frame to copy (starting at 1)
+     */
+    public void addFrame(Workspace workspace, ImagePlus ipl, int t) {
+        ImagePlus frameIpl = new Duplicator().run(ipl, 1, ipl.getNChannels(), 1, ipl.getNSlices(), t, t);
+        frameIpl.setCalibration(ipl.getCalibration());
+        workspace.addImage(ImageFactory.createImage(imageName, frameIpl));
+    }
+
+    /**
+     * Runs the per-frame modules on a workspace, stopping at the first one which
+     * doesn't pass.
+     *
+     * @return true if all modules passed
+     */
+    public boolean execute(Workspace workspace, int t) {
+        for (Module module : frameModules) {
+            if (module.execute(workspace) != Status.PASS) {
+                MIA.log.writeError("Module \"" + module.getNickname() + "\" failed on frame " + t);
+                return false;
+            }
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Returns the module the per-frame modules end at, or null if no end module
+     * was requested or found.
+     */
+    public Module getEndModule() {
+        return endModule;
+    }
+
+    /**
+     * Returns the enabled modules which aren't run per-frame: those before the
+     * image loader and those after the end module. The end module itself isn't
+     * included.
+     */
+    public List<Module> getSkippedModules() {
+        return skippedModules;
+    }
+
+    /**
+     * Writes a warning naming every module of the workflow which won't be run.
+     *
+     * @param includeEndModule Whether the end module is also skipped (rather than
+     *                         being handled by the caller)
+     */
+    public void warnSkippedModules(boolean includeEndModule) {
+        List<String> names = new ArrayList<>();
+        for (Module module : skippedModules)
+            names.add("\"" + module.getNickname() + "\"");
+        if (includeEndModule && endModule != null)
+            names.add("\"" + endModule.getNickname() + "\"");
+
+        if (!names.isEmpty())
+            MIA.log.writeWarning("Only the per-frame modules are run, so these modules are skipped: "
+                    + String.join(", ", names));
+
+    }
+
+    /**
+     * Estimates the heap used by one frame of an image, excluding any images or
+     * objects created while processing it.
+     */
+    public static long getFrameBytes(ImagePlus ipl) {
+        return (long) ipl.getWidth() * ipl.getHeight() * ipl.getNChannels() * ipl.getNSlices()
+                * (ipl.getBitDepth() == 24 ? 4 : ipl.getBitDepth() / 8);
+    }
+}
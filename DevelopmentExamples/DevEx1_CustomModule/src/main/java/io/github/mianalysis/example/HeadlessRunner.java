@@ -0,0 +1,344 @@
+package io.github.mianalysis.example;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import ij.ImagePlus;
+import io.github.mianalysis.mia.MIA;
+import io.github.mianalysis.mia.module.AvailableModules;
+import io.github.mianalysis.mia.module.Module;
+import io.github.mianalysis.mia.module.Modules;
+import io.github.mianalysis.mia.module.core.InputControl;
+import io.github.mianalysis.mia.module.core.OutputControl;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.Workspaces;
+import io.github.mianalysis.mia.object.system.Status;
+import io.github.mianalysis.mia.process.analysishandling.AnalysisReader;
+import net.imagej.ImageJ;
+import net.imagej.patcher.LegacyInjector;
+
+/**
+ * Runs a MIA workflow (.mia file) over a folder of input files without
+ * launching the ImageJ or MIA user interfaces. This is intended for compute
+ * nodes with no display attached.
+ *
+ * Usage: HeadlessRunner workflow.mia inputFolder [--module className]...
+ * [--profile output.xlsx] [--export results.xlsx] [--export-columnar folder]
+ * [--split-timepoints memoryBudgetMB] [--cache folder [--cache-size MB]]
+ *
+ * Each "--module" argument registers an additional module class (e.g.
+ * io.github.mianalysis.example.ExampleModule) before the workflow is loaded, so
+ * workflows using custom modules can be run. The ExampleModule and
+ * MappedImageLoader modules are always registered. Startup time and the wall time for each input file are written to
+ * the console.
+ *
+ * With "--profile", each module is run through the {@link ModuleProfiler} and
+ * the per-module statistics are written to the specified Excel file once all
+ * inputs have been processed. The statistics are also available over JMX while
+ * the workflow runs. In this mode, modules are run in order until one doesn't
+ * pass, so workflow handling modules which redirect to other modules aren't
+ * supported.
+ *
+ * Results are exported as configured in the workflow's OutputControl, as they
+ * would be when run from MIA: either for each input file as it finishes, or for
+ * all input files together once the run is complete (in which case the
+ * workspaces are kept in memory until then).
+ *
+ * With "--export", the objects in each workspace are also appended to the
+ * specified Excel file by a {@link StreamingExcelExporter} as soon as that
+ * workspace finishes, rather than all at the end of the run. "--export-columnar"
+ * does the same, but writes one typed, columnar file per object collection
+ * using a {@link ColumnarExporter}.
+ *
+ * With "--split-timepoints", each input file's timepoints are run as separate
+ * workspaces in parallel by a {@link TimepointScheduler}, limited by the
+ * specified memory budget. Only the modules after the image loader are run (see
+ * {@link FrameWorkflow}) and any modules from TrackObjects onwards, which need
+ * every timepoint at once, are skipped, with a warning naming them. "--export"
+ * and "--export-columnar" receive each timepoint's workspace in order; the
+ * workflow's own export isn't run in this mode, since no single workspace holds
+ * the results.
+ *
+ * With "--cache", workspaces are restored from (and stored to) a
+ * {@link WorkflowResultCache} in the specified folder, so re-running a workflow
+ * with only later modules changed skips the unchanged modules. "--cache-size"
+ * sets the cache's size limit (10 GB by default).
+ *
+ * Only one of "--profile", "--split-timepoints" and "--cache" can be used at a
+ * time and "--cache-size" can only be used with "--cache". Unknown arguments,
+ * arguments given without a value and sizes which aren't positive whole
+ * numbers are rejected with the usage message.
+ */
+public class HeadlessRunner {
+    public static final String MODULE_ARGUMENT = "--module";
+    public static final String PROFILE_ARGUMENT = "--profile";
+    public static final String EXPORT_ARGUMENT = "--export";
+    public static final String EXPORT_COLUMNAR_ARGUMENT = "--export-columnar";
+    public static final String SPLIT_TIMEPOINTS_ARGUMENT = "--split-timepoints";
+    public static final String CACHE_ARGUMENT = "--cache";
+    public static final String CACHE_SIZE_ARGUMENT = "--cache-size";
+
+    static final String USAGE = "Usage: HeadlessRunner workflow.mia inputFolder [" + MODULE_ARGUMENT
+            + " className]... [" + PROFILE_ARGUMENT + " output.xlsx] [" + EXPORT_ARGUMENT + " results.xlsx] ["
+            + EXPORT_COLUMNAR_ARGUMENT + " folder] [" + SPLIT_TIMEPOINTS_ARGUMENT + " memoryBudgetMB] ["
+            + CACHE_ARGUMENT + " folder [" + CACHE_SIZE_ARGUMENT + " MB]]";
+
+    public static void main(String[] args) throws Exception {
+        RunnerArguments arguments = new RunnerArguments(args, 2, USAGE, MODULE_ARGUMENT, PROFILE_ARGUMENT,
+                EXPORT_ARGUMENT, EXPORT_COLUMNAR_ARGUMENT, SPLIT_TIMEPOINTS_ARGUMENT, CACHE_ARGUMENT,
+                CACHE_SIZE_ARGUMENT);
+
+        File workflowFile = new File(arguments.getPositional(0));
+        File inputFile = new File(arguments.getPositional(1));
+
+        File profileFile = arguments.getFile(PROFILE_ARGUMENT);
+        File exportFile = arguments.getFile(EXPORT_ARGUMENT);
+        File columnarFolder = arguments.getFile(EXPORT_COLUMNAR_ARGUMENT);
+        long memoryBudgetMB = arguments.getPositiveLong(SPLIT_TIMEPOINTS_ARGUMENT, 0);
+        File cacheFolder = arguments.getFile(CACHE_ARGUMENT);
+        long cacheBytes = arguments.has(CACHE_SIZE_ARGUMENT)
+                ? arguments.getPositiveLong(CACHE_SIZE_ARGUMENT, 0) * 1024 * 1024
+                : WorkflowResultCache.DEFAULT_MAX_BYTES;
+
+        if (arguments.has(CACHE_SIZE_ARGUMENT) && cacheFolder == null)
+            arguments.exit("\"" + CACHE_SIZE_ARGUMENT + "\" can only be used with \"" + CACHE_ARGUMENT + "\"");
+
+        // Each of these modes runs the workflow its own way, so only one can be used
+        int nModes = (profileFile == null ? 0 : 1) + (memoryBudgetMB == 0 ? 0 : 1) + (cacheFolder == null ? 0 : 1);
+        if (nModes > 1)
+            arguments.exit("Only one of \"" + PROFILE_ARGUMENT + "\", \"" + SPLIT_TIMEPOINTS_ARGUMENT + "\" and \""
+                    + CACHE_ARGUMENT + "\" can be used at a time");
+
+        initialiseHeadless();
+        arguments.addModules(MODULE_ARGUMENT);
+
+        ModuleProfiler profiler = profileFile == null ? null : ModuleProfiler.getInstance();
+        ColumnarExporter columnarExporter = columnarFolder == null ? null : new ColumnarExporter(columnarFolder);
+        TimepointScheduler scheduler = memoryBudgetMB == 0 ? null
+                : new TimepointScheduler(memoryBudgetMB * 1024 * 1024, TimepointScheduler.DEFAULT_MEMORY_FACTOR);
+        WorkflowResultCache cache = cacheFolder == null ? null : new WorkflowResultCache(cacheFolder, cacheBytes);
+
+        Modules modules = AnalysisReader.loadModules(workflowFile);
+        if (modules == null) {
+            System.err.println("Unable to load workflow from " + workflowFile.getAbsolutePath());
+            System.exit(1);
+        }
+
+        // The workflow's measurement and relationship references set the columns
+        StreamingExcelExporter exporter = exportFile == null ? null : new StreamingExcelExporter(exportFile, modules);
+
+        // The workflow's own export runs as it would in MIA: individually as each
+        // workspace finishes, or for all workspaces together at the end
+        OutputControl outputControl = modules.getOutputControl();
+        boolean exportWorkflow = outputControl.isEnabled() && scheduler == null;
+        boolean exportIndividually = exportWorkflow && outputControl.isExportIndividual();
+
+        long startupMs = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        System.out.println("Startup completed in " + startupMs + " ms");
+
+        List<File> files = getInputFiles(inputFile);
+        Workspaces workspaces = new Workspaces();
+        int nFailed = 0;
+
+        long runStart = System.nanoTime();
+        for (File file : files) {
+            // The input path is updated so any modules referring to it (e.g. ImageLoader
+            // set to load the current file) use this file
+            modules.getInputControl().updateParameterValue(InputControl.INPUT_PATH, file.getAbsolutePath());
+            Workspace workspace = workspaces.getNewWorkspace(file, 1);
+
+            long fileStart = System.nanoTime();
+            boolean success;
+            try {
+                if (scheduler != null)
+                    success = executeSplit(modules, workspace, scheduler, exporter, columnarExporter);
+                else if (profiler != null)
+                    success = executeProfiled(modules, workspace, profiler);
+                else if (cache != null)
+                    success = cache.execute(modules, workspace);
+                else
+                    success = modules.execute(workspace);
+            } catch (Exception e) {
+                MIA.log.writeError(e);
+                success = false;
+            }
+            long fileMs = (System.nanoTime() - fileStart) / 1000000;
+
+            if (!success)
+                nFailed++;
+
+            System.out.println(String.format("%s: %s in %d ms", file.getName(), success ? "completed" : "failed",
+                    fileMs));
+
+            // In split mode, each timepoint has already been exported as it was merged
+            if (exporter != null && success && scheduler == null)
+                exporter.export(workspace, file.getName());
+            if (columnarExporter != null && success && scheduler == null) {
+                try {
+                    columnarExporter.export(workspace);
+                } catch (IOException e) {
+                    MIA.log.writeError(e);
+                    nFailed++;
+                }
+            }
+
+            if (exportIndividually && success)
+                outputControl.exportResults(workspace, modules,
+                        outputControl.getIndividualOutputPath(workspace.getMetadata()));
+
+            // Workspaces aren't needed once processed, so they're removed to free memory,
+            // unless the workflow exports them all together at the end
+            if (!exportWorkflow || exportIndividually || !success)
+                workspaces.remove(workspace);
+
+        }
+        long runMs = (System.nanoTime() - runStart) / 1000000;
+
+        System.out.println(String.format("Processed %d file(s) (%d failed) in %d ms", files.size(), nFailed, runMs));
+
+        if (exportWorkflow && !exportIndividually && !workspaces.isEmpty())
+            outputControl.exportResults(workspaces, modules, outputControl.getGroupOutputPath(inputFile));
+
+        if (exporter != null) {
+            exporter.close();
+            System.out.println(String.format("Exported %d row(s) at %.0f rows/s to %s", exporter.getNRows(),
+                    exporter.getRowsPerSecond(), exportFile.getAbsolutePath()));
+        }
+
+        if (columnarExporter != null) {
+            columnarExporter.close();
+            System.out.println(String.format("Exported %d row(s) at %.0f rows/s to %s", columnarExporter.getNRows(),
+                    columnarExporter.getRowsPerSecond(), columnarFolder.getAbsolutePath()));
+        }
+
+        if (cache != null)
+            System.out.println(String.format("Restored %d module run(s) from cache and ran %d (cache size %.1f MB)",
+                    cache.getNRestored(), cache.getNRun(), cache.getTotalBytes() / 1048576d));
+
+        if (profiler != null) {
+            try (XSSFWorkbook workbook = new XSSFWorkbook();
+                    FileOutputStream outputStream = new FileOutputStream(profileFile)) {
+                profiler.addSheet(workbook, "Module timings");
+                workbook.write(outputStream);
+            }
+            System.out.println("Module timings written to " + profileFile.getAbsolutePath());
+        }
+
+        System.exit(nFailed == 0 ? 0 : 1);
+
+    }
+
+    /**
+     * Starts ImageJ without a user interface and registers the example modules.
+     */
+    public static void initialiseHeadless() {
+        // AWT must be told it's headless before any ImageJ class touches it
+        System.setProperty("java.awt.headless", "true");
+
+        // The following must be called before initialising ImageJ.  Unlike the
+        // main methods of the example modules, neither the ImageJ 1 window nor MIA's
+        // GUI is created; only the SciJava context is needed for MIA to find modules.
+        LegacyInjector.preinit();
+        new ImageJ();
+
+        AvailableModules.addModuleName(ExampleModule.class);
+        AvailableModules.addModuleName(MappedImageLoader.class);
+
+    }
+
+    /**
+     * Runs each enabled module in turn through the profiler, stopping at the first
+     * module which doesn't pass.
+     */
+    static boolean executeProfiled(Modules modules, Workspace workspace, ModuleProfiler profiler) {
+        for (Module module : modules) {
+            if (!module.isEnabled() || !module.isRunnable())
+                continue;
+
+            if (profiler.execute(module, workspace) != Status.PASS)
+                return false;
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Runs each timepoint of the workspace's input file as a separate workspace
+     * and exports the results in timepoint order.
+     */
+    static boolean executeSplit(Modules modules, Workspace workspace, TimepointScheduler scheduler,
+            StreamingExcelExporter exporter, ColumnarExporter columnarExporter) throws InterruptedException {
+        FrameWorkflow frameWorkflow = FrameWorkflow.split(modules, workspace, FrameStreamingRunner.TRACK_CLASS_NAME);
+        if (frameWorkflow == null) {
+            MIA.log.writeError("Splitting timepoints requires the workflow to contain an image loader");
+            return false;
+        }
+        frameWorkflow.warnSkippedModules(true);
+
+        File file = workspace.getMetadata().getFile();
+        ImagePlus ipl = FrameWorkflow.openImage(file);
+        if (ipl == null)
+            return false;
+
+        // Workspaces are passed to the consumer on this thread, so a plain array can
+        // record export failures
+        boolean[] exported = new boolean[] { true };
+        boolean success;
+        try {
+            success = scheduler.run(frameWorkflow, ipl, file, frameWorkspace -> {
+                if (exporter != null)
+                    exporter.export(frameWorkspace, file.getName());
+                if (columnarExporter != null) {
+                    try {
+                        columnarExporter.export(frameWorkspace);
+                    } catch (IOException e) {
+                        MIA.log.writeError(e);
+                        exported[0] = false;
+                    }
+                }
+            });
+        } finally {
+            FrameWorkflow.closeImage(ipl);
+        }
+
+        return success && exported[0];
+
+    }
+
+    /**
+     * Returns the files to process. If the input is a single file, only that file
+     * is returned. If it's a folder, all (non-hidden) files directly within it are
+     * returned in alphabetical order.
+     *
+     * @param input Input file or folder
+     * @return Files to process
+     */
+    static List<File> getInputFiles(File input) {
+        List<File> files = new ArrayList<>();
+        if (input.isFile()) {
+            files.add(input);
+            return files;
+        }
+
+        File[] children = input.listFiles();
+        if (children == null)
+            return files;
+
+        Arrays.sort(children);
+        for (File child : children)
+            if (child.isFile() && !child.isHidden())
+                files.add(child);
+
+        return files;
+
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.mianalysis.example;
+
+import java.awt.Color;
+import java.util.HashMap;
+
+/**
+ * Object ID to colour map with primitive int keys and packed ARGB int values
+ * (as used by {@link Color#getRGB()}). This is a boxing-free alternative to the
+ * HashMap&lt;Integer, Color&gt; returned by ColourFactory.getColours, read
+ * directly by {@link RasterOverlay}. MIA's AddObjectFill, AddObjectOutline and
+ * AddObjectCentroid modules only accept the boxed map, so drawing per-object
+ * ROIs requires converting with {@link #toHashMap()}, which creates one Color
+ * per ID.
+ */
+public class IDColourMap {
+    private final IntIntMap map;
+
+    public IDColourMap(int expectedSize) {
+        map = new IntIntMap(expectedSize);
+    }
+
+    /**
+     * Creates fully-opaque, fully-saturated colours for each hue.
+     *
+     * @param hues Hues for each object ID
+     * @return Colours for each object ID
+     */
+    public static IDColourMap getColours(IDHueMap hues) {
+        return getColours(hues, 100);
+    }
+
+    /**
+     * Creates fully-saturated colours for each hue with the specified opacity.
+     *
+     * @param hues    Hues for each object ID
+     * @param opacity Opacity in the range 0-100
+     * @return Colours for each object ID
+     */
+    public static IDColourMap getColours(IDHueMap hues, int opacity) {
+        int alpha = (int) Math.round(Math.max(0, Math.min(100, opacity)) * 2.55) << 24;
+
+        IDColourMap colours = new IDColourMap(hues.size());
+        for (int ID : hues.getIDs())
+            colours.put(ID, alpha | (Color.HSBtoRGB(hues.get(ID), 1, 1) & 0xFFFFFF));
+
+        return colours;
+
+    }
+
+    public void put(int ID, int argb) {
+        map.put(ID, argb);
+    }
+
+    /**
+     * Returns the packed ARGB colour for an ID, or fully-transparent black if the
+     * ID isn't present.
+     */
+    public int get(int ID) {
+        return map.get(ID, 0);
+    }
+
+    public boolean containsID(int ID) {
+        return map.containsKey(ID);
+    }
+
+    public int[] getIDs() {
+        return map.keys();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Adapter to the boxed map format accepted by MIA's overlay modules. This
+     * creates one Color per ID, so should be called once per set of overlays and
+     * the result reused.
+     */
+    public HashMap<Integer, Color> toHashMap() {
+        HashMap<Integer, Color> hashMap = new HashMap<>();
+        for (int ID : map.keys())
+            hashMap.put(ID, new Color(get(ID), true));
+
+        return hashMap;
+
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.mianalysis.example;
+
+import java.util.HashMap;
+
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+
+/**
+ * Object ID to hue map with primitive int keys and float values. This is a
+ * boxing-free alternative to the HashMap&lt;Integer, Float&gt; returned by
+ * ColourFactory.getIDHues and ColourFactory.getParentIDHues.
+ */
+public class IDHueMap {
+    private final IntIntMap map;
+
+    public IDHueMap(int expectedSize) {
+        map = new IntIntMap(expectedSize);
+    }
+
+    /**
+     * Assigns each object a random hue, based on its own ID. The same ID always
+     * gives the same hue.
+     *
+     * @param objects Objects to assign hues to
+     * @return Hues for each object ID
+     */
+    public static IDHueMap getIDHues(Objs objects) {
+        IDHueMap hues = new IDHueMap(objects.size());
+        for (Obj obj : objects.values())
+            hues.put(obj.getID(), getHue(obj.getID()));
+
+        return hues;
+
+    }
+
+    /**
+     * Assigns each object the hue of its parent in the specified collection, so
+     * objects are the same colour as their parent. Objects without a parent are
+     * assigned a hue of 0 (red).
+     *
+     * @param objects     Objects to assign hues to
+     * @param parentsName Name of the parent object collection
+     * @return Hues for each object ID
+     */
+    public static IDHueMap getParentIDHues(Objs objects, String parentsName) {
+        IDHueMap hues = new IDHueMap(objects.size());
+        for (Obj obj : objects.values()) {
+            Obj parent = obj.getParent(parentsName);
+            hues.put(obj.getID(), parent == null ? 0f : getHue(parent.getID()));
+        }
+
+        return hues;
+
+    }
+
+    /**
+     * Returns a pseudo-random, but repeatable, hue in the range 0-1 for an ID.
+     */
+    public static float getHue(int ID) {
+        return (IntIntMap.mix(ID) >>> 8) / (float) (1 << 24);
+    }
+
+    public void put(int ID, float hue) {
+        map.put(ID, Float.floatToRawIntBits(hue));
+    }
+
+    public float get(int ID) {
+        return Float.intBitsToFloat(map.get(ID, 0));
+    }
+
+    public boolean containsID(int ID) {
+        return map.containsKey(ID);
+    }
+
+    public int[] getIDs() {
+        return map.keys();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Adapter to the boxed map format used by ColourFactory.
+     */
+    public HashMap<Integer, Float> toHashMap() {
+        HashMap<Integer, Float> hashMap = new HashMap<>();
+        for (int ID : map.keys())
+            hashMap.put(ID, get(ID));
+
+        return hashMap;
+
+    }
+}
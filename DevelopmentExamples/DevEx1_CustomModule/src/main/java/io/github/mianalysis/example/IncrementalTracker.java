@@ -0,0 +1,658 @@
+package io.github.mianalysis.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Links spots into tracks one frame at a time. Only tracks seen within the last
+ * few frames are kept; once a track has been missing for longer than the
+ * allowed gap it is finished and passed to a consumer (e.g. to be written to
+ * disk), so memory use depends on the number of spots per frame rather than
+ * the length of the movie.
+ *
+ * Linking is by centroid distance, measured in XY pixels with Z scaled by the
+ * ratio of the Z and XY pixel sizes (as TrackObjects does). Each spot can join at most one active track
+ * within the maximum linking distance. As with TrackObjects (via TrackMate's
+ * LAP linker), links are chosen by solving a linear assignment problem, in which
+ * tracks and spots can also be left unlinked at an alternative cost of
+ * {@value #ALTERNATIVE_COST_FACTOR} times the largest candidate cost in the
+ * frame. The assignment is solved on a sparse cost matrix holding just the
+ * candidate links, so most spots are assigned without a search. When favouring
+ * established tracks, the cost of linking to a track is reduced with the
+ * track's length, so longer tracks take priority over shorter ones at similar
+ * distances. This weighting is specific to this class and doesn't use
+ * TrackObjects' "Track length weighting".
+ *
+ * Candidate links can be found either by testing every active track against
+ * every spot ({@link LinkingBackends#BRUTE_FORCE}), or by indexing each
+ * frame's spots in a uniform grid ({@link LinkingBackends#GRID}), so only spots
+ * in neighbouring grid cells are tested. Both give identical tracks, but the
+ * cost of the brute force approach grows with the product of the track and
+ * spot counts.
+ */
+public class IncrementalTracker {
+    public enum LinkingBackends {
+        BRUTE_FORCE, GRID
+    }
+
+    /**
+     * Cost of leaving a track or spot unlinked, relative to the largest candidate
+     * link cost in a frame. This matches TrackMate's default.
+     */
+    public static final double ALTERNATIVE_COST_FACTOR = 1.05;
+
+    private final double maxLinkingDistance;
+    private final double zScale;
+    private final int maxMissingFrames;
+    private final boolean favourEstablished;
+    private final LinkingBackends linkingBackend;
+    private final Consumer<Track> finishedTrackConsumer;
+
+    private final List<Track> activeTracks = new ArrayList<>();
+    private int nextTrackID = 1;
+    private int lastFrame = -1;
+
+    /**
+     * A track's spots, stored as parallel primitive arrays in order of addition.
+     */
+    public static class Track {
+        private final int ID;
+        private int size = 0;
+        private int[] t = new int[8];
+        private int[] spotIDs = new int[8];
+        private double[] x = new double[8];
+        private double[] y = new double[8];
+        private double[] z = new double[8];
+
+        Track(int ID) {
+            this.ID = ID;
+        }
+
+        void add(int t, int spotID, double x, double y, double z) {
+            if (size == this.t.length) {
+                int capacity = size * 2;
+                this.t = Arrays.copyOf(this.t, capacity);
+                this.spotIDs = Arrays.copyOf(this.spotIDs, capacity);
+                this.x = Arrays.copyOf(this.x, capacity);
+                this.y = Arrays.copyOf(this.y, capacity);
+                this.z = Arrays.copyOf(this.z, capacity);
+            }
+
+            this.t[size] = t;
+            this.spotIDs[size] = spotID;
+            this.x[size] = x;
+            this.y[size] = y;
+            this.z[size] = z;
+            size++;
+
+        }
+
+        public int getID() {
+            return ID;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getT(int index) {
+            return t[index];
+        }
+
+        public int getSpotID(int index) {
+            return spotIDs[index];
+        }
+
+        public double getX(int index) {
+            return x[index];
+        }
+
+        public double getY(int index) {
+            return y[index];
+        }
+
+        public double getZ(int index) {
+            return z[index];
+        }
+
+        int getLastT() {
+            return t[size - 1];
+        }
+    }
+
+    public IncrementalTracker(double maxLinkingDistance, int maxMissingFrames, boolean favourEstablished,
+            Consumer<Track> finishedTrackConsumer) {
+        this(maxLinkingDistance, maxMissingFrames, favourEstablished, LinkingBackends.GRID, finishedTrackConsumer);
+    }
+
+    /**
+     * @param maxLinkingDistance    Maximum distance (in pixels) between a track's
+     *                              last spot and a new spot for them to be linked
+     * @param maxMissingFrames      Number of consecutive frames a track can go
+     *                              without a spot before it's finished
+     * @param favourEstablished     Whether longer tracks take priority when
+     *                              assigning spots
+     * @param linkingBackend        How candidate links are found
+     * @param finishedTrackConsumer Receives each track once it's finished
+     */
+    public IncrementalTracker(double maxLinkingDistance, int maxMissingFrames, boolean favourEstablished,
+            LinkingBackends linkingBackend, Consumer<Track> finishedTrackConsumer) {
+        this(maxLinkingDistance, 1, maxMissingFrames, favourEstablished, linkingBackend, finishedTrackConsumer);
+    }
+
+    /**
+     * @param maxLinkingDistance    Maximum distance (in XY pixels) between a
+     *                              track's last spot and a new spot for them to be
+     *                              linked
+     * @param zScale                Size of a slice relative to an XY pixel (the
+     *                              Z pixel size divided by the XY pixel size), used
+     *                              to convert Z differences to XY pixels
+     * @param maxMissingFrames      Number of consecutive frames a track can go
+     *                              without a spot before it's finished
+     * @param favourEstablished     Whether longer tracks take priority when
+     *                              assigning spots
+     * @param linkingBackend        How candidate links are found
+     * @param finishedTrackConsumer Receives each track once it's finished
+     */
+    public IncrementalTracker(double maxLinkingDistance, double zScale, int maxMissingFrames,
+            boolean favourEstablished, LinkingBackends linkingBackend, Consumer<Track> finishedTrackConsumer) {
+        this.maxLinkingDistance = maxLinkingDistance;
+        this.zScale = zScale;
+        this.maxMissingFrames = maxMissingFrames;
+        this.favourEstablished = favourEstablished;
+        this.linkingBackend = linkingBackend;
+        this.finishedTrackConsumer = finishedTrackConsumer;
+    }
+
+    /**
+     * Adds the spots for the next frame. Frames must be added in increasing order.
+     * Spots which can't be linked to an active track start new tracks.
+     *
+     * @param t       Frame index
+     * @param spots   Spot centroids (in pixel units). Spots which aren't
+     *                {@link SubpixelPoints.Status#IN_RANGE} are ignored.
+     * @param spotIDs ID of each spot (same indexing as spots)
+     * @return The track ID assigned to each spot (0 for ignored spots)
+     */
+    public int[] addFrame(int t, SubpixelPoints spots, int[] spotIDs) {
+        if (t <= lastFrame)
+            throw new IllegalArgumentException("Frame " + t + " added after frame " + lastFrame);
+        lastFrame = t;
+
+        finishTracks(t);
+
+        int nSpots = spots.size();
+        int[] trackIDs = new int[nSpots];
+
+        // Candidate links are stored as (approximate cost, track index, spot index).
+        // Sorting them gives the same order for both backends, so ties are always
+        // resolved the same way.  The assignment itself uses the exact costs.
+        long[] candidates = findCandidates(spots);
+        Arrays.sort(candidates);
+        double[] costs = getCosts(candidates, spots);
+
+        int[] trackLinks = assign(candidates, costs, activeTracks.size(), nSpots);
+        for (int trackIndex = 0; trackIndex < trackLinks.length; trackIndex++) {
+            int spotIndex = trackLinks[trackIndex];
+            if (spotIndex == -1)
+                continue;
+
+            Track track = activeTracks.get(trackIndex);
+            track.add(t, spotIDs[spotIndex], spots.getX(spotIndex), spots.getY(spotIndex), spots.getZ(spotIndex));
+            trackIDs[spotIndex] = track.getID();
+
+        }
+
+        for (int i = 0; i < nSpots; i++) {
+            if (trackIDs[i] != 0 || spots.getStatus(i) != SubpixelPoints.Status.IN_RANGE)
+                continue;
+
+            Track track = new Track(nextTrackID++);
+            track.add(t, spotIDs[i], spots.getX(i), spots.getY(i), spots.getZ(i));
+            activeTracks.add(track);
+            trackIDs[i] = track.getID();
+
+        }
+
+        return trackIDs;
+
+    }
+
+    /**
+     * Finishes all remaining tracks. This should be called after the last frame.
+     */
+    public void finishAll() {
+        for (Track track : activeTracks)
+            finishedTrackConsumer.accept(track);
+        activeTracks.clear();
+    }
+
+    public int getNActiveTracks() {
+        return activeTracks.size();
+    }
+
+    /**
+     * Returns candidate links between active tracks and spots within the linking
+     * distance. Each candidate is packed into a long, with the cost (as the upper
+     * 22 bits of a non-negative float) followed by the track and spot indices, so
+     * sorting the array approximately sorts by cost. The packed cost is only used
+     * for ordering; exact costs are given by
+     * {@link #getCosts(long[], SubpixelPoints)}.
+     */
+    long[] findCandidates(SubpixelPoints spots) {
+        switch (linkingBackend) {
+            case GRID:
+                return findCandidatesGrid(spots);
+            case BRUTE_FORCE:
+            default:
+                return findCandidatesBruteForce(spots);
+        }
+    }
+
+    long[] findCandidatesBruteForce(SubpixelPoints spots) {
+        long[] candidates = new long[16];
+        int nCandidates = 0;
+
+        double maxDistSq = maxLinkingDistance * maxLinkingDistance;
+        for (int trackIndex = 0; trackIndex < activeTracks.size(); trackIndex++) {
+            Track track = activeTracks.get(trackIndex);
+            int last = track.size() - 1;
+            double tx = track.getX(last);
+            double ty = track.getY(last);
+            double tz = track.getZ(last);
+
+            for (int spotIndex = 0; spotIndex < spots.size(); spotIndex++) {
+                if (spots.getStatus(spotIndex) != SubpixelPoints.Status.IN_RANGE)
+                    continue;
+
+                double dx = spots.getX(spotIndex) - tx;
+                double dy = spots.getY(spotIndex) - ty;
+                double dz = (spots.getZ(spotIndex) - tz) * zScale;
+                double distSq = dx * dx + dy * dy + dz * dz;
+                if (distSq > maxDistSq)
+                    continue;
+
+                if (nCandidates == candidates.length)
+                    candidates = Arrays.copyOf(candidates, nCandidates * 2);
+                candidates[nCandidates++] = packCandidate(getCost(Math.sqrt(distSq), track), trackIndex, spotIndex);
+
+            }
+        }
+
+        return Arrays.copyOf(candidates, nCandidates);
+
+    }
+
+    long[] findCandidatesGrid(SubpixelPoints spots) {
+        long[] candidates = new long[16];
+        int nCandidates = 0;
+
+        SpotGrid grid = new SpotGrid(spots, maxLinkingDistance, zScale);
+        for (int trackIndex = 0; trackIndex < activeTracks.size(); trackIndex++) {
+            Track track = activeTracks.get(trackIndex);
+            int last = track.size() - 1;
+            double tx = track.getX(last);
+            double ty = track.getY(last);
+            double tz = track.getZ(last);
+
+            int nFound = grid.query(tx, ty, tz);
+            for (int i = 0; i < nFound; i++) {
+                int spotIndex = grid.getResult(i);
+                if (nCandidates == candidates.length)
+                    candidates = Arrays.copyOf(candidates, nCandidates * 2);
+                candidates[nCandidates++] = packCandidate(getCost(getDistance(track, spots, spotIndex), track),
+                        trackIndex, spotIndex);
+
+            }
+        }
+
+        return Arrays.copyOf(candidates, nCandidates);
+
+    }
+
+    /**
+     * Returns the exact cost of each candidate link, in the same order.
+     */
+    double[] getCosts(long[] candidates, SubpixelPoints spots) {
+        double[] costs = new double[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            Track track = activeTracks.get(getTrackIndex(candidates[i]));
+            costs[i] = getCost(getDistance(track, spots, getSpotIndex(candidates[i])), track);
+        }
+
+        return costs;
+
+    }
+
+    double getDistance(Track track, SubpixelPoints spots, int spotIndex) {
+        int last = track.size() - 1;
+        double dx = spots.getX(spotIndex) - track.getX(last);
+        double dy = spots.getY(spotIndex) - track.getY(last);
+        double dz = (spots.getZ(spotIndex) - track.getZ(last)) * zScale;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    double getCost(double distance, Track track) {
+        if (!favourEstablished)
+            return distance;
+
+        // Tracks of 10 or more spots have their cost halved
+        return distance * (1 - 0.5 * Math.min(track.size(), 10) / 10d);
+
+    }
+
+    /**
+     * Chooses the links which minimise the total cost, where each track and spot
+     * left unlinked adds the alternative cost. This uses the cost matrix layout
+     * from Jaqaman et al. (2008): track-to-spot links (upper-left), tracks left
+     * unlinked (upper-right), spots left unlinked (lower-left) and the transpose
+     * of the links (lower-right). Only tracks and spots with at least one
+     * candidate link are included.
+     *
+     * @param candidates Sorted candidate links, as returned by
+     *                   {@link #findCandidates(SubpixelPoints)}
+     * @param costs      Exact cost of each candidate link
+     * @param nTracks    Number of active tracks
+     * @param nSpots     Number of spots in the frame
+     * @return The spot index linked to each track, or -1 for unlinked tracks
+     */
+    static int[] assign(long[] candidates, double[] costs, int nTracks, int nSpots) {
+        int[] trackLinks = new int[nTracks];
+        Arrays.fill(trackLinks, -1);
+        if (candidates.length == 0)
+            return trackLinks;
+
+        // As with TrackMate's linker, the alternative cost is based on the largest
+        // cost and linking a spot back to a track in the lower-right block takes
+        // the smallest cost
+        double minCost = Double.POSITIVE_INFINITY;
+        double maxCost = 0;
+        for (double cost : costs) {
+            minCost = Math.min(minCost, cost);
+            maxCost = Math.max(maxCost, cost);
+        }
+        double alternativeCost = ALTERNATIVE_COST_FACTOR * maxCost;
+        if (alternativeCost == 0)
+            alternativeCost = 1;
+
+        // Numbering the tracks and spots with candidate links in order of their
+        // cheapest link
+        IntIntMap trackRows = new IntIntMap(candidates.length);
+        IntIntMap spotColumns = new IntIntMap(candidates.length);
+        int[] trackIndices = new int[candidates.length];
+        int[] spotIndices = new int[candidates.length];
+        for (long candidate : candidates) {
+            int trackIndex = getTrackIndex(candidate);
+            if (!trackRows.containsKey(trackIndex)) {
+                trackIndices[trackRows.size()] = trackIndex;
+                trackRows.put(trackIndex, trackRows.size());
+            }
+
+            int spotIndex = getSpotIndex(candidate);
+            if (!spotColumns.containsKey(spotIndex)) {
+                spotIndices[spotColumns.size()] = spotIndex;
+                spotColumns.put(spotIndex, spotColumns.size());
+            }
+        }
+
+        // Rows are tracks followed by spots (unlinked), columns are spots followed by
+        // tracks (unlinked).  Each row has one entry per candidate link plus its
+        // alternative.
+        int nTrackRows = trackRows.size();
+        int nSpotColumns = spotColumns.size();
+        int n = nTrackRows + nSpotColumns;
+        int[] rowStarts = new int[n + 1];
+        for (long candidate : candidates) {
+            rowStarts[trackRows.get(getTrackIndex(candidate), 0) + 1]++;
+            rowStarts[nTrackRows + spotColumns.get(getSpotIndex(candidate), 0) + 1]++;
+        }
+        for (int row = 0; row < n; row++)
+            rowStarts[row + 1] += rowStarts[row] + 1;
+
+        int[] columns = new int[rowStarts[n]];
+        double[] entryCosts = new double[rowStarts[n]];
+        int[] positions = Arrays.copyOf(rowStarts, n);
+        for (int i = 0; i < candidates.length; i++) {
+            int trackRow = trackRows.get(getTrackIndex(candidates[i]), 0);
+            int spotColumn = spotColumns.get(getSpotIndex(candidates[i]), 0);
+
+            columns[positions[trackRow]] = spotColumn;
+            entryCosts[positions[trackRow]++] = costs[i];
+
+            columns[positions[nTrackRows + spotColumn]] = nSpotColumns + trackRow;
+            entryCosts[positions[nTrackRows + spotColumn]++] = minCost;
+        }
+        for (int trackRow = 0; trackRow < nTrackRows; trackRow++) {
+            columns[positions[trackRow]] = nSpotColumns + trackRow;
+            entryCosts[positions[trackRow]] = alternativeCost;
+        }
+        for (int spotColumn = 0; spotColumn < nSpotColumns; spotColumn++) {
+            columns[positions[nTrackRows + spotColumn]] = spotColumn;
+            entryCosts[positions[nTrackRows + spotColumn]] = alternativeCost;
+        }
+
+        int[] rowColumns = solveAssignment(rowStarts, columns, entryCosts);
+        for (int trackRow = 0; trackRow < nTrackRows; trackRow++)
+            if (rowColumns[trackRow] < nSpotColumns)
+                trackLinks[trackIndices[trackRow]] = spotIndices[rowColumns[trackRow]];
+
+        return trackLinks;
+
+    }
+
+    /**
+     * Finds the minimum-cost assignment of rows to columns for a square, sparse
+     * cost matrix, in which missing entries can't be assigned. Each row is added
+     * in turn along the shortest augmenting path, found with Dijkstra's algorithm
+     * using column prices as in the Jonker-Volgenant algorithm. Searches stop at
+     * the first unassigned column reached, so rows whose cheapest column is free
+     * are assigned immediately.
+     *
+     * @param rowStarts Index of the first entry of each row, followed by the total
+     *                  number of entries
+     * @param columns   Column of each entry
+     * @param costs     Cost of each entry (non-negative)
+     * @return The column assigned to each row
+     * @throws IllegalStateException If not every row can be assigned
+     */
+    static int[] solveAssignment(int[] rowStarts, int[] columns, double[] costs) {
+        int n = rowStarts.length - 1;
+        double[] prices = new double[n];
+        int[] rowColumns = new int[n];
+        int[] rowEntries = new int[n];
+        int[] columnRows = new int[n];
+        Arrays.fill(rowColumns, -1);
+        Arrays.fill(columnRows, -1);
+
+        // Search state, reset after each row for just the columns it reached
+        double[] distances = new double[n];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        int[] predecessors = new int[n];
+        int[] predecessorEntries = new int[n];
+        boolean[] scanned = new boolean[n];
+        int[] reached = new int[n];
+        ColumnHeap heap = new ColumnHeap();
+
+        for (int freeRow = 0; freeRow < n; freeRow++) {
+            int nReached = 0;
+            heap.clear();
+            for (int entry = rowStarts[freeRow]; entry < rowStarts[freeRow + 1]; entry++) {
+                int column = columns[entry];
+                double distance = costs[entry] - prices[column];
+                if (distance < distances[column]) {
+                    if (distances[column] == Double.POSITIVE_INFINITY)
+                        reached[nReached++] = column;
+                    distances[column] = distance;
+                    predecessors[column] = freeRow;
+                    predecessorEntries[column] = entry;
+                    heap.push(distance, column);
+                }
+            }
+
+            int endColumn = -1;
+            double pathLength = 0;
+            while (!heap.isEmpty()) {
+                double distance = heap.peekKey();
+                int column = heap.pop();
+                if (scanned[column] || distance != distances[column])
+                    continue;
+
+                pathLength = distance;
+                if (columnRows[column] == -1) {
+                    endColumn = column;
+                    break;
+                }
+
+                // Continuing the path through the row currently assigned to this column
+                scanned[column] = true;
+                int row = columnRows[column];
+                double rowOffset = pathLength - (costs[rowEntries[row]] - prices[column]);
+                for (int entry = rowStarts[row]; entry < rowStarts[row + 1]; entry++) {
+                    int next = columns[entry];
+                    if (scanned[next])
+                        continue;
+
+                    double nextDistance = rowOffset + costs[entry] - prices[next];
+                    if (nextDistance < distances[next]) {
+                        if (distances[next] == Double.POSITIVE_INFINITY)
+                            reached[nReached++] = next;
+                        distances[next] = nextDistance;
+                        predecessors[next] = row;
+                        predecessorEntries[next] = entry;
+                        heap.push(nextDistance, next);
+                    }
+                }
+            }
+
+            if (endColumn == -1)
+                throw new IllegalStateException("No complete assignment exists");
+
+            // Updating prices, so reduced costs stay non-negative for the next search
+            for (int i = 0; i < nReached; i++) {
+                int column = reached[i];
+                if (scanned[column])
+                    prices[column] += distances[column] - pathLength;
+            }
+
+            // Shifting each row along the path to its new column
+            int column = endColumn;
+            while (true) {
+                int row = predecessors[column];
+                int previousColumn = rowColumns[row];
+                columnRows[column] = row;
+                rowColumns[row] = column;
+                rowEntries[row] = predecessorEntries[column];
+                if (row == freeRow)
+                    break;
+                column = previousColumn;
+            }
+
+            for (int i = 0; i < nReached; i++) {
+                distances[reached[i]] = Double.POSITIVE_INFINITY;
+                scanned[reached[i]] = false;
+            }
+        }
+
+        return rowColumns;
+
+    }
+
+    /**
+     * Binary min-heap of columns keyed by distance. Columns can be pushed more
+     * than once; outdated entries are skipped when popped.
+     */
+    private static class ColumnHeap {
+        private double[] keys = new double[16];
+        private int[] columns = new int[16];
+        private int size = 0;
+
+        void clear() {
+            size = 0;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(double key, int column) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                columns = Arrays.copyOf(columns, size * 2);
+            }
+
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (keys[parent] <= key)
+                    break;
+                keys[i] = keys[parent];
+                columns[i] = columns[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            columns[i] = column;
+
+        }
+
+        double peekKey() {
+            return keys[0];
+        }
+
+        int pop() {
+            int top = columns[0];
+            double key = keys[--size];
+            int column = columns[size];
+
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && keys[child + 1] < keys[child])
+                    child++;
+                if (keys[child] >= key)
+                    break;
+                keys[i] = keys[child];
+                columns[i] = columns[child];
+                i = child;
+            }
+            keys[i] = key;
+            columns[i] = column;
+
+            return top;
+
+        }
+    }
+
+    static int getTrackIndex(long candidate) {
+        return (int) ((candidate >>> 21) & 0x1FFFFF);
+    }
+
+    static int getSpotIndex(long candidate) {
+        return (int) (candidate & 0x1FFFFF);
+    }
+
+    static long packCandidate(double cost, int trackIndex, int spotIndex) {
+        if (trackIndex > 0x1FFFFF || spotIndex > 0x1FFFFF)
+            throw new IllegalArgumentException("Too many tracks or spots in a single frame");
+
+        // Positive floats sort in the same order as their raw bits.  The lowest 10
+        // bits of the float are dropped to make room for the indices, so this is
+        // only used to order candidates.
+        long costBits = Float.floatToRawIntBits((float) cost) >>> 10;
+        return (costBits << 42) | ((long) trackIndex << 21) | spotIndex;
+
+    }
+
+    private void finishTracks(int t) {
+        Iterator<Track> iterator = activeTracks.iterator();
+        while (iterator.hasNext()) {
+            Track track = iterator.next();
+            if (t - track.getLastT() > maxMissingFrames + 1) {
+                finishedTrackConsumer.accept(track);
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package io.github.mianalysis.example;
+
+import java.util.Arrays;
+
+/**
+ * A minimal open-addressing hash map with primitive int keys and values. Keys
+ * and values are held in flat arrays, so no boxing or per-entry objects are
+ * created. {@link Integer#MIN_VALUE} is reserved and can't be used as a key.
+ */
+class IntIntMap {
+    static final int EMPTY = Integer.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private int[] values;
+    private int size = 0;
+
+    IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean containsKey(int key) {
+        return keys[indexOf(key)] == key;
+    }
+
+    /**
+     * Returns the value for the specified key, or defaultValue if the key isn't
+     * present.
+     */
+    int get(int key, int defaultValue) {
+        int i = indexOf(key);
+        return keys[i] == key ? values[i] : defaultValue;
+    }
+
+    void put(int key, int value) {
+        if (key == EMPTY)
+            throw new IllegalArgumentException("Key " + EMPTY + " is reserved");
+
+        int i = indexOf(key);
+        if (keys[i] != key) {
+            if (size + 1 > keys.length * LOAD_FACTOR) {
+                resize(keys.length * 2);
+                i = indexOf(key);
+            }
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
+
+    }
+
+    /**
+     * Returns a copy of all keys in this map (in no particular order).
+     */
+    int[] keys() {
+        int[] result = new int[size];
+        int count = 0;
+        for (int key : keys)
+            if (key != EMPTY)
+                result[count++] = key;
+
+        return result;
+
+    }
+
+    private int indexOf(int key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (keys[i] != key && keys[i] != EMPTY)
+            i = (i + 1) & mask;
+
+        return i;
+
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY)
+                continue;
+            int j = indexOf(oldKeys[i]);
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+
+    /**
+     * Spreads sequential IDs across the table (from MurmurHash3's finaliser).
+     */
+    static int mix(int key) {
+        int h = key * 0x85ebca6b;
+        h ^= h >>> 16;
+        return h;
+    }
+}
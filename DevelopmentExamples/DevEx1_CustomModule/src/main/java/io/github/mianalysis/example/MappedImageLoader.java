@@ -0,0 +1,132 @@
+package io.github.mianalysis.example;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Plugin;
+
+import ij.ImagePlus;
+import io.github.mianalysis.mia.MIA;
+import io.github.mianalysis.mia.module.Categories;
+import io.github.mianalysis.mia.module.Category;
+import io.github.mianalysis.mia.module.Module;
+import io.github.mianalysis.mia.module.Modules;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.image.Image;
+import io.github.mianalysis.mia.object.image.ImageFactory;
+import io.github.mianalysis.mia.object.parameters.OutputImageP;
+import io.github.mianalysis.mia.object.parameters.Parameters;
+import io.github.mianalysis.mia.object.parameters.SeparatorP;
+import io.github.mianalysis.mia.object.parameters.text.IntegerP;
+import io.github.mianalysis.mia.object.refs.collections.ImageMeasurementRefs;
+import io.github.mianalysis.mia.object.refs.collections.MetadataRefs;
+import io.github.mianalysis.mia.object.refs.collections.ObjMeasurementRefs;
+import io.github.mianalysis.mia.object.refs.collections.ParentChildRefs;
+import io.github.mianalysis.mia.object.refs.collections.PartnerRefs;
+import io.github.mianalysis.mia.object.system.Status;
+
+/**
+ * Loads the current input file (as set by Input control) as a memory-mapped
+ * image. Rather than reading the whole file onto the heap, image planes are
+ * read from the file only when a module requests them. This allows workflows
+ * to run on images much larger than the available memory. The file is only
+ * held open while a plane is being mapped, so nothing needs closing once the
+ * workflow finishes.
+ */
+@Plugin(type = Module.class, priority = Priority.LOW, visible = true)
+public class MappedImageLoader extends Module {
+    public static final String OUTPUT_SEPARATOR = "Image output";
+    public static final String OUTPUT_IMAGE = "Output image";
+    public static final String CACHE_SIZE = "Plane cache size";
+
+    public MappedImageLoader(Modules modules) {
+        super("Load image (memory-mapped)", modules);
+    }
+
+    @Override
+    public Category getCategory() {
+        return Categories.INPUT_OUTPUT;
+    }
+
+    @Override
+    public String getVersionNumber() {
+        return "1.0.0";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Loads the current input file as a memory-mapped image.  Image planes are only read from the file when they're used by a module, so workflows can be run on images larger than the available memory.  Only uncompressed 8-bit, 16-bit and 32-bit greyscale TIFF files are supported.  As with ImageJ virtual stacks, any changes made directly to the loaded image's planes aren't kept.";
+    }
+
+    @Override
+    public Status process(Workspace workspace) {
+        String outputImageName = parameters.getValue(OUTPUT_IMAGE, workspace);
+        int cacheSize = parameters.getValue(CACHE_SIZE, workspace);
+
+        File file = workspace.getMetadata().getFile();
+
+        ImagePlus ipl;
+        try {
+            ipl = MappedTiffStack.open(file, cacheSize);
+        } catch (IOException e) {
+            MIA.log.writeError(e);
+            return Status.FAIL;
+        }
+
+        Image outputImage = ImageFactory.createImage(outputImageName, ipl);
+        workspace.addImage(outputImage);
+
+        if (showOutput)
+            outputImage.show();
+
+        return Status.PASS;
+
+    }
+
+    @Override
+    protected void initialiseParameters() {
+        parameters.add(new SeparatorP(OUTPUT_SEPARATOR, this));
+        parameters.add(new OutputImageP(OUTPUT_IMAGE, this));
+        parameters.add(new IntegerP(CACHE_SIZE, this, MappedTiffStack.DEFAULT_CACHE_SIZE));
+
+    }
+
+    @Override
+    public Parameters updateAndGetParameters() {
+        return parameters;
+
+    }
+
+    @Override
+    public ImageMeasurementRefs updateAndGetImageMeasurementRefs() {
+        return null;
+    }
+
+    @Override
+    public ObjMeasurementRefs updateAndGetObjectMeasurementRefs() {
+        return null;
+
+    }
+
+    @Override
+    public MetadataRefs updateAndGetMetadataReferences() {
+        return null;
+    }
+
+    @Override
+    public ParentChildRefs updateAndGetParentChildRefs() {
+        return null;
+
+    }
+
+    @Override
+    public PartnerRefs updateAndGetPartnerRefs() {
+        return null;
+    }
+
+    @Override
+    public boolean verify() {
+        return true;
+    }
+}
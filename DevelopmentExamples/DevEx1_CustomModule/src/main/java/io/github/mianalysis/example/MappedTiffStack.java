@@ -0,0 +1,286 @@
+package io.github.mianalysis.example;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ij.ImagePlus;
+import ij.VirtualStack;
+import ij.io.FileInfo;
+import ij.io.TiffDecoder;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * A virtual stack backed by a memory-mapped, uncompressed TIFF file. Planes are
+ * only read when requested, at which point the operating system pages in just
+ * that region of the file. The mappings of a small number of recently-used
+ * planes are cached. The file is only held open while a plane is being mapped
+ * (a mapping stays valid once its channel is closed), so no file handle is
+ * kept by images which are never explicitly closed, e.g. when a workflow is
+ * run from MIA. {@link #close()} drops the cached mappings, which lets the
+ * operating system release them sooner.
+ *
+ * As with any ImageJ virtual stack, each call to {@link #getProcessor(int)}
+ * returns a new copy of the plane, so changes to it aren't kept. Planes can be
+ * removed with {@link #deleteSlice(int)}, which only affects the stack and not
+ * the file. Only 8-bit, 16-bit and 32-bit greyscale images without compression
+ * are supported.
+ */
+public class MappedTiffStack extends VirtualStack implements Closeable {
+    public static final int DEFAULT_CACHE_SIZE = 4;
+
+    private final File file;
+    private final int width;
+    private final int height;
+    private final int fileType;
+    private final ByteOrder byteOrder;
+    private final LinkedHashMap<Long, MappedByteBuffer> cache;
+
+    // File offset of each plane in stack order.  Deleting a plane only removes its
+    // offset, so planes are still read from their original position.
+    private long[] offsets;
+
+    private MappedTiffStack(File file, FileInfo info, long[] offsets, int cacheSize) {
+        super(info.width, info.height, null, file.getParent());
+        this.file = file;
+        this.width = info.width;
+        this.height = info.height;
+        this.fileType = info.fileType;
+        this.byteOrder = info.intelByteOrder ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        this.offsets = offsets;
+
+        cache = new LinkedHashMap<Long, MappedByteBuffer>(cacheSize * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, MappedByteBuffer> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Opens a TIFF file as a memory-mapped ImagePlus. Dimensions (channels,
+     * slices and frames) and spatial calibration are taken from the file's
+     * ImageJ metadata where present.
+     *
+     * @param file TIFF file to open
+     * @return The image
+     * @throws IOException If the file can't be read or isn't an uncompressed
+     *                     8-bit, 16-bit or 32-bit greyscale TIFF
+     */
+    public static ImagePlus open(File file) throws IOException {
+        return open(file, DEFAULT_CACHE_SIZE);
+    }
+
+    public static ImagePlus open(File file, int cacheSize) throws IOException {
+        FileInfo[] infos = new TiffDecoder(file.getParent() + File.separator, file.getName()).getTiffInfo();
+        if (infos == null || infos.length == 0)
+            throw new IOException("Unable to read TIFF information from " + file.getAbsolutePath());
+
+        FileInfo info = infos[0];
+        if (info.compression != FileInfo.COMPRESSION_NONE)
+            throw new IOException("Memory-mapped loading only supports uncompressed TIFF files");
+        if (getBytesPerPixel(info.fileType) == 0)
+            throw new IOException("Memory-mapped loading only supports 8-bit, 16-bit and 32-bit greyscale images");
+
+        // ImageJ-written stacks are described by a single FileInfo with evenly-spaced
+        // planes, whereas other stacks have one FileInfo per plane
+        long planeBytes = (long) info.width * info.height * getBytesPerPixel(info.fileType);
+        long[] offsets;
+        if (infos.length == 1 && info.nImages > 1) {
+            offsets = new long[info.nImages];
+            for (int i = 0; i < offsets.length; i++)
+                offsets[i] = info.getOffset() + i * (planeBytes + info.gapBetweenImages);
+        } else {
+            offsets = new long[infos.length];
+            for (int i = 0; i < infos.length; i++)
+                offsets[i] = infos[i].getOffset();
+        }
+
+        MappedTiffStack stack = new MappedTiffStack(file, info, offsets, cacheSize);
+        ImagePlus ipl = new ImagePlus(file.getName(), stack);
+
+        int nChannels = getDescriptionValue(info.description, "channels", 1);
+        int nSlices = getDescriptionValue(info.description, "slices", 1);
+        int nFrames = getDescriptionValue(info.description, "frames", 1);
+        if (nChannels * nSlices * nFrames == offsets.length)
+            ipl.setDimensions(nChannels, nSlices, nFrames);
+        else
+            ipl.setDimensions(1, offsets.length, 1);
+
+        Calibration calibration = ipl.getCalibration();
+        calibration.pixelWidth = info.pixelWidth;
+        calibration.pixelHeight = info.pixelHeight;
+        calibration.pixelDepth = info.pixelDepth;
+        calibration.frameInterval = info.frameInterval;
+        if (info.unit != null)
+            calibration.setUnit(info.unit);
+
+        return ipl;
+
+    }
+
+    @Override
+    public int getSize() {
+        return offsets.length;
+    }
+
+    @Override
+    public String getSliceLabel(int n) {
+        return null;
+    }
+
+    /**
+     * Returns a new copy of a plane. The plane is copied directly from its mapped
+     * region of the file, so this is the only copy made.
+     */
+    @Override
+    public Object getPixels(int n) {
+        MappedByteBuffer buffer;
+        try {
+            buffer = getBuffer(n);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read plane " + n + " of " + file.getName(), e);
+        }
+
+        // Each read uses its own view of the buffer, so planes can be read from
+        // multiple threads at once.  Duplicates don't keep the byte order.
+        ByteBuffer view = buffer.duplicate().order(byteOrder);
+        int nPixels = width * height;
+        switch (fileType) {
+            case FileInfo.GRAY8:
+                byte[] bytes = new byte[nPixels];
+                view.get(bytes);
+                return bytes;
+            case FileInfo.GRAY16_UNSIGNED:
+                short[] shorts = new short[nPixels];
+                view.asShortBuffer().get(shorts);
+                return shorts;
+            default:
+                float[] floats = new float[nPixels];
+                view.asFloatBuffer().get(floats);
+                return floats;
+        }
+    }
+
+    @Override
+    public ImageProcessor getProcessor(int n) {
+        Object pixels = getPixels(n);
+        if (pixels instanceof byte[])
+            return new ByteProcessor(width, height, (byte[]) pixels);
+        else if (pixels instanceof short[])
+            return new ShortProcessor(width, height, (short[]) pixels, null);
+        else
+            return new FloatProcessor(width, height, (float[]) pixels);
+    }
+
+    @Override
+    public int getBitDepth() {
+        switch (fileType) {
+            case FileInfo.GRAY8:
+                return 8;
+            case FileInfo.GRAY16_UNSIGNED:
+                return 16;
+            default:
+                return 32;
+        }
+    }
+
+    @Override
+    public void deleteSlice(int n) {
+        if (n < 1 || n > offsets.length)
+            throw new IllegalArgumentException("Argument out of range: " + n);
+
+        long[] newOffsets = new long[offsets.length - 1];
+        System.arraycopy(offsets, 0, newOffsets, 0, n - 1);
+        System.arraycopy(offsets, n, newOffsets, n - 1, offsets.length - n);
+        offsets = newOffsets;
+
+    }
+
+    /**
+     * Adds a description of where a plane is read from to a digest. Planes can't
+     * be changed through the stack, so this identifies the plane's pixels without
+     * reading them.
+     */
+    void updateDigest(MessageDigest digest, int n) {
+        String description = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified() + "|"
+                + offsets[n - 1] + "|" + width + "|" + height + "|" + fileType + "|" + byteOrder;
+        digest.update(description.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Drops the cached plane mappings. The file isn't held open between reads, so
+     * this doesn't need to be called, but it lets the mappings be released
+     * without waiting for garbage collection. Planes can still be read
+     * afterwards, in which case they're mapped again.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns the mapped region of the file holding a plane. Mappings are cached by
+     * file offset, so remain valid when planes are deleted.
+     */
+    private MappedByteBuffer getBuffer(int n) throws IOException {
+        long offset = offsets[n - 1];
+        synchronized (cache) {
+            MappedByteBuffer buffer = cache.get(offset);
+            if (buffer != null)
+                return buffer;
+        }
+
+        long planeBytes = (long) width * height * getBytesPerPixel(fileType);
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, planeBytes);
+        }
+
+        synchronized (cache) {
+            cache.put(offset, buffer);
+        }
+
+        return buffer;
+
+    }
+
+    static int getBytesPerPixel(int fileType) {
+        switch (fileType) {
+            case FileInfo.GRAY8:
+                return 1;
+            case FileInfo.GRAY16_UNSIGNED:
+                return 2;
+            case FileInfo.GRAY32_FLOAT:
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
+    static int getDescriptionValue(String description, String key, int defaultValue) {
+        if (description == null)
+            return defaultValue;
+
+        Matcher matcher = Pattern.compile("(?m)^" + key + "=(\\d+)").matcher(description);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : defaultValue;
+
+    }
+}
@@ -0,0 +1,295 @@
+package io.github.mianalysis.example;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import io.github.mianalysis.mia.object.Measurement;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+
+/**
+ * Column-oriented measurement storage for an object collection, with one
+ * primitive double array per measurement name. This is an optional
+ * alternative to storing a Measurement object in each object's measurement
+ * map.
+ *
+ * Rows follow the collection's iteration order at the time the columns were
+ * created. Missing values are stored as NaN. Filters are evaluated over a
+ * whole column at once, in tight loops over the primitive array, and return a
+ * bit mask with one bit per row. Objects selected by a mask are then removed
+ * from the collection (and the columns compacted) in a single pass.
+ *
+ * Values can be copied to each object as standard Measurements with
+ * {@link #writeMeasurements()} for modules which read measurements from
+ * objects.
+ */
+public class MeasurementColumns {
+    /**
+     * Filter methods, named as in MIA's FilterByMeasurement module. Objects are
+     * selected if their value satisfies the comparison with the reference value.
+     */
+    public interface FilterMethods {
+        String LESS_THAN = "Less than";
+        String LESS_THAN_OR_EQUAL_TO = "Less than or equal to";
+        String EQUAL_TO = "Equal to";
+        String GREATER_THAN_OR_EQUAL_TO = "Greater than or equal to";
+        String GREATER_THAN = "Greater than";
+        String NOT_EQUAL_TO = "Not equal to";
+
+        String[] ALL = new String[] { LESS_THAN, LESS_THAN_OR_EQUAL_TO, EQUAL_TO, GREATER_THAN_OR_EQUAL_TO,
+                GREATER_THAN, NOT_EQUAL_TO };
+
+    }
+
+    private final Objs objects;
+    private final Map<String, double[]> columns = new LinkedHashMap<>();
+    private int[] IDs;
+    private IntIntMap rows;
+    private int size;
+
+    /**
+     * Creates empty columns for the objects currently in the collection.
+     */
+    public MeasurementColumns(Objs objects) {
+        this.objects = objects;
+        this.size = objects.size();
+
+        IDs = new int[size];
+        int row = 0;
+        for (Obj obj : objects.values())
+            IDs[row++] = obj.getID();
+
+        indexRows();
+
+    }
+
+    /**
+     * Creates columns holding a copy of the measurements already stored in each
+     * object.
+     */
+    public static MeasurementColumns fromMeasurements(Objs objects) {
+        MeasurementColumns result = new MeasurementColumns(objects);
+
+        int row = 0;
+        for (Obj obj : objects.values()) {
+            for (Measurement measurement : obj.getMeasurements().values())
+                result.getOrAddColumn(measurement.getName())[row] = measurement.getValue();
+            row++;
+        }
+
+        return result;
+
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Set<String> getNames() {
+        return columns.keySet();
+    }
+
+    /**
+     * Returns the object ID of each row.
+     */
+    public int[] getIDs() {
+        return Arrays.copyOf(IDs, size);
+    }
+
+    /**
+     * Returns the column for a measurement, or null if it doesn't exist. The array
+     * is the stored column (not a copy), so can be written to directly. It may be
+     * longer than {@link #size()}.
+     */
+    public double[] getColumn(String name) {
+        return columns.get(name);
+    }
+
+    /**
+     * Returns the column for a measurement, creating it (filled with NaN) if
+     * necessary.
+     */
+    public double[] getOrAddColumn(String name) {
+        return columns.computeIfAbsent(name, n -> {
+            double[] column = new double[size];
+            Arrays.fill(column, Double.NaN);
+            return column;
+        });
+    }
+
+    public double getValue(String name, int ID) {
+        double[] column = columns.get(name);
+        int row = rows.get(ID, -1);
+        return column == null || row == -1 ? Double.NaN : column[row];
+    }
+
+    public void setValue(String name, int ID, double value) {
+        int row = rows.get(ID, -1);
+        if (row == -1)
+            throw new IllegalArgumentException("No object with ID " + ID);
+        getOrAddColumn(name)[row] = value;
+    }
+
+    /**
+     * Selects rows whose value satisfies a filter. Rows with a NaN value are never
+     * selected.
+     *
+     * @param name      Measurement to filter on
+     * @param method    One of {@link FilterMethods}
+     * @param reference Value each row is compared with
+     * @return Bit mask with bit (row % 64) of word (row / 64) set for selected
+     *         rows
+     */
+    public long[] select(String name, String method, double reference) {
+        double[] column = columns.get(name);
+        if (column == null)
+            throw new IllegalArgumentException("No measurement named \"" + name + "\"");
+
+        // The comparison is chosen once, outside the loops, so each loop body is a
+        // single branch-free comparison the JIT can unroll
+        long[] mask = new long[(size + 63) >>> 6];
+        switch (method) {
+            case FilterMethods.LESS_THAN:
+                for (int word = 0; word < mask.length; word++) {
+                    long bits = 0;
+                    int end = Math.min(64, size - (word << 6));
+                    for (int j = 0; j < end; j++)
+                        bits |= (column[(word << 6) + j] < reference ? 1L : 0L) << j;
+                    mask[word] = bits;
+                }
+                break;
+            case FilterMethods.LESS_THAN_OR_EQUAL_TO:
+                for (int word = 0; word < mask.length; word++) {
+                    long bits = 0;
+                    int end = Math.min(64, size - (word << 6));
+                    for (int j = 0; j < end; j++)
+                        bits |= (column[(word << 6) + j] <= reference ? 1L : 0L) << j;
+                    mask[word] = bits;
+                }
+                break;
+            case FilterMethods.EQUAL_TO:
+                for (int word = 0; word < mask.length; word++) {
+                    long bits = 0;
+                    int end = Math.min(64, size - (word << 6));
+                    for (int j = 0; j < end; j++)
+                        bits |= (column[(word << 6) + j] == reference ? 1L : 0L) << j;
+                    mask[word] = bits;
+                }
+                break;
+            case FilterMethods.GREATER_THAN_OR_EQUAL_TO:
+                for (int word = 0; word < mask.length; word++) {
+                    long bits = 0;
+                    int end = Math.min(64, size - (word << 6));
+                    for (int j = 0; j < end; j++)
+                        bits |= (column[(word << 6) + j] >= reference ? 1L : 0L) << j;
+                    mask[word] = bits;
+                }
+                break;
+            case FilterMethods.GREATER_THAN:
+                for (int word = 0; word < mask.length; word++) {
+                    long bits = 0;
+                    int end = Math.min(64, size - (word << 6));
+                    for (int j = 0; j < end; j++)
+                        bits |= (column[(word << 6) + j] > reference ? 1L : 0L) << j;
+                    mask[word] = bits;
+                }
+                break;
+            case FilterMethods.NOT_EQUAL_TO:
+                // NaN != reference is true, so NaN rows are excluded explicitly
+                for (int word = 0; word < mask.length; word++) {
+                    long bits = 0;
+                    int end = Math.min(64, size - (word << 6));
+                    for (int j = 0; j < end; j++) {
+                        double value = column[(word << 6) + j];
+                        bits |= (value != reference && value == value ? 1L : 0L) << j;
+                    }
+                    mask[word] = bits;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown filter method \"" + method + "\"");
+        }
+
+        return mask;
+
+    }
+
+    /**
+     * Returns the number of rows selected by a mask.
+     */
+    public static int count(long[] mask) {
+        int count = 0;
+        for (long word : mask)
+            count += Long.bitCount(word);
+
+        return count;
+
+    }
+
+    /**
+     * Removes the objects selected by a mask from the collection, along with their
+     * relationships, and removes their rows from every column. Both are done in a
+     * single pass.
+     *
+     * @param mask Mask returned by {@link #select}
+     * @return The number of objects removed
+     * @throws IllegalStateException If objects have been added to or removed from
+     *                               the collection since the columns were created
+     */
+    public int removeSelected(long[] mask) {
+        if (objects.size() != size)
+            throw new IllegalStateException("Collection \"" + objects.getName() + "\" has changed size");
+
+        int nRemoved = count(mask);
+        if (nRemoved == 0)
+            return 0;
+
+        objects.values().removeIf(obj -> {
+            int i = rows.get(obj.getID(), -1);
+            if (i == -1 || (mask[i >>> 6] & (1L << i)) == 0)
+                return false;
+            obj.removeRelationships();
+            return true;
+        });
+
+        int[] kept = new int[size - nRemoved];
+        int nKept = 0;
+        for (int i = 0; i < size; i++)
+            if ((mask[i >>> 6] & (1L << i)) == 0)
+                kept[nKept++] = i;
+
+        for (double[] column : columns.values())
+            for (int i = 0; i < nKept; i++)
+                column[i] = column[kept[i]];
+        for (int i = 0; i < nKept; i++)
+            IDs[i] = IDs[kept[i]];
+
+        size = nKept;
+        indexRows();
+
+        return nRemoved;
+
+    }
+
+    /**
+     * Adds every column to each object as a standard Measurement. Missing values
+     * are added as NaN measurements.
+     */
+    public void writeMeasurements() {
+        for (Obj obj : objects.values()) {
+            int row = rows.get(obj.getID(), -1);
+            if (row == -1)
+                continue;
+            for (Map.Entry<String, double[]> column : columns.entrySet())
+                obj.addMeasurement(new Measurement(column.getKey(), column.getValue()[row]));
+        }
+    }
+
+    private void indexRows() {
+        rows = new IntIntMap(size);
+        for (int i = 0; i < size; i++)
+            rows.put(IDs[i], i);
+    }
+}
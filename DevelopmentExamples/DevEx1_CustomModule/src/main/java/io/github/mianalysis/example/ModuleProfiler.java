@@ -0,0 +1,222 @@
+package io.github.mianalysis.example;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import io.github.mianalysis.mia.MIA;
+import io.github.mianalysis.mia.module.Module;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.system.Status;
+
+/**
+ * Records wall time, CPU time, allocated memory and workspace contents for each
+ * module run through {@link #execute(Module, Workspace)}. Modules can also time
+ * named sections of their own code with
+ * {@link #startSectionTimer(Module, String)}.
+ *
+ * Profiling is opt-in: the profiler is only created (and registered with JMX)
+ * when a runner requests it, as HeadlessRunner does for "--profile", or when
+ * the {@value #ENABLED_PROPERTY} system property is "true". Until then,
+ * section timers record nothing.
+ *
+ * Statistics are accumulated per module (by nickname) across all workspaces
+ * and are available over JMX (as {@value #OBJECT_NAME}) or as an Excel sheet
+ * via {@link #addSheet(Workbook, String)}. CPU time and allocated memory are
+ * measured for the calling thread only.
+ */
+public class ModuleProfiler implements ModuleProfilerMXBean {
+    public static final String OBJECT_NAME = "io.github.mianalysis.example:type=ModuleProfiler";
+    public static final String ENABLED_PROPERTY = "mia.example.profile";
+
+    private static ModuleProfiler instance = null;
+
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final LinkedHashMap<String, ModuleTiming> timings = new LinkedHashMap<>();
+
+    /**
+     * Times a section of code. Timers should be closed on the same thread they
+     * were started on, ideally using try-with-resources.
+     */
+    public static class Timer implements AutoCloseable {
+        // Timer returned while profiling is disabled, which records nothing
+        private static final Timer NO_OP = new Timer(null, null);
+
+        private final ModuleProfiler profiler;
+        private final ModuleTiming timing;
+        private final long wallStart;
+        private final long cpuStart;
+        private final long allocatedStart;
+
+        private Timer(ModuleProfiler profiler, ModuleTiming timing) {
+            this.profiler = profiler;
+            this.timing = timing;
+            if (profiler == null) {
+                wallStart = 0;
+                cpuStart = 0;
+                allocatedStart = 0;
+            } else {
+                wallStart = System.nanoTime();
+                cpuStart = profiler.getCpuTime();
+                allocatedStart = profiler.getAllocatedBytes();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (profiler != null)
+                timing.add(System.nanoTime() - wallStart, profiler.getCpuTime() - cpuStart,
+                        profiler.getAllocatedBytes() - allocatedStart);
+        }
+    }
+
+    /**
+     * Returns the shared profiler, registering it with the platform MBean server
+     * the first time it's requested.
+     */
+    public static synchronized ModuleProfiler getInstance() {
+        if (instance == null) {
+            instance = new ModuleProfiler();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                MIA.log.writeWarning("Unable to register module profiler with JMX (" + e.getMessage() + ")");
+            }
+        }
+
+        return instance;
+
+    }
+
+    /**
+     * Returns the shared profiler if profiling is enabled, or null if it isn't.
+     * Profiling is enabled once {@link #getInstance()} has been called or if the
+     * {@value #ENABLED_PROPERTY} system property is "true".
+     */
+    public static synchronized ModuleProfiler getEnabledInstance() {
+        if (instance == null && !Boolean.getBoolean(ENABLED_PROPERTY))
+            return null;
+
+        return getInstance();
+
+    }
+
+    /**
+     * Starts a named timer for a section of a module if profiling is enabled (see
+     * {@link #getEnabledInstance()}). Otherwise, a shared timer which records
+     * nothing is returned, so sections can be timed unconditionally.
+     *
+     * @param module Module the section belongs to
+     * @param name   Name of the section (e.g. "intensity")
+     * @return A timer, which records its results (if enabled) when closed
+     */
+    public static Timer startSectionTimer(Module module, String name) {
+        ModuleProfiler profiler = getEnabledInstance();
+        return profiler == null ? Timer.NO_OP : profiler.startTimer(module, name);
+    }
+
+    /**
+     * Runs a module on a workspace, recording its statistics.
+     *
+     * @param module    Module to run
+     * @param workspace Workspace to run the module on
+     * @return The status returned by the module
+     */
+    public Status execute(Module module, Workspace workspace) {
+        ModuleTiming timing = getTiming(module.getNickname());
+
+        Status status;
+        try (Timer timer = new Timer(this, timing)) {
+            status = module.execute(workspace);
+        }
+
+        long nObjects = 0;
+        for (Objs objects : workspace.getObjects().values())
+            nObjects += objects.size();
+        timing.setWorkspaceCounts(workspace.getImages().size(), workspace.getObjects().size(), nObjects);
+
+        return status;
+
+    }
+
+    /**
+     * Starts a named timer for a section of a module. Results are recorded under
+     * "[module nickname] / [name]".
+     *
+     * @param module Module the section belongs to
+     * @param name   Name of the section (e.g. "intensity")
+     * @return A running timer, which records its results when closed
+     */
+    public Timer startTimer(Module module, String name) {
+        return new Timer(this, getTiming(module.getNickname() + " / " + name));
+    }
+
+    @Override
+    public synchronized List<ModuleTiming> getTimings() {
+        return new ArrayList<>(timings.values());
+    }
+
+    @Override
+    public synchronized void reset() {
+        timings.clear();
+    }
+
+    /**
+     * Adds a sheet to the workbook with one row per module (or module section).
+     *
+     * @param workbook  Workbook to add the sheet to
+     * @param sheetName Name of the new sheet
+     */
+    public void addSheet(Workbook workbook, String sheetName) {
+        Sheet sheet = workbook.createSheet(sheetName);
+
+        String[] headers = new String[] { "MODULE", "CALLS", "WALL_TIME_(MS)", "CPU_TIME_(MS)", "ALLOCATED_(MB)",
+                "N_IMAGES", "N_OBJECT_COLLECTIONS", "N_OBJECTS" };
+        Row headerRow = sheet.createRow(0);
+        for (int i = 0; i < headers.length; i++)
+            headerRow.createCell(i).setCellValue(headers[i]);
+
+        int rowIndex = 1;
+        for (ModuleTiming timing : getTimings()) {
+            Row row = sheet.createRow(rowIndex++);
+            row.createCell(0).setCellValue(timing.getName());
+            row.createCell(1).setCellValue(timing.getCalls());
+            row.createCell(2).setCellValue(timing.getWallTimeMs());
+            row.createCell(3).setCellValue(timing.getCpuTimeMs());
+            row.createCell(4).setCellValue(timing.getAllocatedBytes() / 1048576d);
+            row.createCell(5).setCellValue(timing.getNImages());
+            row.createCell(6).setCellValue(timing.getNObjectCollections());
+            row.createCell(7).setCellValue(timing.getNObjects());
+        }
+    }
+
+    private synchronized ModuleTiming getTiming(String name) {
+        return timings.computeIfAbsent(name, ModuleTiming::new);
+    }
+
+    private long getCpuTime() {
+        return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    private long getAllocatedBytes() {
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+            return 0;
+
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) threadBean;
+        if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled())
+            return 0;
+
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+
+    }
+}
@@ -0,0 +1,14 @@
+package io.github.mianalysis.example;
+
+import java.util.List;
+
+/**
+ * JMX interface for {@link ModuleProfiler}. Registered under the name
+ * {@value ModuleProfiler#OBJECT_NAME}.
+ */
+public interface ModuleProfilerMXBean {
+    public List<ModuleTiming> getTimings();
+
+    public void reset();
+
+}
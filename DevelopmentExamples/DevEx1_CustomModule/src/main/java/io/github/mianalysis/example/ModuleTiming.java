@@ -0,0 +1,84 @@
+package io.github.mianalysis.example;
+
+/**
+ * Accumulated timing, CPU and memory statistics for a single module (or a named
+ * section within a module). Instances are exposed over JMX by
+ * {@link ModuleProfiler}, so all values are available through getters.
+ */
+public class ModuleTiming {
+    private final String name;
+    private long calls = 0;
+    private long wallTimeNs = 0;
+    private long cpuTimeNs = 0;
+    private long allocatedBytes = 0;
+    private int nImages = 0;
+    private int nObjectCollections = 0;
+    private long nObjects = 0;
+
+    public ModuleTiming(String name) {
+        this.name = name;
+    }
+
+    synchronized void add(long wallTimeNs, long cpuTimeNs, long allocatedBytes) {
+        this.calls++;
+        this.wallTimeNs += wallTimeNs;
+        this.cpuTimeNs += cpuTimeNs;
+        this.allocatedBytes += allocatedBytes;
+    }
+
+    synchronized void setWorkspaceCounts(int nImages, int nObjectCollections, long nObjects) {
+        this.nImages = nImages;
+        this.nObjectCollections = nObjectCollections;
+        this.nObjects = nObjects;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized long getCalls() {
+        return calls;
+    }
+
+    public synchronized double getWallTimeMs() {
+        return wallTimeNs / 1e6;
+    }
+
+    /**
+     * CPU time of the thread which ran the module. Work done by any threads
+     * started by the module isn't included.
+     */
+    public synchronized double getCpuTimeMs() {
+        return cpuTimeNs / 1e6;
+    }
+
+    /**
+     * Bytes allocated by the thread which ran the module. As with CPU time,
+     * allocations by other threads aren't included.
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Number of images in the workspace after the module last ran.
+     */
+    public synchronized int getNImages() {
+        return nImages;
+    }
+
+    /**
+     * Number of object collections in the workspace after the module last ran.
+     */
+    public synchronized int getNObjectCollections() {
+        return nObjectCollections;
+    }
+
+    /**
+     * Total number of objects (across all collections) in the workspace after the
+     * module last ran.
+     */
+    public synchronized long getNObjects() {
+        return nObjects;
+    }
+}
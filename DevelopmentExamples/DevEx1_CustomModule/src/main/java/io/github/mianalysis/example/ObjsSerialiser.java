@@ -0,0 +1,419 @@
+package io.github.mianalysis.example;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import io.github.mianalysis.mia.object.Measurement;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.Point;
+import io.github.mianalysis.mia.object.coordinates.volume.PointOutOfRangeException;
+import io.github.mianalysis.mia.object.coordinates.volume.SpatCal;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+import ome.units.UNITS;
+import ome.units.quantity.Time;
+import ome.units.unit.Unit;
+
+/**
+ * Reads and writes object collections in a compact binary format. A file holds
+ * one or more collections, including each object's coordinates, timepoint,
+ * storage type and measurements, as well as parent, child and partner
+ * relationships between objects in the written collections.
+ *
+ * Coordinates are run-length encoded: each object's coordinates are sorted by
+ * Z, then Y, then X and stored as horizontal runs of (z, y, x, length). Solid
+ * objects such as nuclei need one run per row rather than one entry per pixel.
+ * Names (collections, measurements, units and storage types) are written once
+ * to a string table and referred to by index.
+ *
+ * Files are read through a memory-mapped buffer, so no intermediate stream
+ * copies are made. The layout is:
+ *
+ * <pre>
+ * MAGIC, VERSION
+ * nStrings, (length, UTF-8 bytes)...
+ * nCollections, for each collection:
+ *     name, width, height, nSlices, dppXY, dppZ, units, nFrames, frameInterval,
+ *     temporalUnit
+ *     nObjects, for each object:
+ *         ID, T, volumeType, nRuns, (z, y, x, length)...
+ *         nMeasurements, (name, value)...
+ * for each collection, for each object:
+ *     nParents, (collection, ID)...
+ *     nPartners, (collection, ID)...
+ * </pre>
+ *
+ * All names are string table indices and collections in relationships are
+ * indices into the written collections. Children are restored from their
+ * parents' links, so aren't written separately.
+ *
+ * Each coordinate is packed into 21 bits for sorting, so collections with a
+ * width, height or number of slices greater than {@link #MAX_DIMENSION} can't
+ * be written. Temporal units are stored by symbol, so only the units in
+ * {@link #TEMPORAL_UNITS} can be written.
+ */
+public class ObjsSerialiser {
+    public static final int MAGIC = 0x4D49414F;
+    public static final int VERSION = 2;
+    public static final int MAX_DIMENSION = 1 << 21;
+
+    /**
+     * Temporal units which collections can be written with.
+     */
+    public static final List<Unit<Time>> TEMPORAL_UNITS = Arrays.asList(UNITS.NANOSECOND, UNITS.MICROSECOND,
+            UNITS.MILLISECOND, UNITS.SECOND, UNITS.MINUTE, UNITS.HOUR, UNITS.DAY);
+
+    /**
+     * Writes the collections to a file, replacing any existing file.
+     */
+    public static void write(Collection<Objs> collections, File file) throws IOException {
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            write(collections, outputStream);
+        }
+    }
+
+    public static void write(Collection<Objs> collections, OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(outputStream);
+
+        List<Objs> collectionList = new ArrayList<>(collections);
+        for (Objs objects : collectionList) {
+            SpatCal cal = objects.getSpatialCalibration();
+            if (cal.width > MAX_DIMENSION || cal.height > MAX_DIMENSION || cal.nSlices > MAX_DIMENSION)
+                throw new IOException(String.format("Unable to write \"%s\": dimensions %d x %d x %d exceed %d",
+                        objects.getName(), cal.width, cal.height, cal.nSlices, MAX_DIMENSION));
+            if (getTemporalUnit(objects.getTemporalUnit().getSymbol()) == null)
+                throw new IOException(String.format("Unable to write \"%s\": unsupported temporal unit %s",
+                        objects.getName(), objects.getTemporalUnit().getSymbol()));
+        }
+
+        HashMap<String, Integer> collectionIndices = new HashMap<>();
+        for (int i = 0; i < collectionList.size(); i++)
+            collectionIndices.put(collectionList.get(i).getName(), i);
+
+        StringTable strings = new StringTable();
+        for (Objs objects : collectionList) {
+            strings.add(objects.getName());
+            strings.add(objects.getSpatialCalibration().units);
+            strings.add(objects.getTemporalUnit().getSymbol());
+            for (Obj obj : objects.values()) {
+                strings.add(obj.getVolumeType().name());
+                for (String measurementName : obj.getMeasurements().keySet())
+                    strings.add(measurementName);
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        out.writeInt(strings.size());
+        for (String string : strings.getStrings()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        out.writeInt(collectionList.size());
+        for (Objs objects : collectionList) {
+            SpatCal cal = objects.getSpatialCalibration();
+            out.writeInt(strings.get(objects.getName()));
+            out.writeInt(cal.width);
+            out.writeInt(cal.height);
+            out.writeInt(cal.nSlices);
+            out.writeDouble(cal.dppXY);
+            out.writeDouble(cal.dppZ);
+            out.writeInt(strings.get(cal.units));
+            out.writeInt(objects.getNFrames());
+            out.writeDouble(objects.getFrameInterval());
+            out.writeInt(strings.get(objects.getTemporalUnit().getSymbol()));
+
+            out.writeInt(objects.size());
+            for (Obj obj : objects.values()) {
+                out.writeInt(obj.getID());
+                out.writeInt(obj.getT());
+                out.writeInt(strings.get(obj.getVolumeType().name()));
+                writeRuns(out, obj);
+
+                out.writeInt(obj.getMeasurements().size());
+                for (Measurement measurement : obj.getMeasurements().values()) {
+                    out.writeInt(strings.get(measurement.getName()));
+                    out.writeDouble(measurement.getValue());
+                }
+            }
+        }
+
+        for (Objs objects : collectionList) {
+            for (Obj obj : objects.values()) {
+                writeLinks(out, obj.getParents(false).values(), collectionIndices);
+
+                List<Obj> partners = new ArrayList<>();
+                for (Objs partnerObjects : obj.getPartners().values())
+                    partners.addAll(partnerObjects.values());
+                writeLinks(out, partners, collectionIndices);
+
+            }
+        }
+
+        out.flush();
+
+    }
+
+    /**
+     * Reads all collections from a file. The file is memory-mapped for reading and
+     * unmapped once the buffer is garbage collected.
+     */
+    public static List<Objs> read(File file) throws IOException {
+        ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        return read(buffer);
+
+    }
+
+    /**
+     * Reads all collections from a buffer. Truncated or corrupt data is reported
+     * as an IOException.
+     */
+    public static List<Objs> read(ByteBuffer buffer) throws IOException {
+        try {
+            return readCollections(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException
+                | IllegalArgumentException e) {
+            throw new IOException("Corrupt serialised object data", e);
+        }
+    }
+
+    private static List<Objs> readCollections(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC)
+            throw new IOException("Not a serialised object file");
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported serialised object version " + version);
+
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int nCollections = buffer.getInt();
+        List<Objs> collections = new ArrayList<>(nCollections);
+        List<Obj[]> collectionObjects = new ArrayList<>(nCollections);
+        HashMap<Integer, Obj>[] byID = newIDMaps(nCollections);
+        for (int i = 0; i < nCollections; i++) {
+            String name = strings[buffer.getInt()];
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int nSlices = buffer.getInt();
+            double dppXY = buffer.getDouble();
+            double dppZ = buffer.getDouble();
+            String units = strings[buffer.getInt()];
+            int nFrames = buffer.getInt();
+            double frameInterval = buffer.getDouble();
+            String temporalSymbol = strings[buffer.getInt()];
+            Unit<Time> temporalUnit = getTemporalUnit(temporalSymbol);
+            if (temporalUnit == null)
+                throw new IOException("Unknown temporal unit " + temporalSymbol);
+
+            SpatCal cal = new SpatCal(dppXY, dppZ, units, width, height, nSlices);
+            Objs objects = new Objs(name, cal, nFrames, frameInterval, temporalUnit);
+
+            Obj[] ordered = new Obj[buffer.getInt()];
+            byID[i] = new HashMap<>(ordered.length * 2);
+            for (int j = 0; j < ordered.length; j++) {
+                int ID = buffer.getInt();
+                int t = buffer.getInt();
+                VolumeType volumeType = VolumeType.valueOf(strings[buffer.getInt()]);
+
+                Obj obj = objects.createAndAddNewObject(volumeType, ID);
+                obj.setT(t);
+                readRuns(buffer, obj);
+
+                int nMeasurements = buffer.getInt();
+                for (int k = 0; k < nMeasurements; k++)
+                    obj.addMeasurement(new Measurement(strings[buffer.getInt()], buffer.getDouble()));
+
+                ordered[j] = obj;
+                byID[i].put(ID, obj);
+
+            }
+
+            collections.add(objects);
+            collectionObjects.add(ordered);
+
+        }
+
+        for (Obj[] ordered : collectionObjects) {
+            for (Obj obj : ordered) {
+                int nParents = buffer.getInt();
+                for (int k = 0; k < nParents; k++) {
+                    Obj parent = getLinked(byID, buffer.getInt(), buffer.getInt());
+                    obj.addParent(parent);
+                    parent.addChild(obj);
+                }
+
+                int nPartners = buffer.getInt();
+                for (int k = 0; k < nPartners; k++)
+                    obj.addPartner(getLinked(byID, buffer.getInt(), buffer.getInt()));
+            }
+        }
+
+        return collections;
+
+    }
+
+    /**
+     * Writes an object's coordinates as runs of consecutive X positions. Each
+     * coordinate is packed into a long (Z, then Y, then X) so sorting the array
+     * orders coordinates by row.
+     */
+    static void writeRuns(DataOutputStream out, Obj obj) throws IOException {
+        long[] packed = new long[obj.size()];
+        int n = 0;
+        for (Point<Integer> point : obj.getCoordinateSet()) {
+            if (n == packed.length)
+                packed = Arrays.copyOf(packed, Math.max(16, n * 2));
+            packed[n++] = pack(point.x, point.y, point.z);
+        }
+        Arrays.sort(packed, 0, n);
+
+        int nRuns = 0;
+        for (int i = 0; i < n; i++)
+            if (i == 0 || packed[i] != packed[i - 1] + 1)
+                nRuns++;
+        out.writeInt(nRuns);
+
+        int i = 0;
+        while (i < n) {
+            int start = i;
+            while (i + 1 < n && packed[i + 1] == packed[i] + 1)
+                i++;
+            i++;
+
+            out.writeInt(unpackZ(packed[start]));
+            out.writeInt(unpackY(packed[start]));
+            out.writeInt(unpackX(packed[start]));
+            out.writeInt(i - start);
+        }
+    }
+
+    static void readRuns(ByteBuffer buffer, Obj obj) throws IOException {
+        int nRuns = buffer.getInt();
+        try {
+            for (int i = 0; i < nRuns; i++) {
+                int z = buffer.getInt();
+                int y = buffer.getInt();
+                int x = buffer.getInt();
+                int length = buffer.getInt();
+                for (int dx = 0; dx < length; dx++)
+                    obj.add(x + dx, y, z);
+            }
+        } catch (PointOutOfRangeException e) {
+            throw new IOException("Serialised coordinate outside object limits", e);
+        }
+    }
+
+    // Runs of consecutive X differ by one in the packed value, since X occupies
+    // the lowest bits and coordinates can't exceed 21 bits
+    static long pack(int x, int y, int z) {
+        if (((x | y | z) & -MAX_DIMENSION) != 0)
+            throw new IllegalArgumentException(
+                    "Coordinate (" + x + ", " + y + ", " + z + ") outside range 0 to " + (MAX_DIMENSION - 1));
+        return ((long) z << 42) | ((long) y << 21) | x;
+    }
+
+    static int unpackX(long packed) {
+        return (int) (packed & 0x1FFFFF);
+    }
+
+    static int unpackY(long packed) {
+        return (int) ((packed >>> 21) & 0x1FFFFF);
+    }
+
+    static int unpackZ(long packed) {
+        return (int) (packed >>> 42);
+    }
+
+    /**
+     * Returns the temporal unit with a symbol, or null if it isn't one of
+     * {@link #TEMPORAL_UNITS}.
+     */
+    static Unit<Time> getTemporalUnit(String symbol) {
+        for (Unit<Time> unit : TEMPORAL_UNITS)
+            if (unit.getSymbol().equals(symbol))
+                return unit;
+
+        return null;
+
+    }
+
+    private static void writeLinks(DataOutputStream out, Collection<Obj> linked,
+            HashMap<String, Integer> collectionIndices) throws IOException {
+        // Links to collections which aren't being written are dropped
+        int nLinks = 0;
+        for (Obj obj : linked)
+            if (collectionIndices.containsKey(obj.getName()))
+                nLinks++;
+
+        out.writeInt(nLinks);
+        for (Obj obj : linked) {
+            Integer index = collectionIndices.get(obj.getName());
+            if (index == null)
+                continue;
+            out.writeInt(index);
+            out.writeInt(obj.getID());
+        }
+    }
+
+    private static Obj getLinked(HashMap<Integer, Obj>[] byID, int collectionIndex, int ID) throws IOException {
+        Obj obj = byID[collectionIndex].get(ID);
+        if (obj == null)
+            throw new IOException("Missing related object " + ID);
+        return obj;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HashMap<Integer, Obj>[] newIDMaps(int n) {
+        return (HashMap<Integer, Obj>[]) new HashMap[n];
+    }
+
+    private static class StringTable {
+        private final LinkedHashMap<String, Integer> indices = new LinkedHashMap<>();
+
+        void add(String string) {
+            if (string == null)
+                string = "";
+            if (!indices.containsKey(string))
+                indices.put(string, indices.size());
+        }
+
+        int get(String string) {
+            return indices.get(string == null ? "" : string);
+        }
+
+        int size() {
+            return indices.size();
+        }
+
+        Collection<String> getStrings() {
+            return indices.keySet();
+        }
+    }
+}
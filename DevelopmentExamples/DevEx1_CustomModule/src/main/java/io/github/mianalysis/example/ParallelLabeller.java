@@ -0,0 +1,372 @@
+package io.github.mianalysis.example;
+
+import java.util.concurrent.ExecutionException;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.volume.PointOutOfRangeException;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+
+/**
+ * Connected-components labelling of binary stacks using multiple threads.
+ *
+ * The stack is treated as a sequence of rows (all rows of the first slice,
+ * then all rows of the second slice, etc.), with each row reduced to its runs
+ * of foreground pixels. Rows are divided into contiguous slabs, which are
+ * scanned and labelled in parallel. Within each slab, runs are joined to
+ * overlapping runs in the neighbouring rows (the previous row and, for 3D
+ * stacks, the rows of the previous slice) using union-find. Runs touching a
+ * neighbouring slab are then joined on a single thread.
+ *
+ * Each set of joined runs is rooted at its first run in raster order, so
+ * objects are numbered (from 1) in order of their first pixel. This is
+ * independent of the number of threads used.
+ *
+ * Objects are built from the runs, rather than from a label image, so no
+ * per-pixel label lookup is needed.
+ */
+public class ParallelLabeller {
+    private final int width;
+    private final int height;
+    private final int nSlices;
+    private final int nRows;
+
+    private int[] rowStarts;
+    private int[] runStarts;
+    private int[] runEnds;
+    private int[] runLabels;
+    private int nLabels;
+
+    private ParallelLabeller(int width, int height, int nSlices) {
+        this.width = width;
+        this.height = height;
+        this.nSlices = nSlices;
+        this.nRows = height * nSlices;
+    }
+
+    /**
+     * Labels the foreground (non-zero) pixels of one timepoint of an 8-bit
+     * binary image.
+     *
+     * @param ipl              Binary image
+     * @param t                Timepoint to label (zero-indexed)
+     * @param fullConnectivity Whether diagonal neighbours are connected
+     *                         (8-connected in 2D, 26-connected in 3D).
+     *                         Otherwise, only face-neighbours are connected
+     *                         (4/6-connected).
+     * @param nThreads         The maximum number of threads to use
+     * @return The labelling, from which objects can be created
+     */
+    public static ParallelLabeller label(ImagePlus ipl, int t, boolean fullConnectivity, int nThreads)
+            throws InterruptedException, ExecutionException {
+        if (ipl.getBitDepth() != 8)
+            throw new IllegalArgumentException("Only 8-bit binary images are supported");
+
+        ParallelLabeller labeller = new ParallelLabeller(ipl.getWidth(), ipl.getHeight(), ipl.getNSlices());
+
+        ImageStack stack = ipl.getStack();
+        byte[][] planes = new byte[labeller.nSlices][];
+        for (int z = 0; z < labeller.nSlices; z++)
+            planes[z] = (byte[]) stack.getPixels(ipl.getStackIndex(1, z + 1, t + 1));
+
+        labeller.scan(planes, nThreads);
+        labeller.join(fullConnectivity, nThreads);
+        labeller.number();
+
+        return labeller;
+
+    }
+
+    public int getNLabels() {
+        return nLabels;
+    }
+
+    public int getNRuns() {
+        return runStarts.length;
+    }
+
+    /**
+     * Returns the number of pixels in each object. Index 0 is unused, so the size
+     * of the object with label i is at index i.
+     */
+    public int[] getSizes() {
+        int[] sizes = new int[nLabels + 1];
+        for (int i = 0; i < runStarts.length; i++)
+            sizes[runLabels[i]] += runEnds[i] - runStarts[i];
+
+        return sizes;
+
+    }
+
+    /**
+     * Creates one object per label, with object IDs matching the labels.
+     * Coordinates are added run by run in raster order. Objects are created on
+     * the calling thread, then filled in parallel, since each object's
+     * coordinates are independent.
+     *
+     * With an {@link AdaptiveObjectBuilder}, each run is added in a single call.
+     * MIA's Obj only accepts coordinates one at a time (adding a collection would
+     * mean boxing every coordinate as a Point), so with a fixed storage type each
+     * pixel of a run is added individually.
+     *
+     * @param objects    Collection to add objects to
+     * @param volumeType Storage type of every object, or null to select each
+     *                   object's type with an {@link AdaptiveObjectBuilder}
+     * @param t          Timepoint assigned to the objects
+     * @param nThreads   The maximum number of threads to use
+     */
+    public void addObjects(Objs objects, VolumeType volumeType, int t, int nThreads)
+            throws InterruptedException, ExecutionException {
+        // Runs are grouped by label (a counting sort), keeping raster order within
+        // each object
+        int[] labelStarts = new int[nLabels + 2];
+        for (int label : runLabels)
+            labelStarts[label + 1]++;
+        for (int i = 1; i < labelStarts.length; i++)
+            labelStarts[i] += labelStarts[i - 1];
+
+        int[] runRows = new int[runLabels.length];
+        for (int row = 0; row < nRows; row++)
+            for (int i = rowStarts[row]; i < rowStarts[row + 1]; i++)
+                runRows[i] = row;
+
+        int[] labelRuns = new int[runLabels.length];
+        int[] next = new int[nLabels + 1];
+        System.arraycopy(labelStarts, 0, next, 0, nLabels + 1);
+        for (int i = 0; i < runLabels.length; i++)
+            labelRuns[next[runLabels[i]]++] = i;
+
+        if (volumeType == null) {
+            // The builder holds one object at a time, so adaptive objects are built on
+            // the calling thread
+            AdaptiveObjectBuilder builder = new AdaptiveObjectBuilder(objects);
+            for (int label = 1; label <= nLabels; label++) {
+                try {
+                    for (int i = labelStarts[label]; i < labelStarts[label + 1]; i++) {
+                        int run = labelRuns[i];
+                        int row = runRows[run];
+                        builder.addRun(runStarts[run], runEnds[run], row % height, row / height);
+                    }
+                    builder.build().setT(t);
+                } catch (PointOutOfRangeException e) {
+                    // The coordinates come from an image with the same limits, so this
+                    // shouldn't happen
+                    throw new IllegalStateException(e);
+                }
+            }
+            return;
+        }
+
+        Obj[] objs = new Obj[nLabels + 1];
+        for (int label = 1; label <= nLabels; label++) {
+            objs[label] = objects.createAndAddNewObject(volumeType, label);
+            objs[label].setT(t);
+        }
+
+        ExampleModule.runParallel(nLabels, nThreads, index -> {
+            int label = index + 1;
+            Obj obj = objs[label];
+            try {
+                for (int i = labelStarts[label]; i < labelStarts[label + 1]; i++) {
+                    int run = labelRuns[i];
+                    int row = runRows[run];
+                    // Obj has no method to add a run, so pixels are added one at a time
+                    for (int x = runStarts[run]; x < runEnds[run]; x++)
+                        obj.add(x, row % height, row / height);
+                }
+            } catch (PointOutOfRangeException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Finds the runs of foreground pixels in each row. Rows are counted, then
+     * filled, in parallel, with the run arrays laid out in row order.
+     */
+    private void scan(byte[][] planes, int nThreads) throws InterruptedException, ExecutionException {
+        int[] rowCounts = new int[nRows];
+        ExampleModule.runParallel(nRows, nThreads, row -> {
+            byte[] pixels = planes[row / height];
+            int offset = (row % height) * width;
+            int count = 0;
+            for (int x = 0; x < width; x++)
+                if (pixels[offset + x] != 0 && (x == 0 || pixels[offset + x - 1] == 0))
+                    count++;
+            rowCounts[row] = count;
+        });
+
+        rowStarts = new int[nRows + 1];
+        for (int row = 0; row < nRows; row++)
+            rowStarts[row + 1] = rowStarts[row] + rowCounts[row];
+
+        int nRuns = rowStarts[nRows];
+        runStarts = new int[nRuns];
+        runEnds = new int[nRuns];
+
+        ExampleModule.runParallel(nRows, nThreads, row -> {
+            byte[] pixels = planes[row / height];
+            int offset = (row % height) * width;
+            int run = rowStarts[row];
+            int x = 0;
+            while (x < width) {
+                if (pixels[offset + x] == 0) {
+                    x++;
+                    continue;
+                }
+                runStarts[run] = x;
+                while (x < width && pixels[offset + x] != 0)
+                    x++;
+                runEnds[run++] = x;
+            }
+        });
+    }
+
+    /**
+     * Joins overlapping runs in neighbouring rows. The union-find roots are stored
+     * in runLabels until the sets are numbered.
+     */
+    private void join(boolean fullConnectivity, int nThreads) throws InterruptedException, ExecutionException {
+        int nRuns = runStarts.length;
+        runLabels = new int[nRuns];
+        for (int i = 0; i < nRuns; i++)
+            runLabels[i] = i;
+
+        // Several slabs per thread balances the load when foreground is uneven
+        int nSlabs = Math.max(1, Math.min(nRows, nThreads * 4));
+        int[] slabStarts = new int[nSlabs + 1];
+        for (int i = 0; i <= nSlabs; i++)
+            slabStarts[i] = (int) ((long) nRows * i / nSlabs);
+
+        // Each slab only touches its own runs, so slabs can be joined concurrently
+        ExampleModule.runParallel(nSlabs, nThreads, slab -> {
+            for (int row = slabStarts[slab]; row < slabStarts[slab + 1]; row++)
+                joinRow(row, slabStarts[slab], fullConnectivity);
+        });
+
+        // Rows near the start of each slab have neighbours in the previous slab. The
+        // furthest neighbour is one row before the same row of the previous slice.
+        int reach = nSlices > 1 ? height + 1 : 1;
+        for (int slab = 1; slab < nSlabs; slab++) {
+            int start = slabStarts[slab];
+            int end = Math.min(slabStarts[slab + 1], start + reach);
+            for (int row = start; row < end; row++)
+                joinBoundaryRow(row, start, fullConnectivity);
+        }
+    }
+
+    /**
+     * Joins a row's runs to those of its neighbouring rows which are at or after
+     * the start of the slab.
+     */
+    private void joinRow(int row, int slabStart, boolean fullConnectivity) {
+        int y = row % height;
+        int z = row / height;
+        int overlap = fullConnectivity ? 1 : 0;
+
+        if (y > 0 && row - 1 >= slabStart)
+            joinRows(row, row - 1, overlap);
+
+        if (z == 0)
+            return;
+
+        int prevRow = row - height;
+        if (prevRow >= slabStart)
+            joinRows(row, prevRow, overlap);
+
+        if (fullConnectivity) {
+            if (y > 0 && prevRow - 1 >= slabStart)
+                joinRows(row, prevRow - 1, 1);
+            if (y < height - 1 && prevRow + 1 >= slabStart)
+                joinRows(row, prevRow + 1, 1);
+        }
+    }
+
+    /**
+     * Joins a row's runs to those of its neighbouring rows which are before the
+     * start of its slab.
+     */
+    private void joinBoundaryRow(int row, int slabStart, boolean fullConnectivity) {
+        int y = row % height;
+        int z = row / height;
+        int overlap = fullConnectivity ? 1 : 0;
+
+        if (y > 0 && row - 1 < slabStart)
+            joinRows(row, row - 1, overlap);
+
+        if (z == 0)
+            return;
+
+        int prevRow = row - height;
+        if (prevRow < slabStart)
+            joinRows(row, prevRow, overlap);
+
+        if (fullConnectivity) {
+            if (y > 0 && prevRow - 1 < slabStart)
+                joinRows(row, prevRow - 1, 1);
+            if (y < height - 1 && prevRow + 1 < slabStart)
+                joinRows(row, prevRow + 1, 1);
+        }
+    }
+
+    /**
+     * Joins runs in two rows which overlap, with runs extended by "overlap" pixels
+     * at each end to include diagonal neighbours. Both rows' runs are sorted, so
+     * this is a single merge-like pass.
+     */
+    private void joinRows(int row, int otherRow, int overlap) {
+        int i = rowStarts[row];
+        int iEnd = rowStarts[row + 1];
+        int j = rowStarts[otherRow];
+        int jEnd = rowStarts[otherRow + 1];
+
+        while (i < iEnd && j < jEnd) {
+            if (runEnds[j] + overlap <= runStarts[i]) {
+                j++;
+            } else if (runEnds[i] + overlap <= runStarts[j]) {
+                i++;
+            } else {
+                union(i, j);
+                // Whichever run ends first can't overlap any later runs in the other row
+                if (runEnds[i] < runEnds[j])
+                    i++;
+                else
+                    j++;
+            }
+        }
+    }
+
+    private int find(int run) {
+        while (runLabels[run] != run) {
+            // Path halving
+            runLabels[run] = runLabels[runLabels[run]];
+            run = runLabels[run];
+        }
+        return run;
+    }
+
+    // The lower index becomes the root, so each set is rooted at its first run in
+    // raster order regardless of the order runs were joined in
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA < rootB)
+            runLabels[rootB] = rootA;
+        else if (rootB < rootA)
+            runLabels[rootA] = rootB;
+    }
+
+    /**
+     * Replaces the union-find parents with labels numbered from 1 in order of each
+     * set's first run.
+     */
+    private void number() {
+        // A run's parent always has a lower index, so by the time a run is reached
+        // its parent's entry already holds the final label
+        nLabels = 0;
+        for (int i = 0; i < runLabels.length; i++)
+            runLabels[i] = runLabels[i] == i ? ++nLabels : runLabels[runLabels[i]];
+    }
+}
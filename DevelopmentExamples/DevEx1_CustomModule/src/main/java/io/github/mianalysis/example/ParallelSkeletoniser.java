@@ -0,0 +1,163 @@
+package io.github.mianalysis.example;
+
+import java.util.concurrent.ExecutionException;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import io.github.mianalysis.mia.object.Measurement;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.Point;
+import io.github.mianalysis.mia.object.coordinates.volume.PointOutOfRangeException;
+import io.github.mianalysis.mia.object.coordinates.volume.SpatCal;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+import sc.fiji.skeletonize3D.Skeletonize3D_;
+
+/**
+ * Skeletonises the objects of a collection concurrently and measures them from
+ * their {@link SkeletonGraph}.
+ *
+ * Each object is copied into a binary crop of its bounding box (plus a one
+ * pixel border). Objects in a single slice are thinned with ImageJ's 2D
+ * skeletonize operation; objects spanning several slices are thinned in 3D
+ * with the Skeletonize3D plugin (as used for 3D skeletons in MIA), so the
+ * skeleton is connected through Z rather than being a stack of 2D skeletons.
+ * Since every object has its own crop, objects can be thinned in any order and
+ * on any thread. The thinned crop is then converted straight to a skeleton
+ * graph, from which lengths, branch counts and end point counts are read.
+ */
+public class ParallelSkeletoniser {
+    /**
+     * The length measurement has the same name as the one added by MIA's
+     * CreateSkeleton module, so downstream filters on length can be used
+     * unchanged.
+     */
+    public interface Measurements {
+        String SUM_LENGTH_PX = "SKELETON // SUM_LENGTH_(PX)";
+        String N_EDGES = "SKELETON // N_EDGES";
+        String N_JUNCTIONS = "SKELETON // N_JUNCTIONS";
+        String N_END_POINTS = "SKELETON // N_END_POINTS";
+        String LARGEST_SHORTEST_PATH_PX = "SKELETON // LARGEST_SHORTEST_PATH_(PX)";
+
+    }
+
+    /**
+     * Creates the skeleton graph of each object.
+     *
+     * @param objects  Objects to skeletonise
+     * @param nThreads The maximum number of threads to use
+     * @return One graph per object, in the collection's iteration order
+     */
+    public static SkeletonGraph[] skeletonise(Objs objects, int nThreads)
+            throws InterruptedException, ExecutionException {
+        Obj[] objs = objects.values().toArray(new Obj[0]);
+        SpatCal cal = objects.getSpatialCalibration();
+        double anisotropy = cal.dppZ / cal.dppXY;
+
+        SkeletonGraph[] graphs = new SkeletonGraph[objs.length];
+        ExampleModule.runParallel(objs.length, nThreads, i -> graphs[i] = skeletonise(objs[i], anisotropy));
+
+        return graphs;
+
+    }
+
+    /**
+     * Skeletonises a single object from a crop of its bounding box.
+     */
+    public static SkeletonGraph skeletonise(Obj obj, double anisotropy) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for (Point<Integer> point : obj.getCoordinateSet()) {
+            minX = Math.min(minX, point.x);
+            minY = Math.min(minY, point.y);
+            minZ = Math.min(minZ, point.z);
+            maxX = Math.max(maxX, point.x);
+            maxY = Math.max(maxY, point.y);
+            maxZ = Math.max(maxZ, point.z);
+        }
+
+        // The border stops thinning from treating the crop edge as part of the object
+        int width = maxX - minX + 3;
+        int height = maxY - minY + 3;
+        byte[][] planes = new byte[maxZ - minZ + 1][width * height];
+        for (Point<Integer> point : obj.getCoordinateSet())
+            planes[point.z - minZ][(point.y - minY + 1) * width + point.x - minX + 1] = (byte) 255;
+
+        if (planes.length == 1)
+            new ByteProcessor(width, height, planes[0]).skeletonize(255);
+        else
+            planes = skeletonise3D(planes, width, height);
+
+        return SkeletonGraph.build(planes, width, height, minX - 1, minY - 1, minZ, anisotropy);
+
+    }
+
+    /**
+     * Thins a binary stack in 3D. The plugin replaces the image's stack with the
+     * result, so the thinned planes are read back from the image.
+     */
+    static byte[][] skeletonise3D(byte[][] planes, int width, int height) {
+        ImageStack stack = new ImageStack(width, height);
+        for (byte[] plane : planes)
+            stack.addSlice(null, plane);
+        ImagePlus ipl = new ImagePlus("Skeleton", stack);
+
+        Skeletonize3D_ skeletonize3D = new Skeletonize3D_();
+        skeletonize3D.setup("", ipl);
+        skeletonize3D.run(ipl.getProcessor());
+
+        ImageStack thinned = ipl.getStack();
+        byte[][] result = new byte[planes.length][];
+        for (int z = 0; z < planes.length; z++)
+            result[z] = (byte[]) thinned.getPixels(z + 1);
+
+        return result;
+
+    }
+
+    /**
+     * Adds the skeleton measurements to each object.
+     *
+     * @param objects         Objects which were skeletonised
+     * @param graphs          Graphs returned by {@link #skeletonise(Objs, int)}
+     * @param minBranchLength Branches (end point to junction edges) shorter than
+     *                        this length (in pixels) are pruned before any
+     *                        measurement is made
+     */
+    public static void addMeasurements(Objs objects, SkeletonGraph[] graphs, double minBranchLength) {
+        int i = 0;
+        for (Obj obj : objects.values()) {
+            SkeletonGraph graph = graphs[i++];
+            obj.addMeasurement(new Measurement(Measurements.SUM_LENGTH_PX, graph.getSumLength(minBranchLength)));
+            obj.addMeasurement(new Measurement(Measurements.N_EDGES, graph.getNEdges(minBranchLength)));
+            obj.addMeasurement(new Measurement(Measurements.N_JUNCTIONS, graph.getNJunctions(minBranchLength)));
+            obj.addMeasurement(new Measurement(Measurements.N_END_POINTS, graph.getNEndPoints(minBranchLength)));
+            obj.addMeasurement(new Measurement(Measurements.LARGEST_SHORTEST_PATH_PX,
+                    graph.getLargestShortestPath(minBranchLength)));
+        }
+    }
+
+    /**
+     * Creates one skeleton object per input object, as a child of that object.
+     *
+     * @param objects   Objects which were skeletonised
+     * @param graphs    Graphs returned by {@link #skeletonise(Objs, int)}
+     * @param skeletons Collection to add skeleton objects to
+     */
+    public static void addSkeletonObjects(Objs objects, SkeletonGraph[] graphs, Objs skeletons)
+            throws PointOutOfRangeException {
+        int i = 0;
+        for (Obj obj : objects.values()) {
+            SkeletonGraph graph = graphs[i++];
+            Obj skeleton = skeletons.createAndAddNewObject(VolumeType.POINTLIST);
+            for (int pixel = 0; pixel < graph.getNPixels(); pixel++)
+                skeleton.add(graph.getX(pixel), graph.getY(pixel), graph.getZ(pixel));
+
+            skeleton.setT(obj.getT());
+            obj.addChild(skeleton);
+            skeleton.addParent(obj);
+
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package io.github.mianalysis.example;
+
+import java.util.concurrent.ExecutionException;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.plugin.filter.GaussianBlur;
+import ij.plugin.filter.RankFilters;
+import ij.process.AutoThresholder;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import ij.process.StackStatistics;
+
+/**
+ * Filtering and global thresholding of whole stacks, with the planes of the
+ * stack divided between threads.
+ *
+ * Each plane is processed with the same ImageJ operations that are applied
+ * when filtering one plane at a time (RankFilters for the median filter and
+ * GaussianBlur, which applies the kernel separably along X then Y, for the
+ * Gaussian filter), so results are identical to the single-threaded path
+ * regardless of the number of threads.
+ *
+ * Thresholds are calculated from a single histogram of the whole stack. Each
+ * thread builds histograms for its own planes, which are then summed. Every
+ * possible pixel value has its own bin (256 for 8-bit, 65536 for 16-bit), so
+ * the merged histogram is exactly the histogram of the stack. For 16-bit
+ * images, the histogram is trimmed to the stack's minimum and maximum values
+ * before being passed to ImageJ's AutoThresholder. 32-bit images have no fixed
+ * set of values, so their threshold is calculated on a single thread from
+ * ImageJ's 256-bin stack histogram.
+ */
+public class ParallelStackOps {
+    /**
+     * Applies a 2D median filter to every plane of the image, in place.
+     */
+    public static void medianFilter2D(ImagePlus ipl, double radius, int nThreads)
+            throws InterruptedException, ExecutionException {
+        ImageStack stack = ipl.getStack();
+        ExampleModule.runParallel(stack.getSize(), nThreads,
+                i -> new RankFilters().rank(stack.getProcessor(i + 1), radius, RankFilters.MEDIAN));
+    }
+
+    /**
+     * Applies a 2D Gaussian filter to every plane of the image, in place. The
+     * kernel accuracy matches ImageProcessor.blurGaussian().
+     */
+    public static void gaussianFilter2D(ImagePlus ipl, double sigma, int nThreads)
+            throws InterruptedException, ExecutionException {
+        ImageStack stack = ipl.getStack();
+        ExampleModule.runParallel(stack.getSize(), nThreads, i -> {
+            ImageProcessor ip = stack.getProcessor(i + 1);
+            double accuracy = ip instanceof ByteProcessor || ip instanceof ColorProcessor ? 0.002 : 0.0002;
+            new GaussianBlur().blurGaussian(ip, sigma, sigma, accuracy);
+        });
+    }
+
+    /**
+     * Returns the histogram of all planes of an 8-bit or 16-bit image, with one
+     * bin per possible pixel value.
+     */
+    public static int[] getHistogram(ImagePlus ipl, int nThreads) throws InterruptedException, ExecutionException {
+        int bitDepth = ipl.getBitDepth();
+        if (bitDepth != 8 && bitDepth != 16)
+            throw new IllegalArgumentException("Only 8-bit and 16-bit images are supported");
+
+        ImageStack stack = ipl.getStack();
+        int nPlanes = stack.getSize();
+        int nBins = bitDepth == 8 ? 256 : 65536;
+
+        // Each plane is counted into its own histogram, so no synchronisation is
+        // needed until the histograms are merged
+        int[][] planeHistograms = new int[nPlanes][];
+        ExampleModule.runParallel(nPlanes, nThreads, i -> {
+            int[] histogram = new int[nBins];
+            Object pixels = stack.getPixels(i + 1);
+            if (pixels instanceof byte[])
+                for (byte value : (byte[]) pixels)
+                    histogram[value & 0xff]++;
+            else
+                for (short value : (short[]) pixels)
+                    histogram[value & 0xffff]++;
+            planeHistograms[i] = histogram;
+        });
+
+        int[] histogram = new int[nBins];
+        for (int[] planeHistogram : planeHistograms)
+            for (int bin = 0; bin < nBins; bin++)
+                histogram[bin] += planeHistogram[bin];
+
+        return histogram;
+
+    }
+
+    /**
+     * Calculates a global threshold for the whole stack.
+     *
+     * @return The threshold, in pixel intensity units. Pixels above this value are
+     *         foreground.
+     */
+    public static double getThreshold(ImagePlus ipl, AutoThresholder.Method method, int nThreads)
+            throws InterruptedException, ExecutionException {
+        if (ipl.getBitDepth() == 32)
+            return getFloatThreshold(ipl, method);
+
+        int[] histogram = getHistogram(ipl, nThreads);
+        if (ipl.getBitDepth() == 8)
+            return new AutoThresholder().getThreshold(method, histogram);
+
+        int min = 0;
+        while (min < histogram.length - 1 && histogram[min] == 0)
+            min++;
+        int max = histogram.length - 1;
+        while (max > min && histogram[max] == 0)
+            max--;
+
+        int[] trimmed = new int[max - min + 1];
+        System.arraycopy(histogram, min, trimmed, 0, trimmed.length);
+
+        return min + new AutoThresholder().getThreshold(method, trimmed);
+
+    }
+
+    /**
+     * Calculates the threshold of a 32-bit stack from a 256-bin histogram spanning
+     * the stack's minimum and maximum values. Bins up to and including the
+     * threshold bin are background, so the returned value is the upper edge of
+     * that bin.
+     */
+    static double getFloatThreshold(ImagePlus ipl, AutoThresholder.Method method) {
+        StackStatistics statistics = new StackStatistics(ipl);
+        int level = new AutoThresholder().getThreshold(method, statistics.histogram);
+
+        return statistics.histMin + (level + 1) * statistics.binSize;
+
+    }
+
+    /**
+     * Creates an 8-bit binary image with foreground (pixels above the threshold)
+     * set to 255 and background set to 0.
+     */
+    public static ImagePlus createBinary(ImagePlus ipl, String title, double threshold, int nThreads)
+            throws InterruptedException, ExecutionException {
+        ImageStack stack = ipl.getStack();
+        int nPixels = stack.getWidth() * stack.getHeight();
+
+        Object[] binaryPixels = new Object[stack.getSize()];
+        ExampleModule.runParallel(stack.getSize(), nThreads, i -> {
+            byte[] binary = new byte[nPixels];
+            Object pixels = stack.getPixels(i + 1);
+            for (int j = 0; j < nPixels; j++)
+                if (BulkIntensity.getValue(pixels, j) > threshold)
+                    binary[j] = (byte) 255;
+            binaryPixels[i] = binary;
+        });
+
+        ImageStack binaryStack = new ImageStack(stack.getWidth(), stack.getHeight());
+        for (Object pixels : binaryPixels)
+            binaryStack.addSlice(null, pixels);
+
+        ImagePlus binaryIpl = new ImagePlus(title, binaryStack);
+        binaryIpl.setDimensions(ipl.getNChannels(), ipl.getNSlices(), ipl.getNFrames());
+        binaryIpl.setCalibration(ipl.getCalibration());
+
+        return binaryIpl;
+
+    }
+}
@@ -0,0 +1,427 @@
+package io.github.mianalysis.example;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntUnaryOperator;
+
+import ij.ImagePlus;
+import ij.gui.ImageRoi;
+import ij.gui.Overlay;
+import ij.process.ColorProcessor;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.Point;
+
+/**
+ * Draws object fills, outlines, centroids and tracks into one packed RGB layer
+ * per image plane (Z-slice and timepoint), rather than adding an ROI per object
+ * per slice. Each plane's layer is added to the image overlay as a single
+ * ImageRoi, so the number of ROIs is independent of the number of objects.
+ *
+ * Objects are grouped by timepoint and each timepoint is drawn on its own
+ * thread, since each timepoint only writes to its own layers. Coordinates are
+ * drawn as each object is walked, so nothing is stored per voxel besides the
+ * layers themselves. Layers are only allocated for planes which contain
+ * something.
+ *
+ * Layers hold RGB colours, with 0 marking empty pixels, and the layer's opacity
+ * is applied to the whole ROI. Where shapes overlap, the last one drawn is
+ * shown. Below {@link #MAX_VECTOR_OBJECTS} objects, per-object ROIs (as
+ * created by AddObjectFill and AddObjectOutline) are cheap enough and remain
+ * editable, so should be preferred.
+ */
+public class RasterOverlay {
+    /**
+     * Above this many objects, raster layers are used in place of per-object
+     * ROIs.
+     */
+    public static final int MAX_VECTOR_OBJECTS = 1000;
+
+    private final int width;
+    private final int height;
+    private final int nSlices;
+    private final int nFrames;
+    private final int[][] layers;
+
+    // Reusable per-thread mask of the current object's bounding box, for outline
+    // detection
+    private final ThreadLocal<byte[][]> masks = ThreadLocal.withInitial(() -> new byte[1][0]);
+
+    public RasterOverlay(ImagePlus ipl) {
+        this(ipl.getWidth(), ipl.getHeight(), ipl.getNSlices(), ipl.getNFrames());
+    }
+
+    RasterOverlay(int width, int height, int nSlices, int nFrames) {
+        this.width = width;
+        this.height = height;
+        this.nSlices = nSlices;
+        this.nFrames = nFrames;
+        this.layers = new int[nSlices * nFrames][];
+    }
+
+    /**
+     * Fills every pixel of each object with its colour.
+     */
+    public void addFill(Objs objects, IDColourMap colours, int nThreads)
+            throws InterruptedException, ExecutionException {
+        FrameObjects frames = new FrameObjects(objects, colours);
+        ExampleModule.runParallel(nFrames, nThreads, t -> {
+            Obj[] frameObjs = frames.objs[t];
+            for (int i = 0; i < frameObjs.length; i++) {
+                int colour = frames.colours[t][i];
+                for (Point<Integer> point : frameObjs[i].getCoordinateSet())
+                    getLayer(t * nSlices + point.z)[point.y * width + point.x] = colour;
+            }
+        });
+    }
+
+    /**
+     * Draws the outline of each object in each slice. Outline pixels are object
+     * pixels with at least one 4-connected neighbour outside the object (or
+     * outside the image).
+     *
+     * @param lineWidth Width of the outline in pixels. Outline pixels are
+     *                  expanded to squares of this size.
+     */
+    public void addOutline(Objs objects, IDColourMap colours, int lineWidth, int nThreads)
+            throws InterruptedException, ExecutionException {
+        FrameObjects frames = new FrameObjects(objects, colours);
+        ExampleModule.runParallel(nFrames, nThreads, t -> {
+            Obj[] frameObjs = frames.objs[t];
+            for (int i = 0; i < frameObjs.length; i++)
+                drawOutline(frameObjs[i], t, lineWidth, frames.colours[t][i]);
+        });
+    }
+
+    /**
+     * Draws a filled disc at every coordinate of each object. This is intended
+     * for single-point objects, such as centroids.
+     *
+     * @param radius Disc radius in pixels (0 draws single pixels)
+     */
+    public void addPoints(Objs objects, IDColourMap colours, int radius, int nThreads)
+            throws InterruptedException, ExecutionException {
+        FrameObjects frames = new FrameObjects(objects, colours);
+        ExampleModule.runParallel(nFrames, nThreads, t -> {
+            Obj[] frameObjs = frames.objs[t];
+            for (int i = 0; i < frameObjs.length; i++) {
+                int colour = frames.colours[t][i];
+                for (Point<Integer> point : frameObjs[i].getCoordinateSet())
+                    fillDisc(getLayer(t * nSlices + point.z), point.x, point.y, radius, colour);
+            }
+        });
+    }
+
+    /**
+     * Draws the recent path of each track in every frame. Tracks are the parents
+     * of the spot objects, and each track's path joins the centroids of its
+     * spots in time order. In frame t, segments between spots from frames t -
+     * history to t are drawn in the slice of the later spot.
+     *
+     * @param spots      Spot objects, each a child of a track object
+     * @param tracksName Name of the track objects
+     * @param colours    Colours for each track ID
+     * @param history    Number of previous frames to show
+     */
+    public void addTracks(Objs spots, String tracksName, IDColourMap colours, int history, int nThreads)
+            throws InterruptedException, ExecutionException {
+        Obj[] objs = spots.values().toArray(new Obj[0]);
+        SubpixelPoints centroids = new SubpixelPoints(objs.length, spots);
+        int[] trackIDs = new int[objs.length];
+        ExampleModule.runParallel(objs.length, nThreads, i -> {
+            centroids.setMeanCentroid(i, objs[i]);
+            Obj track = objs[i].getParent(tracksName);
+            trackIDs[i] = track == null ? -1 : track.getID();
+        });
+
+        // Spots are put in time order with a counting sort, then sorted by track ID.
+        // The sort key packs the track ID above each spot's position in time order,
+        // so spots stay in time order within each track.
+        int[] frameStarts = new int[nFrames + 1];
+        for (Obj obj : objs)
+            frameStarts[obj.getT() + 1]++;
+        for (int t = 0; t < nFrames; t++)
+            frameStarts[t + 1] += frameStarts[t];
+
+        int[] timeOrder = new int[objs.length];
+        for (int i = 0; i < objs.length; i++)
+            timeOrder[frameStarts[objs[i].getT()]++] = i;
+
+        long[] keys = new long[objs.length];
+        int nSpots = 0;
+        for (int rank = 0; rank < objs.length; rank++) {
+            int i = timeOrder[rank];
+            if (trackIDs[i] != -1 && centroids.getStatus(i) == SubpixelPoints.Status.IN_RANGE)
+                keys[nSpots++] = ((long) trackIDs[i] << 32) | rank;
+        }
+        Arrays.sort(keys, 0, nSpots);
+
+        // Segments between consecutive spots of the same track
+        PathSegments segments = new PathSegments();
+        for (int i = 1; i < nSpots; i++) {
+            if (keys[i] >>> 32 != keys[i - 1] >>> 32)
+                continue;
+            int from = timeOrder[(int) keys[i - 1]];
+            int to = timeOrder[(int) keys[i]];
+            segments.add(trackIDs[to], objs[from].getT(), centroids.getRoundedX(from), centroids.getRoundedY(from),
+                    objs[to].getT(), centroids.getRoundedX(to), centroids.getRoundedY(to), centroids.getRoundedZ(to));
+        }
+
+        ExampleModule.runParallel(nFrames, nThreads, t -> drawPaths(t, t, segments, colours::get, history));
+
+    }
+
+    /**
+     * Draws the track path segments shown at timepoint t into one frame of this
+     * overlay. These are the segments between spots from timepoints t - history to
+     * t, each drawn in the slice of its later spot. This is shared by
+     * {@link #addTracks(Objs, String, IDColourMap, int, int)} and the track videos
+     * rendered by {@link FrameStreamingRunner}.
+     *
+     * @param frame    Frame of this overlay to draw into (starting at 0)
+     * @param t        Timepoint being shown
+     * @param segments Path segments
+     * @param colours  Packed ARGB colour for each track ID
+     * @param history  Number of previous timepoints to show
+     */
+    void drawPaths(int frame, int t, PathSegments segments, IntUnaryOperator colours, int history) {
+        for (int i = 0; i < segments.size; i++) {
+            if (segments.toTs[i] > t || segments.fromTs[i] < t - history)
+                continue;
+
+            int plane = frame * nSlices + segments.toZs[i];
+            drawLine(getLayer(plane), segments.fromXs[i], segments.fromYs[i], segments.toXs[i], segments.toYs[i],
+                    toLayerColour(colours.applyAsInt(segments.trackIDs[i])));
+        }
+    }
+
+    /**
+     * Adds one ImageRoi per non-empty plane to the image's overlay.
+     *
+     * @param ipl     Image to add the layers to (must have the same dimensions as
+     *                the image this overlay was created for)
+     * @param opacity Opacity of the layers in the range 0-100
+     */
+    public void addToImage(ImagePlus ipl, int opacity) {
+        Overlay overlay = ipl.getOverlay();
+        if (overlay == null)
+            overlay = new Overlay();
+
+        for (int t = 0; t < nFrames; t++) {
+            for (int z = 0; z < nSlices; z++) {
+                int[] layer = layers[t * nSlices + z];
+                if (layer == null)
+                    continue;
+
+                ImageRoi roi = new ImageRoi(0, 0, new ColorProcessor(width, height, layer));
+                roi.setZeroTransparent(true);
+                roi.setOpacity(Math.max(0, Math.min(100, opacity)) / 100d);
+                if (ipl.isHyperStack())
+                    roi.setPosition(1, z + 1, t + 1);
+                else
+                    roi.setPosition(ipl.getStackIndex(1, z + 1, t + 1));
+                overlay.add(roi);
+
+            }
+        }
+
+        ipl.setOverlay(overlay);
+
+    }
+
+    /**
+     * Returns the number of planes with a layer.
+     */
+    public int getNLayers() {
+        int count = 0;
+        for (int[] layer : layers)
+            if (layer != null)
+                count++;
+
+        return count;
+
+    }
+
+    /**
+     * Returns the layer for a plane (indexed as t * nSlices + z), or null if
+     * nothing has been drawn in it. Layer pixels are RGB, with 0 marking empty
+     * pixels.
+     */
+    int[] getPlane(int plane) {
+        return layers[plane];
+    }
+
+    // Each plane is only drawn by one thread, so layers can be created without
+    // locking
+    private int[] getLayer(int plane) {
+        if (layers[plane] == null)
+            layers[plane] = new int[width * height];
+        return layers[plane];
+    }
+
+    /**
+     * Draws one object's outline. The object is marked in a mask covering its
+     * bounding box, so only its own pixels count as inside, then each pixel with a
+     * neighbour outside the mask is drawn.
+     */
+    private void drawOutline(Obj obj, int t, int lineWidth, int rgb) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for (Point<Integer> point : obj.getCoordinateSet()) {
+            int x = point.x, y = point.y, z = point.z;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+            minZ = Math.min(minZ, z);
+            maxZ = Math.max(maxZ, z);
+        }
+        if (minX > maxX)
+            return;
+
+        int boxWidth = maxX - minX + 1;
+        int boxArea = boxWidth * (maxY - minY + 1);
+        int boxSize = boxArea * (maxZ - minZ + 1);
+        byte[][] maskHolder = masks.get();
+        if (maskHolder[0].length < boxSize)
+            maskHolder[0] = new byte[boxSize];
+        byte[] mask = maskHolder[0];
+
+        for (Point<Integer> point : obj.getCoordinateSet())
+            mask[(point.z - minZ) * boxArea + (point.y - minY) * boxWidth + point.x - minX] = 1;
+
+        for (Point<Integer> point : obj.getCoordinateSet()) {
+            int x = point.x, y = point.y, z = point.z;
+            int index = (z - minZ) * boxArea + (y - minY) * boxWidth + x - minX;
+            boolean isEdge = x == 0 || y == 0 || x == width - 1 || y == height - 1 || x == minX || x == maxX
+                    || y == minY || y == maxY || mask[index - 1] == 0 || mask[index + 1] == 0
+                    || mask[index - boxWidth] == 0 || mask[index + boxWidth] == 0;
+
+            if (isEdge)
+                fillSquare(getLayer(t * nSlices + z), x, y, lineWidth, rgb);
+
+        }
+
+        // Clearing only the pixels which were set, so the mask can be reused
+        for (Point<Integer> point : obj.getCoordinateSet())
+            mask[(point.z - minZ) * boxArea + (point.y - minY) * boxWidth + point.x - minX] = 0;
+
+    }
+
+    private void fillSquare(int[] layer, int cx, int cy, int size, int rgb) {
+        int start = -(size - 1) / 2;
+        for (int y = Math.max(0, cy + start); y < Math.min(height, cy + start + size); y++)
+            for (int x = Math.max(0, cx + start); x < Math.min(width, cx + start + size); x++)
+                layer[y * width + x] = rgb;
+    }
+
+    private void fillDisc(int[] layer, int cx, int cy, int radius, int rgb) {
+        for (int y = Math.max(0, cy - radius); y <= Math.min(height - 1, cy + radius); y++)
+            for (int x = Math.max(0, cx - radius); x <= Math.min(width - 1, cx + radius); x++)
+                if ((x - cx) * (x - cx) + (y - cy) * (y - cy) <= radius * radius)
+                    layer[y * width + x] = rgb;
+    }
+
+    private void drawLine(int[] layer, int x0, int y0, int x1, int y1, int rgb) {
+        // Bresenham's line algorithm
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int sx = x0 < x1 ? 1 : -1;
+        int sy = y0 < y1 ? 1 : -1;
+        int error = dx + dy;
+        while (true) {
+            layer[y0 * width + x0] = rgb;
+            if (x0 == x1 && y0 == y1)
+                break;
+            int e2 = 2 * error;
+            if (e2 >= dy) {
+                error += dy;
+                x0 += sx;
+            }
+            if (e2 <= dx) {
+                error += dx;
+                y0 += sy;
+            }
+        }
+    }
+
+    /**
+     * Converts a packed ARGB colour to the RGB value stored in a layer. Pure
+     * black is nudged to the darkest grey, since 0 marks empty pixels.
+     */
+    private static int toLayerColour(int argb) {
+        int rgb = argb & 0xFFFFFF;
+        return rgb == 0 ? 0x010101 : rgb;
+    }
+
+    /**
+     * Segments of track paths, each joining two consecutive spots of a track,
+     * stored as parallel primitive arrays.
+     */
+    static class PathSegments {
+        private int size = 0;
+        private int[] trackIDs = new int[16];
+        private int[] fromTs = new int[16];
+        private int[] fromXs = new int[16];
+        private int[] fromYs = new int[16];
+        private int[] toTs = new int[16];
+        private int[] toXs = new int[16];
+        private int[] toYs = new int[16];
+        private int[] toZs = new int[16];
+
+        void add(int trackID, int fromT, int fromX, int fromY, int toT, int toX, int toY, int toZ) {
+            if (size == trackIDs.length) {
+                int capacity = size * 2;
+                trackIDs = Arrays.copyOf(trackIDs, capacity);
+                fromTs = Arrays.copyOf(fromTs, capacity);
+                fromXs = Arrays.copyOf(fromXs, capacity);
+                fromYs = Arrays.copyOf(fromYs, capacity);
+                toTs = Arrays.copyOf(toTs, capacity);
+                toXs = Arrays.copyOf(toXs, capacity);
+                toYs = Arrays.copyOf(toYs, capacity);
+                toZs = Arrays.copyOf(toZs, capacity);
+            }
+
+            trackIDs[size] = trackID;
+            fromTs[size] = fromT;
+            fromXs[size] = fromX;
+            fromYs[size] = fromY;
+            toTs[size] = toT;
+            toXs[size] = toX;
+            toYs[size] = toY;
+            toZs[size] = toZ;
+            size++;
+
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Objects grouped by timepoint, along with each object's layer colour.
+     */
+    private class FrameObjects {
+        private final Obj[][] objs = new Obj[nFrames][];
+        private final int[][] colours = new int[nFrames][];
+
+        FrameObjects(Objs objects, IDColourMap colourMap) {
+            int[] counts = new int[nFrames];
+            for (Obj obj : objects.values())
+                counts[obj.getT()]++;
+
+            for (int t = 0; t < nFrames; t++) {
+                objs[t] = new Obj[counts[t]];
+                colours[t] = new int[counts[t]];
+                counts[t] = 0;
+            }
+
+            for (Obj obj : objects.values()) {
+                int t = obj.getT();
+                objs[t][counts[t]] = obj;
+                colours[t][counts[t]++] = toLayerColour(colourMap.get(obj.getID()));
+            }
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package io.github.mianalysis.example;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.Workspace;
+
+/**
+ * Per-workspace index of the parent-child and partner relationships between
+ * object collections, held as primitive int arrays.
+ *
+ * For each pair of collections, the index stores a child ID to parent ID map
+ * and the children of each parent in compressed sparse row form, so child
+ * counts and child lists are constant-time lookups. Partners are stored the
+ * same way, in each direction. Lookups through several levels of parents (e.g.
+ * from edges to the DNA objects of their skeletons) are composed once and
+ * cached.
+ *
+ * Tables are built from the existing per-object links the first time a pair
+ * of collections is queried, so the index can be used with objects linked by
+ * any module. Links added or removed with {@link #linkChildren},
+ * {@link #unlinkChildren}, {@link #linkPartners} and {@link #unlinkPartners}
+ * are written through to the objects as well as the index.
+ *
+ * Each collection has a modification count, which is increased by every write
+ * through the index and by {@link #invalidate(String)}. A table is rebuilt if
+ * either of its collections has been modified, replaced or changed size since
+ * it was built. Objs can't notify the index of links added or removed directly
+ * on them (e.g. with Obj.addChild), so code doing this after a table has been
+ * built must call {@link #invalidate(String)} for the affected collections.
+ */
+public class RelationshipIndex {
+    private static final Map<Workspace, RelationshipIndex> indices = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    private final Map<String, ParentTable> parentTables = new HashMap<>();
+    private final Map<String, Adjacency> partnerTables = new HashMap<>();
+    private final Map<String, IntIntMap> ancestorCache = new HashMap<>();
+    private final Map<String, Integer> modCounts = new HashMap<>();
+
+    /**
+     * Returns the index for a workspace, creating it if necessary. The index is
+     * discarded when the workspace is no longer referenced.
+     */
+    public static RelationshipIndex get(Workspace workspace) {
+        synchronized (indices) {
+            return indices.computeIfAbsent(workspace, w -> new RelationshipIndex());
+        }
+    }
+
+    /**
+     * Returns the ID of a child's parent, or -1 if it has no parent in the
+     * specified collection.
+     */
+    public synchronized int getParentID(Objs children, Objs parents, int childID) {
+        return getParentTable(children, parents).parentIDs.get(childID, -1);
+    }
+
+    public synchronized int getNChildren(Objs parents, Objs children, int parentID) {
+        return getParentTable(children, parents).getChildren().getCount(parentID);
+    }
+
+    /**
+     * Returns the IDs of a parent's children, in the order they appear in the child
+     * collection.
+     */
+    public synchronized int[] getChildIDs(Objs parents, Objs children, int parentID) {
+        return getParentTable(children, parents).getChildren().get(parentID);
+    }
+
+    /**
+     * Returns the ID of an object's ancestor, following parent links through each
+     * of the specified collections in turn (e.g. skeletons, then DNA objects, to
+     * get the DNA object of an edge). The lookup for every object in the child
+     * collection is calculated on the first call and cached.
+     *
+     * @param children  Collection the object belongs to
+     * @param childID   ID of the object
+     * @param ancestors Parent collection, then grandparent collection, etc.
+     * @return The ancestor's ID, or -1 if any link in the chain is missing
+     */
+    public synchronized int getAncestorID(Objs children, int childID, Objs... ancestors) {
+        if (ancestors.length == 1)
+            return getParentID(children, ancestors[0], childID);
+
+        StringBuilder key = new StringBuilder(children.getName());
+        for (Objs ancestor : ancestors)
+            key.append(" // ").append(ancestor.getName());
+
+        // Building each table first means any rebuild clears stale cached chains
+        // before the cache is read
+        ParentTable[] tables = new ParentTable[ancestors.length];
+        tables[0] = getParentTable(children, ancestors[0]);
+        for (int i = 1; i < ancestors.length; i++)
+            tables[i] = getParentTable(ancestors[i - 1], ancestors[i]);
+
+        IntIntMap ancestorIDs = ancestorCache.get(key.toString());
+        if (ancestorIDs == null) {
+            ancestorIDs = new IntIntMap(children.size());
+            for (Obj child : children.values()) {
+                int ID = child.getID();
+                for (int i = 0; i < tables.length && ID != -1; i++)
+                    ID = tables[i].parentIDs.get(ID, -1);
+                ancestorIDs.put(child.getID(), ID);
+            }
+            ancestorCache.put(key.toString(), ancestorIDs);
+        }
+
+        return ancestorIDs.get(childID, -1);
+
+    }
+
+    public synchronized int getNPartners(Objs objects, Objs partners, int ID) {
+        return getPartnerTable(objects, partners).getCount(ID);
+    }
+
+    public synchronized int[] getPartnerIDs(Objs objects, Objs partners, int ID) {
+        return getPartnerTable(objects, partners).get(ID);
+    }
+
+    /**
+     * Links many children to their parents at once. Links are added to the
+     * objects (in both directions) and to the index.
+     *
+     * @param parents   Parent collection
+     * @param children  Child collection
+     * @param parentIDs Parent ID of each link
+     * @param childIDs  Child ID of each link
+     */
+    public synchronized void linkChildren(Objs parents, Objs children, int[] parentIDs, int[] childIDs) {
+        for (int i = 0; i < parentIDs.length; i++) {
+            Obj parent = parents.get(parentIDs[i]);
+            Obj child = children.get(childIDs[i]);
+            parent.addChild(child);
+            child.addParent(parent);
+        }
+
+        // Tables which haven't been built yet will pick the new links up from the
+        // objects when they are
+        ParentTable table = parentTables.get(getKey(children, parents));
+        boolean current = table != null && table.isCurrent(children, parents);
+        modified(children.getName());
+        modified(parents.getName());
+
+        if (current) {
+            for (int i = 0; i < parentIDs.length; i++)
+                table.parentIDs.put(childIDs[i], parentIDs[i]);
+            table.update();
+        }
+
+    }
+
+    /**
+     * Removes many parent-child links at once. Links are removed from the objects
+     * (in both directions) and from the index.
+     *
+     * @param parents   Parent collection
+     * @param children  Child collection
+     * @param parentIDs Parent ID of each link
+     * @param childIDs  Child ID of each link
+     */
+    public synchronized void unlinkChildren(Objs parents, Objs children, int[] parentIDs, int[] childIDs) {
+        for (int i = 0; i < parentIDs.length; i++) {
+            Obj parent = parents.get(parentIDs[i]);
+            Obj child = children.get(childIDs[i]);
+            parent.removeChild(child);
+            child.removeParent(parent.getName());
+        }
+
+        modified(children.getName());
+        modified(parents.getName());
+
+    }
+
+    /**
+     * Links many pairs of partners at once. Links are added to the objects (in
+     * both directions) and to the index.
+     */
+    public synchronized void linkPartners(Objs objects1, Objs objects2, int[] IDs1, int[] IDs2) {
+        for (int i = 0; i < IDs1.length; i++) {
+            Obj obj1 = objects1.get(IDs1[i]);
+            Obj obj2 = objects2.get(IDs2[i]);
+            obj1.addPartner(obj2);
+            obj2.addPartner(obj1);
+        }
+
+        modified(objects1.getName());
+        modified(objects2.getName());
+
+    }
+
+    /**
+     * Removes many pairs of partners at once. Links are removed from the objects
+     * (in both directions) and from the index.
+     */
+    public synchronized void unlinkPartners(Objs objects1, Objs objects2, int[] IDs1, int[] IDs2) {
+        for (int i = 0; i < IDs1.length; i++) {
+            Obj obj1 = objects1.get(IDs1[i]);
+            Obj obj2 = objects2.get(IDs2[i]);
+            obj1.removePartner(obj2);
+            obj2.removePartner(obj1);
+        }
+
+        modified(objects1.getName());
+        modified(objects2.getName());
+
+    }
+
+    /**
+     * Discards all tables involving the named collection, so they're rebuilt from
+     * the objects when next used.
+     */
+    public synchronized void invalidate(String objectsName) {
+        modified(objectsName);
+        parentTables.values().removeIf(table -> table.involves(objectsName));
+        partnerTables.values().removeIf(table -> table.involves(objectsName));
+    }
+
+    public synchronized void clear() {
+        for (String objectsName : modCounts.keySet())
+            modCounts.put(objectsName, modCounts.get(objectsName) + 1);
+        parentTables.clear();
+        partnerTables.clear();
+        ancestorCache.clear();
+    }
+
+    /**
+     * Marks tables built from a collection as out of date and discards cached
+     * ancestor lookups involving it.
+     */
+    private void modified(String objectsName) {
+        modCounts.put(objectsName, getModCount(objectsName) + 1);
+        invalidateAncestors(objectsName);
+    }
+
+    private int getModCount(String objectsName) {
+        return modCounts.getOrDefault(objectsName, 0);
+    }
+
+    private ParentTable getParentTable(Objs children, Objs parents) {
+        String key = getKey(children, parents);
+        ParentTable table = parentTables.get(key);
+        if (table != null && table.isCurrent(children, parents))
+            return table;
+
+        table = new ParentTable(children, parents);
+        parentTables.put(key, table);
+        invalidateAncestors(children.getName());
+
+        return table;
+
+    }
+
+    private Adjacency getPartnerTable(Objs objects, Objs partners) {
+        String key = getKey(objects, partners);
+        Adjacency table = partnerTables.get(key);
+        if (table != null && table.isCurrent(objects, partners))
+            return table;
+
+        int[] from = new int[16];
+        int[] to = new int[16];
+        int nLinks = 0;
+        for (Obj obj : objects.values()) {
+            Objs objPartners = obj.getPartners().get(partners.getName());
+            if (objPartners == null)
+                continue;
+            for (Obj partner : objPartners.values()) {
+                if (nLinks == from.length) {
+                    from = Arrays.copyOf(from, nLinks * 2);
+                    to = Arrays.copyOf(to, nLinks * 2);
+                }
+                from[nLinks] = obj.getID();
+                to[nLinks++] = partner.getID();
+            }
+        }
+
+        table = new Adjacency(objects, partners, from, to, nLinks);
+        partnerTables.put(key, table);
+
+        return table;
+
+    }
+
+    private void invalidateAncestors(String objectsName) {
+        ancestorCache.keySet().removeIf(key -> Arrays.asList(key.split(" // ")).contains(objectsName));
+    }
+
+    private static String getKey(Objs from, Objs to) {
+        return from.getName() + " // " + to.getName();
+    }
+
+    /**
+     * Remembers the collections (with their sizes and modification counts) a
+     * table was built for, so modified, replaced or resized collections can be
+     * detected.
+     */
+    private class TableSource {
+        final Objs from;
+        final Objs to;
+        private int fromSize;
+        private int toSize;
+        private int fromModCount;
+        private int toModCount;
+
+        TableSource(Objs from, Objs to) {
+            this.from = from;
+            this.to = to;
+            update();
+        }
+
+        /**
+         * Marks the table as matching the current state of its collections.
+         */
+        void update() {
+            fromSize = from.size();
+            toSize = to.size();
+            fromModCount = getModCount(from.getName());
+            toModCount = getModCount(to.getName());
+        }
+
+        boolean isCurrent(Objs from, Objs to) {
+            return this.from == from && this.to == to && from.size() == fromSize && to.size() == toSize
+                    && getModCount(from.getName()) == fromModCount && getModCount(to.getName()) == toModCount;
+        }
+
+        boolean involves(String objectsName) {
+            return from.getName().equals(objectsName) || to.getName().equals(objectsName);
+        }
+    }
+
+    private class ParentTable extends TableSource {
+        private final IntIntMap parentIDs;
+
+        // Built when first needed and discarded when links are added
+        private Adjacency children = null;
+
+        ParentTable(Objs childObjs, Objs parents) {
+            super(childObjs, parents);
+
+            parentIDs = new IntIntMap(childObjs.size());
+            String parentsName = parents.getName();
+            for (Obj child : childObjs.values()) {
+                Obj parent = child.getParent(parentsName);
+                if (parent != null)
+                    parentIDs.put(child.getID(), parent.getID());
+            }
+        }
+
+        Adjacency getChildren() {
+            if (children != null)
+                return children;
+
+            // Children are listed in the child collection's order
+            int[] linkParents = new int[parentIDs.size()];
+            int[] linkChildren = new int[parentIDs.size()];
+            int nLinks = 0;
+            for (Obj child : from.values()) {
+                int parentID = parentIDs.get(child.getID(), -1);
+                if (parentID == -1)
+                    continue;
+                linkParents[nLinks] = parentID;
+                linkChildren[nLinks++] = child.getID();
+            }
+
+            children = new Adjacency(to, from, linkParents, linkChildren, nLinks);
+
+            return children;
+
+        }
+
+        @Override
+        void update() {
+            super.update();
+            children = null;
+        }
+    }
+
+    /**
+     * One-to-many links from the objects of one collection to those of another, in
+     * compressed sparse row form.
+     */
+    private class Adjacency extends TableSource {
+        private final IntIntMap rows;
+        private final int[] starts;
+        private final int[] IDs;
+
+        Adjacency(Objs fromObjs, Objs toObjs, int[] from, int[] to, int nLinks) {
+            super(fromObjs, toObjs);
+
+            rows = new IntIntMap(fromObjs.size());
+            int[] counts = new int[Math.max(1, fromObjs.size())];
+            for (int i = 0; i < nLinks; i++) {
+                int row = rows.get(from[i], -1);
+                if (row == -1) {
+                    row = rows.size();
+                    rows.put(from[i], row);
+                    if (row == counts.length)
+                        counts = Arrays.copyOf(counts, row * 2);
+                }
+                counts[row]++;
+            }
+
+            starts = new int[rows.size() + 1];
+            for (int i = 0; i < rows.size(); i++)
+                starts[i + 1] = starts[i] + counts[i];
+
+            IDs = new int[nLinks];
+            int[] next = Arrays.copyOf(starts, rows.size());
+            for (int i = 0; i < nLinks; i++)
+                IDs[next[rows.get(from[i], -1)]++] = to[i];
+
+        }
+
+        int getCount(int ID) {
+            int row = rows.get(ID, -1);
+            return row == -1 ? 0 : starts[row + 1] - starts[row];
+        }
+
+        int[] get(int ID) {
+            int row = rows.get(ID, -1);
+            return row == -1 ? new int[0] : Arrays.copyOfRange(IDs, starts[row], starts[row + 1]);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.github.mianalysis.example;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import io.github.mianalysis.mia.module.AvailableModules;
+import io.github.mianalysis.mia.module.Module;
+
+/**
+ * Parses the command line of the headless runners: a fixed number of positional
+ * arguments followed by "--option value" pairs. Options can be repeated (e.g.
+ * "--module"), in which case every value is kept.
+ *
+ * Any problem with the arguments (too few positional arguments, an unknown
+ * option, an option without a value or a value which can't be used) is
+ * written to the console along with the usage message, then the runner exits.
+ */
+class RunnerArguments {
+    private final String usage;
+    private final String[] positional;
+    private final HashMap<String, List<String>> values = new HashMap<>();
+
+    /**
+     * @param args        Command line arguments
+     * @param nPositional Number of arguments before the options
+     * @param usage       Usage message, shown if the arguments can't be used
+     * @param options     Names of the accepted options (e.g. "--module")
+     */
+    RunnerArguments(String[] args, int nPositional, String usage, String... options) {
+        this.usage = usage;
+        if (args.length < nPositional)
+            exit(null);
+        positional = Arrays.copyOf(args, nPositional);
+
+        List<String> accepted = Arrays.asList(options);
+        for (int i = nPositional; i < args.length; i++) {
+            if (!accepted.contains(args[i]))
+                exit("Unknown argument \"" + args[i] + "\"");
+            if (i == args.length - 1)
+                exit("No value given for \"" + args[i] + "\"");
+
+            values.computeIfAbsent(args[i], k -> new ArrayList<>()).add(args[++i]);
+        }
+    }
+
+    String getPositional(int index) {
+        return positional[index];
+    }
+
+    boolean has(String option) {
+        return values.containsKey(option);
+    }
+
+    /**
+     * Returns every value given for an option, in order.
+     */
+    List<String> getAll(String option) {
+        List<String> optionValues = values.get(option);
+        return optionValues == null ? Collections.emptyList() : optionValues;
+    }
+
+    /**
+     * Returns the last value given for an option, or null if it wasn't given.
+     */
+    String get(String option) {
+        List<String> optionValues = values.get(option);
+        return optionValues == null ? null : optionValues.get(optionValues.size() - 1);
+    }
+
+    File getFile(String option) {
+        String value = get(option);
+        return value == null ? null : new File(value);
+    }
+
+    /**
+     * Returns an option's value as a positive whole number, or the default value
+     * if the option wasn't given.
+     */
+    long getPositiveLong(String option, long defaultValue) {
+        String value = get(option);
+        if (value == null)
+            return defaultValue;
+
+        try {
+            long number = Long.parseLong(value);
+            if (number > 0)
+                return number;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+
+        exit("\"" + option + "\" must be a positive whole number (was \"" + value + "\")");
+        return defaultValue;
+
+    }
+
+    <E extends Enum<E>> E getEnum(String option, Class<E> type, E defaultValue) {
+        String value = get(option);
+        if (value == null)
+            return defaultValue;
+
+        for (E constant : type.getEnumConstants())
+            if (constant.name().equals(value))
+                return constant;
+
+        exit("\"" + option + "\" must be one of " + Arrays.toString(type.getEnumConstants()) + " (was \"" + value
+                + "\")");
+        return defaultValue;
+
+    }
+
+    /**
+     * Registers each module class given for an option with MIA, so workflows using
+     * them can be loaded.
+     */
+    void addModules(String option) {
+        for (String className : getAll(option)) {
+            try {
+                AvailableModules.addModuleName(Class.forName(className).asSubclass(Module.class));
+            } catch (ClassNotFoundException | ClassCastException e) {
+                exit("\"" + className + "\" isn't a module class");
+            }
+        }
+    }
+
+    /**
+     * Writes an error (if specified) and the usage message, then exits.
+     */
+    void exit(String message) {
+        if (message != null)
+            System.err.println(message);
+        System.err.println(usage);
+        System.exit(1);
+    }
+}
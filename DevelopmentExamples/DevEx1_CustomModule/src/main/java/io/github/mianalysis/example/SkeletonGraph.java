@@ -0,0 +1,516 @@
+package io.github.mianalysis.example;
+
+import java.util.Arrays;
+
+/**
+ * Graph representation of a one pixel wide skeleton, held entirely in primitive
+ * arrays.
+ *
+ * Skeleton pixels are classified by their number of neighbouring skeleton
+ * pixels (26-connected): end points have one neighbour, path pixels have two
+ * and junction pixels have three or more. Adjacent junction pixels are grouped
+ * into a single junction node. Each node is either an end point, a junction,
+ * an isolated pixel or, for closed loops with no end points or junctions, a
+ * loop node placed on an arbitrary pixel of the loop.
+ *
+ * Edges are traced once, from node to node along path pixels, when the graph
+ * is built. Each edge stores its length, so skeleton measurements are
+ * calculated from the edges without walking the pixels again.
+ */
+public class SkeletonGraph {
+    public static final byte END_POINT = 0;
+    public static final byte JUNCTION = 1;
+    public static final byte ISOLATED = 2;
+    public static final byte LOOP = 3;
+
+    // Skeleton pixels, in raster order
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] zs;
+
+    private byte[] nodeTypes = new byte[8];
+    private int nNodes = 0;
+
+    private int[] edgeNodes1 = new int[8];
+    private int[] edgeNodes2 = new int[8];
+    private double[] edgeLengths = new double[8];
+    private int nEdges = 0;
+
+    private SkeletonGraph(int nPixels) {
+        xs = new int[nPixels];
+        ys = new int[nPixels];
+        zs = new int[nPixels];
+    }
+
+    /**
+     * Builds the graph of the skeleton in a binary crop. Pixel coordinates are
+     * converted back to the full image by adding the crop offsets.
+     *
+     * @param planes     Binary crop (one array per slice, non-zero is skeleton)
+     * @param width      Crop width
+     * @param height     Crop height
+     * @param offsetX    X-position of the crop in the full image
+     * @param offsetY    Y-position of the crop in the full image
+     * @param offsetZ    Z-position of the crop in the full image
+     * @param anisotropy Z pixel size divided by XY pixel size, used for edge
+     *                   lengths
+     * @return The skeleton graph
+     */
+    public static SkeletonGraph build(byte[][] planes, int width, int height, int offsetX, int offsetY, int offsetZ,
+            double anisotropy) {
+        int depth = planes.length;
+        int planeSize = width * height;
+
+        // Maps each crop pixel to its skeleton pixel index (or -1), giving constant
+        // time neighbour lookups without a hash map
+        int[] indices = new int[planeSize * depth];
+        int nPixels = 0;
+        for (int z = 0; z < depth; z++)
+            for (int i = 0; i < planeSize; i++)
+                indices[z * planeSize + i] = planes[z][i] != 0 ? nPixels++ : -1;
+
+        SkeletonGraph graph = new SkeletonGraph(nPixels);
+        for (int z = 0; z < depth; z++) {
+            for (int i = 0; i < planeSize; i++) {
+                int index = indices[z * planeSize + i];
+                if (index == -1)
+                    continue;
+                graph.xs[index] = i % width;
+                graph.ys[index] = i / width;
+                graph.zs[index] = z;
+            }
+        }
+
+        new Tracer(graph, indices, width, height, depth, anisotropy).trace();
+
+        for (int i = 0; i < nPixels; i++) {
+            graph.xs[i] += offsetX;
+            graph.ys[i] += offsetY;
+            graph.zs[i] += offsetZ;
+        }
+
+        return graph;
+
+    }
+
+    public int getNPixels() {
+        return xs.length;
+    }
+
+    public int getX(int pixel) {
+        return xs[pixel];
+    }
+
+    public int getY(int pixel) {
+        return ys[pixel];
+    }
+
+    public int getZ(int pixel) {
+        return zs[pixel];
+    }
+
+    public int getNNodes() {
+        return nNodes;
+    }
+
+    public byte getNodeType(int node) {
+        return nodeTypes[node];
+    }
+
+    public int getNEdges() {
+        return nEdges;
+    }
+
+    public int getEdgeNode1(int edge) {
+        return edgeNodes1[edge];
+    }
+
+    public int getEdgeNode2(int edge) {
+        return edgeNodes2[edge];
+    }
+
+    public double getEdgeLength(int edge) {
+        return edgeLengths[edge];
+    }
+
+    /**
+     * Returns the number of nodes of a type, before any branches are pruned.
+     */
+    public int getNNodes(byte type) {
+        int count = 0;
+        for (int i = 0; i < nNodes; i++)
+            if (nodeTypes[i] == type)
+                count++;
+
+        return count;
+
+    }
+
+    /**
+     * Returns the number of end points once short branches have been pruned (see
+     * {@link #getSumLength(double)}). Junctions left with a single edge after
+     * pruning are counted as end points.
+     */
+    public int getNEndPoints(double minBranchLength) {
+        int[] degrees = getDegrees(minBranchLength);
+        int count = 0;
+        for (int i = 0; i < nNodes; i++)
+            if (degrees[i] == 1)
+                count++;
+
+        return count;
+
+    }
+
+    /**
+     * Returns the number of junctions once short branches have been pruned (see
+     * {@link #getSumLength(double)}). Junctions left with fewer than three edges
+     * after pruning aren't counted.
+     */
+    public int getNJunctions(double minBranchLength) {
+        int[] degrees = getDegrees(minBranchLength);
+        int count = 0;
+        for (int i = 0; i < nNodes; i++)
+            if (degrees[i] >= 3)
+                count++;
+
+        return count;
+
+    }
+
+    /**
+     * Returns the number of edges once short branches have been pruned (see
+     * {@link #getSumLength(double)}). Where pruning leaves a junction with two
+     * edges, those edges are counted as one.
+     */
+    public int getNEdges(double minBranchLength) {
+        int[] degrees = getDegrees(minBranchLength);
+        boolean[] hasLoop = new boolean[nNodes];
+        int count = 0;
+        for (int i = 0; i < nEdges; i++) {
+            if (isPruned(i, minBranchLength))
+                continue;
+            count++;
+            if (edgeNodes1[i] == edgeNodes2[i])
+                hasLoop[edgeNodes1[i]] = true;
+        }
+
+        // A junction with two remaining edges is now a path pixel joining them. If
+        // both ends belong to the same loop edge, there's nothing to join.
+        for (int i = 0; i < nNodes; i++)
+            if (nodeTypes[i] == JUNCTION && degrees[i] == 2 && !hasLoop[i])
+                count--;
+
+        return count;
+
+    }
+
+    /**
+     * Returns the total length of all edges, in pixel units. Branches (edges
+     * between an end point and a junction) shorter than the minimum branch length
+     * are pruned in a single pass, so branches which only become end point to
+     * junction edges after pruning are kept. The same pruning is applied to all
+     * other measurements with a minimum branch length.
+     */
+    public double getSumLength(double minBranchLength) {
+        double sum = 0;
+        for (int i = 0; i < nEdges; i++)
+            if (!isPruned(i, minBranchLength))
+                sum += edgeLengths[i];
+
+        return sum;
+
+    }
+
+    /**
+     * Returns the longest of the shortest paths between any two nodes (the
+     * graph's diameter) once short branches have been pruned (see
+     * {@link #getSumLength(double)}), in pixel units. Shortest paths are found
+     * with Dijkstra's algorithm from each end point. Skeletons of single
+     * molecules only have a handful of nodes, so the O(n^2) form of the
+     * algorithm is used.
+     */
+    public double getLargestShortestPath(double minBranchLength) {
+        if (nEdges == 0)
+            return 0;
+
+        // Node adjacency of the remaining edges in compressed sparse row form
+        int[] adjacencyStarts = new int[nNodes + 1];
+        for (int i = 0; i < nEdges; i++) {
+            if (isPruned(i, minBranchLength))
+                continue;
+            adjacencyStarts[edgeNodes1[i] + 1]++;
+            adjacencyStarts[edgeNodes2[i] + 1]++;
+        }
+        for (int i = 0; i < nNodes; i++)
+            adjacencyStarts[i + 1] += adjacencyStarts[i];
+
+        int[] adjacentEdges = new int[adjacencyStarts[nNodes]];
+        int[] next = Arrays.copyOf(adjacencyStarts, nNodes);
+        for (int i = 0; i < nEdges; i++) {
+            if (isPruned(i, minBranchLength))
+                continue;
+            adjacentEdges[next[edgeNodes1[i]]++] = i;
+            adjacentEdges[next[edgeNodes2[i]]++] = i;
+        }
+
+        double largest = 0;
+        double[] distances = new double[nNodes];
+        boolean[] done = new boolean[nNodes];
+        int[] degrees = getDegrees(minBranchLength);
+        boolean hasEndPoints = false;
+        for (int degree : degrees)
+            hasEndPoints |= degree == 1;
+
+        for (int source = 0; source < nNodes; source++) {
+            // The longest shortest path always starts at an end point, if there are any
+            if (degrees[source] == 0 || (hasEndPoints && degrees[source] != 1))
+                continue;
+
+            Arrays.fill(distances, Double.POSITIVE_INFINITY);
+            Arrays.fill(done, false);
+            distances[source] = 0;
+
+            while (true) {
+                int current = -1;
+                for (int i = 0; i < nNodes; i++)
+                    if (!done[i] && distances[i] != Double.POSITIVE_INFINITY
+                            && (current == -1 || distances[i] < distances[current]))
+                        current = i;
+
+                if (current == -1)
+                    break;
+
+                done[current] = true;
+                largest = Math.max(largest, distances[current]);
+
+                for (int i = adjacencyStarts[current]; i < adjacencyStarts[current + 1]; i++) {
+                    int edge = adjacentEdges[i];
+                    int other = edgeNodes1[edge] == current ? edgeNodes2[edge] : edgeNodes1[edge];
+                    distances[other] = Math.min(distances[other], distances[current] + edgeLengths[edge]);
+                }
+            }
+        }
+
+        return largest;
+
+    }
+
+    /**
+     * Returns the number of remaining edge ends at each node after pruning. Loop
+     * edges count twice.
+     */
+    private int[] getDegrees(double minBranchLength) {
+        int[] degrees = new int[nNodes];
+        for (int i = 0; i < nEdges; i++) {
+            if (isPruned(i, minBranchLength))
+                continue;
+            degrees[edgeNodes1[i]]++;
+            degrees[edgeNodes2[i]]++;
+        }
+
+        return degrees;
+
+    }
+
+    private boolean isPruned(int edge, double minBranchLength) {
+        boolean isBranch = nodeTypes[edgeNodes1[edge]] == JUNCTION ^ nodeTypes[edgeNodes2[edge]] == JUNCTION;
+        return isBranch && edgeLengths[edge] < minBranchLength;
+    }
+
+    private int addNode(byte type) {
+        if (nNodes == nodeTypes.length)
+            nodeTypes = Arrays.copyOf(nodeTypes, nNodes * 2);
+        nodeTypes[nNodes] = type;
+        return nNodes++;
+    }
+
+    private void addEdge(int node1, int node2, double length) {
+        if (nEdges == edgeLengths.length) {
+            edgeNodes1 = Arrays.copyOf(edgeNodes1, nEdges * 2);
+            edgeNodes2 = Arrays.copyOf(edgeNodes2, nEdges * 2);
+            edgeLengths = Arrays.copyOf(edgeLengths, nEdges * 2);
+        }
+        edgeNodes1[nEdges] = node1;
+        edgeNodes2[nEdges] = node2;
+        edgeLengths[nEdges++] = length;
+    }
+
+    /**
+     * Working state used while tracing a graph. This is discarded once the graph
+     * is built, so only the pixel, node and edge arrays are retained.
+     */
+    private static class Tracer {
+        private final SkeletonGraph graph;
+        private final int[] indices;
+        private final int width;
+        private final int height;
+        private final int depth;
+        private final double anisotropy;
+
+        private final int[] pixelNodes;
+        private final boolean[] visited;
+        private final int[] neighbours = new int[26];
+
+        Tracer(SkeletonGraph graph, int[] indices, int width, int height, int depth, double anisotropy) {
+            this.graph = graph;
+            this.indices = indices;
+            this.width = width;
+            this.height = height;
+            this.depth = depth;
+            this.anisotropy = anisotropy;
+
+            int nPixels = graph.getNPixels();
+            pixelNodes = new int[nPixels];
+            Arrays.fill(pixelNodes, -1);
+            visited = new boolean[nPixels];
+
+        }
+
+        void trace() {
+            int nPixels = graph.getNPixels();
+
+            // Nodes are created for end points, isolated pixels and groups of adjacent
+            // junction pixels
+            for (int i = 0; i < nPixels; i++) {
+                if (pixelNodes[i] != -1)
+                    continue;
+
+                int nNeighbours = getNeighbours(i, neighbours);
+                if (nNeighbours == 2)
+                    continue;
+
+                if (nNeighbours == 0)
+                    pixelNodes[i] = graph.addNode(ISOLATED);
+                else if (nNeighbours == 1)
+                    pixelNodes[i] = graph.addNode(END_POINT);
+                else
+                    addJunction(i, graph.addNode(JUNCTION));
+            }
+
+            // Edges are traced out from each node pixel. Path pixels are marked as they
+            // are passed, so each edge is only traced from one end.
+            int[] nodeNeighbours = new int[26];
+            for (int i = 0; i < nPixels; i++) {
+                if (pixelNodes[i] == -1)
+                    continue;
+
+                int nNeighbours = getNeighbours(i, nodeNeighbours);
+                for (int j = 0; j < nNeighbours; j++) {
+                    int neighbour = nodeNeighbours[j];
+                    if (pixelNodes[neighbour] == pixelNodes[i])
+                        continue;
+
+                    if (pixelNodes[neighbour] != -1) {
+                        // Directly adjacent nodes
+                        if (i < neighbour)
+                            graph.addEdge(pixelNodes[i], pixelNodes[neighbour], getStepLength(i, neighbour));
+                    } else if (!visited[neighbour]) {
+                        traceEdge(i, neighbour);
+                    }
+                }
+            }
+
+            // Any remaining path pixels belong to closed loops with no nodes
+            for (int i = 0; i < nPixels; i++) {
+                if (pixelNodes[i] != -1 || visited[i])
+                    continue;
+
+                pixelNodes[i] = graph.addNode(LOOP);
+                getNeighbours(i, neighbours);
+                traceEdge(i, neighbours[0]);
+
+            }
+        }
+
+        /**
+         * Assigns a node to a junction pixel and all junction pixels connected to it.
+         */
+        private void addJunction(int pixel, int node) {
+            int[] stack = new int[8];
+            int size = 0;
+            stack[size++] = pixel;
+            pixelNodes[pixel] = node;
+
+            int[] junctionNeighbours = new int[26];
+            while (size > 0) {
+                int current = stack[--size];
+                int nNeighbours = getNeighbours(current, junctionNeighbours);
+                for (int j = 0; j < nNeighbours; j++) {
+                    int neighbour = junctionNeighbours[j];
+                    if (pixelNodes[neighbour] != -1 || getNeighbours(neighbour, neighbours) < 3)
+                        continue;
+
+                    pixelNodes[neighbour] = node;
+                    if (size == stack.length)
+                        stack = Arrays.copyOf(stack, size * 2);
+                    stack[size++] = neighbour;
+
+                }
+            }
+        }
+
+        /**
+         * Follows path pixels from a node pixel until another node pixel is reached,
+         * then adds the edge.
+         */
+        private void traceEdge(int startPixel, int firstPixel) {
+            int previous = startPixel;
+            int current = firstPixel;
+            double length = getStepLength(previous, current);
+
+            while (pixelNodes[current] == -1) {
+                visited[current] = true;
+
+                // Path pixels have exactly two neighbours, one of which is the previous
+                // pixel
+                getNeighbours(current, neighbours);
+                int next = neighbours[0] == previous ? neighbours[1] : neighbours[0];
+
+                length += getStepLength(current, next);
+                previous = current;
+                current = next;
+
+            }
+
+            graph.addEdge(pixelNodes[startPixel], pixelNodes[current], length);
+
+        }
+
+        private int getNeighbours(int pixel, int[] result) {
+            int x = graph.xs[pixel];
+            int y = graph.ys[pixel];
+            int z = graph.zs[pixel];
+
+            int count = 0;
+            for (int dz = -1; dz <= 1; dz++) {
+                int zz = z + dz;
+                if (zz < 0 || zz >= depth)
+                    continue;
+                for (int dy = -1; dy <= 1; dy++) {
+                    int yy = y + dy;
+                    if (yy < 0 || yy >= height)
+                        continue;
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int xx = x + dx;
+                        if (xx < 0 || xx >= width || (dx == 0 && dy == 0 && dz == 0))
+                            continue;
+                        int index = indices[(zz * height + yy) * width + xx];
+                        if (index != -1)
+                            result[count++] = index;
+                    }
+                }
+            }
+
+            return count;
+
+        }
+
+        private double getStepLength(int pixel1, int pixel2) {
+            double dx = graph.xs[pixel1] - graph.xs[pixel2];
+            double dy = graph.ys[pixel1] - graph.ys[pixel2];
+            double dz = (graph.zs[pixel1] - graph.zs[pixel2]) * anisotropy;
+            return Math.sqrt(dx * dx + dy * dy + dz * dz);
+        }
+    }
+}
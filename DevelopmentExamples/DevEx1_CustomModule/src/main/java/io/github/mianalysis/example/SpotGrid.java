@@ -0,0 +1,186 @@
+package io.github.mianalysis.example;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over the in-range points of a {@link SubpixelPoints}
+ * collection, used to find the points within a given distance of a location
+ * without testing every point.
+ *
+ * Cells are at least as large as the search radius, so a query only visits the
+ * cell containing the location and its immediate neighbours (up to 27 cells
+ * in 3D). Points are stored cell-by-cell in a single array, with a second array
+ * giving the start of each cell, so no per-cell lists are created. If the
+ * points are sparse relative to the radius, cells are enlarged to keep the
+ * number of cells proportional to the number of points.
+ *
+ * Z coordinates are multiplied by a scale factor (e.g. the ratio of the Z and
+ * XY pixel sizes) before indexing, so distances are measured in XY pixels.
+ */
+class SpotGrid {
+    private static final int MIN_CELLS = 1024;
+    private static final int CELLS_PER_POINT = 4;
+
+    private final SubpixelPoints points;
+    private final double radius;
+    private final double zScale;
+    private final double minX;
+    private final double minY;
+    private final double minZ;
+    private final int nX;
+    private final int nY;
+    private final int nZ;
+    private final double cellSize;
+
+    // Points in cell i are cellPoints[cellStarts[i]] to cellPoints[cellStarts[i+1]-1]
+    private final int[] cellStarts;
+    private final int[] cellPoints;
+
+    private int[] results = new int[16];
+    private int nResults = 0;
+
+    /**
+     * @param points Points to index. Only points with status
+     *               {@link SubpixelPoints.Status#IN_RANGE} are included.
+     * @param radius Largest search radius which will be used for queries
+     * @param zScale Factor Z coordinates are multiplied by
+     */
+    SpotGrid(SubpixelPoints points, double radius, double zScale) {
+        this.points = points;
+        this.radius = radius;
+        this.zScale = zScale;
+
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double maxZ = Double.NEGATIVE_INFINITY;
+        int nIndexed = 0;
+        for (int i = 0; i < points.size(); i++) {
+            if (points.getStatus(i) != SubpixelPoints.Status.IN_RANGE)
+                continue;
+
+            minX = Math.min(minX, points.getX(i));
+            minY = Math.min(minY, points.getY(i));
+            minZ = Math.min(minZ, points.getZ(i) * zScale);
+            maxX = Math.max(maxX, points.getX(i));
+            maxY = Math.max(maxY, points.getY(i));
+            maxZ = Math.max(maxZ, points.getZ(i) * zScale);
+            nIndexed++;
+        }
+
+        if (nIndexed == 0) {
+            minX = minY = minZ = maxX = maxY = maxZ = 0;
+        }
+
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+
+        long maxCells = Math.max(MIN_CELLS, (long) CELLS_PER_POINT * nIndexed);
+        double cellSize = Math.max(radius, Double.MIN_NORMAL);
+        while (getNCells(maxX - minX, cellSize) * getNCells(maxY - minY, cellSize)
+                * getNCells(maxZ - minZ, cellSize) > maxCells)
+            cellSize *= 2;
+
+        this.cellSize = cellSize;
+        this.nX = (int) getNCells(maxX - minX, cellSize);
+        this.nY = (int) getNCells(maxY - minY, cellSize);
+        this.nZ = (int) getNCells(maxZ - minZ, cellSize);
+
+        // Counting sort of points into cells.  This keeps points in index order
+        // within each cell.
+        int[] pointCells = new int[points.size()];
+        cellStarts = new int[nX * nY * nZ + 1];
+        for (int i = 0; i < points.size(); i++) {
+            if (points.getStatus(i) != SubpixelPoints.Status.IN_RANGE) {
+                pointCells[i] = -1;
+                continue;
+            }
+
+            int cell = getCell(getCellX(points.getX(i)), getCellY(points.getY(i)), getCellZ(points.getZ(i) * zScale));
+            pointCells[i] = cell;
+            cellStarts[cell + 1]++;
+        }
+
+        for (int i = 1; i < cellStarts.length; i++)
+            cellStarts[i] += cellStarts[i - 1];
+
+        cellPoints = new int[nIndexed];
+        int[] positions = Arrays.copyOf(cellStarts, cellStarts.length - 1);
+        for (int i = 0; i < points.size(); i++)
+            if (pointCells[i] != -1)
+                cellPoints[positions[pointCells[i]]++] = i;
+
+    }
+
+    /**
+     * Finds the indexed points within the search radius of a location (with Z
+     * unscaled, as for the indexed points). Results
+     * are retrieved with {@link #getResult(int)} and are only valid until the
+     * next query.
+     *
+     * @return Number of points found
+     */
+    int query(double x, double y, double z) {
+        nResults = 0;
+        z = z * zScale;
+        double radiusSq = radius * radius;
+
+        int x0 = Math.max(0, getCellX(x - radius));
+        int x1 = Math.min(nX - 1, getCellX(x + radius));
+        int y0 = Math.max(0, getCellY(y - radius));
+        int y1 = Math.min(nY - 1, getCellY(y + radius));
+        int z0 = Math.max(0, getCellZ(z - radius));
+        int z1 = Math.min(nZ - 1, getCellZ(z + radius));
+
+        for (int cz = z0; cz <= z1; cz++) {
+            for (int cy = y0; cy <= y1; cy++) {
+                for (int cx = x0; cx <= x1; cx++) {
+                    int cell = getCell(cx, cy, cz);
+                    for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                        int index = cellPoints[i];
+                        double dx = points.getX(index) - x;
+                        double dy = points.getY(index) - y;
+                        double dz = points.getZ(index) * zScale - z;
+                        if (dx * dx + dy * dy + dz * dz > radiusSq)
+                            continue;
+
+                        if (nResults == results.length)
+                            results = Arrays.copyOf(results, nResults * 2);
+                        results[nResults++] = index;
+
+                    }
+                }
+            }
+        }
+
+        return nResults;
+
+    }
+
+    int getResult(int i) {
+        return results[i];
+    }
+
+    private int getCellX(double x) {
+        return (int) Math.floor((x - minX) / cellSize);
+    }
+
+    private int getCellY(double y) {
+        return (int) Math.floor((y - minY) / cellSize);
+    }
+
+    private int getCellZ(double z) {
+        return (int) Math.floor((z - minZ) / cellSize);
+    }
+
+    private int getCell(int cx, int cy, int cz) {
+        return (cz * nY + cy) * nX + cx;
+    }
+
+    private static long getNCells(double range, double cellSize) {
+        return (long) Math.floor(range / cellSize) + 1;
+    }
+}
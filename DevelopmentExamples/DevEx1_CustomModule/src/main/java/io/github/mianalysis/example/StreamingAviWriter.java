@@ -0,0 +1,413 @@
+package io.github.mianalysis.example;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import ij.ImagePlus;
+import ij.measure.Calibration;
+import ij.process.ColorProcessor;
+
+/**
+ * Writes an AVI movie (Motion JPEG) one frame at a time, so only a few frames
+ * are ever held in memory.
+ *
+ * Frames are passed in as packed RGB pixel arrays and placed on a bounded
+ * queue. A separate encoder thread takes frames from the queue, compresses
+ * them with the JDK's JPEG encoder and appends them to the file, so rendering
+ * the next frame overlaps with compressing the previous one. When the queue is
+ * full, {@link #addFrame(int[])} waits for the encoder to catch up, so memory
+ * use is bounded by the queue size rather than the length of the movie. The
+ * AVI header and index are completed when the writer is closed.
+ *
+ * Files use the original (AVI 1.0) format, so are limited to 4 GB.
+ */
+public class StreamingAviWriter implements AutoCloseable {
+    public static final float DEFAULT_QUALITY = 0.9f;
+    public static final int DEFAULT_QUEUE_SIZE = 4;
+
+    // ImageJ's default frame rate for images without one
+    public static final double DEFAULT_FRAME_RATE = 7;
+
+    private static final int HEADER_SIZE = 224;
+    private static final int MOVI_OFFSET = 220;
+    private static final int AVIF_HASINDEX = 0x10;
+    private static final int AVIIF_KEYFRAME = 0x10;
+    private static final long MAX_FILE_SIZE = 0xFFFFFFFFL;
+
+    // Placed on the queue by close() to stop the encoder
+    private static final int[] END_OF_STREAM = new int[0];
+
+    private final RandomAccessFile file;
+    private final int width;
+    private final int height;
+    private final double frameRate;
+    private final float quality;
+    private final BlockingQueue<int[]> queue;
+    private final Thread encoder;
+
+    // Written by the encoder thread and read once it has finished
+    private int nFrames = 0;
+    private int maxChunkSize = 0;
+    private int[] chunkOffsets = new int[64];
+    private int[] chunkSizes = new int[64];
+    private volatile Exception encoderException = null;
+
+    private long startNs = 0;
+    private long endNs = 0;
+    private boolean closed = false;
+
+    public StreamingAviWriter(File outputFile, int width, int height, double frameRate) throws IOException {
+        this(outputFile, width, height, frameRate, DEFAULT_QUALITY, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param outputFile File to write (replaced if it already exists)
+     * @param width      Frame width in pixels
+     * @param height     Frame height in pixels
+     * @param frameRate  Playback rate in frames per second
+     * @param quality    JPEG quality in the range 0-1
+     * @param queueSize  Maximum number of frames waiting to be encoded
+     */
+    public StreamingAviWriter(File outputFile, int width, int height, double frameRate, float quality,
+            int queueSize) throws IOException {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Frame size must be positive (" + width + " x " + height + ")");
+        if (!(frameRate > 0))
+            throw new IllegalArgumentException("Frame rate must be positive (" + frameRate + ")");
+
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+        this.quality = Math.max(0, Math.min(1, quality));
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+
+        file = new RandomAccessFile(outputFile, "rw");
+        file.setLength(0);
+        writeHeader();
+
+        encoder = new Thread(this::encodeFrames, "AVI encoder (" + outputFile.getName() + ")");
+        encoder.setDaemon(true);
+        encoder.start();
+
+    }
+
+    /**
+     * Writes every frame of an image, with its overlay drawn on, as an
+     * alternative to saving a flattened copy of the whole stack. Each frame is
+     * flattened just before it's queued. The current channel and slice are used
+     * for every frame.
+     *
+     * @param ipl        Image to write
+     * @param outputFile File to write
+     * @return The writer, which has been closed
+     */
+    public static StreamingAviWriter write(ImagePlus ipl, File outputFile)
+            throws IOException, InterruptedException {
+        Calibration calibration = ipl.getCalibration();
+        double frameRate = calibration.fps > 0 ? calibration.fps : DEFAULT_FRAME_RATE;
+
+        int c = ipl.getC();
+        int z = ipl.getZ();
+        int t = ipl.getT();
+        boolean frames = ipl.getNFrames() > 1;
+        int nFrames = frames ? ipl.getNFrames() : ipl.getStackSize();
+
+        try (StreamingAviWriter writer = new StreamingAviWriter(outputFile, ipl.getWidth(), ipl.getHeight(),
+                frameRate)) {
+            for (int frame = 1; frame <= nFrames; frame++) {
+                if (frames)
+                    ipl.setPosition(c, z, frame);
+                else
+                    ipl.setSlice(frame);
+
+                ColorProcessor flattened = (ColorProcessor) ipl.flatten().getProcessor();
+                writer.addFrame((int[]) flattened.getPixels());
+
+            }
+
+            ipl.setPosition(c, z, t);
+
+            return writer;
+
+        }
+    }
+
+    /**
+     * Queues a frame to be encoded, waiting if the queue is full. The array is
+     * handed over to the encoder, so mustn't be modified afterwards.
+     *
+     * @param pixels Packed RGB pixels (as used by ColorProcessor), row by row
+     * @throws IOException If a previous frame couldn't be encoded or written
+     */
+    public void addFrame(int[] pixels) throws IOException, InterruptedException {
+        if (closed)
+            throw new IllegalStateException("Writer has been closed");
+        if (pixels.length != width * height)
+            throw new IllegalArgumentException(
+                    "Frame has " + pixels.length + " pixels (expected " + width * height + ")");
+
+        checkEncoder();
+
+        if (startNs == 0)
+            startNs = System.nanoTime();
+        queue.put(pixels);
+
+    }
+
+    /**
+     * Waits for all queued frames to be encoded, then writes the index and
+     * completes the header.
+     */
+    @Override
+    public void close() throws IOException, InterruptedException {
+        if (closed)
+            return;
+        closed = true;
+
+        try {
+            queue.put(END_OF_STREAM);
+            encoder.join();
+            endNs = System.nanoTime();
+
+            checkEncoder();
+
+            if (file.length() + 8 + nFrames * 16L > MAX_FILE_SIZE)
+                throw new IOException("AVI files are limited to 4 GB");
+
+            ByteBuffer index = ByteBuffer.allocate(8 + nFrames * 16).order(ByteOrder.LITTLE_ENDIAN);
+            putFourCC(index, "idx1");
+            index.putInt(nFrames * 16);
+            for (int i = 0; i < nFrames; i++) {
+                putFourCC(index, "00dc");
+                index.putInt(AVIIF_KEYFRAME);
+                index.putInt(chunkOffsets[i] - MOVI_OFFSET);
+                index.putInt(chunkSizes[i]);
+            }
+            file.seek(file.length());
+            file.write(index.array());
+
+            writeHeader();
+
+        } finally {
+            file.close();
+        }
+    }
+
+    public int getNFrames() {
+        return nFrames;
+    }
+
+    /**
+     * Returns the number of frames written per second, from the first frame
+     * being queued to the last being encoded. Only available once the writer
+     * has been closed.
+     */
+    public double getFramesPerSecond() {
+        if (endNs <= startNs)
+            return 0;
+        return nFrames / ((endNs - startNs) / 1E9);
+    }
+
+    private void checkEncoder() throws IOException {
+        Exception e = encoderException;
+        if (e instanceof IOException)
+            throw (IOException) e;
+        else if (e != null)
+            throw new IOException("Unable to encode frame", e);
+    }
+
+    private void encodeFrames() {
+        ImageWriter jpegWriter = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = jpegWriter.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+
+        DirectColorModel colorModel = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(width * height);
+
+        try {
+            while (true) {
+                int[] pixels = queue.take();
+                if (pixels == END_OF_STREAM)
+                    break;
+
+                // After an error, frames are still taken so the producer isn't blocked
+                if (encoderException != null)
+                    continue;
+
+                try {
+                    // The frame is wrapped rather than copied
+                    WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, pixels.length),
+                            width, height, width, colorModel.getMasks(), null);
+                    BufferedImage image = new BufferedImage(colorModel, raster, false, null);
+
+                    buffer.reset();
+                    try (ImageOutputStream stream = ImageIO.createImageOutputStream(buffer)) {
+                        jpegWriter.setOutput(stream);
+                        jpegWriter.write(null, new IIOImage(image, null, null), param);
+                    }
+                    writeChunk(buffer);
+
+                } catch (Exception e) {
+                    encoderException = e;
+                }
+            }
+        } catch (InterruptedException e) {
+            encoderException = e;
+        } finally {
+            jpegWriter.dispose();
+        }
+    }
+
+    private void writeChunk(ByteArrayOutputStream data) throws IOException {
+        int size = data.size();
+        long offset = file.getFilePointer();
+        if (offset + 8 + size + 1 > MAX_FILE_SIZE)
+            throw new IOException("AVI files are limited to 4 GB");
+
+        if (nFrames == chunkOffsets.length) {
+            chunkOffsets = Arrays.copyOf(chunkOffsets, nFrames * 2);
+            chunkSizes = Arrays.copyOf(chunkSizes, nFrames * 2);
+        }
+        chunkOffsets[nFrames] = (int) offset;
+        chunkSizes[nFrames] = size;
+        nFrames++;
+        maxChunkSize = Math.max(maxChunkSize, size);
+
+        ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        putFourCC(chunkHeader, "00dc");
+        chunkHeader.putInt(size);
+        file.write(chunkHeader.array());
+        data.writeTo(new RandomAccessFileOutput(file));
+
+        // Chunks are padded to an even length
+        if (size % 2 == 1)
+            file.write(0);
+
+    }
+
+    /**
+     * Writes the header at the start of the file. This is written with empty
+     * counts when the file is created, then rewritten on close.
+     */
+    private void writeHeader() throws IOException {
+        long fileSize = Math.max(file.length(), HEADER_SIZE);
+        long moviEnd = nFrames == 0 ? HEADER_SIZE
+                : (chunkOffsets[nFrames - 1] & 0xFFFFFFFFL) + 8 + chunkSizes[nFrames - 1] + chunkSizes[nFrames - 1] % 2;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        putFourCC(header, "RIFF");
+        header.putInt((int) (fileSize - 8));
+        putFourCC(header, "AVI ");
+
+        putFourCC(header, "LIST");
+        header.putInt(192);
+        putFourCC(header, "hdrl");
+
+        // Main AVI header
+        putFourCC(header, "avih");
+        header.putInt(56);
+        header.putInt((int) Math.round(1E6 / frameRate));
+        header.putInt((int) Math.ceil(maxChunkSize * frameRate));
+        header.putInt(0);
+        header.putInt(AVIF_HASINDEX);
+        header.putInt(nFrames);
+        header.putInt(0);
+        header.putInt(1);
+        header.putInt(maxChunkSize);
+        header.putInt(width);
+        header.putInt(height);
+        header.position(header.position() + 16);
+
+        putFourCC(header, "LIST");
+        header.putInt(116);
+        putFourCC(header, "strl");
+
+        // Video stream header. The frame rate is given as rate / scale.
+        putFourCC(header, "strh");
+        header.putInt(56);
+        putFourCC(header, "vids");
+        putFourCC(header, "MJPG");
+        header.putInt(0);
+        header.putInt(0);
+        header.putInt(0);
+        header.putInt(1000);
+        header.putInt((int) Math.round(frameRate * 1000));
+        header.putInt(0);
+        header.putInt(nFrames);
+        header.putInt(maxChunkSize);
+        header.putInt(-1);
+        header.putInt(0);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) width);
+        header.putShort((short) height);
+
+        // Video stream format (BITMAPINFOHEADER)
+        putFourCC(header, "strf");
+        header.putInt(40);
+        header.putInt(40);
+        header.putInt(width);
+        header.putInt(height);
+        header.putShort((short) 1);
+        header.putShort((short) 24);
+        putFourCC(header, "MJPG");
+        header.putInt(width * height * 3);
+        header.position(header.position() + 16);
+
+        putFourCC(header, "LIST");
+        header.putInt((int) (moviEnd - MOVI_OFFSET));
+        putFourCC(header, "movi");
+
+        long position = file.getFilePointer();
+        file.seek(0);
+        file.write(header.array());
+        file.seek(Math.max(position, HEADER_SIZE));
+
+    }
+
+    private static void putFourCC(ByteBuffer buffer, String fourCC) {
+        for (int i = 0; i < 4; i++)
+            buffer.put((byte) fourCC.charAt(i));
+    }
+
+    /**
+     * Lets encoded frames be copied from the buffer straight to the file.
+     */
+    private static class RandomAccessFileOutput extends OutputStream {
+        private final RandomAccessFile file;
+
+        RandomAccessFileOutput(RandomAccessFile file) {
+            this.file = file;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            file.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            file.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package io.github.mianalysis.example;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import io.github.mianalysis.mia.MIA;
+import io.github.mianalysis.mia.module.Modules;
+import io.github.mianalysis.mia.object.Measurement;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.refs.ObjMeasurementRef;
+
+/**
+ * Writes object measurements to an Excel file one workspace at a time, using
+ * POI's streaming (SXSSF) workbook. Only a small window of rows is held in
+ * memory; older rows are flushed to a temporary file, so heap use doesn't grow
+ * with the number of rows.
+ *
+ * Each object collection is written to its own sheet, with one row per object.
+ * Since earlier rows may already have been flushed, columns can't be added
+ * later, so they're fixed when each sheet is created. Where the workflow is
+ * given, the columns are every object measurement and parent collection the
+ * workflow's modules declare for the collection (its ObjMeasurementRefs and
+ * ParentChildRefs), so values first appearing on later objects or in later
+ * workspaces still have a column. Any measurements or parents of the first
+ * exported object which aren't declared are added too. Values which still
+ * don't have a column (only possible for undeclared values first appearing
+ * later, or when no workflow is given) are skipped, with a single warning for
+ * each measurement or parent collection. Once a sheet reaches Excel's row
+ * limit, rows continue on a new sheet.
+ *
+ * Sheet names are limited to 31 characters, can't contain some characters and
+ * must be unique ignoring case. Where a collection name made safe for Excel
+ * matches an existing sheet (e.g. two long names which only differ after the
+ * 31st character), " (2)", " (3)", etc. is added to the end.
+ */
+public class StreamingExcelExporter implements AutoCloseable {
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+
+    private static final int N_FIXED_COLUMNS = 4;
+    private static final int MAX_SHEET_NAME_LENGTH = 31;
+
+    private final File outputFile;
+    private final Modules modules;
+    private final SXSSFWorkbook workbook;
+    private final LinkedHashMap<String, SheetWriter> writers = new LinkedHashMap<>();
+
+    private long nRows = 0;
+    private long exportNs = 0;
+
+    private class SheetWriter {
+        private final String objectsName;
+        private final List<String> measurementNames = new ArrayList<>();
+        private final List<String> parentNames = new ArrayList<>();
+        private final HashMap<String, Integer> measurementColumns = new HashMap<>();
+        private final HashSet<String> skippedNames = new HashSet<>();
+        private final HashSet<String> skippedParents = new HashSet<>();
+
+        private SXSSFSheet sheet;
+        private int nSheets = 0;
+        private int rowIndex = 0;
+
+        SheetWriter(String objectsName, Obj example) {
+            this.objectsName = objectsName;
+
+            LinkedHashSet<String> allMeasurementNames = new LinkedHashSet<>();
+            LinkedHashSet<String> allParentNames = new LinkedHashSet<>();
+            if (modules != null) {
+                for (ObjMeasurementRef ref : modules.getObjectMeasurementRefs(objectsName).values())
+                    allMeasurementNames.add(ref.getName());
+                for (String parentName : modules.getParentChildRefs().getParentNames(objectsName, false))
+                    allParentNames.add(parentName);
+            }
+            allMeasurementNames.addAll(example.getMeasurements().keySet());
+            allParentNames.addAll(example.getParents(false).keySet());
+
+            for (String measurementName : allMeasurementNames) {
+                measurementColumns.put(measurementName, N_FIXED_COLUMNS + measurementNames.size());
+                measurementNames.add(measurementName);
+            }
+            parentNames.addAll(allParentNames);
+
+            createSheet();
+
+        }
+
+        void createSheet() {
+            nSheets++;
+            String name = nSheets == 1 ? objectsName : objectsName + " (" + nSheets + ")";
+            sheet = workbook.createSheet(getUniqueSheetName(name));
+            rowIndex = 0;
+
+            Row header = sheet.createRow(rowIndex++);
+            header.createCell(0).setCellValue("WORKSPACE_ID");
+            header.createCell(1).setCellValue("FILE");
+            header.createCell(2).setCellValue("OBJECT_ID");
+            header.createCell(3).setCellValue("TIMEPOINT");
+
+            int col = N_FIXED_COLUMNS;
+            for (String measurementName : measurementNames)
+                header.createCell(col++).setCellValue(measurementName);
+            for (String parentName : parentNames)
+                header.createCell(col++).setCellValue("PARENT_" + parentName + "_ID");
+
+        }
+
+        void write(int workspaceID, String fileName, Obj obj) {
+            if (rowIndex >= SpreadsheetVersion.EXCEL2007.getMaxRows())
+                createSheet();
+
+            Row row = sheet.createRow(rowIndex++);
+            row.createCell(0).setCellValue(workspaceID);
+            row.createCell(1).setCellValue(fileName);
+            row.createCell(2).setCellValue(obj.getID());
+            row.createCell(3).setCellValue(obj.getT());
+
+            for (Measurement measurement : obj.getMeasurements().values()) {
+                Integer col = measurementColumns.get(measurement.getName());
+                if (col != null)
+                    row.createCell(col).setCellValue(measurement.getValue());
+                else if (skippedNames.add(measurement.getName()))
+                    MIA.log.writeWarning("Measurement \"" + measurement.getName() + "\" for \"" + objectsName
+                            + "\" isn't declared by the workflow or present on the first exported object, so won't be "
+                            + "exported");
+            }
+
+            for (String parentName : obj.getParents(false).keySet())
+                if (!parentNames.contains(parentName) && skippedParents.add(parentName))
+                    MIA.log.writeWarning("Parent \"" + parentName + "\" of \"" + objectsName
+                            + "\" isn't declared by the workflow or present on the first exported object, so won't be "
+                            + "exported");
+
+            int col = N_FIXED_COLUMNS + measurementNames.size();
+            for (String parentName : parentNames) {
+                Obj parent = obj.getParent(parentName);
+                if (parent != null)
+                    row.createCell(col).setCellValue(parent.getID());
+                col++;
+            }
+        }
+    }
+
+    public StreamingExcelExporter(File outputFile) {
+        this(outputFile, null, DEFAULT_WINDOW_SIZE);
+    }
+
+    public StreamingExcelExporter(File outputFile, Modules modules) {
+        this(outputFile, modules, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param outputFile Excel file to write once {@link #close()} is called
+     * @param modules    Workflow producing the exported workspaces, used to choose
+     *                   each sheet's columns (or null to use the first exported
+     *                   object of each collection)
+     * @param windowSize Number of rows per sheet to hold in memory
+     */
+    public StreamingExcelExporter(File outputFile, Modules modules, int windowSize) {
+        this.outputFile = outputFile;
+        this.modules = modules;
+        this.workbook = new SXSSFWorkbook(windowSize);
+        workbook.setCompressTempFiles(true);
+    }
+
+    /**
+     * Returns a name Excel accepts which no existing sheet uses. Excel compares
+     * sheet names ignoring case, as does POI's getSheet.
+     */
+    private String getUniqueSheetName(String name) {
+        String safeName = WorkbookUtil.createSafeSheetName(name);
+        String uniqueName = safeName;
+        for (int i = 2; workbook.getSheet(uniqueName) != null; i++) {
+            String suffix = " (" + i + ")";
+            int maxLength = MAX_SHEET_NAME_LENGTH - suffix.length();
+            uniqueName = safeName.substring(0, Math.min(safeName.length(), maxLength)) + suffix;
+        }
+
+        return uniqueName;
+
+    }
+
+    /**
+     * Appends a row for every object in every collection of the workspace.
+     *
+     * @param workspace Workspace to export
+     * @param fileName  Name of the input file, written alongside each row
+     */
+    public void export(Workspace workspace, String fileName) {
+        long start = System.nanoTime();
+
+        for (Objs objects : workspace.getObjects().values()) {
+            if (objects.isEmpty())
+                continue;
+
+            SheetWriter writer = writers.get(objects.getName());
+            if (writer == null) {
+                writer = new SheetWriter(objects.getName(), objects.values().iterator().next());
+                writers.put(objects.getName(), writer);
+            }
+
+            for (Obj obj : objects.values())
+                writer.write(workspace.getID(), fileName, obj);
+
+            nRows += objects.size();
+
+        }
+
+        exportNs += System.nanoTime() - start;
+
+    }
+
+    public long getNRows() {
+        return nRows;
+    }
+
+    /**
+     * Returns the number of rows exported per second, counting only time spent in
+     * {@link #export(Workspace, String)}.
+     */
+    public double getRowsPerSecond() {
+        return exportNs == 0 ? 0 : nRows / (exportNs / 1e9);
+    }
+
+    /**
+     * Writes the workbook to the output file and deletes the temporary files
+     * holding flushed rows.
+     */
+    @Override
+    public void close() throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(outputFile)) {
+            workbook.write(outputStream);
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+}
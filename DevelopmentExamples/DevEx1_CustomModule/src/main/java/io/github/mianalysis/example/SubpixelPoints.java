@@ -0,0 +1,176 @@
+package io.github.mianalysis.example;
+
+import java.util.Arrays;
+
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.Point;
+
+/**
+ * A fixed-size collection of single-point objects with double-precision
+ * coordinates. Coordinates are held in primitive arrays (one entry per point),
+ * so no Point object is stored for each point.
+ *
+ * Points are checked against the spatial limits of an object collection when
+ * they're set. Rather than throwing a PointOutOfRangeException, the result of
+ * this check is returned and can later be retrieved with
+ * {@link #getStatus(int)}. A point is in range if its coordinates, once
+ * rounded to the nearest pixel, fall within the limits.
+ */
+public class SubpixelPoints {
+    public enum Status {
+        IN_RANGE, OUT_OF_RANGE, NOT_SET
+    }
+
+    private final int width;
+    private final int height;
+    private final int nSlices;
+
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private final int[] t;
+    private final Status[] statuses;
+
+    /**
+     * Creates storage for a fixed number of points. Points are checked against
+     * the spatial limits of the specified object collection.
+     *
+     * @param nPoints Number of points to store
+     * @param limits  Object collection defining the spatial limits
+     */
+    public SubpixelPoints(int nPoints, Objs limits) {
+        this.width = limits.getWidth();
+        this.height = limits.getHeight();
+        this.nSlices = limits.getNSlices();
+
+        x = new double[nPoints];
+        y = new double[nPoints];
+        z = new double[nPoints];
+        t = new int[nPoints];
+        statuses = new Status[nPoints];
+        Arrays.fill(statuses, Status.NOT_SET);
+
+    }
+
+    /**
+     * Sets the coordinates of a point. Points can be set from different threads,
+     * provided each thread sets different indices.
+     *
+     * @return {@link Status#IN_RANGE} if the point is within the spatial limits,
+     *         otherwise {@link Status#OUT_OF_RANGE}
+     */
+    public Status set(int index, double x, double y, double z, int t) {
+        this.x[index] = x;
+        this.y[index] = y;
+        this.z[index] = z;
+        this.t[index] = t;
+
+        Status status = checkRange(x, y, z);
+        statuses[index] = status;
+
+        return status;
+
+    }
+
+    /**
+     * Sets a point to the mean centroid (in pixel units for XY and slice units for
+     * Z) of an object. This is equivalent to {@link Obj#getMeanCentroid()}, but
+     * the result is written straight to the primitive arrays in a single pass
+     * over the object's coordinates. MIA only provides coordinates as Point
+     * objects, so these are still visited (and, for quadtree and octree
+     * storage, created) one at a time; only the centroid itself avoids
+     * allocation.
+     *
+     * @return {@link Status#IN_RANGE} if the point is within the spatial limits,
+     *         {@link Status#OUT_OF_RANGE} if it isn't, or {@link Status#NOT_SET}
+     *         if the object has no coordinates
+     */
+    public Status setMeanCentroid(int index, Obj obj) {
+        double sumX = 0;
+        double sumY = 0;
+        double sumZ = 0;
+        int n = 0;
+        for (Point<Integer> point : obj.getCoordinateSet()) {
+            sumX += point.x;
+            sumY += point.y;
+            sumZ += point.z;
+            n++;
+        }
+
+        if (n == 0) {
+            x[index] = Double.NaN;
+            y[index] = Double.NaN;
+            z[index] = Double.NaN;
+            t[index] = obj.getT();
+            statuses[index] = Status.NOT_SET;
+            return Status.NOT_SET;
+        }
+
+        return set(index, sumX / n, sumY / n, sumZ / n, obj.getT());
+
+    }
+
+    /**
+     * Copies a point's coordinates into the provided array, as {x, y, z}.
+     *
+     * @param index Index of the point
+     * @param out   Array of length 3 to be written to
+     */
+    public void getMeanCentroid(int index, double[] out) {
+        out[0] = x[index];
+        out[1] = y[index];
+        out[2] = z[index];
+    }
+
+    public double getX(int index) {
+        return x[index];
+    }
+
+    public double getY(int index) {
+        return y[index];
+    }
+
+    public double getZ(int index) {
+        return z[index];
+    }
+
+    public int getT(int index) {
+        return t[index];
+    }
+
+    public Status getStatus(int index) {
+        return statuses[index];
+    }
+
+    public int size() {
+        return x.length;
+    }
+
+    /**
+     * Returns the X coordinate rounded to the nearest pixel.
+     */
+    public int getRoundedX(int index) {
+        return (int) Math.round(x[index]);
+    }
+
+    public int getRoundedY(int index) {
+        return (int) Math.round(y[index]);
+    }
+
+    public int getRoundedZ(int index) {
+        return (int) Math.round(z[index]);
+    }
+
+    private Status checkRange(double x, double y, double z) {
+        long rx = Math.round(x);
+        long ry = Math.round(y);
+        long rz = Math.round(z);
+
+        if (rx < 0 || rx >= width || ry < 0 || ry >= height || rz < 0 || rz >= nSlices)
+            return Status.OUT_OF_RANGE;
+
+        return Status.IN_RANGE;
+
+    }
+}
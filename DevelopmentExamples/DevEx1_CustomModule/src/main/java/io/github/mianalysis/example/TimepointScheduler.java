@@ -0,0 +1,166 @@
+package io.github.mianalysis.example;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import ij.ImagePlus;
+import io.github.mianalysis.mia.MIA;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.Workspaces;
+
+/**
+ * Runs the per-frame part of a workflow (see {@link FrameWorkflow}) on every
+ * timepoint of a single image in parallel. Each timepoint gets its own
+ * workspace, so a single large time-lapse can use all available cores rather
+ * than only parallelising across input files (as InputControl's "Simultaneous
+ * jobs" does).
+ *
+ * The number of timepoints in flight is limited by a memory budget rather than
+ * a fixed job count. Each job's heap use is estimated as the size of one frame
+ * multiplied by a memory factor, to allow for the images and objects created
+ * while processing it. A job only starts once its estimate fits within the
+ * budget, and the estimate isn't returned until the job's workspace has been
+ * merged. Jobs are run on a work-stealing pool with one thread per core (or
+ * fewer, if the budget can't hold that many jobs).
+ *
+ * Completed workspaces are passed to a consumer in timepoint order, regardless
+ * of the order in which they finish. Before this, the timepoint of every object
+ * is set to the workspace's frame (starting at 0), so merged results (e.g.
+ * exports) refer to the original time-lapse.
+ */
+public class TimepointScheduler {
+    public static final double DEFAULT_MEMORY_FACTOR = 4;
+
+    private static final long MB = 1024 * 1024;
+
+    private final long memoryBudgetBytes;
+    private final double memoryFactor;
+
+    private long peakEstimatedBytes = 0;
+
+    /**
+     * @param memoryBudgetBytes Maximum total estimated heap use of jobs in flight
+     * @param memoryFactor      Estimated heap use of a job as a multiple of the
+     *                          size of one frame
+     */
+    public TimepointScheduler(long memoryBudgetBytes, double memoryFactor) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.memoryFactor = memoryFactor;
+    }
+
+    /**
+     * Runs the per-frame workflow on each timepoint of the image and passes the
+     * resulting workspaces to the consumer in timepoint order.
+     *
+     * @param frameWorkflow Modules to run on each timepoint
+     * @param ipl           Image to split into timepoints
+     * @param inputFile     Input file the image was loaded from
+     * @param consumer      Receives each completed workspace, in order
+     * @return true if every timepoint was processed
+     */
+    public boolean run(FrameWorkflow frameWorkflow, ImagePlus ipl, File inputFile, Consumer<Workspace> consumer)
+            throws InterruptedException {
+        int nFrames = ipl.getNFrames();
+
+        // Permits are counted in MB, so large budgets don't overflow.  A single job
+        // can always run, even if its estimate exceeds the budget.
+        int budgetPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudgetBytes / MB));
+        long jobBytes = (long) (FrameWorkflow.getFrameBytes(ipl) * memoryFactor);
+        int jobPermits = (int) Math.max(1, Math.min(budgetPermits, (jobBytes + MB - 1) / MB));
+        Semaphore semaphore = new Semaphore(budgetPermits);
+
+        int nThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), budgetPermits / jobPermits));
+        MIA.log.writeStatus(String.format("Running %d timepoint(s) on %d thread(s) (%.1f MB estimated per job)",
+                nFrames, nThreads, jobBytes / (double) MB));
+
+        Workspaces workspaces = new Workspaces();
+        List<Future<Boolean>> futures = new ArrayList<>();
+        List<Workspace> frameWorkspaces = new ArrayList<>();
+        int nextToMerge = 0;
+        boolean success = true;
+
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try {
+            for (int t = 1; t <= nFrames; t++) {
+                // If there's no room for this job, the oldest job is merged to free its
+                // estimate.  Once all earlier jobs are merged, the whole budget is free.
+                while (!semaphore.tryAcquire(jobPermits)) {
+                    if (nextToMerge < futures.size())
+                        success &= merge(futures, frameWorkspaces, nextToMerge++, workspaces, consumer, semaphore,
+                                jobPermits);
+                    else
+                        semaphore.acquire(jobPermits);
+                }
+
+                peakEstimatedBytes = Math.max(peakEstimatedBytes,
+                        (long) (budgetPermits - semaphore.availablePermits()) * MB);
+
+                // Workspaces are created on this thread, so workspace IDs follow timepoint
+                // order
+                Workspace workspace = workspaces.getNewWorkspace(inputFile, 1);
+                frameWorkspaces.add(workspace);
+
+                final int frame = t;
+                futures.add(pool.submit(() -> {
+                    frameWorkflow.addFrame(workspace, ipl, frame);
+                    return frameWorkflow.execute(workspace, frame);
+                }));
+            }
+
+            while (nextToMerge < futures.size())
+                success &= merge(futures, frameWorkspaces, nextToMerge++, workspaces, consumer, semaphore, jobPermits);
+
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return success;
+
+    }
+
+    /**
+     * Returns the largest total estimated heap use of jobs in flight during the
+     * last run.
+     */
+    public long getPeakEstimatedBytes() {
+        return peakEstimatedBytes;
+    }
+
+    private static boolean merge(List<Future<Boolean>> futures, List<Workspace> frameWorkspaces, int index,
+            Workspaces workspaces, Consumer<Workspace> consumer, Semaphore semaphore, int jobPermits)
+            throws InterruptedException {
+        Workspace workspace = frameWorkspaces.get(index);
+        frameWorkspaces.set(index, null);
+
+        boolean success;
+        try {
+            success = futures.get(index).get();
+        } catch (ExecutionException e) {
+            MIA.log.writeError(e);
+            success = false;
+        }
+
+        if (success) {
+            for (Objs objects : workspace.getObjects().values())
+                for (Obj obj : objects.values())
+                    obj.setT(index);
+
+            consumer.accept(workspace);
+
+        }
+
+        workspaces.remove(workspace);
+        semaphore.release(jobPermits);
+
+        return success;
+
+    }
+}
@@ -0,0 +1,630 @@
+package io.github.mianalysis.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.Overlay;
+import ij.gui.Roi;
+import ij.io.RoiEncoder;
+import io.github.mianalysis.mia.MIA;
+import io.github.mianalysis.mia.module.Module;
+import io.github.mianalysis.mia.module.Modules;
+import io.github.mianalysis.mia.object.Measurement;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.image.Image;
+import io.github.mianalysis.mia.object.image.ImageFactory;
+import io.github.mianalysis.mia.object.parameters.abstrakt.Parameter;
+import io.github.mianalysis.mia.object.system.Status;
+
+/**
+ * An on-disk cache of workspace contents after each module of a workflow. When
+ * a workflow is re-run with only later modules changed (e.g. a filter
+ * threshold or overlay opacity), the workspace is restored from the cache at
+ * the last unchanged module and only the following modules are run.
+ *
+ * Each entry is keyed by a SHA-256 hash chained along the workflow: the key
+ * after a module combines the key after the previous module with the module's
+ * class, version and raw parameter values (as written to the .mia file). The
+ * first key is taken from the input file's path, size and modification time,
+ * along with the workflow's input control parameters. Changing any module's
+ * parameters therefore changes the key of that module and every module after
+ * it.
+ *
+ * An entry stores the images in the workspace as TIFF files, every object
+ * collection (coordinates, measurements and parent, child and partner
+ * relationships) in a single file written by {@link ObjsSerialiser}, and the
+ * workspace metadata and image measurements in a third file. Metadata values
+ * must be strings, numbers, booleans or files; a workspace holding any other
+ * metadata isn't stored. Only images which were added or changed since the
+ * previous entry are written; the others are read from the earlier entry
+ * holding them. Images are compared using a SHA-256 hash of their dimensions,
+ * calibration, pixels and the full state of each overlay ROI. Planes of a
+ * {@link CopyOnWriteStack} still shared with their source, and planes of a
+ * {@link MappedTiffStack}, are hashed from their source without copying them.
+ *
+ * Entries are evicted least-recently-used first once the total size of the
+ * cache exceeds its limit. If an entry refers to an image in an evicted entry,
+ * or can't be read (e.g. it was truncated), it's removed and the next-latest
+ * entry is used.
+ *
+ * Restored modules aren't run, so any side effects they'd have (e.g. saving or
+ * showing images) don't happen. Modules are run in order until one doesn't
+ * pass, so workflow handling modules which redirect to other modules aren't
+ * supported.
+ */
+public class WorkflowResultCache {
+    public static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024 * 1024;
+
+    private static final String IMAGE_INDEX_FILE = "images.dat";
+    private static final String OBJECTS_FILE = "objects.dat";
+    private static final String WORKSPACE_FILE = "workspace.dat";
+    private static final int ENTRY_VERSION = 2;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File folder;
+    private final long maxBytes;
+
+    // Entry sizes in least- to most-recently used order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    private int nRestored = 0;
+    private int nRun = 0;
+
+    /**
+     * Opens (or creates) a cache folder. Existing entries are ordered by last
+     * use, taken from their modification times.
+     *
+     * @param folder   Folder holding the cache entries
+     * @param maxBytes Maximum total size of all entries
+     */
+    public WorkflowResultCache(File folder, long maxBytes) {
+        this.folder = folder;
+        this.maxBytes = maxBytes;
+
+        folder.mkdirs();
+        File[] entryFolders = folder.listFiles(File::isDirectory);
+        if (entryFolders == null)
+            return;
+
+        Arrays.sort(entryFolders, Comparator.comparingLong(File::lastModified));
+        for (File entryFolder : entryFolders) {
+            // Left over from an interrupted store
+            if (entryFolder.getName().endsWith(TEMP_SUFFIX)) {
+                deleteFolder(entryFolder);
+                continue;
+            }
+
+            long bytes = getSize(entryFolder);
+            entries.put(entryFolder.getName(), bytes);
+            totalBytes += bytes;
+        }
+    }
+
+    /**
+     * Runs a workflow on a workspace, restoring the workspace from the latest
+     * cached module and storing the workspace after each module which is run.
+     *
+     * @return true if all modules passed
+     */
+    public boolean execute(Modules modules, Workspace workspace) {
+        List<Module> runnable = new ArrayList<>();
+        for (Module module : modules)
+            if (module.isEnabled() && module.isRunnable())
+                runnable.add(module);
+
+        String[] keys;
+        try {
+            keys = getKeys(modules.getInputControl(), runnable, workspace.getMetadata().getFile());
+        } catch (NoSuchAlgorithmException e) {
+            MIA.log.writeError(e);
+            return false;
+        }
+
+        // Where each image in the workspace is stored, as of the latest entry
+        Map<String, StoredImage> storedImages = new LinkedHashMap<>();
+
+        int start = 0;
+        for (int i = keys.length - 1; i >= 0; i--) {
+            if (!entries.containsKey(keys[i]))
+                continue;
+
+            try {
+                storedImages = restore(keys[i], workspace);
+                start = i + 1;
+                nRestored += start;
+                break;
+            } catch (IOException | RuntimeException e) {
+                // Unreadable entries are removed and the next-latest entry is tried
+                MIA.log.writeWarning("Unable to restore cache entry " + keys[i] + " (" + e.getMessage() + ")");
+                clearWorkspace(workspace);
+                remove(keys[i]);
+            }
+        }
+
+        for (int i = start; i < runnable.size(); i++) {
+            if (runnable.get(i).execute(workspace) != Status.PASS)
+                return false;
+            nRun++;
+
+            try {
+                storedImages = store(keys[i], workspace, storedImages);
+            } catch (IOException | RuntimeException e) {
+                MIA.log.writeWarning("Unable to store cache entry " + keys[i] + " (" + e.getMessage() + ")");
+                remove(keys[i]);
+            }
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Returns the number of module executions which were skipped by restoring
+     * from the cache.
+     */
+    public int getNRestored() {
+        return nRestored;
+    }
+
+    public int getNRun() {
+        return nRun;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns the cache key after each of the modules, in order.
+     */
+    static String[] getKeys(Module inputControl, List<Module> modules, File inputFile)
+            throws NoSuchAlgorithmException {
+        String[] keys = new String[modules.size()];
+
+        // The input control determines how the input file is loaded (e.g. the
+        // series and spatial units), so is part of the first key
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        if (inputFile != null)
+            update(digest, inputFile.getAbsolutePath() + "|" + inputFile.length() + "|" + inputFile.lastModified());
+        if (inputControl != null)
+            update(digest, inputControl);
+        String key = toHex(digest.digest());
+
+        for (int i = 0; i < modules.size(); i++) {
+            update(digest, key);
+            update(digest, modules.get(i));
+
+            key = toHex(digest.digest());
+            keys[i] = key;
+
+        }
+
+        return keys;
+
+    }
+
+    private static void update(MessageDigest digest, Module module) {
+        update(digest, module.getClass().getName());
+        update(digest, module.getVersionNumber());
+        for (Parameter parameter : module.getAllParameters().values()) {
+            update(digest, parameter.getName());
+            update(digest, parameter.getRawStringValue());
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        // Each value is followed by a separator, so adjacent values can't run
+        // together into the same hash
+        if (value != null)
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    /**
+     * Stores a workspace as a new entry. Images which are unchanged since the
+     * previous entry are recorded as references to the entry already holding them.
+     *
+     * @param key            Key of the new entry
+     * @param workspace      Workspace to store
+     * @param previousImages Where each image was stored as of the previous entry
+     * @return Where each image in the workspace is stored as of this entry
+     * @throws IOException If the entry couldn't be written
+     */
+    Map<String, StoredImage> store(String key, Workspace workspace, Map<String, StoredImage> previousImages)
+            throws IOException {
+        if (entries.containsKey(key)) {
+            touch(key);
+            return readImageIndex(key);
+        }
+
+        // Entries are written to a temporary folder first, so a partially-written
+        // entry is never restored
+        File tempFolder = new File(folder, key + TEMP_SUFFIX);
+        deleteFolder(tempFolder);
+        tempFolder.mkdirs();
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        Map<String, StoredImage> storedImages = new LinkedHashMap<>();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(new File(tempFolder, IMAGE_INDEX_FILE))))) {
+            Map<String, Image> images = workspace.getImages();
+            out.writeInt(ENTRY_VERSION);
+            out.writeInt(images.size());
+            int i = 0;
+            for (Image image : images.values()) {
+                ImagePlus ipl = image.getImagePlus();
+                String hash = getHash(ipl, digest);
+
+                StoredImage storedImage = previousImages.get(image.getName());
+                if (storedImage == null || !storedImage.hash.equals(hash) || !entries.containsKey(storedImage.key)) {
+                    String fileName = "image" + (i++) + ".tif";
+                    if (!IJ.saveAsTiff(ipl, new File(tempFolder, fileName).getAbsolutePath()))
+                        throw new IOException("Unable to save image \"" + image.getName() + "\"");
+                    storedImage = new StoredImage(key, fileName, hash);
+                } else {
+                    touch(storedImage.key);
+                }
+
+                out.writeUTF(image.getName());
+                storedImage.write(out);
+                storedImages.put(image.getName(), storedImage);
+            }
+        }
+
+        writeWorkspace(workspace, new File(tempFolder, WORKSPACE_FILE));
+        ObjsSerialiser.write(workspace.getObjects().values(), new File(tempFolder, OBJECTS_FILE));
+
+        File entryFolder = new File(folder, key);
+        if (!tempFolder.renameTo(entryFolder)) {
+            deleteFolder(tempFolder);
+            throw new IOException("Unable to create " + entryFolder.getAbsolutePath());
+        }
+
+        long bytes = getSize(entryFolder);
+        entries.put(key, bytes);
+        totalBytes += bytes;
+
+        evict();
+
+        return storedImages;
+
+    }
+
+    /**
+     * Restores a workspace from an entry, along with any earlier entries holding
+     * its images.
+     *
+     * @return Where each image in the workspace is stored as of this entry
+     * @throws IOException If the entry, or an image it refers to, couldn't be read
+     */
+    Map<String, StoredImage> restore(String key, Workspace workspace) throws IOException {
+        Map<String, StoredImage> storedImages = readImageIndex(key);
+        for (Map.Entry<String, StoredImage> entry : storedImages.entrySet()) {
+            String name = entry.getKey();
+            StoredImage storedImage = entry.getValue();
+            if (!entries.containsKey(storedImage.key))
+                throw new IOException("Image \"" + name + "\" was stored in an evicted entry");
+
+            File imageFile = new File(new File(folder, storedImage.key), storedImage.fileName);
+            ImagePlus ipl = IJ.openImage(imageFile.getAbsolutePath());
+            if (ipl == null)
+                throw new IOException("Unable to open image \"" + name + "\"");
+            workspace.addImage(ImageFactory.createImage(name, ipl));
+        }
+
+        readWorkspace(workspace, new File(new File(folder, key), WORKSPACE_FILE));
+        for (Objs objects : ObjsSerialiser.read(new File(new File(folder, key), OBJECTS_FILE)))
+            workspace.addObjects(objects);
+
+        // Earlier entries holding images are touched too, so they're evicted after
+        // this one
+        for (StoredImage storedImage : storedImages.values())
+            touch(storedImage.key);
+        touch(key);
+
+        return storedImages;
+
+    }
+
+    private Map<String, StoredImage> readImageIndex(String key) throws IOException {
+        Map<String, StoredImage> storedImages = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(new File(new File(folder, key), IMAGE_INDEX_FILE))))) {
+            int version = in.readInt();
+            if (version != ENTRY_VERSION)
+                throw new IOException("Unsupported cache entry version " + version);
+
+            int nImages = in.readInt();
+            for (int i = 0; i < nImages; i++)
+                storedImages.put(in.readUTF(), StoredImage.read(in));
+        }
+
+        return storedImages;
+
+    }
+
+    /**
+     * Writes the workspace metadata and the measurements of each image.
+     *
+     * @throws IOException If a metadata value isn't a string, number, boolean or
+     *                     file, so couldn't be restored as it was
+     */
+    private static void writeWorkspace(Workspace workspace, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            Map<String, Object> metadata = workspace.getMetadata();
+            out.writeInt(metadata.size());
+            for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeValue(out, entry.getKey(), entry.getValue());
+            }
+
+            Map<String, Image> images = workspace.getImages();
+            out.writeInt(images.size());
+            for (Image image : images.values()) {
+                out.writeUTF(image.getName());
+                Map<String, Measurement> measurements = image.getMeasurements();
+                out.writeInt(measurements.size());
+                for (Measurement measurement : measurements.values()) {
+                    out.writeUTF(measurement.getName());
+                    out.writeDouble(measurement.getValue());
+                }
+            }
+        }
+    }
+
+    private static void readWorkspace(Workspace workspace, File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            Map<String, Object> metadata = workspace.getMetadata();
+            int nValues = in.readInt();
+            for (int i = 0; i < nValues; i++)
+                metadata.put(in.readUTF(), readValue(in));
+
+            int nImages = in.readInt();
+            for (int i = 0; i < nImages; i++) {
+                String name = in.readUTF();
+                Image image = workspace.getImage(name);
+                if (image == null)
+                    throw new IOException("Measurements stored for missing image \"" + name + "\"");
+
+                int nMeasurements = in.readInt();
+                for (int j = 0; j < nMeasurements; j++)
+                    image.addMeasurement(new Measurement(in.readUTF(), in.readDouble()));
+            }
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, String name, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte('N');
+        } else if (value instanceof String) {
+            out.writeByte('S');
+            out.writeUTF((String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte('I');
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte('J');
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte('D');
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte('F');
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte('Z');
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof File) {
+            out.writeByte('P');
+            out.writeUTF(((File) value).getPath());
+        } else {
+            throw new IOException("Metadata \"" + name + "\" (" + value.getClass().getSimpleName()
+                    + ") can't be stored");
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case 'N':
+                return null;
+            case 'S':
+                return in.readUTF();
+            case 'I':
+                return in.readInt();
+            case 'J':
+                return in.readLong();
+            case 'D':
+                return in.readDouble();
+            case 'F':
+                return in.readFloat();
+            case 'Z':
+                return in.readBoolean();
+            case 'P':
+                return new File(in.readUTF());
+            default:
+                throw new IOException("Unknown metadata type " + type);
+        }
+    }
+
+    /**
+     * Returns a SHA-256 hash of an image's dimensions, calibration, pixels and
+     * overlay, used to check whether it has changed since it was stored.
+     *
+     * @param ipl    Image to hash
+     * @param digest Digest to use, which is reset once the hash is calculated
+     */
+    static String getHash(ImagePlus ipl, MessageDigest digest) {
+        update(digest, ipl.getWidth() + "|" + ipl.getHeight() + "|" + ipl.getNChannels() + "|" + ipl.getNSlices()
+                + "|" + ipl.getNFrames() + "|" + ipl.getBitDepth());
+        update(digest, ipl.getCalibration().toString());
+        update(digest, ipl.getDisplayRangeMin() + "|" + ipl.getDisplayRangeMax());
+
+        ImageStack stack = ipl.getStack();
+        ByteBuffer buffer = null;
+        for (int n = 1; n <= stack.getSize(); n++)
+            buffer = updatePlane(digest, stack, n, buffer);
+
+        // Encoding each ROI as it would be saved covers its type, coordinates,
+        // position, colours, stroke and name
+        Overlay overlay = ipl.getOverlay();
+        if (overlay != null) {
+            update(digest, String.valueOf(overlay.size()));
+            for (Roi roi : overlay.toArray()) {
+                byte[] bytes = RoiEncoder.saveAsByteArray(roi);
+                update(digest, String.valueOf(bytes.length));
+                digest.update(bytes);
+            }
+        }
+
+        return toHex(digest.digest());
+
+    }
+
+    /**
+     * Adds a plane to a digest. Planes which are known to be unchanged from a
+     * source stack are read from that stack instead, so they aren't copied.
+     *
+     * @return A buffer which can be reused for the next plane
+     */
+    private static ByteBuffer updatePlane(MessageDigest digest, ImageStack stack, int n, ByteBuffer buffer) {
+        if (stack instanceof CopyOnWriteStack) {
+            CopyOnWriteStack copyOnWriteStack = (CopyOnWriteStack) stack;
+            int sourcePlane = copyOnWriteStack.getSourcePlane(n);
+            if (sourcePlane != 0)
+                return updatePlane(digest, copyOnWriteStack.getSource(), sourcePlane, buffer);
+        } else if (stack instanceof MappedTiffStack) {
+            update(digest, "mapped");
+            ((MappedTiffStack) stack).updateDigest(digest, n);
+            return buffer;
+        }
+
+        update(digest, "pixels");
+        Object pixels = stack.getPixels(n);
+        if (pixels instanceof byte[]) {
+            digest.update((byte[]) pixels);
+            return buffer;
+        }
+
+        int nBytes = pixels instanceof short[] ? ((short[]) pixels).length * 2
+                : pixels instanceof float[] ? ((float[]) pixels).length * 4 : ((int[]) pixels).length * 4;
+        if (buffer == null || buffer.capacity() < nBytes)
+            buffer = ByteBuffer.allocate(nBytes);
+        buffer.clear();
+
+        if (pixels instanceof short[])
+            buffer.asShortBuffer().put((short[]) pixels);
+        else if (pixels instanceof float[])
+            buffer.asFloatBuffer().put((float[]) pixels);
+        else
+            buffer.asIntBuffer().put((int[]) pixels);
+        digest.update(buffer.array(), 0, nBytes);
+
+        return buffer;
+
+    }
+
+    private static void clearWorkspace(Workspace workspace) {
+        workspace.getImages().clear();
+        workspace.getObjects().clear();
+    }
+
+    private void touch(String key) {
+        entries.get(key);
+        new File(folder, key).setLastModified(System.currentTimeMillis());
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            totalBytes -= entry.getValue();
+            deleteFolder(new File(folder, entry.getKey()));
+            iterator.remove();
+        }
+    }
+
+    private void remove(String key) {
+        Long bytes = entries.remove(key);
+        if (bytes != null)
+            totalBytes -= bytes;
+        deleteFolder(new File(folder, key));
+    }
+
+    private static long getSize(File entryFolder) {
+        long bytes = 0;
+        File[] files = entryFolder.listFiles();
+        if (files != null)
+            for (File file : files)
+                bytes += file.length();
+        return bytes;
+    }
+
+    /**
+     * The location of an image in the cache and the hash of its contents.
+     */
+    static final class StoredImage {
+        final String key;
+        final String fileName;
+        final String hash;
+
+        StoredImage(String key, String fileName, String hash) {
+            this.key = key;
+            this.fileName = fileName;
+            this.hash = hash;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(key);
+            out.writeUTF(fileName);
+            out.writeUTF(hash);
+        }
+
+        static StoredImage read(DataInputStream in) throws IOException {
+            return new StoredImage(in.readUTF(), in.readUTF(), in.readUTF());
+        }
+    }
+
+    private static void deleteFolder(File entryFolder) {
+        File[] files = entryFolder.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        entryFolder.delete();
+    }
+}
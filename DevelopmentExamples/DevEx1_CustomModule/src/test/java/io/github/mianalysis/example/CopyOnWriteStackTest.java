@@ -0,0 +1,142 @@
+package io.github.mianalysis.example;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import io.github.mianalysis.mia.object.image.Image;
+
+public class CopyOnWriteStackTest {
+    static final int WIDTH = 4;
+    static final int HEIGHT = 3;
+
+    @Test
+    public void testReadsAreShared() {
+        ImageStack source = createSource(3);
+        CopyOnWriteStack stack = new CopyOnWriteStack(source);
+
+        assertEquals(3, stack.size());
+        assertEquals(2, stack.getVoxel(1, 1, 1), 0);
+        assertEquals(0, stack.getNCopied());
+        for (int n = 1; n <= 3; n++)
+            assertEquals(n, stack.getSourcePlane(n));
+
+    }
+
+    @Test
+    public void testWritesAreCopied() {
+        ImageStack source = createSource(3);
+        byte[] sourcePixels = ((byte[]) source.getPixels(2)).clone();
+        CopyOnWriteStack stack = new CopyOnWriteStack(source);
+
+        stack.getProcessor(2).set(0, 0, 100);
+        stack.setVoxel(1, 1, 2, 50);
+
+        assertEquals(100, stack.getVoxel(0, 0, 1), 0);
+        assertEquals(50, stack.getVoxel(1, 1, 2), 0);
+        assertArrayEquals(sourcePixels, (byte[]) source.getPixels(2));
+        assertEquals(3, source.getVoxel(1, 1, 2), 0);
+
+        assertEquals(2, stack.getNCopied());
+        assertEquals(1, stack.getSourcePlane(1));
+        assertEquals(0, stack.getSourcePlane(2));
+        assertEquals(0, stack.getSourcePlane(3));
+
+    }
+
+    @Test
+    public void testPixelArraysAreCopied() {
+        ImageStack source = createSource(2);
+        CopyOnWriteStack stack = new CopyOnWriteStack(source);
+
+        assertNotSame(source.getPixels(1), stack.getPixels(1));
+        assertEquals(1, stack.getNCopied());
+
+        Object[] planes = stack.getImageArray();
+        assertNotSame(source.getPixels(2), planes[1]);
+        assertEquals(2, stack.getNCopied());
+
+    }
+
+    @Test
+    public void testDeleteSlice() {
+        CopyOnWriteStack stack = new CopyOnWriteStack(createSource(4));
+        stack.getProcessor(3);
+
+        stack.deleteSlice(1);
+
+        assertEquals(3, stack.size());
+        assertEquals(2, stack.getSourcePlane(1));
+        assertEquals(0, stack.getSourcePlane(2));
+        assertEquals(4, stack.getSourcePlane(3));
+        assertEquals(4, stack.getVoxel(0, 0, 2), 0);
+
+    }
+
+    @Test
+    public void testAddSlice() {
+        ImageStack source = createSource(2);
+        CopyOnWriteStack stack = new CopyOnWriteStack(source);
+
+        ByteProcessor inserted = new ByteProcessor(WIDTH, HEIGHT);
+        inserted.set(9);
+        stack.addSlice("Inserted", inserted, 1);
+        stack.addSlice("Appended", new byte[WIDTH * HEIGHT]);
+
+        assertEquals(4, stack.size());
+        assertEquals(1, stack.getSourcePlane(1));
+        assertEquals(0, stack.getSourcePlane(2));
+        assertEquals(2, stack.getSourcePlane(3));
+        assertEquals(0, stack.getSourcePlane(4));
+        assertEquals(9, stack.getVoxel(0, 0, 1), 0);
+        assertEquals(2, stack.getVoxel(0, 0, 2), 0);
+
+        // Added planes are owned from the start, but weren't copied from the source
+        assertEquals(0, stack.getNCopied());
+        assertEquals(2, source.size());
+
+    }
+
+    @Test
+    public void testCreateImage() {
+        ImagePlus sourceIpl = IJ.createImage("Source", "8-bit black", WIDTH, HEIGHT, 1, 3, 2);
+        sourceIpl.getCalibration().pixelWidth = 0.5;
+        ImageStack sourceStack = sourceIpl.getStack();
+
+        Image image = CopyOnWriteStack.createImage("Copy", sourceIpl);
+        ImagePlus ipl = image.getImagePlus();
+
+        assertEquals("Copy", image.getName());
+        assertEquals(3, ipl.getNSlices());
+        assertEquals(2, ipl.getNFrames());
+        assertEquals(0.5, ipl.getCalibration().pixelWidth, 0);
+        assertSame(sourceStack, ((CopyOnWriteStack) ipl.getStack()).getSource());
+
+        ipl.getStack().getProcessor(4).set(1, 1, 200);
+        assertEquals(0, sourceStack.getVoxel(1, 1, 3), 0);
+        assertEquals(200, ipl.getStack().getVoxel(1, 1, 3), 0);
+
+    }
+
+    /**
+     * Creates an 8-bit stack where every pixel of plane n has the value n.
+     */
+    static ImageStack createSource(int nPlanes) {
+        ImageStack stack = new ImageStack(WIDTH, HEIGHT);
+        for (int n = 1; n <= nPlanes; n++) {
+            ByteProcessor ip = new ByteProcessor(WIDTH, HEIGHT);
+            ip.set(n);
+            stack.addSlice("Plane " + n, ip);
+        }
+
+        return stack;
+
+    }
+}
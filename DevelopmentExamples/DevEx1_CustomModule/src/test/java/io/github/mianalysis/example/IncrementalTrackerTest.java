@@ -0,0 +1,353 @@
+package io.github.mianalysis.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import io.github.mianalysis.mia.module.Modules;
+import io.github.mianalysis.mia.module.objects.relate.TrackObjects;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.Workspaces;
+import io.github.mianalysis.mia.object.coordinates.volume.PointOutOfRangeException;
+import io.github.mianalysis.mia.object.coordinates.volume.SpatCal;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+import io.github.mianalysis.mia.object.system.Status;
+import io.github.mianalysis.mia.object.units.TemporalUnit;
+
+/**
+ * Checks the assignment step of {@link IncrementalTracker} against an
+ * exhaustive search, and whole tracks against MIA's TrackObjects module (set up
+ * as in Ex2_ObjectTracking.mia).
+ */
+public class IncrementalTrackerTest {
+    // Parameter names and values, as stored in the Ex2 workflow file
+    static final String INPUT_OBJECTS = "Input objects";
+    static final String OUTPUT_TRACKS = "Output track objects";
+    static final String LINKING_METHOD = "Linking method";
+    static final String MAX_LINKING_DISTANCE = "Maximum linking distance (px)";
+    static final String MAX_MISSING_FRAMES = "Maximum number of missing frames";
+    static final String FRAME_GAP_WEIGHTING = "Frame gap weighting";
+    static final String FAVOUR_ESTABLISHED = "Favour established tracks";
+    static final String USE_VOLUME = "Use volume (minimise volume change)";
+    static final String DIRECTION_WEIGHTING_MODE = "Direction weighting mode";
+
+    static final String SPOTS = "Spots";
+    static final String TRACKS = "Tracks";
+
+    static final int WIDTH = 260;
+    static final int HEIGHT = 180;
+    static final int N_FRAMES = 8;
+
+    @Test
+    public void testAssignmentIsOptimal() {
+        Random random = new Random(0);
+        for (int trial = 0; trial < 500; trial++) {
+            int nTracks = 1 + random.nextInt(6);
+            int nSpots = 1 + random.nextInt(6);
+
+            // Random sparse cost matrix, with NaN for pairs which aren't candidates
+            double[][] costMatrix = new double[nTracks][nSpots];
+            List<Long> candidateList = new ArrayList<>();
+            for (int track = 0; track < nTracks; track++) {
+                for (int spot = 0; spot < nSpots; spot++) {
+                    costMatrix[track][spot] = Double.NaN;
+                    if (random.nextDouble() < 0.6) {
+                        costMatrix[track][spot] = random.nextInt(4) == 0 ? random.nextInt(3) : random.nextDouble() * 10;
+                        candidateList.add(IncrementalTracker.packCandidate(costMatrix[track][spot], track, spot));
+                    }
+                }
+            }
+
+            long[] candidates = new long[candidateList.size()];
+            for (int i = 0; i < candidates.length; i++)
+                candidates[i] = candidateList.get(i);
+            Arrays.sort(candidates);
+
+            double[] costs = new double[candidates.length];
+            for (int i = 0; i < candidates.length; i++)
+                costs[i] = costMatrix[IncrementalTracker.getTrackIndex(candidates[i])][IncrementalTracker
+                        .getSpotIndex(candidates[i])];
+
+            int[] trackLinks = IncrementalTracker.assign(candidates, costs, nTracks, nSpots);
+
+            // Each spot is used once, and only through a candidate link
+            assertEquals(nTracks, trackLinks.length);
+            Set<Integer> usedSpots = new HashSet<>();
+            for (int track = 0; track < nTracks; track++) {
+                if (trackLinks[track] == -1)
+                    continue;
+                assertTrue(usedSpots.add(trackLinks[track]));
+                assertTrue(!Double.isNaN(costMatrix[track][trackLinks[track]]));
+            }
+
+            double expected = getBestTotalCost(costMatrix, costs, 0, new boolean[nSpots], 0, 0);
+            assertEquals("Trial " + trial, expected, getTotalCost(costMatrix, costs, trackLinks), 1e-9);
+
+        }
+    }
+
+    @Test
+    public void testNoCandidates() {
+        int[] trackLinks = IncrementalTracker.assign(new long[0], new double[0], 3, 2);
+        assertEquals("[-1, -1, -1]", Arrays.toString(trackLinks));
+    }
+
+    @Test
+    public void testPackCandidateOrder() {
+        long cheap = IncrementalTracker.packCandidate(1.5, 7, 3);
+        long expensive = IncrementalTracker.packCandidate(2.5, 1, 0);
+        assertTrue(cheap < expensive);
+        assertEquals(7, IncrementalTracker.getTrackIndex(cheap));
+        assertEquals(3, IncrementalTracker.getSpotIndex(cheap));
+    }
+
+    @Test
+    public void testMatchesTrackObjects() throws PointOutOfRangeException {
+        // TrackObjects adds the spots to track objects, so each tracker gets its own
+        // copy of the same spots
+        Set<Set<Integer>> expected = trackObjects(createSpots());
+
+        for (IncrementalTracker.LinkingBackends backend : IncrementalTracker.LinkingBackends.values())
+            assertEquals(backend.toString(), expected, track(createSpots(), backend));
+
+    }
+
+    @Test
+    public void testFinishedTracks() {
+        Objs limits = createLimits();
+        List<IncrementalTracker.Track> finished = new ArrayList<>();
+        IncrementalTracker tracker = new IncrementalTracker(5, 1, false, finished::add);
+
+        SubpixelPoints frame = new SubpixelPoints(1, limits);
+        frame.set(0, 10, 10, 0, 0);
+        tracker.addFrame(0, frame, new int[] { 1 });
+
+        // One missing frame is allowed, so the track continues in frame 2
+        frame.set(0, 12, 10, 0, 2);
+        int[] trackIDs = tracker.addFrame(2, frame, new int[] { 2 });
+        assertEquals(0, finished.size());
+
+        // The track has now been missing for two frames, so a new track is started
+        frame.set(0, 12, 10, 0, 5);
+        int[] newTrackIDs = tracker.addFrame(5, frame, new int[] { 3 });
+        assertEquals(1, finished.size());
+        assertTrue(trackIDs[0] != newTrackIDs[0]);
+
+        IncrementalTracker.Track track = finished.get(0);
+        assertEquals(2, track.size());
+        assertEquals(2, track.getT(1));
+        assertEquals(2, track.getSpotID(1));
+        assertEquals(12, track.getX(1), 0);
+
+        tracker.finishAll();
+        assertEquals(2, finished.size());
+        assertEquals(0, tracker.getNActiveTracks());
+
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFramesOutOfOrder() {
+        Objs limits = createLimits();
+        IncrementalTracker tracker = new IncrementalTracker(5, 0, false, track -> {
+        });
+        SubpixelPoints frame = new SubpixelPoints(0, limits);
+        tracker.addFrame(1, frame, new int[0]);
+        tracker.addFrame(1, frame, new int[0]);
+    }
+
+    /**
+     * Returns the lowest total cost of any assignment, found by trying every
+     * combination of links.
+     */
+    static double getBestTotalCost(double[][] costMatrix, double[] costs, int track, boolean[] usedSpots,
+            int nLinks, double linkCost) {
+        if (track == costMatrix.length)
+            return getTotalCost(costMatrix, costs, nLinks, linkCost);
+
+        double best = getBestTotalCost(costMatrix, costs, track + 1, usedSpots, nLinks, linkCost);
+        for (int spot = 0; spot < usedSpots.length; spot++) {
+            if (usedSpots[spot] || Double.isNaN(costMatrix[track][spot]))
+                continue;
+
+            usedSpots[spot] = true;
+            best = Math.min(best, getBestTotalCost(costMatrix, costs, track + 1, usedSpots, nLinks + 1,
+                    linkCost + costMatrix[track][spot]));
+            usedSpots[spot] = false;
+        }
+
+        return best;
+
+    }
+
+    static double getTotalCost(double[][] costMatrix, double[] costs, int[] trackLinks) {
+        int nLinks = 0;
+        double linkCost = 0;
+        for (int track = 0; track < trackLinks.length; track++) {
+            if (trackLinks[track] != -1) {
+                nLinks++;
+                linkCost += costMatrix[track][trackLinks[track]];
+            }
+        }
+
+        return getTotalCost(costMatrix, costs, nLinks, linkCost);
+
+    }
+
+    /**
+     * Returns the total cost of the full cost matrix for an assignment, as
+     * described in {@link IncrementalTracker#assign(long[], double[], int, int)}.
+     * Each link also takes the smallest cost in the lower-right block, while each
+     * track and spot with a candidate which is left unlinked takes the
+     * alternative cost.
+     */
+    static double getTotalCost(double[][] costMatrix, double[] costs, int nLinks, double linkCost) {
+        if (costs.length == 0)
+            return 0;
+
+        double minCost = Double.POSITIVE_INFINITY;
+        double maxCost = 0;
+        for (double cost : costs) {
+            minCost = Math.min(minCost, cost);
+            maxCost = Math.max(maxCost, cost);
+        }
+        double alternativeCost = IncrementalTracker.ALTERNATIVE_COST_FACTOR * maxCost;
+        if (alternativeCost == 0)
+            alternativeCost = 1;
+
+        Set<Integer> linkedTracks = new HashSet<>();
+        Set<Integer> linkedSpots = new HashSet<>();
+        for (int track = 0; track < costMatrix.length; track++) {
+            for (int spot = 0; spot < costMatrix[track].length; spot++) {
+                if (!Double.isNaN(costMatrix[track][spot])) {
+                    linkedTracks.add(track);
+                    linkedSpots.add(spot);
+                }
+            }
+        }
+
+        int nUnlinked = linkedTracks.size() + linkedSpots.size() - 2 * nLinks;
+        return linkCost + nLinks * minCost + nUnlinked * alternativeCost;
+
+    }
+
+    /**
+     * Creates 3x3 spots on a 40 px grid, each moving up to 1.5 px in X and Y
+     * every frame. Spots never come within the linking distance of another
+     * spot's track, so both trackers have only one possible set of links. A few spots are missing from some frames, so
+     * tracks both start and end part-way through. The same spots are created on
+     * every call.
+     */
+    static Objs createSpots() throws PointOutOfRangeException {
+        Objs spots = new Objs(SPOTS, SpatCal.getFromImage(createImage()), N_FRAMES, 1, TemporalUnit.getOMEUnit());
+        Random random = new Random(0);
+
+        int index = 0;
+        for (int gx = 0; gx < 6; gx++) {
+            for (int gy = 0; gy < 4; gy++) {
+                double x = 25 + gx * 40;
+                double y = 25 + gy * 40;
+                int firstFrame = index % 5 == 0 ? 3 : 0;
+                int lastFrame = index % 7 == 0 ? 4 : N_FRAMES - 1;
+                for (int t = 0; t < N_FRAMES; t++) {
+                    x += random.nextDouble() * 3 - 1.5;
+                    y += random.nextDouble() * 3 - 1.5;
+                    if (t < firstFrame || t > lastFrame)
+                        continue;
+
+                    Obj spot = spots.createAndAddNewObject(VolumeType.POINTLIST);
+                    spot.setT(t);
+                    for (int dy = -1; dy <= 1; dy++)
+                        for (int dx = -1; dx <= 1; dx++)
+                            spot.add((int) Math.round(x) + dx, (int) Math.round(y) + dy, 0);
+                }
+                index++;
+            }
+        }
+
+        return spots;
+
+    }
+
+    /**
+     * Returns the spot IDs in each track found by TrackObjects.
+     */
+    static Set<Set<Integer>> trackObjects(Objs spots) {
+        TrackObjects trackObjects = new TrackObjects(new Modules());
+        trackObjects.updateParameterValue(INPUT_OBJECTS, SPOTS);
+        trackObjects.updateParameterValue(OUTPUT_TRACKS, TRACKS);
+        trackObjects.updateParameterValue(LINKING_METHOD, "Centroid");
+        trackObjects.updateParameterValue(MAX_LINKING_DISTANCE, 10d);
+        trackObjects.updateParameterValue(MAX_MISSING_FRAMES, 0);
+        trackObjects.updateParameterValue(FRAME_GAP_WEIGHTING, 0d);
+        trackObjects.updateParameterValue(FAVOUR_ESTABLISHED, false);
+        trackObjects.updateParameterValue(USE_VOLUME, false);
+        trackObjects.updateParameterValue(DIRECTION_WEIGHTING_MODE, "None");
+
+        Workspace workspace = new Workspaces().getNewWorkspace(null, 1);
+        workspace.addObjects(spots);
+        assertEquals(Status.PASS, trackObjects.execute(workspace));
+
+        Set<Set<Integer>> tracks = new HashSet<>();
+        for (Obj track : workspace.getObjects(TRACKS).values()) {
+            Set<Integer> spotIDs = new HashSet<>();
+            for (Obj spot : track.getChildren(SPOTS).values())
+                spotIDs.add(spot.getID());
+            tracks.add(spotIDs);
+        }
+
+        return tracks;
+
+    }
+
+    /**
+     * Returns the spot IDs in each track found by IncrementalTracker.
+     */
+    static Set<Set<Integer>> track(Objs spots, IncrementalTracker.LinkingBackends backend) {
+        Set<Set<Integer>> tracks = new HashSet<>();
+        IncrementalTracker tracker = new IncrementalTracker(10, 0, false, backend, track -> {
+            Set<Integer> spotIDs = new HashSet<>();
+            for (int i = 0; i < track.size(); i++)
+                spotIDs.add(track.getSpotID(i));
+            tracks.add(spotIDs);
+        });
+
+        for (int t = 0; t < N_FRAMES; t++) {
+            List<Obj> frameSpots = new ArrayList<>();
+            for (Obj spot : spots.values())
+                if (spot.getT() == t)
+                    frameSpots.add(spot);
+
+            SubpixelPoints points = new SubpixelPoints(frameSpots.size(), spots);
+            int[] spotIDs = new int[frameSpots.size()];
+            for (int i = 0; i < frameSpots.size(); i++) {
+                points.setMeanCentroid(i, frameSpots.get(i));
+                spotIDs[i] = frameSpots.get(i).getID();
+            }
+            tracker.addFrame(t, points, spotIDs);
+        }
+        tracker.finishAll();
+
+        return tracks;
+
+    }
+
+    static Objs createLimits() {
+        return new Objs("Limits", SpatCal.getFromImage(createImage()), N_FRAMES, 1, TemporalUnit.getOMEUnit());
+    }
+
+    static ImagePlus createImage() {
+        return IJ.createImage("Limits", "8-bit black", WIDTH, HEIGHT, 1);
+    }
+}
@@ -0,0 +1,205 @@
+package io.github.mianalysis.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import io.github.mianalysis.mia.object.Measurement;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.coordinates.Point;
+import io.github.mianalysis.mia.object.coordinates.volume.PointOutOfRangeException;
+import io.github.mianalysis.mia.object.coordinates.volume.SpatCal;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+import ome.units.UNITS;
+
+public class ObjsSerialiserTest {
+    @Test
+    public void testRoundTrip() throws IOException, PointOutOfRangeException {
+        List<Objs> collections = createCollections();
+        List<Objs> restored = roundTrip(collections);
+
+        assertEquals(2, restored.size());
+        for (int i = 0; i < collections.size(); i++) {
+            Objs expected = collections.get(i);
+            Objs actual = restored.get(i);
+
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.getSpatialCalibration().width, actual.getSpatialCalibration().width);
+            assertEquals(expected.getSpatialCalibration().height, actual.getSpatialCalibration().height);
+            assertEquals(expected.getSpatialCalibration().nSlices, actual.getSpatialCalibration().nSlices);
+            assertEquals(expected.getSpatialCalibration().dppXY, actual.getSpatialCalibration().dppXY, 0);
+            assertEquals(expected.getSpatialCalibration().dppZ, actual.getSpatialCalibration().dppZ, 0);
+            assertEquals(expected.getSpatialCalibration().units, actual.getSpatialCalibration().units);
+            assertEquals(expected.getNFrames(), actual.getNFrames());
+            assertEquals(expected.getFrameInterval(), actual.getFrameInterval(), 0);
+            assertEquals(expected.getTemporalUnit().getSymbol(), actual.getTemporalUnit().getSymbol());
+
+            assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+            for (Obj expectedObj : expected.values()) {
+                Obj actualObj = actual.get(expectedObj.getID());
+                assertEquals(expectedObj.getT(), actualObj.getT());
+                assertEquals(expectedObj.getVolumeType(), actualObj.getVolumeType());
+                assertEquals(getCoordinates(expectedObj), getCoordinates(actualObj));
+
+                assertEquals(expectedObj.getMeasurements().keySet(), actualObj.getMeasurements().keySet());
+                for (Measurement measurement : expectedObj.getMeasurements().values())
+                    assertEquals(measurement.getValue(), actualObj.getMeasurement(measurement.getName()).getValue(), 0);
+            }
+        }
+
+        // Relationships are restored between the read objects
+        Objs nuclei = restored.get(0);
+        Objs spots = restored.get(1);
+        for (Obj spot : spots.values()) {
+            Obj parent = spot.getParent("Nuclei");
+            assertSame(nuclei.get(collections.get(1).get(spot.getID()).getParent("Nuclei").getID()), parent);
+            assertEquals(1, parent.getChildren("Spots").size());
+        }
+        Obj[] originals = collections.get(0).values().toArray(new Obj[0]);
+        Objs partners = nuclei.get(originals[0].getID()).getPartners("Nuclei");
+        assertEquals(1, partners.size());
+        assertEquals(originals[1].getID(), partners.values().iterator().next().getID());
+
+    }
+
+    @Test
+    public void testEmptyCollection() throws IOException {
+        Objs empty = new Objs("Empty", new SpatCal(1, 1, "px", 8, 8, 1), 1, 1, UNITS.SECOND);
+        List<Objs> restored = roundTrip(Arrays.asList(empty));
+
+        assertEquals(1, restored.size());
+        assertEquals("Empty", restored.get(0).getName());
+        assertEquals(0, restored.get(0).size());
+
+    }
+
+    @Test
+    public void testLinksToUnwrittenCollectionsDropped() throws IOException, PointOutOfRangeException {
+        List<Objs> collections = createCollections();
+        List<Objs> restored = roundTrip(Arrays.asList(collections.get(1)));
+
+        for (Obj spot : restored.get(0).values())
+            assertNull(spot.getParent("Nuclei"));
+
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedTemporalUnit() throws IOException {
+        Objs objects = new Objs("Objects", new SpatCal(1, 1, "px", 8, 8, 1), 1, 1, UNITS.PICOSECOND);
+        ObjsSerialiser.write(Arrays.asList(objects), new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void testTruncatedData() throws IOException, PointOutOfRangeException {
+        byte[] bytes = write(createCollections());
+
+        // Every truncation point should be reported as an IOException rather than a
+        // runtime exception
+        for (int length = 0; length < bytes.length; length += 7) {
+            try {
+                ObjsSerialiser.read(ByteBuffer.wrap(Arrays.copyOf(bytes, length)));
+                fail("No exception reading " + length + " of " + bytes.length + " bytes");
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testWrongMagic() throws IOException, PointOutOfRangeException {
+        byte[] bytes = write(createCollections());
+        bytes[0] ^= 1;
+        ObjsSerialiser.read(ByteBuffer.wrap(bytes));
+    }
+
+    @Test
+    public void testPack() {
+        long packed = ObjsSerialiser.pack(5, ObjsSerialiser.MAX_DIMENSION - 1, 3);
+        assertEquals(5, ObjsSerialiser.unpackX(packed));
+        assertEquals(ObjsSerialiser.MAX_DIMENSION - 1, ObjsSerialiser.unpackY(packed));
+        assertEquals(3, ObjsSerialiser.unpackZ(packed));
+        assertEquals(packed + 1, ObjsSerialiser.pack(6, ObjsSerialiser.MAX_DIMENSION - 1, 3));
+
+    }
+
+    /**
+     * Creates a "Nuclei" collection of solid and hollow shapes over several
+     * frames, and a "Spots" collection with one child spot per nucleus. The first
+     * two nuclei are partners.
+     */
+    static List<Objs> createCollections() throws PointOutOfRangeException {
+        SpatCal cal = new SpatCal(0.25, 1.5, "µm", 40, 30, 4);
+        Objs nuclei = new Objs("Nuclei", cal, 3, 2.5, UNITS.MINUTE);
+        Objs spots = new Objs("Spots", cal, 3, 2.5, UNITS.MINUTE);
+
+        VolumeType[] volumeTypes = new VolumeType[] { VolumeType.POINTLIST, VolumeType.QUADTREE, VolumeType.OCTREE };
+        for (int i = 0; i < 3; i++) {
+            Obj nucleus = nuclei.createAndAddNewObject(volumeTypes[i]);
+            nucleus.setT(i);
+
+            // A filled square in two slices, with a hole, so runs break mid-row
+            int x0 = 2 + 12 * i;
+            for (int z = 1; z <= 2; z++)
+                for (int y = 3; y < 10; y++)
+                    for (int x = x0; x < x0 + 8; x++)
+                        if (!(x == x0 + 4 && y == 6))
+                            nucleus.add(x, y, z);
+
+            nucleus.addMeasurement(new Measurement("Volume", nucleus.size()));
+            nucleus.addMeasurement(new Measurement("Intensity µ", 0.1 * i - 5));
+
+            Obj spot = spots.createAndAddNewObject(VolumeType.POINTLIST);
+            spot.setT(i);
+            spot.add(x0 + 1, 4, 1);
+            spot.addMeasurement(new Measurement("Distance", Math.PI * i));
+            spot.addParent(nucleus);
+            nucleus.addChild(spot);
+
+        }
+
+        Obj[] ordered = nuclei.values().toArray(new Obj[0]);
+        Obj first = ordered[0];
+        Obj second = ordered[1];
+        first.addPartner(second);
+        second.addPartner(first);
+
+        List<Objs> collections = new ArrayList<>();
+        collections.add(nuclei);
+        collections.add(spots);
+
+        return collections;
+
+    }
+
+    static Set<List<Integer>> getCoordinates(Obj obj) {
+        Set<List<Integer>> coordinates = new HashSet<>();
+        for (Point<Integer> point : obj.getCoordinateSet())
+            coordinates.add(Arrays.asList(point.x, point.y, point.z));
+
+        return coordinates;
+
+    }
+
+    private static byte[] write(List<Objs> collections) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ObjsSerialiser.write(collections, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static List<Objs> roundTrip(List<Objs> collections) throws IOException {
+        return ObjsSerialiser.read(ByteBuffer.wrap(write(collections)));
+    }
+}
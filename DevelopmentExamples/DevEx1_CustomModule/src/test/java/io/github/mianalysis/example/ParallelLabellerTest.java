@@ -0,0 +1,193 @@
+package io.github.mianalysis.example;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import io.github.mianalysis.mia.module.Modules;
+import io.github.mianalysis.mia.module.objects.detect.IdentifyObjects;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.Workspaces;
+import io.github.mianalysis.mia.object.coordinates.volume.SpatCal;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+import io.github.mianalysis.mia.object.image.ImageFactory;
+import io.github.mianalysis.mia.object.system.Status;
+import io.github.mianalysis.mia.object.units.TemporalUnit;
+
+/**
+ * Compares {@link ParallelLabeller} with MIA's IdentifyObjects module (set up as
+ * in Ex1_NucleiSegmentation.mia) on random binary stacks. Random noise gives
+ * many objects which only touch diagonally, so differences in connectivity
+ * show up as different objects.
+ */
+public class ParallelLabellerTest {
+    // Parameter names and values, as stored in the Ex1 workflow file
+    static final String INPUT_IMAGE = "Input image";
+    static final String OUTPUT_OBJECTS = "Output objects";
+    static final String BINARY_LOGIC = "Binary logic";
+    static final String DETECTION_MODE = "Detection mode";
+    static final String SINGLE_OBJECT = "Identify as single object";
+    static final String CONNECTIVITY = "Connectivity";
+    static final String VOLUME_TYPE = "Volume type";
+    static final String ENABLE_MULTITHREADING = "Enable multithreading";
+
+    static final String BINARY = "Binary";
+    static final String OBJECTS = "Objects";
+
+    @Test
+    public void testMatchesIdentifyObjectsFullConnectivity() throws InterruptedException, ExecutionException {
+        ImagePlus binary = createBinary(40, 30, 5, 0.3, 0);
+        assertEquals(identifyObjects(binary, "26"), label(binary, true, 4, VolumeType.QUADTREE));
+    }
+
+    @Test
+    public void testMatchesIdentifyObjectsFaceConnectivity() throws InterruptedException, ExecutionException {
+        ImagePlus binary = createBinary(40, 30, 5, 0.4, 1);
+        assertEquals(identifyObjects(binary, "6"), label(binary, false, 4, VolumeType.QUADTREE));
+    }
+
+    @Test
+    public void testMatchesIdentifyObjectsSingleSlice() throws InterruptedException, ExecutionException {
+        ImagePlus binary = createBinary(64, 48, 1, 0.45, 2);
+        assertEquals(identifyObjects(binary, "26"), label(binary, true, 4, VolumeType.QUADTREE));
+        assertEquals(identifyObjects(binary, "6"), label(binary, false, 4, VolumeType.QUADTREE));
+    }
+
+    @Test
+    public void testAdaptiveObjects() throws InterruptedException, ExecutionException {
+        ImagePlus binary = createBinary(40, 30, 5, 0.3, 3);
+        assertEquals(label(binary, true, 1, VolumeType.POINTLIST), label(binary, true, 1, null));
+    }
+
+    @Test
+    public void testIndependentOfThreads() throws InterruptedException, ExecutionException {
+        // A tall stack, so slabs on different threads share many objects
+        ImagePlus binary = createBinary(20, 200, 3, 0.35, 4);
+        ParallelLabeller serial = ParallelLabeller.label(binary, 0, true, 1);
+        ParallelLabeller parallel = ParallelLabeller.label(binary, 0, true, 8);
+
+        assertEquals(serial.getNLabels(), parallel.getNLabels());
+        assertEquals(serial.getNRuns(), parallel.getNRuns());
+        assertArrayEquals(serial.getSizes(), parallel.getSizes());
+
+        // Labels follow raster order, so objects with the same ID have the same
+        // coordinates
+        Objs serialObjects = createObjects(binary);
+        Objs parallelObjects = createObjects(binary);
+        serial.addObjects(serialObjects, VolumeType.POINTLIST, 0, 1);
+        parallel.addObjects(parallelObjects, VolumeType.POINTLIST, 0, 8);
+        for (Obj obj : serialObjects.values())
+            assertEquals(ObjsSerialiserTest.getCoordinates(obj),
+                    ObjsSerialiserTest.getCoordinates(parallelObjects.get(obj.getID())));
+
+    }
+
+    @Test
+    public void testSizes() throws InterruptedException, ExecutionException {
+        ImagePlus binary = createBinary(40, 30, 5, 0.3, 5);
+        ParallelLabeller labeller = ParallelLabeller.label(binary, 0, true, 4);
+        Objs objects = createObjects(binary);
+        labeller.addObjects(objects, VolumeType.POINTLIST, 0, 4);
+
+        int[] sizes = labeller.getSizes();
+        assertEquals(labeller.getNLabels() + 1, sizes.length);
+        for (Obj obj : objects.values())
+            assertEquals(sizes[obj.getID()], obj.size());
+
+    }
+
+    @Test
+    public void testTimepoint() throws InterruptedException, ExecutionException {
+        ImagePlus binary = IJ.createImage(BINARY, "8-bit black", 8, 8, 1, 2, 3);
+        ImageStack stack = binary.getStack();
+        ((byte[]) stack.getPixels(binary.getStackIndex(1, 2, 2)))[9] = (byte) 255;
+
+        assertEquals(0, ParallelLabeller.label(binary, 0, true, 1).getNLabels());
+        ParallelLabeller labeller = ParallelLabeller.label(binary, 1, true, 1);
+        assertEquals(1, labeller.getNLabels());
+
+        Objs objects = createObjects(binary);
+        labeller.addObjects(objects, VolumeType.POINTLIST, 1, 1);
+        Obj obj = objects.values().iterator().next();
+        assertEquals(1, obj.getT());
+        assertEquals(1, obj.getCoordinateSet().iterator().next().x.intValue());
+        assertEquals(1, obj.getCoordinateSet().iterator().next().z.intValue());
+
+    }
+
+    /**
+     * Returns the coordinates of each object found by IdentifyObjects.
+     */
+    static Set<Set<List<Integer>>> identifyObjects(ImagePlus binary, String connectivity) {
+        IdentifyObjects identifyObjects = new IdentifyObjects(new Modules());
+        identifyObjects.updateParameterValue(INPUT_IMAGE, BINARY);
+        identifyObjects.updateParameterValue(OUTPUT_OBJECTS, OBJECTS);
+        identifyObjects.updateParameterValue(BINARY_LOGIC, "Black (0) background");
+        identifyObjects.updateParameterValue(DETECTION_MODE, "3D");
+        identifyObjects.updateParameterValue(SINGLE_OBJECT, false);
+        identifyObjects.updateParameterValue(CONNECTIVITY, connectivity);
+        identifyObjects.updateParameterValue(VOLUME_TYPE, "Quadtree");
+        identifyObjects.updateParameterValue(ENABLE_MULTITHREADING, false);
+
+        Workspace workspace = new Workspaces().getNewWorkspace(null, 1);
+        workspace.addImage(ImageFactory.createImage(BINARY, binary.duplicate()));
+        assertEquals(Status.PASS, identifyObjects.execute(workspace));
+
+        return getCoordinates(workspace.getObjects(OBJECTS));
+
+    }
+
+    /**
+     * Returns the coordinates of each object found by ParallelLabeller.
+     */
+    static Set<Set<List<Integer>>> label(ImagePlus binary, boolean fullConnectivity, int nThreads,
+            VolumeType volumeType) throws InterruptedException, ExecutionException {
+        Objs objects = createObjects(binary);
+        ParallelLabeller.label(binary, 0, fullConnectivity, nThreads).addObjects(objects, volumeType, 0, nThreads);
+        return getCoordinates(objects);
+    }
+
+    static Set<Set<List<Integer>>> getCoordinates(Objs objects) {
+        Set<Set<List<Integer>>> coordinates = new HashSet<>();
+        for (Obj obj : objects.values())
+            coordinates.add(ObjsSerialiserTest.getCoordinates(obj));
+
+        return coordinates;
+
+    }
+
+    static Objs createObjects(ImagePlus binary) {
+        return new Objs(OBJECTS, SpatCal.getFromImage(binary), binary.getNFrames(), 1, TemporalUnit.getOMEUnit());
+    }
+
+    /**
+     * Creates an 8-bit stack with each pixel set to 255 with the given
+     * probability.
+     */
+    static ImagePlus createBinary(int width, int height, int nSlices, double density, long seed) {
+        ImagePlus binary = IJ.createImage(BINARY, "8-bit black", width, height, nSlices);
+        ImageStack stack = binary.getStack();
+        Random random = new Random(seed);
+        for (int z = 1; z <= nSlices; z++) {
+            byte[] pixels = (byte[]) stack.getPixels(z);
+            for (int i = 0; i < pixels.length; i++)
+                if (random.nextDouble() < density)
+                    pixels[i] = (byte) 255;
+        }
+
+        return binary;
+
+    }
+}
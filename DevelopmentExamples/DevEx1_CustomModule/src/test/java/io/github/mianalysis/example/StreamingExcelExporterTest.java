@@ -0,0 +1,190 @@
+package io.github.mianalysis.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.github.mianalysis.mia.module.Modules;
+import io.github.mianalysis.mia.object.Measurement;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.Workspaces;
+import io.github.mianalysis.mia.object.coordinates.volume.SpatCal;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+import io.github.mianalysis.mia.object.units.TemporalUnit;
+
+/**
+ * Exports small workspaces with {@link StreamingExcelExporter} and reads the
+ * workbook back with POI.
+ */
+public class StreamingExcelExporterTest {
+    static final String NUCLEI = "Nuclei";
+    static final String CENTROIDS = "Centroids";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testColumnsFromWorkflow() throws IOException {
+        Modules modules = new Modules();
+        ExampleModule exampleModule = new ExampleModule(modules);
+        exampleModule.updateParameterValue(ExampleModule.INPUT_OBJECTS, NUCLEI);
+        exampleModule.updateParameterValue(ExampleModule.OUTPUT_OBJECTS, CENTROIDS);
+        modules.add(exampleModule);
+
+        // The first centroid has no intensity, but the workflow declares it, so it
+        // still gets a column
+        Workspace workspace = new Workspaces().getNewWorkspace(null, 1);
+        Objs nuclei = createObjects(NUCLEI, 2);
+        Objs centroids = createObjects(CENTROIDS, 2);
+        Obj[] nucleusArray = nuclei.values().toArray(new Obj[0]);
+        Obj[] centroidArray = centroids.values().toArray(new Obj[0]);
+        for (int i = 0; i < 2; i++) {
+            centroidArray[i].addParent(nucleusArray[i]);
+            nucleusArray[i].addChild(centroidArray[i]);
+            centroidArray[i].addMeasurement(new Measurement(ExampleModule.Measurements.CENTROID_X_PX, i + 0.5));
+        }
+        centroidArray[1].addMeasurement(new Measurement(ExampleModule.Measurements.INTENSITY, 42));
+        workspace.addObjects(nuclei);
+        workspace.addObjects(centroids);
+
+        File file = temporaryFolder.newFile("export.xlsx");
+        try (StreamingExcelExporter exporter = new StreamingExcelExporter(file, modules)) {
+            exporter.export(workspace, "input.tif");
+            assertEquals(4, exporter.getNRows());
+        }
+
+        try (XSSFWorkbook workbook = read(file)) {
+            Sheet sheet = workbook.getSheet(CENTROIDS);
+            assertNotNull(sheet);
+
+            List<String> header = getHeader(sheet);
+            assertEquals("OBJECT_ID", header.get(2));
+            assertEquals(header.indexOf(ExampleModule.Measurements.INTENSITY),
+                    header.lastIndexOf(ExampleModule.Measurements.INTENSITY));
+            for (String name : new String[] { ExampleModule.Measurements.INTENSITY,
+                    ExampleModule.Measurements.CENTROID_X_PX, ExampleModule.Measurements.CENTROID_Y_PX,
+                    ExampleModule.Measurements.CENTROID_Z_SLICE, "PARENT_" + NUCLEI + "_ID" })
+                assertNotEquals(name, -1, header.indexOf(name));
+
+            int intensityColumn = header.indexOf(ExampleModule.Measurements.INTENSITY);
+            int xColumn = header.indexOf(ExampleModule.Measurements.CENTROID_X_PX);
+            int parentColumn = header.indexOf("PARENT_" + NUCLEI + "_ID");
+
+            Row first = sheet.getRow(1);
+            assertEquals("input.tif", first.getCell(1).getStringCellValue());
+            assertEquals(centroidArray[0].getID(), first.getCell(2).getNumericCellValue(), 0);
+            assertNull(first.getCell(intensityColumn));
+            assertEquals(0.5, first.getCell(xColumn).getNumericCellValue(), 0);
+            assertEquals(nucleusArray[0].getID(), first.getCell(parentColumn).getNumericCellValue(), 0);
+
+            Row second = sheet.getRow(2);
+            assertEquals(42, second.getCell(intensityColumn).getNumericCellValue(), 0);
+            assertEquals(1.5, second.getCell(xColumn).getNumericCellValue(), 0);
+            assertEquals(nucleusArray[1].getID(), second.getCell(parentColumn).getNumericCellValue(), 0);
+
+            assertNotNull(workbook.getSheet(NUCLEI));
+        }
+    }
+
+    @Test
+    public void testUndeclaredMeasurementsSkipped() throws IOException {
+        // Without a workflow, columns come from the first object only
+        Objs objects = createObjects(NUCLEI, 2);
+        Obj[] objArray = objects.values().toArray(new Obj[0]);
+        objArray[0].addMeasurement(new Measurement("Area", 10));
+        objArray[1].addMeasurement(new Measurement("Area", 20));
+        objArray[1].addMeasurement(new Measurement("Perimeter", 5));
+
+        Workspace workspace = new Workspaces().getNewWorkspace(null, 1);
+        workspace.addObjects(objects);
+
+        File file = temporaryFolder.newFile("export.xlsx");
+        try (StreamingExcelExporter exporter = new StreamingExcelExporter(file)) {
+            exporter.export(workspace, "input.tif");
+        }
+
+        try (XSSFWorkbook workbook = read(file)) {
+            Sheet sheet = workbook.getSheet(NUCLEI);
+            List<String> header = getHeader(sheet);
+            assertEquals(5, header.size());
+            assertEquals("Area", header.get(4));
+            assertEquals(20, sheet.getRow(2).getCell(4).getNumericCellValue(), 0);
+            assertEquals(5, sheet.getRow(2).getLastCellNum());
+        }
+    }
+
+    @Test
+    public void testLongSheetNames() throws IOException {
+        String prefix = "Objects with a very long collection name";
+        Workspace workspace = new Workspaces().getNewWorkspace(null, 1);
+        workspace.addObjects(createObjects(prefix + " A", 1));
+        workspace.addObjects(createObjects(prefix + " B", 1));
+        workspace.addObjects(createObjects(prefix.toUpperCase() + " C", 1));
+        workspace.addObjects(createObjects("Name/with:invalid*characters", 1));
+
+        File file = temporaryFolder.newFile("export.xlsx");
+        try (StreamingExcelExporter exporter = new StreamingExcelExporter(file)) {
+            exporter.export(workspace, "input.tif");
+        }
+
+        try (XSSFWorkbook workbook = read(file)) {
+            assertEquals(4, workbook.getNumberOfSheets());
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
+                String name = workbook.getSheetName(i);
+                assertTrue(name, name.length() <= 31);
+                for (String existing : names)
+                    assertFalse(name, existing.equalsIgnoreCase(name));
+                names.add(name);
+            }
+
+            assertEquals(prefix.substring(0, 31), names.get(0));
+            assertEquals(prefix.substring(0, 27) + " (2)", names.get(1));
+            assertEquals(prefix.substring(0, 27).toUpperCase() + " (3)", names.get(2));
+            assertEquals(-1, names.get(3).indexOf('/'));
+        }
+    }
+
+    static XSSFWorkbook read(File file) throws IOException {
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            return new XSSFWorkbook(inputStream);
+        }
+    }
+
+    static List<String> getHeader(Sheet sheet) {
+        List<String> header = new ArrayList<>();
+        for (Cell cell : sheet.getRow(0))
+            header.add(cell.getStringCellValue());
+
+        return header;
+
+    }
+
+    static Objs createObjects(String name, int nObjects) {
+        Objs objects = new Objs(name, new SpatCal(1, 1, "px", 10, 10, 1), 1, 1, TemporalUnit.getOMEUnit());
+        for (int i = 0; i < nObjects; i++)
+            objects.createAndAddNewObject(VolumeType.POINTLIST).setT(0);
+
+        return objects;
+
+    }
+}
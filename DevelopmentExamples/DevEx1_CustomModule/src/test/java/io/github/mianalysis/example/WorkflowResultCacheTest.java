@@ -0,0 +1,184 @@
+package io.github.mianalysis.example;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import io.github.mianalysis.mia.module.Modules;
+import io.github.mianalysis.mia.object.Obj;
+import io.github.mianalysis.mia.object.Objs;
+import io.github.mianalysis.mia.object.Workspace;
+import io.github.mianalysis.mia.object.Workspaces;
+import io.github.mianalysis.mia.object.coordinates.volume.PointOutOfRangeException;
+import io.github.mianalysis.mia.object.coordinates.volume.SpatCal;
+import io.github.mianalysis.mia.object.coordinates.volume.VolumeType;
+import io.github.mianalysis.mia.object.image.ImageFactory;
+import io.github.mianalysis.mia.object.units.TemporalUnit;
+
+/**
+ * Runs a single {@link ExampleModule} workflow through a
+ * {@link WorkflowResultCache}, checking when the module is run and when its
+ * results are restored.
+ */
+public class WorkflowResultCacheTest {
+    static final String RAW = "Raw";
+    static final String NUCLEI = "Nuclei";
+    static final String OVERLAY = "Overlay";
+    static final String CENTROIDS = "Centroids";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Modules modules;
+    private ExampleModule exampleModule;
+
+    @Before
+    public void setup() {
+        modules = new Modules();
+        exampleModule = new ExampleModule(modules);
+        exampleModule.updateParameterValue(ExampleModule.INPUT_IMAGE, RAW);
+        exampleModule.updateParameterValue(ExampleModule.INPUT_OBJECTS, NUCLEI);
+        exampleModule.updateParameterValue(ExampleModule.OUTPUT_IMAGE, OVERLAY);
+        exampleModule.updateParameterValue(ExampleModule.OUTPUT_OBJECTS, CENTROIDS);
+        exampleModule.updateParameterValue(ExampleModule.OVERLAY_MODE, ExampleModule.OverlayModes.OUTLINES);
+        modules.add(exampleModule);
+    }
+
+    @Test
+    public void testMissThenHit() throws IOException, PointOutOfRangeException {
+        WorkflowResultCache cache = new WorkflowResultCache(temporaryFolder.newFolder(), Long.MAX_VALUE);
+
+        Workspace first = createWorkspace();
+        assertTrue(cache.execute(modules, first));
+        assertEquals(1, cache.getNRun());
+        assertEquals(0, cache.getNRestored());
+        assertTrue(cache.getTotalBytes() > 0);
+
+        Workspace second = createWorkspace();
+        assertTrue(cache.execute(modules, second));
+        assertEquals(1, cache.getNRun());
+        assertEquals(1, cache.getNRestored());
+
+        // The restored centroids match the ones created by the module, including
+        // their links to the restored nuclei
+        Objs expected = first.getObjects(CENTROIDS);
+        Objs actual = second.getObjects(CENTROIDS);
+        assertEquals(expected.size(), actual.size());
+        for (Obj expectedObj : expected.values()) {
+            Obj actualObj = actual.get(expectedObj.getID());
+            for (String name : new String[] { ExampleModule.Measurements.INTENSITY,
+                    ExampleModule.Measurements.CENTROID_X_PX, ExampleModule.Measurements.CENTROID_Y_PX })
+                assertEquals(expectedObj.getMeasurement(name).getValue(), actualObj.getMeasurement(name).getValue(),
+                        0);
+            assertEquals(expectedObj.getParent(NUCLEI).getID(), actualObj.getParent(NUCLEI).getID());
+        }
+
+        // As are the overlay image's pixels and overlay
+        ImagePlus expectedIpl = first.getImage(OVERLAY).getImagePlus();
+        ImagePlus actualIpl = second.getImage(OVERLAY).getImagePlus();
+        assertArrayEquals((byte[]) expectedIpl.getProcessor().getPixels(),
+                (byte[]) actualIpl.getProcessor().getPixels());
+        assertNotNull(actualIpl.getOverlay());
+        assertEquals(expectedIpl.getOverlay().size(), actualIpl.getOverlay().size());
+
+    }
+
+    @Test
+    public void testChangedParameter() throws IOException, PointOutOfRangeException {
+        WorkflowResultCache cache = new WorkflowResultCache(temporaryFolder.newFolder(), Long.MAX_VALUE);
+        assertTrue(cache.execute(modules, createWorkspace()));
+
+        exampleModule.updateParameterValue(ExampleModule.OVERLAY_MODE, ExampleModule.OverlayModes.FILL);
+        assertTrue(cache.execute(modules, createWorkspace()));
+        assertEquals(2, cache.getNRun());
+        assertEquals(0, cache.getNRestored());
+
+        // Both settings are now cached
+        exampleModule.updateParameterValue(ExampleModule.OVERLAY_MODE, ExampleModule.OverlayModes.OUTLINES);
+        assertTrue(cache.execute(modules, createWorkspace()));
+        assertEquals(2, cache.getNRun());
+        assertEquals(1, cache.getNRestored());
+
+    }
+
+    @Test
+    public void testCorruptEntry() throws IOException, PointOutOfRangeException {
+        File folder = temporaryFolder.newFolder();
+        assertTrue(new WorkflowResultCache(folder, Long.MAX_VALUE).execute(modules, createWorkspace()));
+
+        // Truncating the stored objects means the entry can't be restored, so the
+        // module is run again
+        File[] entryFolders = folder.listFiles(File::isDirectory);
+        assertEquals(1, entryFolders.length);
+        try (FileOutputStream outputStream = new FileOutputStream(new File(entryFolders[0], "objects.dat"))) {
+            outputStream.write(new byte[] { 0x4D, 0x49, 0x41 });
+        }
+
+        WorkflowResultCache cache = new WorkflowResultCache(folder, Long.MAX_VALUE);
+        Workspace workspace = createWorkspace();
+        assertTrue(cache.execute(modules, workspace));
+        assertEquals(1, cache.getNRun());
+        assertEquals(0, cache.getNRestored());
+        assertEquals(4, workspace.getObjects(CENTROIDS).size());
+
+        // The entry was replaced, so it's restored next time
+        assertTrue(cache.execute(modules, createWorkspace()));
+        assertEquals(1, cache.getNRun());
+        assertEquals(1, cache.getNRestored());
+
+    }
+
+    @Test
+    public void testEviction() throws IOException, PointOutOfRangeException {
+        WorkflowResultCache cache = new WorkflowResultCache(temporaryFolder.newFolder(), 1);
+        assertTrue(cache.execute(modules, createWorkspace()));
+        assertEquals(0, cache.getTotalBytes());
+
+        assertTrue(cache.execute(modules, createWorkspace()));
+        assertEquals(2, cache.getNRun());
+        assertEquals(0, cache.getNRestored());
+
+    }
+
+    /**
+     * Creates a workspace with a gradient image and four square nuclei.
+     */
+    static Workspace createWorkspace() throws PointOutOfRangeException {
+        Workspace workspace = new Workspaces().getNewWorkspace(null, 1);
+
+        ImagePlus ipl = IJ.createImage(RAW, "8-bit black", 40, 40, 1);
+        ImageProcessor ip = ipl.getProcessor();
+        for (int y = 0; y < 40; y++)
+            for (int x = 0; x < 40; x++)
+                ip.set(x, y, x + 2 * y);
+        workspace.addImage(ImageFactory.createImage(RAW, ipl));
+
+        Objs nuclei = new Objs(NUCLEI, SpatCal.getFromImage(ipl), 1, 1, TemporalUnit.getOMEUnit());
+        for (int i = 0; i < 4; i++) {
+            Obj nucleus = nuclei.createAndAddNewObject(VolumeType.QUADTREE);
+            nucleus.setT(0);
+            int x0 = 4 + (i % 2) * 20;
+            int y0 = 4 + (i / 2) * 20;
+            for (int y = y0; y < y0 + 10; y++)
+                for (int x = x0; x < x0 + 10 + i; x++)
+                    nucleus.add(x, y, 0);
+        }
+        workspace.addObjects(nuclei);
+
+        return workspace;
+
+    }
+}